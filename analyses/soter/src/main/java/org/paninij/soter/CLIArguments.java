@@ -28,6 +28,9 @@ package org.paninij.soter;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.paninij.soter.cga.AnalysisBudget;
+import org.paninij.soter.cga.CallGraphPrecision;
+
 import com.beust.jcommander.Parameter;
 
 public class CLIArguments
@@ -63,6 +66,31 @@ public class CLIArguments
     private static final String NO_INSTRUMENT_DESCRIPTION =
             "Set this flag to disable class file instrumentation (which is enabled by default).";
 
+    private static final String WORKERS_DESCRIPTION =
+            "The number of capsules to analyze and instrument concurrently. Defaults to 1, since "
+            + "each worker builds a class hierarchy of its own, and so needs as much memory again.";
+
+    private static final String CACHE_DIRECTORY_DESCRIPTION =
+            "The path to a directory in which to cache the results of analyzing and instrumenting "
+            + "each capsule, so that later runs can reuse them for every capsule which neither "
+            + "changed nor depends on a class which changed. The directory may be shared between "
+            + "concurrent builds. If this option is not set, then no results are cached.";
+
+    private static final String PRECISION_DESCRIPTION =
+            "The precision at which to build each capsule's call graph: one of `CHA`, `ZERO_CFA`, "
+            + "`ZERO_ONE_CFA`, or `RECEIVER_SENSITIVE` (the default). At `CHA`, no transfer can be "
+            + "proven safe, so every transfer site is checked dynamically.";
+
+    private static final String TIME_BUDGET_DESCRIPTION =
+            "The number of seconds which building a capsule's call graph at some precision may take "
+            + "before it is abandoned for the next cheaper precision. If this option is not set "
+            + "(or is 0), then the time is not bounded.";
+
+    private static final String MEMORY_BUDGET_DESCRIPTION =
+            "The number of megabytes which building a capsule's call graph at some precision may "
+            + "allocate before it is abandoned for the next cheaper precision. If this option is "
+            + "not set (or is 0), then the memory is not bounded.";
+
     private static final String CAPSULE_TEMPLATES_DESCRIPTION =
             "A sequence of fully qualified capsule cores (e.g. `com.example.foo.FooCore`) "
             + "to be analyzed and instrumented.";
@@ -91,6 +119,29 @@ public class CLIArguments
     @Parameter(names = "-noInstrument", description = NO_INSTRUMENT_DESCRIPTION)
     public Boolean noInstrument = false;
     
+    @Parameter(names = "-workers", description = WORKERS_DESCRIPTION)
+    public Integer workers = 1;
+
+    @Parameter(names = "-cacheDirectory", description = CACHE_DIRECTORY_DESCRIPTION)
+    public String cacheDirectory;
+
+    /**
+     * @return The budget for each attempt to build a capsule's call graph.
+     */
+    public AnalysisBudget makeAnalysisBudget()
+    {
+        return new AnalysisBudget(timeBudget * 1000L, memoryBudget * 1024L * 1024L);
+    }
+
+    @Parameter(names = "-precision", description = PRECISION_DESCRIPTION)
+    public CallGraphPrecision precision = CallGraphPrecision.RECEIVER_SENSITIVE;
+
+    @Parameter(names = "-timeBudget", description = TIME_BUDGET_DESCRIPTION)
+    public Integer timeBudget = 0;
+
+    @Parameter(names = "-memoryBudget", description = MEMORY_BUDGET_DESCRIPTION)
+    public Integer memoryBudget = 0;
+
     @Parameter(description = CAPSULE_TEMPLATES_DESCRIPTION)
     public List<String> capsules = new ArrayList<>();
 }
@@ -34,14 +34,31 @@ import static org.paninij.soter.util.Log.warning;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
 
 import org.paninij.soter.SoterAnalysis;
+import org.paninij.soter.cache.SoterCache;
+import org.paninij.soter.cache.SoterCacheKeyFactory;
 import org.paninij.soter.instrument.SoterInstrumenter;
 import org.paninij.soter.instrument.SoterInstrumenterFactory;
+import org.paninij.soter.model.CapsuleCore;
+import org.paninij.soter.util.AnalysisJsonResultsCreator;
 import org.paninij.soter.util.Log;
 import org.paninij.soter.util.WalaUtil;
 
@@ -51,15 +68,66 @@ import com.beust.jcommander.JCommander;
 /**
  * This class defines a simple executable which analyzes capsule cores using the SOTER analysis
  * and instruments them accordingly.
+ *
+ * Capsules are independent of one another, so they can be analyzed concurrently by a pool of
+ * `-workers` threads. Each of these threads builds a class hierarchy of its own (see `Analyzer`).
+ * Every capsule writes its own reports and its own instrumented class file, and anything aggregated
+ * across capsules (i.e. failures and the combined report) follows the order in which the capsules
+ * were given, so the output does not depend on how the capsules were scheduled.
  */
 public class Main
 {
+    /**
+     * The name of the file, among the `SoterAnalysis` reports, which holds the results of every
+     * capsule (as a JSON array, in the order in which the capsules were given).
+     */
+    public static final String COMBINED_REPORT_FILE_NAME = "all.json";
+
     protected final String classpath;
     protected final CLIArguments cliArguments;
-    protected final SoterAnalysisFactory soterAnalysisFactory;
     protected final SoterInstrumenterFactory soterInstrumenterFactory;
+    protected final SoterCache soterCache;  // `null` unless results are to be cached.
+
+    /**
+     * The analyzer built by the constructor (so that a bad class path is reported up front), until
+     * the first thread to analyze a capsule takes it.
+     */
+    private final AtomicReference<Analyzer> firstAnalyzer = new AtomicReference<Analyzer>();
+
+    private final ThreadLocal<Analyzer> analyzers = new ThreadLocal<Analyzer>() {
+        @Override
+        protected Analyzer initialValue() {
+            Analyzer first = firstAnalyzer.getAndSet(null);
+            return (first != null) ? first : new Analyzer();
+        }
+    };
+
+    /**
+     * The factories with which one thread analyzes capsules. Each thread has a class hierarchy of
+     * its own, since WALA's classes lazily cache some lookups (e.g. failed method lookups, in
+     * `BytecodeClass.inheritCache`) in unsynchronized maps while capsules are being analyzed.
+     */
+    protected class Analyzer
+    {
+        protected final SoterAnalysisFactory soterAnalysisFactory;
+        protected final SoterCacheKeyFactory soterCacheKeyFactory;  // `null` unless caching.
+
+        protected Analyzer()
+        {
+            soterAnalysisFactory = new SoterAnalysisFactory(classpath, cliArguments.precision,
+                                                            cliArguments.makeAnalysisBudget());
+            if (soterCache != null) {
+                String settings = "precision=" + cliArguments.precision
+                                + ",budget=" + cliArguments.makeAnalysisBudget();
+                soterCacheKeyFactory = new SoterCacheKeyFactory(
+                        soterAnalysisFactory.getClassHierarchy(), settings);
+            } else {
+                soterCacheKeyFactory = null;
+            }
+        }
+    }
     
-    protected Main(CLIArguments cliArguments)
+    protected Main(CLIArguments cliArguments) throws IOException
     {
         // Note that instantiation of the analysis factory needs to happen after the artifacts have
         // been compiled so that the bytecode for those artifacts will be found by the CHA.
@@ -70,19 +138,117 @@ public class Main
 
         classpath = makeEffectiveClassPath(cliArguments.classPath, cliArguments.classPathFile);
         note("Effective class path: " + classpath);
-        soterAnalysisFactory = new SoterAnalysisFactory(classpath);
         soterInstrumenterFactory = new SoterInstrumenterFactory(cliArguments.classOutput);
+
+        // The graph PDFs can only be made from a fresh analysis, so they disable the cache.
+        if (cliArguments.cacheDirectory != null && cliArguments.callGraphPDFs == null
+                                                && cliArguments.heapGraphPDFs == null) {
+            soterCache = new SoterCache(Paths.get(cliArguments.cacheDirectory));
+        } else {
+            soterCache = null;
+        }
+        firstAnalyzer.set(new Analyzer());
     }
    
+    /**
+     * Analyzes and instruments all of the given capsules on a pool of `-workers` threads. Once
+     * every capsule is done, the combined report (if any) is logged, and then the exception of the
+     * first capsule (in the given order) which failed, if any, is rethrown.
+     */
+    public void analyzeAndInstrumentAll(List<String> qualifiedCapsuleNames) throws IOException,
+                                                                                   InterruptedException
+    {
+        int workers = Math.max(1, Math.min(cliArguments.workers, qualifiedCapsuleNames.size()));
+        note("Analyzing " + qualifiedCapsuleNames.size() + " capsules with " + workers + " workers.");
+
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        List<Future<JsonObject>> results = new ArrayList<Future<JsonObject>>();
+        try
+        {
+            for (final String capsule : qualifiedCapsuleNames)
+            {
+                results.add(pool.submit(new Callable<JsonObject>() {
+                    @Override
+                    public JsonObject call() throws Exception {
+                        return analyzeAndInstrument(capsule);
+                    }
+                }));
+            }
+
+            Throwable failure = null;
+            JsonArrayBuilder combined = Json.createArrayBuilder();
+            for (Future<JsonObject> result : results)
+            {
+                try {
+                    combined.add(result.get());
+                }
+                catch (ExecutionException ex) {
+                    failure = (failure == null) ? ex.getCause() : failure;
+                }
+            }
+
+            if (failure == null) {
+                Log.logAnalysis(SoterAnalysis.class.getSimpleName(), COMBINED_REPORT_FILE_NAME,
+                                combined.build().toString(), false);
+            }
+            rethrow(failure);
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void rethrow(Throwable failure) throws IOException, InterruptedException
+    {
+        if (failure == null) {
+            return;
+        }
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+        if (failure instanceof InterruptedException) {
+            throw (InterruptedException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        throw new RuntimeException(failure);
+    }
+
     // TODO: Split up this method. It's too long and does too much.
-    protected void analyzeAndInstrument(String qualifiedCapsuleName) throws IOException,
-                                                                     InterruptedException
+    /**
+     * Note that this may be called concurrently for different capsules, each on a thread with an
+     * `Analyzer` of its own.
+     *
+     * @return The JSON results of the capsule's analysis.
+     */
+    protected JsonObject analyzeAndInstrument(String qualifiedCapsuleName) throws IOException,
+                                                                           InterruptedException
     {
+        Analyzer analyzer = analyzers.get();
+        SoterAnalysisFactory soterAnalysisFactory = analyzer.soterAnalysisFactory;
+        SoterCacheKeyFactory soterCacheKeyFactory = analyzer.soterCacheKeyFactory;
+        CapsuleCore core = soterAnalysisFactory.makeCore(qualifiedCapsuleName);
+        String cacheKey = null;
+        if (soterCache != null)
+        {
+            cacheKey = soterCacheKeyFactory.make(core);
+            SoterCache.Entry cached = soterCache.lookup(cacheKey);
+            if (cached != null && (cliArguments.noInstrument || cached.isInstrumented())) {
+                note("Reusing cached results for capsule: " + qualifiedCapsuleName);
+                return reuse(core, cached);
+            }
+        }
+
         note("Analyzing Capsule: " + qualifiedCapsuleName);
         
         SoterAnalysis soterAnalysis;
         try {
-            soterAnalysis = soterAnalysisFactory.make(qualifiedCapsuleName);
+            soterAnalysis = soterAnalysisFactory.make(core);
             soterAnalysis.perform();
         }
         catch (Exception ex)
@@ -91,18 +257,23 @@ public class Main
             throw ex;
         }
 
+        SoterCache.Entry.State state = SoterCache.Entry.State.ANALYZED;
+        byte[] instrumentedClass = null;
         if (cliArguments.noInstrument == false)
         {
             note("Instrumenting Capsule: " + qualifiedCapsuleName);
             try {
                 SoterInstrumenter soterInstrumenter = soterInstrumenterFactory.make(soterAnalysis);
                 soterInstrumenter.perform();
+                instrumentedClass = soterInstrumenter.getInstrumentedClass();
+                state = (instrumentedClass == null) ? SoterCache.Entry.State.UNCHANGED
+                                                    : SoterCache.Entry.State.REWRITTEN;
             }
             catch (Exception ex)
             {
                 error("Caught an exception while instrumenting a capsule: " + qualifiedCapsuleName);
                 ex.printStackTrace(System.err);
-                return;
+                return soterAnalysis.getJsonResults();
             }
         }
 
@@ -112,11 +283,54 @@ public class Main
             WalaUtil.makeGraphFile(soterAnalysis.getCallGraph(), callGraphPDF);
         }
 
-        if (cliArguments.heapGraphPDFs != null)
+        if (cliArguments.heapGraphPDFs != null && soterAnalysis.getHeapGraph() == null)
+        {
+            warning("Skipping the heap graph PDF of capsule " + qualifiedCapsuleName
+                    + ", because its call graph was built at precision "
+                    + soterAnalysis.getPrecision() + ", which has no heap graph.");
+        }
+        else if (cliArguments.heapGraphPDFs != null)
         {
             String heapGraphPDF = cliArguments.heapGraphPDFs + File.separator + qualifiedCapsuleName + ".pdf";
             WalaUtil.makeGraphFile(soterAnalysis.getHeapGraph(), heapGraphPDF);
         }
+
+        JsonObject results = soterAnalysis.getJsonResults();
+        if (soterCache != null && soterAnalysis.getPrecision() != cliArguments.precision)
+        {
+            // A fallback depends on how loaded this run was, so it must not stand in for the
+            // requested precision in later runs.
+            note("Not caching the results for capsule " + qualifiedCapsuleName + ", which fell back"
+                 + " to precision " + soterAnalysis.getPrecision() + ".");
+        }
+        else if (soterCache != null)
+        {
+            SoterCache.Entry entry = new SoterCache.Entry(state, results.toString(), instrumentedClass);
+            soterCache.store(cacheKey, entry);
+            if (instrumentedClass != null) {
+                // The core's class file is usually instrumented in place, so the next run will
+                // find the instrumented class file unless the core is recompiled in between.
+                soterCache.store(soterCacheKeyFactory.make(core, instrumentedClass), entry);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Logs the cached results and writes the cached instrumented class, just as analyzing and
+     * instrumenting the core would have done.
+     */
+    protected JsonObject reuse(CapsuleCore core, SoterCache.Entry cached) throws IOException
+    {
+        JsonObject results = Json.createReader(new StringReader(cached.results)).readObject();
+        Log.logAnalysis(SoterAnalysis.class.getSimpleName(),
+                        SoterAnalysis.makeJsonResultsLogFileName(core),
+                        AnalysisJsonResultsCreator.toJsonString(results), false);
+
+        if (cliArguments.noInstrument == false && cached.instrumentedClass != null) {
+            soterInstrumenterFactory.writeInstrumentedClass(core, cached.instrumentedClass);
+        }
+        return results;
     }
     
     public void logAllCoresDisassembledBytecode() throws IOException, InterruptedException
@@ -194,9 +408,7 @@ public class Main
             main.logAllCoresDisassembledBytecode();
         }
         
-        for (String capsule : cliArguments.capsules) {
-            main.analyzeAndInstrument(capsule);
-        }
+        main.analyzeAndInstrumentAll(cliArguments.capsules);
     }
 
 }
@@ -25,12 +25,11 @@
  *******************************************************************************/
 package org.paninij.soter;
 
-import static org.paninij.soter.util.SoterUtil.makePointsToClosure;
 import static java.text.MessageFormat.format;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -46,6 +45,7 @@ import javax.json.JsonWriterFactory;
 import org.paninij.runtime.util.IdentitySet;
 import org.paninij.runtime.util.IntMap;
 import org.paninij.soter.cga.CallGraphAnalysis;
+import org.paninij.soter.cga.CallGraphPrecision;
 import org.paninij.soter.live.CallGraphLiveAnalysis;
 import org.paninij.soter.live.TransferLiveAnalysis;
 import org.paninij.soter.model.CapsuleCore;
@@ -56,6 +56,7 @@ import org.paninij.soter.util.Analysis;
 import org.paninij.soter.util.AnalysisJsonResultsCreator;
 import org.paninij.soter.util.Log;
 import org.paninij.soter.util.LoggingAnalysis;
+import org.paninij.soter.util.PointsToClosures;
 
 import com.ibm.wala.analysis.pointers.HeapGraph;
 import com.ibm.wala.classLoader.IMethod;
@@ -72,6 +73,7 @@ import com.ibm.wala.util.intset.IntIterator;
 import com.ibm.wala.util.intset.IntSet;
 import com.ibm.wala.util.intset.MutableIntSet;
 import com.ibm.wala.util.intset.MutableSparseIntSetFactory;
+import com.ibm.wala.util.intset.OrdinalSet;
 
 public class SoterAnalysis extends LoggingAnalysis
 {
@@ -112,8 +114,9 @@ public class SoterAnalysis extends LoggingAnalysis
 
         intSetFactory = new MutableSparseIntSetFactory();
 
-        transferSiteResultsMap = new HashMap<TransferSite, TransferSiteResults>();
-        unsafeTransferSitesMap = new HashMap<IMethod, IdentitySet<TransferSite>>();
+        // Linked maps, so that the results (and their reports) follow the order of the analysis.
+        transferSiteResultsMap = new LinkedHashMap<TransferSite, TransferSiteResults>();
+        unsafeTransferSitesMap = new LinkedHashMap<IMethod, IdentitySet<TransferSite>>();
 
         jsonCreator = new JsonResultsCreator(this);
     }
@@ -124,8 +127,11 @@ public class SoterAnalysis extends LoggingAnalysis
     {
         cga.perform();
         ta.perform();
-        tla.perform();
-        cgla.perform();
+        // Without points-to results, liveness could not prove any transfer safe anyway.
+        if (cga.getPrecision().hasPointsTo()) {
+            tla.perform();
+            cgla.perform();
+        }
     }
 
 
@@ -139,6 +145,14 @@ public class SoterAnalysis extends LoggingAnalysis
 
     protected void buildTransferSiteResultsMap()
     {
+        if (cga.getPrecision().hasPointsTo() == false) {
+            buildUnprovenTransferSiteResultsMap();
+            return;
+        }
+
+        PointsToClosures closures = new PointsToClosures(cga.getHeapGraph(),
+                                        cga.getPointerAnalysis().getInstanceKeyMapping());
+
         for (CGNode transferringNode : ta.getTransferringNodes())
         {
             for (TransferSite transferSite : ta.getTransferringSites(transferringNode))
@@ -151,25 +165,21 @@ public class SoterAnalysis extends LoggingAnalysis
                 results.liveVariables.addAll(cgla.getLiveVariablesAfter(transferringNode));
 
                 // Find all of the (transitively) live objects.
-                results.liveObjects = new IdentitySet<InstanceKey>();
-                for (PointerKey pointerKey : results.liveVariables) {
-                    results.liveObjects.addAll(makePointsToClosure(pointerKey, cga.getHeapGraph()));
-                }
+                results.liveObjects = closures.getClosure(results.liveVariables);
 
                 // For each of the transfer site's transfers, find all of the (transitively)
                 // escaped objects.
                 HeapModel heapModel = cga.getHeapModel();
-                HeapGraph<InstanceKey> heapGraph = cga.getHeapGraph();
                 IntIterator paramIter = transferSite.getTransfers().intIterator();
                 while (paramIter.hasNext())
                 {
                     int paramID = paramIter.next();
 
                     PointerKey ptr = heapModel.getPointerKeyForLocal(transferringNode, paramID);
-                    IdentitySet<InstanceKey> escaped = makePointsToClosure(ptr, heapGraph);
+                    OrdinalSet<InstanceKey> escaped = closures.getClosure(ptr);
                     results.setEscapedObjects(paramID, escaped);
 
-                    boolean isSafeTransfer = results.liveObjects.isDisjointFrom(escaped);
+                    boolean isSafeTransfer = !results.liveObjects.containsAny(escaped);
                     results.setTransferSafety(paramID, isSafeTransfer);
                 }
 
@@ -179,6 +189,34 @@ public class SoterAnalysis extends LoggingAnalysis
     }
 
 
+    /**
+     * Records every transfer as unsafe (i.e. to be checked dynamically), because the call graph was
+     * built without the points-to analysis which is needed to prove any transfer safe.
+     */
+    protected void buildUnprovenTransferSiteResultsMap()
+    {
+        for (CGNode transferringNode : ta.getTransferringNodes())
+        {
+            for (TransferSite transferSite : ta.getTransferringSites(transferringNode))
+            {
+                TransferSiteResults results = new TransferSiteResults();
+                results.liveVariables = new HashSet<PointerKey>();
+                results.liveObjects = OrdinalSet.empty();
+
+                IntIterator paramIter = transferSite.getTransfers().intIterator();
+                while (paramIter.hasNext())
+                {
+                    int paramID = paramIter.next();
+                    results.setEscapedObjects(paramID, OrdinalSet.<InstanceKey>empty());
+                    results.setTransferSafety(paramID, false);
+                }
+
+                transferSiteResultsMap.put(transferSite, results);
+            }
+        }
+    }
+
+
     protected void buildUnsafeTransfersMap()
     {
         for (Entry<TransferSite, TransferSiteResults> entry : transferSiteResultsMap.entrySet())
@@ -219,12 +257,25 @@ public class SoterAnalysis extends LoggingAnalysis
     }
 
 
+    /**
+     * @return The heap graph, or `null` if the call graph was built at a precision without
+     *         points-to analysis.
+     */
     public HeapGraph<InstanceKey> getHeapGraph()
     {
         return cga.getHeapGraph();
     } 
 
 
+    /**
+     * @return The precision at which the call graph was actually built.
+     */
+    public CallGraphPrecision getPrecision()
+    {
+        return cga.getPrecision();
+    }
+
+
     public CapsuleCore getCapsuleCore()
     {
         return core;
@@ -265,6 +316,12 @@ public class SoterAnalysis extends LoggingAnalysis
 
     @Override
     public String getJsonResultsLogFileName()
+    {
+        return makeJsonResultsLogFileName(core);
+    }
+
+
+    public static String makeJsonResultsLogFileName(CapsuleCore core)
     {
         return core.getQualifiedName().replace('/', '.') + ".json";
     }
@@ -277,24 +334,24 @@ public class SoterAnalysis extends LoggingAnalysis
     final class TransferSiteResults
     {
         Set<PointerKey> liveVariables;
-        IdentitySet<InstanceKey> liveObjects;
+        OrdinalSet<InstanceKey> liveObjects;
         MutableIntSet unsafeTransfers;
         MutableIntSet safeTransfers;
-        IntMap<IdentitySet<InstanceKey>> escapedObjectsMap;
+        IntMap<OrdinalSet<InstanceKey>> escapedObjectsMap;
 
         public TransferSiteResults()
         {
             unsafeTransfers = intSetFactory.make();
             safeTransfers = intSetFactory.make();
-            escapedObjectsMap = new IntMap<IdentitySet<InstanceKey>>();
+            escapedObjectsMap = new IntMap<OrdinalSet<InstanceKey>>();
         }
 
-        public void setEscapedObjects(int transferID, IdentitySet<InstanceKey> escapedObjects)
+        public void setEscapedObjects(int transferID, OrdinalSet<InstanceKey> escapedObjects)
         {
             escapedObjectsMap.put(transferID, escapedObjects);
         }
 
-        public IdentitySet<InstanceKey> getEscapedObjects(int transferID)
+        public OrdinalSet<InstanceKey> getEscapedObjects(int transferID)
         {
             return escapedObjectsMap.get(transferID);
         }
@@ -353,6 +410,7 @@ public class SoterAnalysis extends LoggingAnalysis
 
             JsonObjectBuilder builder = Json.createObjectBuilder();
             builder.add("capsuleCore", core.getQualifiedName());
+            builder.add("precision", cga.getPrecision().toString());
 
             /*
             //JsonObjectBuilder tempObjectBuilder;
@@ -25,8 +25,10 @@
  *******************************************************************************/
 package org.paninij.soter;
 
+import org.paninij.soter.cga.AnalysisBudget;
 import org.paninij.soter.cga.CallGraphAnalysis;
 import org.paninij.soter.cga.CallGraphAnalysisFactory;
+import org.paninij.soter.cga.CallGraphPrecision;
 import org.paninij.soter.live.CallGraphLiveAnalysis;
 import org.paninij.soter.live.CallGraphLiveAnalysisFactory;
 import org.paninij.soter.live.TransferLiveAnalysis;
@@ -37,7 +39,6 @@ import org.paninij.soter.transfer.TransferAnalysis;
 import org.paninij.soter.transfer.TransferAnalysisFactory;
 import org.paninij.soter.util.WalaUtil;
 
-import com.ibm.wala.ipa.callgraph.AnalysisOptions;
 import com.ibm.wala.ipa.cha.IClassHierarchy;
 
 /**
@@ -47,7 +48,6 @@ import com.ibm.wala.ipa.cha.IClassHierarchy;
 public class SoterAnalysisFactory
 {
     protected final IClassHierarchy cha;
-    protected final AnalysisOptions options;
     protected final CapsuleCoreFactory coreFactory;
     protected final CallGraphAnalysisFactory cgaFactory;
     protected final TransferAnalysisFactory taFactory;
@@ -56,25 +56,55 @@ public class SoterAnalysisFactory
 
 
     public SoterAnalysisFactory(String classPath)
+    {
+        this(classPath, CallGraphPrecision.RECEIVER_SENSITIVE, AnalysisBudget.UNBOUNDED);
+    }
+
+    /**
+     * @param precision  The precision at which to build each core's call graph.
+     * @param budget     The budget for each attempt to build a core's call graph, beyond which
+     *                   its analysis falls back to a cheaper precision.
+     */
+    public SoterAnalysisFactory(String classPath, CallGraphPrecision precision,
+                                AnalysisBudget budget)
     {
         WalaUtil.checkRequiredResourcesExist();
 
         cha = WalaUtil.makeClassHierarchy(classPath);
-        options = WalaUtil.makeAnalysisOptions(cha);
         
         coreFactory = new CapsuleCoreFactory(cha);
-        cgaFactory = new CallGraphAnalysisFactory(cha, options);
+        cgaFactory = new CallGraphAnalysisFactory(cha, precision, budget);
         taFactory = new TransferAnalysisFactory(cha);
         tlaFactory = new TransferLiveAnalysisFactory(cha);
         cglaFactory = new CallGraphLiveAnalysisFactory(cha);
     }
+
+    public IClassHierarchy getClassHierarchy()
+    {
+        return cha;
+    }
     
     /**
+     * Note that the analyses which this makes all share its class hierarchy, which WALA does not
+     * make safe to use from several threads at once, so this must only be used by one thread.
+     *
      * @param capsuleName A fully qualified name of a capsule (e.g. "org.paninij.examples.pi.Pi").
      */
     public SoterAnalysis make(String capsuleName)
     {
-        CapsuleCore core = coreFactory.make(capsuleName);
+        return make(makeCore(capsuleName));
+    }
+
+    /**
+     * @param capsuleName A fully qualified name of a capsule (e.g. "org.paninij.examples.pi.Pi").
+     */
+    public CapsuleCore makeCore(String capsuleName)
+    {
+        return coreFactory.make(capsuleName);
+    }
+
+    public SoterAnalysis make(CapsuleCore core)
+    {
         CallGraphAnalysis cga = cgaFactory.make(core);
         TransferAnalysis ta = taFactory.make(core, cga);
         TransferLiveAnalysis tla = tlaFactory.make(core, cga, ta);
@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij.soter.cache;
+
+import static org.paninij.soter.util.Log.warning;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * An on-disk cache of the results of analyzing and instrumenting capsule cores, which lets a run
+ * skip the call graph, points-to, and liveness analyses (and the instrumentation) of every capsule
+ * whose core and dependencies have not changed since an earlier run. Entries are keyed by the
+ * digests which `SoterCacheKeyFactory` makes.
+ *
+ * Each entry is one file, named by its key, which is laid out as follows (big-endian):
+ *
+ * <pre>
+ *   int    MAGIC
+ *   int    FORMAT_VERSION
+ *   byte   state           (see `Entry.State`)
+ *   int    n, then n bytes (the JSON analysis results, compact and UTF-8 encoded)
+ *   int    m, then m bytes (the instrumented class file; m is 0 unless the state is REWRITTEN)
+ * </pre>
+ *
+ * Entries are read by mapping their file into memory. An entry is written to a temporary file in
+ * the same directory, which is then atomically moved into place, so builds which share a cache
+ * (even concurrently) never see a partially written entry. Two builds may race to write the same
+ * entry, but they write the same bytes, so it does not matter which of them wins. A file which
+ * cannot be read as an entry (e.g. one left by another format version) is treated as a miss.
+ */
+public class SoterCache
+{
+    public static final int MAGIC = 0x534F5452;  // "SOTR"
+
+    /**
+     * This must be incremented whenever the format of an entry changes, or whenever a change to
+     * the analysis or to the instrumentation changes the results which they would store.
+     */
+    public static final int FORMAT_VERSION = 3;
+
+    protected static final String ENTRY_SUFFIX = ".soter";
+
+    protected final Path directory;
+
+    public SoterCache(Path directory) throws IOException
+    {
+        this.directory = directory;
+        Files.createDirectories(directory);
+    }
+
+
+    /**
+     * @return The entry stored under the given key, or `null` if there is no (readable) one.
+     */
+    public Entry lookup(String key)
+    {
+        Path path = directory.resolve(key + ENTRY_SUFFIX);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                return null;
+            }
+            Entry.State state = Entry.State.values()[buffer.get()];
+            String results = new String(getBytes(buffer), StandardCharsets.UTF_8);
+            byte[] instrumentedClass = getBytes(buffer);
+            boolean rewritten = (state == Entry.State.REWRITTEN);
+            if (buffer.hasRemaining() || rewritten != (instrumentedClass.length > 0)) {
+                return null;
+            }
+            return new Entry(state, results, rewritten ? instrumentedClass : null);
+        }
+        catch (NoSuchFileException ex)
+        {
+            return null;
+        }
+        catch (IOException | BufferUnderflowException | IndexOutOfBoundsException
+               | IllegalArgumentException ex)
+        {
+            warning("Ignoring an unreadable SOTER cache entry: " + path + " (" + ex + ")");
+            return null;
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the length is negative or overruns the entry (e.g. if
+     *         the entry is corrupt or truncated), before anything is allocated for it.
+     */
+    private static byte[] getBytes(ByteBuffer buffer)
+    {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+
+    /**
+     * Stores the given entry under the given key, replacing any entry already stored under it.
+     */
+    public void store(String key, Entry entry) throws IOException
+    {
+        byte[] results = entry.results.getBytes(StandardCharsets.UTF_8);
+        byte[] instrumentedClass = (entry.instrumentedClass == null) ? new byte[0]
+                                                                     : entry.instrumentedClass;
+
+        Path temp = Files.createTempFile(directory, key, ".tmp");
+        try
+        {
+            try (OutputStream file = Files.newOutputStream(temp);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file)))
+            {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeByte(entry.state.ordinal());
+                out.writeInt(results.length);
+                out.write(results);
+                out.writeInt(instrumentedClass.length);
+                out.write(instrumentedClass);
+            }
+            Path path = directory.resolve(key + ENTRY_SUFFIX);
+            try {
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+
+    /**
+     * What one run of the analysis (and maybe instrumentation) of a capsule core produced.
+     */
+    public static final class Entry
+    {
+        public enum State
+        {
+            /** The core was analyzed but not instrumented (i.e. `-noInstrument` was set). */
+            ANALYZED,
+
+            /** The core was instrumented, but it had no unsafe transfer sites to instrument. */
+            UNCHANGED,
+
+            /** The core was instrumented, and this entry holds the instrumented class file. */
+            REWRITTEN
+        }
+
+        public final State state;
+        public final String results;
+        public final byte[] instrumentedClass;
+
+        /**
+         * @param results            The JSON results of the analysis.
+         * @param instrumentedClass  The instrumented class file iff the state is `REWRITTEN`, or
+         *                           else `null`.
+         */
+        public Entry(State state, String results, byte[] instrumentedClass)
+        {
+            assert (state == State.REWRITTEN) == (instrumentedClass != null);
+            this.state = state;
+            this.results = results;
+            this.instrumentedClass = instrumentedClass;
+        }
+
+        /**
+         * @return Whether the entry can stand in for instrumenting the core (rather than only for
+         *         analyzing it).
+         */
+        public boolean isInstrumented()
+        {
+            return state != State.ANALYZED;
+        }
+    }
+}
@@ -0,0 +1,334 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij.soter.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.paninij.soter.model.CapsuleCore;
+import org.paninij.soter.util.WalaUtil;
+
+import com.ibm.wala.classLoader.IClass;
+import com.ibm.wala.classLoader.IClassLoader;
+import com.ibm.wala.classLoader.JarFileModule;
+import com.ibm.wala.classLoader.Module;
+import com.ibm.wala.classLoader.ShrikeClass;
+import com.ibm.wala.ipa.callgraph.AnalysisScope;
+import com.ibm.wala.ipa.cha.IClassHierarchy;
+import com.ibm.wala.shrikeCT.ClassConstants;
+import com.ibm.wala.shrikeCT.ConstantPoolParser;
+import com.ibm.wala.shrikeCT.InvalidClassFileException;
+import com.ibm.wala.types.ClassLoaderReference;
+
+
+/**
+ * Makes the keys under which the results for capsule cores are stored in a `SoterCache`.
+ *
+ * A core's key is a SHA-256 digest of:
+ *
+ * <ul>
+ * <li>the cache's format version;</li>
+ * <li>the SOTER configuration, i.e. the analysis settings (e.g. its precision), WALA's resources
+ *     (which among other things name the JDK to be analyzed), and the fingerprint (path, size, and
+ *     modification time) of every library which is not an application class;</li>
+ * <li>the name and class file of every application class in the core's dependency closure.</li>
+ * </ul>
+ *
+ * The dependency closure of a class is the class itself plus the closure of every application
+ * class which its constant pool names, whether as a class reference or within a descriptor or
+ * signature. This over-approximates what the analysis of the core can reach (e.g. through
+ * superclasses, fields, calls, and allocations), so a change to any class which could affect its
+ * results changes its key. An application class which the closure never names cannot affect the
+ * results: code in the closure can neither allocate it nor dispatch to it, except reflectively,
+ * which the analysis does not model either.
+ *
+ * Note that this may be used concurrently.
+ */
+public class SoterCacheKeyFactory
+{
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    protected final IClassHierarchy cha;
+
+    /** The application classes, by their WALA names (e.g. `Lorg/paninij/examples/pi/PiCore`). */
+    protected final Map<String, ShrikeClass> applicationClasses;
+
+    /** The digest of every application class file which has been needed so far. */
+    protected final Map<ShrikeClass, byte[]> classDigests;
+
+    protected final byte[] configurationDigest;
+
+    /**
+     * @param settings  A description of every setting which can change the results of analyzing a
+     *                  core (e.g. its precision), which is digested into every key.
+     */
+    public SoterCacheKeyFactory(IClassHierarchy cha, String settings)
+    {
+        this.cha = cha;
+        applicationClasses = new HashMap<String, ShrikeClass>();
+        IClassLoader appLoader = cha.getLoader(cha.getScope().getApplicationLoader());
+        Iterator<IClass> classes = appLoader.iterateAllClasses();
+        while (classes.hasNext())
+        {
+            IClass klass = classes.next();
+            if (klass instanceof ShrikeClass) {
+                applicationClasses.put(klass.getName().toString(), (ShrikeClass) klass);
+            }
+        }
+        classDigests = new ConcurrentHashMap<ShrikeClass, byte[]>();
+        configurationDigest = makeConfigurationDigest(settings);
+    }
+
+
+    /**
+     * @return The key for the given core, as it is currently found in the class hierarchy.
+     */
+    public String make(CapsuleCore core)
+    {
+        return make(core, null);
+    }
+
+
+    /**
+     * @param coreClassFile  Bytes to use for the core's own class file instead of those found in
+     *                       the class hierarchy (e.g. the instrumented ones), or `null`.
+     * @return The key for the given core.
+     */
+    public String make(CapsuleCore core, byte[] coreClassFile)
+    {
+        ShrikeClass coreClass = (ShrikeClass) core.getCoreClass();
+        MessageDigest digest = newDigest();
+        digest.update(intToBytes(SoterCache.FORMAT_VERSION));
+        digest.update(configurationDigest);
+
+        // The closure is sorted by name, so that the key does not depend on the order of the walk.
+        for (Map.Entry<String, ShrikeClass> entry : findDependencyClosure(coreClass).entrySet())
+        {
+            ShrikeClass klass = entry.getValue();
+            digest.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+            if (klass == coreClass && coreClassFile != null) {
+                digest.update(newDigest().digest(coreClassFile));
+            } else {
+                digest.update(getClassDigest(klass));
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+
+    protected SortedMap<String, ShrikeClass> findDependencyClosure(ShrikeClass root)
+    {
+        SortedMap<String, ShrikeClass> closure = new TreeMap<String, ShrikeClass>();
+        Deque<ShrikeClass> worklist = new ArrayDeque<ShrikeClass>();
+        closure.put(root.getName().toString(), root);
+        worklist.push(root);
+
+        while (worklist.isEmpty() == false)
+        {
+            ShrikeClass klass = worklist.pop();
+            for (String name : findNamedClasses(klass))
+            {
+                ShrikeClass dependency = applicationClasses.get(name);
+                if (dependency != null && closure.containsKey(name) == false) {
+                    closure.put(name, dependency);
+                    worklist.push(dependency);
+                }
+            }
+        }
+        return closure;
+    }
+
+
+    /**
+     * @return The WALA names of the classes which are named in the given class's constant pool
+     *         (including some names which may not belong to any class at all).
+     */
+    protected static Iterable<String> findNamedClasses(ShrikeClass klass)
+    {
+        Deque<String> names = new ArrayDeque<String>();
+        try
+        {
+            ConstantPoolParser cp = klass.getReader().getCP();
+            for (int idx = 1; idx < cp.getItemCount(); idx++)
+            {
+                switch (cp.getItemType(idx))
+                {
+                case ClassConstants.CONSTANT_Class:
+                    String name = cp.getCPClass(idx);
+                    if (name.startsWith("[")) {
+                        addDescriptorNames(name, names);  // An array type's descriptor.
+                    } else {
+                        names.add("L" + name);
+                    }
+                    break;
+                case ClassConstants.CONSTANT_Utf8:
+                    addDescriptorNames(cp.getCPUtf8(idx), names);
+                    break;
+                case ClassConstants.CONSTANT_Long:
+                case ClassConstants.CONSTANT_Double:
+                    idx++;  // These take up two entries.
+                    break;
+                default:
+                    break;
+                }
+            }
+        }
+        catch (InvalidClassFileException ex)
+        {
+            String msg = "Failed to read the constant pool of a class: " + klass.getName();
+            throw new IllegalArgumentException(msg, ex);
+        }
+        return names;
+    }
+
+
+    /**
+     * Adds the WALA name of every class type (i.e. `L...;` or `L...<`) in the given string, which
+     * may be a field or method descriptor, a generic signature, or any other string.
+     */
+    private static void addDescriptorNames(String str, Deque<String> names)
+    {
+        int start = str.indexOf('L');
+        while (start >= 0)
+        {
+            int end = start + 1;
+            while (end < str.length() && isNameChar(str.charAt(end))) {
+                end++;
+            }
+            if (end < str.length() && end > start + 1) {
+                char terminator = str.charAt(end);
+                if (terminator == ';' || terminator == '<') {
+                    names.add(str.substring(start, end));
+                }
+            }
+            start = str.indexOf('L', end);
+        }
+    }
+
+    private static boolean isNameChar(char c)
+    {
+        return c != ';' && c != '<' && c != '>' && c != '(' && c != ')' && c != '[' && c != '.';
+    }
+
+
+    protected byte[] getClassDigest(ShrikeClass klass)
+    {
+        byte[] classDigest = classDigests.get(klass);
+        if (classDigest == null) {
+            classDigest = newDigest().digest(klass.getReader().getBytes());
+            classDigests.put(klass, classDigest);
+        }
+        return classDigest;
+    }
+
+
+    protected byte[] makeConfigurationDigest(String settings)
+    {
+        MessageDigest digest = newDigest();
+        digest.update(settings.getBytes(StandardCharsets.UTF_8));
+        for (String res : WalaUtil.REQUIRED_RESOURCES)
+        {
+            digest.update(res.getBytes(StandardCharsets.UTF_8));
+            try (InputStream in = WalaUtil.class.getClassLoader().getResourceAsStream(res))
+            {
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = in.read(buffer)) > 0) {
+                    digest.update(buffer, 0, count);
+                }
+            }
+            catch (IOException ex)
+            {
+                throw new IllegalArgumentException("Failed to read a WALA resource: " + res, ex);
+            }
+        }
+
+        AnalysisScope scope = cha.getScope();
+        for (ClassLoaderReference loader : scope.getLoaders())
+        {
+            if (loader.equals(scope.getApplicationLoader())) {
+                continue;  // Application classes are digested along with each closure.
+            }
+            for (Module module : scope.getModules(loader))
+            {
+                digest.update(module.toString().getBytes(StandardCharsets.UTF_8));
+                if (module instanceof JarFileModule) {
+                    File jar = new File(((JarFileModule) module).getJarFile().getName());
+                    digest.update(longToBytes(jar.length()));
+                    digest.update(longToBytes(jar.lastModified()));
+                }
+            }
+        }
+        return digest.digest();
+    }
+
+
+    private static MessageDigest newDigest()
+    {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("Every JVM must provide " + DIGEST_ALGORITHM, ex);
+        }
+    }
+
+    private static byte[] intToBytes(int val)
+    {
+        return new byte[] {(byte) (val >>> 24), (byte) (val >>> 16), (byte) (val >>> 8), (byte) val};
+    }
+
+    private static byte[] longToBytes(long val)
+    {
+        byte[] bytes = new byte[8];
+        for (int idx = 0; idx < 8; idx++) {
+            bytes[idx] = (byte) (val >>> (56 - 8 * idx));
+        }
+        return bytes;
+    }
+
+    private static String toHex(byte[] bytes)
+    {
+        StringBuilder builder = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >>> 4) & 0xF, 16));
+            builder.append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij.soter.cga;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import com.ibm.wala.util.MonitorUtil.IProgressMonitor;
+import com.ibm.wala.util.NullProgressMonitor;
+
+
+/**
+ * A bound on the time and the memory which building one call graph may take. Either bound may be
+ * 0, which means that it is unbounded.
+ *
+ * The memory which an attempt takes is measured as the number of bytes which the thread building
+ * the call graph allocates. This is only a proxy for the memory which the call graph retains, but
+ * unlike the heap in use, it is not disturbed by other capsules being analyzed concurrently. It is
+ * only measured where the JVM supports it (e.g. on HotSpot).
+ */
+public class AnalysisBudget
+{
+    public static final AnalysisBudget UNBOUNDED = new AnalysisBudget(0, 0);
+
+    protected final long timeMillis;
+    protected final long memoryBytes;
+
+    public AnalysisBudget(long timeMillis, long memoryBytes)
+    {
+        if (timeMillis < 0 || memoryBytes < 0) {
+            throw new IllegalArgumentException("A budget cannot be negative.");
+        }
+        this.timeMillis = timeMillis;
+        this.memoryBytes = memoryBytes;
+    }
+
+    public boolean isUnbounded()
+    {
+        return timeMillis == 0 && memoryBytes == 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "AnalysisBudget(timeMillis=" + timeMillis + ", memoryBytes=" + memoryBytes + ")";
+    }
+
+    /**
+     * @return A progress monitor which cancels the call graph build (on the current thread) which
+     *         it is given to, once the build has exceeded this budget, or `null` if the budget is
+     *         unbounded.
+     */
+    public IProgressMonitor start()
+    {
+        return isUnbounded() ? null : new Monitor();
+    }
+
+
+    private class Monitor extends NullProgressMonitor
+    {
+        // How many calls to `isCanceled()` to make between measurements of the memory allocated.
+        private static final int MEMORY_CHECK_PERIOD = 1024;
+
+        private final long deadline = System.nanoTime() + timeMillis * 1000000L;
+        private final com.sun.management.ThreadMXBean threads = getThreadMXBean();
+        private final long thread = Thread.currentThread().getId();
+        private final long allocatedAtStart = getAllocatedBytes();
+        private int calls = 0;
+        private boolean canceled = false;
+
+        @Override
+        public boolean isCanceled()
+        {
+            if (canceled == false)
+            {
+                canceled = (timeMillis > 0 && System.nanoTime() - deadline > 0)
+                        || (memoryBytes > 0 && ++calls % MEMORY_CHECK_PERIOD == 0
+                                            && getAllocatedBytes() - allocatedAtStart > memoryBytes);
+            }
+            return canceled;
+        }
+
+        private long getAllocatedBytes()
+        {
+            return (threads == null) ? 0 : threads.getThreadAllocatedBytes(thread);
+        }
+    }
+
+    /**
+     * @return The JVM's thread bean, if it can measure the memory allocated by a thread.
+     */
+    private static com.sun.management.ThreadMXBean getThreadMXBean()
+    {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean)
+        {
+            com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+            if (sunThreads.isThreadAllocatedMemorySupported()
+                    && sunThreads.isThreadAllocatedMemoryEnabled()) {
+                return sunThreads;
+            }
+        }
+        return null;
+    }
+}
@@ -25,6 +25,8 @@
  *******************************************************************************/
 package org.paninij.soter.cga;
 
+import static org.paninij.soter.util.Log.warning;
+
 import org.paninij.soter.model.CapsuleCore;
 import org.paninij.soter.util.Analysis;
 
@@ -34,34 +36,31 @@ import com.ibm.wala.ipa.callgraph.AnalysisCache;
 import com.ibm.wala.ipa.callgraph.AnalysisOptions;
 import com.ibm.wala.ipa.callgraph.CallGraph;
 import com.ibm.wala.ipa.callgraph.CallGraphBuilderCancelException;
-import com.ibm.wala.ipa.callgraph.ContextSelector;
 import com.ibm.wala.ipa.callgraph.propagation.HeapModel;
 import com.ibm.wala.ipa.callgraph.propagation.InstanceKey;
 import com.ibm.wala.ipa.callgraph.propagation.PointerAnalysis;
 import com.ibm.wala.ipa.callgraph.propagation.PropagationCallGraphBuilder;
-import com.ibm.wala.ipa.callgraph.propagation.cfa.ZeroXCFABuilder;
-import com.ibm.wala.ipa.callgraph.propagation.cfa.ZeroXInstanceKeys;
 import com.ibm.wala.ipa.cha.IClassHierarchy;
+import com.ibm.wala.util.MonitorUtil.IProgressMonitor;
 
 
 /**
- * Builds Zero-One CFA call graph using flow insensitive Andersen style points-to analysis with
- * entrypoints stemming from the procedures of a single core class.
+ * Builds a call graph using flow insensitive Andersen style points-to analysis (at one of the
+ * `CallGraphPrecision` tiers, within an `AnalysisBudget`) with entrypoints stemming from the
+ * procedures of a single core class.
  */
 public class CallGraphAnalysis extends Analysis
 {
-    public static final int INSTANCE_POLICY = ZeroXInstanceKeys.ALLOCATIONS
-                                            //| ZeroXInstanceKeys.SMUSH_MANY
-                                            //| ZeroXInstanceKeys.SMUSH_STRINGS
-                                            | ZeroXInstanceKeys.SMUSH_THROWABLES;
-    
     // Analysis dependencies:
     protected final CapsuleCore core;
     protected final IClassHierarchy cha;
     protected final AnalysisOptions options;
     protected final AnalysisCache cache;
+    protected final CallGraphPrecision requestedPrecision;
+    protected final AnalysisBudget budget;
     
     // Artifacts generated by performing the analysis:
+    protected CallGraphPrecision precision;
     protected CallGraph callGraph;
     protected PointerAnalysis<InstanceKey> pointerAnalysis;
     protected HeapModel heapModel;
@@ -74,43 +73,87 @@ public class CallGraphAnalysis extends Analysis
     
     public CallGraphAnalysis(CapsuleCore core, IClassHierarchy cha, AnalysisOptions options,
                              AnalysisCache cache)
+    {
+        this(core, cha, options, cache, CallGraphPrecision.RECEIVER_SENSITIVE,
+             AnalysisBudget.UNBOUNDED);
+    }
+
+    public CallGraphAnalysis(CapsuleCore core, IClassHierarchy cha, AnalysisOptions options,
+                             AnalysisCache cache, CallGraphPrecision requestedPrecision,
+                             AnalysisBudget budget)
     {
         this.core = core;
         this.cha = cha;
         this.options = options;
         this.cache = cache;
+        this.requestedPrecision = requestedPrecision;
+        this.budget = budget;
     }
 
     /**
-     * This performs a zero-one CFA algorithm which simultaneously builds the call graph and
-     * performs the pointer analysis. Note that by calling this function, any entrypoints stored in
-     * `options` will be overridden with new entrypoints.
+     * This builds the call graph, and (unless the precision is `CHA`) simultaneously performs the
+     * pointer analysis, at the requested precision. If a build exceeds the budget, then it is
+     * abandoned, and the call graph is built again at the next cheaper precision. (So building
+     * takes at most the budget at each precision tried, plus whatever the `CHA` precision takes.)
+     * Note that by calling this function, any entrypoints stored in `options` will be overridden
+     * with new entrypoints.
      * 
      * @see org.paninij.soter.util.Analysis#perform()
      */
     @Override
-    @SuppressWarnings("unchecked")
     public void performAnalysis()
     {
         options.setEntrypoints(CapsuleCoreEntrypoint.makeAll(core.getCoreClass()));
 
-        ContextSelector contextSelector = new ReceiverInstanceContextSelector();
-        PropagationCallGraphBuilder builder = ZeroXCFABuilder.make(cha, options, cache,
-                                                                   contextSelector, null,
-                                                                   INSTANCE_POLICY);
+        for (precision = requestedPrecision; precision != null; precision = precision.cheaper())
+        {
+            if (tryToBuild(precision)) {
+                return;
+            }
+            warning("Call graph construction at precision " + precision + " exceeded its budget: "
+                    + core.getQualifiedName());
+        }
+        throw new IllegalStateException("Failed to build a call graph even at precision CHA.");
+    }
+
+    /**
+     * @return Whether the build succeeded, i.e. was not cancelled for exceeding its budget.
+     */
+    @SuppressWarnings("unchecked")
+    protected boolean tryToBuild(CallGraphPrecision precision)
+    {
+        PropagationCallGraphBuilder builder = precision.makeBuilder(cha, options, cache);
+        IProgressMonitor monitor = (precision == CallGraphPrecision.CHA) ? null : budget.start();
         try
         {
-            callGraph = builder.makeCallGraph(options, null);
-            pointerAnalysis = builder.getPointerAnalysis();
-            heapModel = pointerAnalysis.getHeapModel();
-            heapGraph = new BasicHeapGraph(pointerAnalysis, callGraph);
+            callGraph = builder.makeCallGraph(options, monitor);
+            if (precision.hasPointsTo())
+            {
+                pointerAnalysis = builder.getPointerAnalysis();
+                heapModel = pointerAnalysis.getHeapModel();
+                heapGraph = new BasicHeapGraph(pointerAnalysis, callGraph);
+            }
+            return true;
         }
         catch (CallGraphBuilderCancelException ex)
         {
-            String msg = "Call graph construction was unexpectedly cancelled: ";
-            throw new IllegalArgumentException(msg + core.toString());
+            if (monitor == null) {
+                String msg = "Call graph construction was unexpectedly cancelled: ";
+                throw new IllegalArgumentException(msg + core.toString());
+            }
+            return false;
         }
     }
+
+    /**
+     * @return The precision at which the call graph was actually built, which is cheaper than the
+     *         requested one if the budget was exceeded.
+     */
+    public CallGraphPrecision getPrecision()
+    {
+        assert hasBeenPerformed;
+        return precision;
+    }
     
     public CallGraph getCallGraph()
     {
@@ -118,6 +161,10 @@ public class CallGraphAnalysis extends Analysis
         return callGraph;
     }
 
+    /**
+     * Note that there is neither a heap model, nor a pointer analysis, nor a heap graph unless the
+     * precision has points-to analysis.
+     */
     public HeapModel getHeapModel()
     {
         assert hasBeenPerformed;
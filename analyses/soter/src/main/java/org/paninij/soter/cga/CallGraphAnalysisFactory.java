@@ -29,23 +29,37 @@ import org.paninij.soter.model.CapsuleCore;
 import org.paninij.soter.util.WalaUtil;
 
 import com.ibm.wala.classLoader.IClass;
+import com.ibm.wala.ipa.callgraph.AnalysisCache;
 import com.ibm.wala.ipa.callgraph.AnalysisOptions;
 import com.ibm.wala.ipa.cha.IClassHierarchy;
 
 public class CallGraphAnalysisFactory
 {
     protected final IClassHierarchy cha;
-    protected final AnalysisOptions options;
+    protected final CallGraphPrecision precision;
+    protected final AnalysisBudget budget;
     
-    public CallGraphAnalysisFactory(IClassHierarchy cha, AnalysisOptions options)
+    public CallGraphAnalysisFactory(IClassHierarchy cha)
+    {
+        this(cha, CallGraphPrecision.RECEIVER_SENSITIVE, AnalysisBudget.UNBOUNDED);
+    }
+
+    public CallGraphAnalysisFactory(IClassHierarchy cha, CallGraphPrecision precision,
+                                    AnalysisBudget budget)
     {
         this.cha = cha;
-        this.options = options;
+        this.precision = precision;
+        this.budget = budget;
     }
 
+    /**
+     * Every call graph analysis gets its own `AnalysisOptions`, because performing it overwrites
+     * the entrypoints of its options. (This is what lets several cores be analyzed concurrently.)
+     */
     public CallGraphAnalysis make(CapsuleCore core)
     {
-        return new CallGraphAnalysis(core, cha, options);
+        return new CallGraphAnalysis(core, cha, WalaUtil.makeAnalysisOptions(cha),
+                                     new AnalysisCache(), precision, budget);
     }
     
     /**
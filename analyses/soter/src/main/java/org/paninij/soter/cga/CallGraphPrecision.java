@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij.soter.cga;
+
+import com.ibm.wala.ipa.callgraph.AnalysisCache;
+import com.ibm.wala.ipa.callgraph.AnalysisOptions;
+import com.ibm.wala.ipa.callgraph.impl.Util;
+import com.ibm.wala.ipa.callgraph.propagation.PropagationCallGraphBuilder;
+import com.ibm.wala.ipa.callgraph.propagation.cfa.ZeroXCFABuilder;
+import com.ibm.wala.ipa.callgraph.propagation.cfa.ZeroXInstanceKeys;
+import com.ibm.wala.ipa.cha.IClassHierarchy;
+
+
+/**
+ * The tiers of precision at which a `CallGraphAnalysis` can build a core's call graph, from the
+ * cheapest to the most precise. When building a call graph at some tier exceeds its budget, the
+ * analysis falls back to the next cheaper tier (see `cheaper()`).
+ */
+public enum CallGraphPrecision
+{
+    /**
+     * Rapid type analysis: the call graph is resolved from the class hierarchy and the set of
+     * allocated types, and there is no points-to analysis. So no transfer can be proven safe, and
+     * every transfer site is instrumented with a dynamic check. This tier is never cancelled.
+     */
+    CHA,
+
+    /** Context-insensitive, with one abstract object per allocated type. */
+    ZERO_CFA,
+
+    /**
+     * Context-insensitive, with one abstract object per allocation site (except where WALA
+     * "smushes" the objects of common library types, such as strings and throwables).
+     */
+    ZERO_ONE_CFA,
+
+    /**
+     * Receiver-instance context sensitivity, with one abstract object per allocation site. This
+     * is the most precise tier, and the default one.
+     */
+    RECEIVER_SENSITIVE;
+
+    public static final int RECEIVER_SENSITIVE_INSTANCE_POLICY = ZeroXInstanceKeys.ALLOCATIONS
+                                                               //| ZeroXInstanceKeys.SMUSH_MANY
+                                                               //| ZeroXInstanceKeys.SMUSH_STRINGS
+                                                               | ZeroXInstanceKeys.SMUSH_THROWABLES;
+
+    public static final int ZERO_ONE_CFA_INSTANCE_POLICY = ZeroXInstanceKeys.ALLOCATIONS
+                                                         | ZeroXInstanceKeys.SMUSH_MANY
+                                                         | ZeroXInstanceKeys.SMUSH_PRIMITIVE_HOLDERS
+                                                         | ZeroXInstanceKeys.SMUSH_STRINGS
+                                                         | ZeroXInstanceKeys.SMUSH_THROWABLES;
+
+    /**
+     * @return Whether the tier has a points-to analysis, with which transfers can be proven safe.
+     */
+    public boolean hasPointsTo()
+    {
+        return this != CHA;
+    }
+
+    /**
+     * @return The next cheaper tier, or `null` if this is the cheapest one.
+     */
+    public CallGraphPrecision cheaper()
+    {
+        return (this == CHA) ? null : values()[ordinal() - 1];
+    }
+
+    public PropagationCallGraphBuilder makeBuilder(IClassHierarchy cha, AnalysisOptions options,
+                                                  AnalysisCache cache)
+    {
+        switch (this)
+        {
+        case CHA:
+            return (PropagationCallGraphBuilder) Util.makeRTABuilder(options, cache, cha,
+                                                                     cha.getScope());
+        case ZERO_CFA:
+            return ZeroXCFABuilder.make(cha, options, cache, null, null, ZeroXInstanceKeys.NONE);
+        case ZERO_ONE_CFA:
+            return ZeroXCFABuilder.make(cha, options, cache, null, null,
+                                        ZERO_ONE_CFA_INSTANCE_POLICY);
+        case RECEIVER_SENSITIVE:
+            return ZeroXCFABuilder.make(cha, options, cache, new ReceiverInstanceContextSelector(),
+                                        null, RECEIVER_SENSITIVE_INSTANCE_POLICY);
+        default:
+            throw new IllegalStateException("Unknown call graph precision: " + this);
+        }
+    }
+}
@@ -41,6 +41,7 @@ import org.paninij.soter.transfer.TransferSite;
 
 import com.ibm.wala.classLoader.IMethod;
 import com.ibm.wala.classLoader.ShrikeClass;
+import com.ibm.wala.shrikeBT.ConstantInstruction;
 import com.ibm.wala.shrikeBT.DupInstruction;
 import com.ibm.wala.shrikeBT.InvokeInstruction;
 import com.ibm.wala.shrikeBT.MethodData;
@@ -65,6 +66,9 @@ public class SoterInstrumenter
     protected final Map<String, IdentitySet<TransferSite>> unsafeTransferSitesMap;
     protected final MethodInstrumenter methodInstrumenter;
 
+    // The bytes of the instrumented class file, or `null` if the class did not need to be changed.
+    protected byte[] instrumentedClass;
+
     public SoterInstrumenter(CapsuleCore core, String outputDir, SoterAnalysis sa,
                              ClassInstrumenter instrumenter) throws InvalidClassFileException
     {
@@ -108,18 +112,35 @@ public class SoterInstrumenter
     protected void writeInstrumentedClassFile() throws InvalidClassFileException, IOException
     {
         ClassWriter classWriter = instrumenter.emitClass();
-        FileOutputStream outputStream = new FileOutputStream(outputFilePath);
-        outputStream.write(classWriter.makeBytes());
+        instrumentedClass = classWriter.makeBytes();
+        writeClassFile(outputFilePath, instrumentedClass);
+    }
+
+    public static void writeClassFile(String path, byte[] bytes) throws IOException
+    {
+        FileOutputStream outputStream = new FileOutputStream(path);
+        outputStream.write(bytes);
         outputStream.flush();
         outputStream.close();
     }
+
+    /**
+     * @return The bytes of the instrumented class file which `perform()` wrote, or `null` if the
+     *         core had no unsafe transfer sites, and so was left as it was.
+     */
+    public byte[] getInstrumentedClass()
+    {
+        return instrumentedClass;
+    }
     
     
     private class MethodInstrumenter implements MethodExaminer
     {
         final DupInstruction dup = DupInstruction.make(0);
         final InvokeInstruction assertSafeTransfer = Util.makeInvoke(DynamicOwnershipTransfer.class,
-                                                                     "assertSafeTransfer");
+                                                                     "assertSafeTransfer",
+                                                                     new Class<?>[] {Object.class,
+                                                                                     String.class});
         
         @Override
         public void examineCode(MethodData methodData)
@@ -143,13 +164,18 @@ public class SoterInstrumenter
         {
             MethodEditor methodEditor = new MethodEditor(methodData);
             for (TransferSite site : unsafeTransferSites) {
-                patchUnsafeTransferSite(methodEditor, site);
+                patchUnsafeTransferSite(methodEditor, site, siteName(methodData, site));
             }
             methodEditor.applyPatches();
             methodEditor.endPass();
         }
         
-        private void patchUnsafeTransferSite(MethodEditor methodEditor, TransferSite site)
+        /**
+         * Each instrumented transfer site passes its own name to the dynamic check, so that the
+         * check's sampling state is kept per site (see `DynamicOwnershipTransfer.Site.named()`).
+         */
+        private void patchUnsafeTransferSite(MethodEditor methodEditor, TransferSite site,
+                                             final String siteName)
         {
             methodEditor.beginPass();
             methodEditor.insertBefore(site.getInstruction().iindex, new Patch()
@@ -158,9 +184,21 @@ public class SoterInstrumenter
                 public void emitTo(Output w)
                 {
                     w.emit(dup);
+                    w.emit(ConstantInstruction.makeString(siteName));
                     w.emit(assertSafeTransfer);
                 }
             });
         }
+
+        /**
+         * @return The name of the given transfer site, e.g. `org.example.FooCore#bar(LBaz;)V@12`.
+         */
+        private String siteName(MethodData methodData, TransferSite site)
+        {
+            String classType = methodData.getClassType();
+            String className = classType.substring(1, classType.length() - 1).replace('/', '.');
+            return className + "#" + methodData.getName() + methodData.getSignature() + "@"
+                 + site.getInstruction().iindex;
+        }
     }
 }
@@ -25,6 +25,10 @@
  *******************************************************************************/
 package org.paninij.soter.instrument;
 
+import static java.io.File.separator;
+
+import java.io.IOException;
+
 import org.paninij.soter.SoterAnalysis;
 import org.paninij.soter.model.CapsuleCore;
 
@@ -68,4 +72,14 @@ public class SoterInstrumenterFactory
             throw new IllegalArgumentException(msg);
         }
     }
+
+    /**
+     * Writes the given bytes to the file to which a `SoterInstrumenter` would write the core's
+     * instrumented class (e.g. bytes which were instrumented by an earlier run).
+     */
+    public void writeInstrumentedClass(CapsuleCore core, byte[] instrumentedClass) throws IOException
+    {
+        String path = outputDir + separator + core.getWalaPath().substring(1) + ".class";
+        SoterInstrumenter.writeClassFile(path, instrumentedClass);
+    }
 }
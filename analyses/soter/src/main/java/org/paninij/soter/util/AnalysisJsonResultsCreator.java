@@ -39,8 +39,6 @@ import javax.json.JsonObjectBuilder;
 import javax.json.stream.JsonGenerator;
 import javax.json.stream.JsonGeneratorFactory;
 
-import org.paninij.runtime.util.IdentitySet;
-
 import com.ibm.wala.classLoader.NewSiteReference;
 import com.ibm.wala.ipa.callgraph.CGNode;
 import com.ibm.wala.ipa.callgraph.CallGraph;
@@ -51,6 +49,7 @@ import com.ibm.wala.ipa.callgraph.propagation.LocalPointerKey;
 import com.ibm.wala.ipa.callgraph.propagation.PointerKey;
 import com.ibm.wala.ipa.callgraph.propagation.StaticFieldKey;
 import com.ibm.wala.util.collections.Pair;
+import com.ibm.wala.util.intset.OrdinalSet;
 
 
 /**
@@ -100,6 +99,15 @@ public abstract class AnalysisJsonResultsCreator
             assert json != null;
         }
 
+        jsonString = toJsonString(json);
+        return jsonString;
+    }
+
+    /**
+     * @return The given results in the (pretty-printed) form in which results are logged.
+     */
+    public static String toJsonString(JsonObject json)
+    {
         StringWriter writer = new StringWriter();
         JsonGenerator generator = jsonGeneratorFactory.createGenerator(writer);
         generator.writeStartArray();
@@ -159,7 +167,7 @@ public abstract class AnalysisJsonResultsCreator
         return builder.build();
     }
 
-    protected JsonArray toJson(IdentitySet<InstanceKey> set)
+    protected JsonArray toJson(OrdinalSet<InstanceKey> set)
     {
         JsonArrayBuilder builder = Json.createArrayBuilder();
         for (InstanceKey inst : set) {
@@ -172,17 +180,22 @@ public abstract class AnalysisJsonResultsCreator
     {
         Iterator<Pair<CGNode, NewSiteReference>> iter = inst.getCreationSites(getCallGraph());
 
-        // Assume that the returned iterator has exactly one `next()`.
-        assert iter.hasNext() == true;
-        Pair<CGNode, NewSiteReference> creationSite = iter.next();
-        assert iter.hasNext() == false;
-
         JsonObjectBuilder builder = Json.createObjectBuilder();
         builder.add("type", "InstanceKey");
         builder.add("concreteType", inst.getConcreteType().toString());
-        builder.add("creationSiteMethod", creationSite.fst.getMethod().getSignature());
-        builder.add("creationSiteProgramCounter", creationSite.snd.getProgramCounter());
-        builder.add("context", creationSite.fst.getContext().toString());
+
+        // An allocation-site instance key has exactly one creation site. Other instance keys
+        // (e.g. those of the `ZERO_CFA` precision, one per type) can have any number of them.
+        if (iter.hasNext())
+        {
+            Pair<CGNode, NewSiteReference> creationSite = iter.next();
+            if (iter.hasNext() == false)
+            {
+                builder.add("creationSiteMethod", creationSite.fst.getMethod().getSignature());
+                builder.add("creationSiteProgramCounter", creationSite.snd.getProgramCounter());
+                builder.add("context", creationSite.fst.getContext().toString());
+            }
+        }
         return builder.build();
     }
 }
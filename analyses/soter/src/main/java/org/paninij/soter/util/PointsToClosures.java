@@ -0,0 +1,426 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij.soter.util;
+
+import static org.paninij.soter.util.SoterUtil.isKnownToBeEffectivelyImmutable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.ibm.wala.analysis.pointers.HeapGraph;
+import com.ibm.wala.ipa.callgraph.propagation.InstanceKey;
+import com.ibm.wala.ipa.callgraph.propagation.PointerKey;
+import com.ibm.wala.util.intset.IntSet;
+import com.ibm.wala.util.intset.MutableSparseIntSet;
+import com.ibm.wala.util.intset.OrdinalSet;
+import com.ibm.wala.util.intset.OrdinalSetMapping;
+
+
+/**
+ * Computes the points-to closures of pointer keys w.r.t. a heap graph, `hg`. The points-to closure
+ * of a pointer key `p` is the set of instance keys which are reachable from `p` by alternately
+ * following edges from a pointer key to the instance keys it points to, and from an instance key
+ * to its fields' pointer keys. Instance keys which are known to be effectively immutable are
+ * neither included in a closure nor explored.
+ *
+ * Closures of pointer keys overlap heavily, so they are built from the closures of instance keys,
+ * and those are each computed only once. The instance keys which are mutually reachable (i.e. the
+ * strongly connected components of the graph of instance keys) all have the same closure, so the
+ * components are found with Tarjan's algorithm, and every member of a component shares one
+ * closure. A closure is a sparse bitset over the instance keys' numbers in the pointer analysis's
+ * instance key mapping, so the closure of a component is the union of its members and of the
+ * closures of its successors, and two closures are disjoint iff their bitsets do not intersect.
+ *
+ * Copying the closures of successors into every component would take quadratic time and space on
+ * long chains of instance keys, and wherever many keys point to one big structure. So a component
+ * whose members point into at most one other component's closure only records its members and a
+ * link to that closure; a closure is only turned into a bitset once it is asked for.
+ *
+ * Closures are computed on demand, so only the part of the heap graph which is reachable from the
+ * pointer keys actually asked about is ever explored. The returned sets must not be modified.
+ */
+public class PointsToClosures
+{
+    private static final byte UNKNOWN = 0;
+    private static final byte MUTABLE = 1;
+    private static final byte IMMUTABLE = 2;
+
+    protected final HeapGraph<InstanceKey> hg;
+    protected final OrdinalSetMapping<InstanceKey> instanceKeys;
+    protected final Map<PointerKey, Closure> pointerClosures;
+
+    // The state of each instance key (indexed by its number):
+    private final byte[] mutability;
+    private final int[] dfsIndex;      // 0 if the key has not been visited; else its DFS index.
+    private final int[] lowLink;
+    private final int[][] successors;  // Only kept while the key's component is being found.
+    private final Closure[] closures;  // Set once the key's component has been found.
+
+    private final Deque<Frame> frames = new ArrayDeque<Frame>();
+    private final IntStack componentStack = new IntStack();
+    private int nextDfsIndex = 1;
+
+    public PointsToClosures(HeapGraph<InstanceKey> hg, OrdinalSetMapping<InstanceKey> instanceKeys)
+    {
+        this.hg = hg;
+        this.instanceKeys = instanceKeys;
+        pointerClosures = new HashMap<PointerKey, Closure>();
+
+        int size = instanceKeys.getMaximumIndex() + 1;
+        mutability = new byte[size];
+        dfsIndex = new int[size];
+        lowLink = new int[size];
+        successors = new int[size][];
+        closures = new Closure[size];
+    }
+
+
+    /**
+     * @return The points-to closure of the given pointer key.
+     */
+    public OrdinalSet<InstanceKey> getClosure(PointerKey ptr)
+    {
+        return new OrdinalSet<InstanceKey>(getClosureOf(ptr).getSet(), instanceKeys);
+    }
+
+
+    /**
+     * @return The union of the points-to closures of the given pointer keys.
+     */
+    public OrdinalSet<InstanceKey> getClosure(Iterable<PointerKey> ptrs)
+    {
+        MutableSparseIntSet union = MutableSparseIntSet.makeEmpty();
+        for (PointerKey ptr : ptrs) {
+            getClosureOf(ptr).addTo(union);
+        }
+        return new OrdinalSet<InstanceKey>(union, instanceKeys);
+    }
+
+
+    protected Closure getClosureOf(PointerKey ptr)
+    {
+        Closure closure = pointerClosures.get(ptr);
+        if (closure != null) {
+            return closure;
+        }
+
+        // If the pointer key points into only one closure, then it shares that closure.
+        MutableSparseIntSet union = null;
+        Iterator<Object> iter = hg.getSuccNodes(ptr);
+        while (iter.hasNext())
+        {
+            int key = getMutableNumber((InstanceKey) iter.next());
+            if (key < 0) {
+                continue;
+            }
+            Closure keyClosure = getClosureOf(key);
+            if (closure == null) {
+                closure = keyClosure;
+            } else if (keyClosure != closure) {
+                if (union == null) {
+                    union = MutableSparseIntSet.makeEmpty();
+                    closure.addTo(union);
+                }
+                keyClosure.addTo(union);
+            }
+        }
+        if (union != null) {
+            closure = new Closure(union);
+        } else if (closure == null) {
+            closure = new Closure(MutableSparseIntSet.makeEmpty());
+        }
+        pointerClosures.put(ptr, closure);
+        return closure;
+    }
+
+
+    /**
+     * @return The number of the given instance key, or -1 if it is known to be effectively
+     *         immutable.
+     */
+    private int getMutableNumber(InstanceKey instanceKey)
+    {
+        int key = instanceKeys.getMappedIndex(instanceKey);
+        if (mutability[key] == UNKNOWN) {
+            mutability[key] = isKnownToBeEffectivelyImmutable(instanceKey) ? IMMUTABLE : MUTABLE;
+        }
+        return (mutability[key] == MUTABLE) ? key : -1;
+    }
+
+
+    /**
+     * @return The closure of the (mutable) instance key with the given number, after finding (with
+     *         an iterative version of Tarjan's algorithm) the components of all of the instance
+     *         keys reachable from it which have not yet been found.
+     */
+    private Closure getClosureOf(int root)
+    {
+        if (closures[root] != null) {
+            return closures[root];
+        }
+
+        visit(root);
+        while (frames.isEmpty() == false)
+        {
+            Frame frame = frames.peek();
+            int[] succs = successors[frame.key];
+            if (frame.next < succs.length)
+            {
+                int succ = succs[frame.next++];
+                if (dfsIndex[succ] == 0) {
+                    visit(succ);
+                } else if (closures[succ] == null) {
+                    // The successor is still on the component stack, i.e. in the current path's
+                    // component.
+                    lowLink[frame.key] = Math.min(lowLink[frame.key], dfsIndex[succ]);
+                }
+                continue;
+            }
+
+            frames.pop();
+            if (lowLink[frame.key] == dfsIndex[frame.key]) {
+                closeComponent(frame.key);
+            }
+            if (frames.isEmpty() == false) {
+                int parent = frames.peek().key;
+                lowLink[parent] = Math.min(lowLink[parent], lowLink[frame.key]);
+            }
+        }
+
+        assert closures[root] != null;
+        return closures[root];
+    }
+
+
+    private void visit(int key)
+    {
+        dfsIndex[key] = nextDfsIndex;
+        lowLink[key] = nextDfsIndex;
+        nextDfsIndex++;
+        successors[key] = findSuccessors(key);
+        componentStack.push(key);
+        frames.push(new Frame(key));
+    }
+
+
+    /**
+     * @return The numbers of the mutable instance keys which the fields of the given instance key
+     *         point to.
+     */
+    private int[] findSuccessors(int key)
+    {
+        MutableSparseIntSet succs = MutableSparseIntSet.makeEmpty();
+        Iterator<Object> fields = hg.getSuccNodes(instanceKeys.getMappedObject(key));
+        while (fields.hasNext())
+        {
+            Iterator<Object> targets = hg.getSuccNodes(fields.next());
+            while (targets.hasNext())
+            {
+                int succ = getMutableNumber((InstanceKey) targets.next());
+                if (succ >= 0) {
+                    succs.add(succ);
+                }
+            }
+        }
+        return succs.toIntArray();
+    }
+
+
+    /**
+     * Pops the component whose root is the given key off of the component stack, and gives all of
+     * its members their (shared) closure. Every successor of a member is either in the component,
+     * or in a component which was already closed.
+     */
+    private void closeComponent(int root)
+    {
+        int top = componentStack.size();
+        int bottom = top;
+        do {
+            bottom--;
+        } while (componentStack.get(bottom) != root);
+
+        int[] members = new int[top - bottom];
+        for (int idx = bottom; idx < top; idx++) {
+            members[idx - bottom] = componentStack.get(idx);
+        }
+        componentStack.truncate(bottom);
+
+        // Find the distinct closures which the members point into, other than their own.
+        List<Closure> rests = new ArrayList<Closure>();
+        for (int member : members)
+        {
+            for (int succ : successors[member])
+            {
+                Closure rest = closures[succ];
+                if (rest != null && rest.lastSeenBy != root) {
+                    rest.lastSeenBy = root;
+                    rests.add(rest);
+                }
+            }
+            successors[member] = null;
+        }
+
+        Closure closure;
+        if (rests.size() <= 1) {
+            closure = new Closure(members, rests.isEmpty() ? null : rests.get(0));
+        } else {
+            MutableSparseIntSet set = MutableSparseIntSet.makeEmpty();
+            new Closure(members, null).addTo(set);
+            for (Closure rest : rests) {
+                rest.addTo(set);
+            }
+            closure = new Closure(set);
+        }
+        for (int member : members) {
+            closures[member] = closure;
+        }
+    }
+
+
+    /**
+     * The closure of a component. It is either a set, or the members of a component together with
+     * a link to the closure of the only other component which they point to (if any).
+     */
+    private static final class Closure
+    {
+        final int[] members;
+        final Closure rest;
+        IntSet set;
+        int lastSeenBy = -1;
+
+        Closure(IntSet set)
+        {
+            this.members = null;
+            this.rest = null;
+            this.set = set;
+        }
+
+        Closure(int[] members, Closure rest)
+        {
+            this.members = members;
+            this.rest = rest;
+        }
+
+        /**
+         * @return The closure as a set, which is built from the links the first time it is needed.
+         */
+        IntSet getSet()
+        {
+            if (set == null)
+            {
+                MutableSparseIntSet built = MutableSparseIntSet.makeEmpty();
+                addTo(built);
+                set = built;
+            }
+            return set;
+        }
+
+        /**
+         * Adds all of the keys in this closure to the given set. The members along the links are
+         * sorted first, so that they are added in one merge rather than one insertion each.
+         */
+        void addTo(MutableSparseIntSet target)
+        {
+            IntStack linked = new IntStack();
+            Closure closure = this;
+            while (closure != null && closure.set == null)
+            {
+                for (int member : closure.members) {
+                    linked.push(member);
+                }
+                closure = closure.rest;
+            }
+
+            int[] sorted = linked.toSortedArray();
+            if (sorted.length > 0)
+            {
+                MutableSparseIntSet keys =
+                        MutableSparseIntSet.createMutableSparseIntSet(sorted.length);
+                for (int key : sorted) {
+                    keys.add(key);
+                }
+                target.addAll(keys);
+            }
+            if (closure != null) {
+                target.addAll(closure.set);
+            }
+        }
+    }
+
+
+    /**
+     * A key whose successors are being explored, and the position of the next one to explore.
+     */
+    private static final class Frame
+    {
+        final int key;
+        int next;
+
+        Frame(int key) {
+            this.key = key;
+        }
+    }
+
+
+    private static final class IntStack
+    {
+        private int[] data = new int[16];
+        private int size;
+
+        void push(int val)
+        {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size << 1);
+            }
+            data[size++] = val;
+        }
+
+        int get(int idx) {
+            return data[idx];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void truncate(int newSize) {
+            size = newSize;
+        }
+
+        int[] toSortedArray()
+        {
+            int[] sorted = Arrays.copyOf(data, size);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+}
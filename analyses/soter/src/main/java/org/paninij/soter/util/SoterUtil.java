@@ -34,13 +34,11 @@ import java.util.function.BiPredicate;
 import org.paninij.runtime.util.IdentitySet;
 import org.paninij.runtime.util.IdentityStack;
 
-import com.ibm.wala.analysis.pointers.HeapGraph;
 import com.ibm.wala.classLoader.CallSiteReference;
 import com.ibm.wala.classLoader.IClass;
 import com.ibm.wala.ipa.callgraph.CGNode;
 import com.ibm.wala.ipa.callgraph.CallGraph;
 import com.ibm.wala.ipa.callgraph.propagation.InstanceKey;
-import com.ibm.wala.ipa.callgraph.propagation.PointerKey;
 import com.ibm.wala.ipa.cha.IClassHierarchy;
 import com.ibm.wala.types.MethodReference;
 import com.ibm.wala.types.TypeReference;
@@ -82,7 +80,7 @@ public class SoterUtil
                 // both `closure` and `workstack`.
                 n = preds.next();
                 if (closure.add(n)) {
-                    workstack.push(n);
+                    workstack.add(n);
                 }
             }
         }
@@ -95,49 +93,6 @@ public class SoterUtil
     }
 
 
-    /**
-     * Makes and returns the points-to closure of the given `PointerKey` w.r.t. the given heap
-     * graph, `hg`. For two nodes in `hg`, `p` and `q`, the points-to relation (for this `hg`)
-     * 
-     *     p PT q
-     *      
-     * is satisfied iff `p` points to `q`.
-     * 
-     * TODO: This is not a good description, because it does not take into account the alternation
-     * between `PointerKey` nodes and `InstanceKey` nodes.
-     */
-    public static IdentitySet<InstanceKey> makePointsToClosure(PointerKey ptr,
-                                                               HeapGraph<InstanceKey> hg)
-    {
-        IdentitySet<InstanceKey> closure = new IdentitySet<InstanceKey>();
-
-        IdentityStack<PointerKey> workstack = new IdentityStack<PointerKey>();
-        InstanceKey instanceKey;
-        Iterator<Object> instanceKeyIter;
-
-        workstack.push(ptr);
-        while ((ptr = workstack.pop()) != null)
-        {
-            // Explore the pointer key.
-            instanceKeyIter = hg.getSuccNodes(ptr);
-            while (instanceKeyIter.hasNext())
-            {
-                // Explore all of its instance keys.
-                instanceKey = (InstanceKey) instanceKeyIter.next();
-                if (!closure.contains(instanceKey) && !isKnownToBeEffectivelyImmutable(instanceKey))
-                {
-                    closure.add(instanceKey);
-                    Iterator<Object> pointerKeyIter = hg.getSuccNodes(instanceKey);
-                    while (pointerKeyIter.hasNext()) {
-                        workstack.push((PointerKey) pointerKeyIter.next());
-                    }
-                }
-            }
-        }
-        return closure;
-    }
-    
-    
     public static boolean isKnownToBeEffectivelyImmutable(InstanceKey instanceKey)
     {
         return isKnownToBeEffectivelyImmutable(instanceKey.getConcreteType().getName().toString());
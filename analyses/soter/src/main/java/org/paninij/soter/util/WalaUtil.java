@@ -28,9 +28,11 @@ package org.paninij.soter.util;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.MissingResourceException;
 import java.util.Set;
 
@@ -60,15 +62,15 @@ public class WalaUtil
     public static final String DEFAULT_EXCLUSIONS_FILENAME = "Exclusions.txt";
 
     public static final String DOT_EXECUTABLE = "/usr/local/bin/dot";
-    public static final String DOT_TEMPORARY_FILE = "callgraph_temp_file.dot"; 
+    public static final String DOT_TEMPORARY_FILE_PREFIX = "callgraph_temp_file";
     
-    private static final String[] REQUIRED_RESOURCES = {
+    public static final List<String> REQUIRED_RESOURCES = Collections.unmodifiableList(Arrays.asList(
         "wala.properties",
         "Exclusions.txt",
         "primordial.txt",
         "primordial.jar.model",
         "natives.xml"
-    };
+    ));
     
     
     public static void checkRequiredResourcesExist()
@@ -170,12 +172,15 @@ public class WalaUtil
     }
     
     
+    /**
+     * Note that this may be called concurrently: every call uses its own temporary `dot` file.
+     */
     public static <T> void makeGraphFile(Graph<T> graph, String filename)
     {
         try
         {
-            DotUtil.dotify(graph, null, DOT_TEMPORARY_FILE, filename, DOT_EXECUTABLE);
-            Path path = FileSystems.getDefault().getPath(DOT_TEMPORARY_FILE);
+            Path path = Files.createTempFile(DOT_TEMPORARY_FILE_PREFIX, ".dot");
+            DotUtil.dotify(graph, null, path.toString(), filename, DOT_EXECUTABLE);
             Files.delete(path);
         }
         catch (WalaException ex)
@@ -185,7 +190,7 @@ public class WalaUtil
         }
         catch (IOException ex)
         {
-            String msg = "Could not delete the `dot` temporary file.";
+            String msg = "Could not create or delete the `dot` temporary file.";
             throw new IllegalArgumentException(msg);
         }
     }
@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.paninij.benchmarks.scale.Fleet;
+import org.paninij.benchmarks.scale.ScaleConfig;
+import org.paninij.lang.CapsuleSystem;
+import org.paninij.lang.ExecutionProfile;
+import org.paninij.runtime.Panini$System;
+
+/**
+ * Measures how the execution profiles scale with the number of (mostly idle) capsules. Each
+ * invocation creates, starts, and terminates a whole `Fleet` of `capsules` capsules, so the scores
+ * are times per capsule system.
+ *
+ * The THREAD profile is not included, since it needs one OS thread per capsule. The
+ * VIRTUAL_THREAD profile only runs capsules on virtual threads on Java 21 or later.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class CapsuleScaleBenchmark
+{
+    private static final String[] NO_ARGS = {};
+
+    @Param({"10000", "100000", "1000000"})
+    public int capsules;
+
+    @Param({"VIRTUAL_THREAD", "TASK"})
+    public ExecutionProfile profile;
+
+    @Setup
+    public void setup() {
+        ScaleConfig.CAPSULES = capsules;
+    }
+
+    /**
+     * Creates, starts, and terminates the capsules without sending them any messages.
+     */
+    @Benchmark
+    public void create() throws InterruptedException {
+        ScaleConfig.MESSAGES = 0;
+        runFleet();
+    }
+
+    /**
+     * Creates, starts, and terminates the capsules after sending 10 messages to each of them.
+     */
+    @Benchmark
+    public void throughput() throws InterruptedException {
+        ScaleConfig.MESSAGES = 10;
+        runFleet();
+    }
+
+    private void runFleet() throws InterruptedException {
+        CapsuleSystem.start(Fleet.class, profile, NO_ARGS);
+        Panini$System.threads.await();
+    }
+}
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.paninij.runtime.check.DynamicOwnershipTransfer;
+import org.paninij.runtime.util.IdentitySet;
+
+/**
+ * Measures how the identity-set operations behind ownership checking scale with the size of the
+ * object graphs involved: the runtime `REFLECTION` check, and the disjointness test which Soter
+ * performs at each transfer site (between the objects live after the site and the objects escaping
+ * through it).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class IdentitySetBenchmark
+{
+    /**
+     * A node of a random graph, in which every node has two out-edges.
+     */
+    static class Node
+    {
+        Node left;
+        Node right;
+        int value;
+    }
+
+    /** The number of nodes in each graph, and of objects in each of Soter's sets. */
+    @Param({"1000", "10000", "100000"})
+    public int nodes;
+
+    private Node message;
+    private Node[] state;
+
+    private Object[] live;
+    private Object[] escaped;
+
+    @Setup
+    public void setup()
+    {
+        Random random = new Random(42);
+        message = graph(random)[0];
+        state = graph(random);
+
+        live = new Object[nodes];
+        escaped = new Object[nodes];
+        for (int i = 0; i < nodes; i++) {
+            live[i] = new Object();
+            escaped[i] = new Object();
+        }
+    }
+
+    /**
+     * @return The nodes of a random graph in which every node is reachable from the first.
+     */
+    private Node[] graph(Random random)
+    {
+        Node[] graph = new Node[nodes];
+        for (int i = 0; i < nodes; i++) {
+            graph[i] = new Node();
+            graph[i].value = i;
+        }
+        for (int i = 0; i < nodes; i++) {
+            graph[i].left = graph[(i + 1) % nodes];
+            graph[i].right = graph[random.nextInt(nodes)];
+        }
+        return graph;
+    }
+
+    /**
+     * Checks the transfer of a message graph of `nodes` nodes from a capsule whose state is another
+     * such graph.
+     */
+    @Benchmark
+    public boolean ownershipCheck() {
+        return DynamicOwnershipTransfer.REFLECTION.isSafeTransfer(message, state);
+    }
+
+    /**
+     * Builds Soter's sets of live and of escaped objects at a transfer site, and tests whether they
+     * are disjoint.
+     */
+    @Benchmark
+    public boolean soterTransferSite()
+    {
+        IdentitySet<Object> liveObjects = new IdentitySet<Object>();
+        for (Object obj : live) {
+            liveObjects.add(obj);
+        }
+        IdentitySet<Object> escapedObjects = new IdentitySet<Object>();
+        for (Object obj : escaped) {
+            escapedObjects.add(obj);
+        }
+        return liveObjects.isDisjointFrom(escapedObjects);
+    }
+}
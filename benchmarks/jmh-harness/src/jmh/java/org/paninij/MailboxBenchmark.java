@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.paninij.runtime.Panini$Mailbox;
+
+/**
+ * Measures the fan-in throughput of each kind of mailbox: several producer threads push onto the
+ * one mailbox while a single consumer thread drains it.
+ */
+@State(Scope.Group)
+public class MailboxBenchmark
+{
+    /**
+     * Producers back off whenever the consumer falls this far behind, so that an unbounded mailbox
+     * cannot grow without limit over the course of an iteration.
+     */
+    private static final int MAX_BACKLOG = 1 << 16;
+
+    private static final Object MESSAGE = new Object();
+
+    @Param({"MPSC", "RING"})
+    public Panini$Mailbox.Kind kind;
+
+    private Panini$Mailbox mailbox;
+
+    @Setup
+    public void setup() {
+        mailbox = kind.newMailbox();
+    }
+
+    @Benchmark
+    @Group("fanIn")
+    @GroupThreads(4)
+    public void push() {
+        while (mailbox.size() > MAX_BACKLOG) {
+            Thread.yield();
+        }
+        mailbox.push(MESSAGE);
+    }
+
+    @Benchmark
+    @Group("fanIn")
+    @GroupThreads(1)
+    public Object poll() {
+        return mailbox.poll();
+    }
+}
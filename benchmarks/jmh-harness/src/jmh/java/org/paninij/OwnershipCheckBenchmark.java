@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.paninij.runtime.check.DynamicOwnershipTransfer;
+
+/**
+ * Measures the `REFLECTION` dynamic ownership check on a message graph shaped like a typical
+ * request: an order holding a customer and a list of line items, sent by a capsule whose state is a
+ * map of such orders. Each check walks both the message's graph and the capsule's state.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OwnershipCheckBenchmark
+{
+    enum Status { OPEN, SHIPPED }
+
+    /** Immutable, so neither recorded nor walked by the check. */
+    static final class Sku
+    {
+        final String code;
+        final long price;
+
+        Sku(String code, long price) {
+            this.code = code;
+            this.price = price;
+        }
+    }
+
+    static class Entity
+    {
+        long version;
+    }
+
+    static class Customer extends Entity
+    {
+        String name;
+        String[] addressLines;
+    }
+
+    static class LineItem extends Entity
+    {
+        Sku sku;
+        int quantity;
+    }
+
+    static class Order extends Entity
+    {
+        String id;
+        Status status = Status.OPEN;
+        Customer customer;
+        List<LineItem> items = new ArrayList<LineItem>();
+    }
+
+    /** The number of line items in each order. */
+    @Param({"10", "100", "1000"})
+    public int items;
+
+    /** The number of orders in the sending capsule's state. */
+    @Param({"100"})
+    public int orders;
+
+    private Order message;
+    private Object[] state;
+
+    @Setup
+    public void setup()
+    {
+        message = order("message");
+        Map<String, Order> book = new HashMap<String, Order>();
+        for (int i = 0; i < orders; i++) {
+            Order order = order("order-" + i);
+            book.put(order.id, order);
+        }
+        state = new Object[] { book, new ArrayList<Order>(book.values()) };
+
+        if (!DynamicOwnershipTransfer.REFLECTION.isSafeTransfer(message, state)) {
+            throw new IllegalStateException("The benchmark's message must be safe to transfer.");
+        }
+    }
+
+    private Order order(String id)
+    {
+        Order order = new Order();
+        order.id = id;
+        order.customer = new Customer();
+        order.customer.name = "customer of " + id;
+        order.customer.addressLines = new String[] { "1 Main St", "Ames, IA" };
+        for (int i = 0; i < items; i++) {
+            LineItem item = new LineItem();
+            item.sku = new Sku("sku-" + i, i);
+            item.quantity = i % 7;
+            order.items.add(item);
+        }
+        return order;
+    }
+
+    /**
+     * Checks a message which shares nothing with the capsule's state.
+     */
+    @Benchmark
+    public boolean safeTransfer() {
+        return DynamicOwnershipTransfer.REFLECTION.isSafeTransfer(message, state);
+    }
+
+    /**
+     * Checks a message which aliases part of the capsule's state, which the check must reject.
+     */
+    @Benchmark
+    public boolean unsafeTransfer() {
+        return DynamicOwnershipTransfer.REFLECTION.isSafeTransfer(state[1], state);
+    }
+}
@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.paninij.runtime.Panini$Mailbox;
+import org.paninij.runtime.Panini$System;
+
+import edu.rice.habanero.benchmarks.big.Big$Thread;
+import edu.rice.habanero.benchmarks.fjthrput.Throughput$Thread;
+
+/**
+ * Runs the Savina workloads whose capsules are dominated by fan-in (fjthrput and big) with each
+ * kind of mailbox.
+ */
+@State(Scope.Benchmark)
+public class SavinaMailboxBenchmark
+{
+    @Param({"MPSC", "RING"})
+    public Panini$Mailbox.Kind kind;
+
+    @Setup
+    public void setup() {
+        Panini$System.MAILBOX_KIND = kind;
+    }
+
+    @Benchmark
+    public void runThroughput() throws InterruptedException {
+        Throughput$Thread.main(null);
+        Panini$System.threads.await();
+    }
+
+    @Benchmark
+    public void runBig() throws InterruptedException {
+        Big$Thread.main(null);
+        Panini$System.threads.await();
+    }
+}
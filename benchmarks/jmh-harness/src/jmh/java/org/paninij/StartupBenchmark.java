@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.paninij.benchmarks.scale.Boot;
+import org.paninij.benchmarks.scale.BootGate;
+import org.paninij.benchmarks.scale.ScaleConfig;
+import org.paninij.lang.CapsuleSystem;
+import org.paninij.lang.ExecutionProfile;
+import org.paninij.runtime.Panini$System;
+
+/**
+ * Measures how long a capsule system with a large `@Local` capsule array takes to start up (i.e.
+ * until its root begins to run) under each startup mode. Shutting the system down again is not
+ * measured.
+ *
+ * The THREAD profile is not included, since it needs one OS thread per capsule. The
+ * VIRTUAL_THREAD profile only runs capsules on virtual threads on Java 21 or later.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class StartupBenchmark
+{
+    public enum Startup { SEQUENTIAL, PARALLEL, LAZY }
+
+    private static final String[] NO_ARGS = {};
+
+    @Param({"1000", "50000"})
+    public int capsules;
+
+    @Param({"VIRTUAL_THREAD", "TASK"})
+    public ExecutionProfile profile;
+
+    @Param({"SEQUENTIAL", "PARALLEL", "LAZY"})
+    public Startup startup;
+
+    @Setup
+    public void setup() {
+        ScaleConfig.CAPSULES = capsules;
+        Panini$System.PARALLEL_STARTUP_THRESHOLD =
+                (startup == Startup.PARALLEL) ? 1024 : Integer.MAX_VALUE;
+        Panini$System.LAZY_ACTIVATION = (startup == Startup.LAZY);
+    }
+
+    @Benchmark
+    public void boot() throws InterruptedException {
+        BootGate.reset();
+        Thread root = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                CapsuleSystem.start(Boot.class, profile, NO_ARGS);
+            }
+        });
+        root.start();
+        BootGate.awaitBoot();
+    }
+
+    @TearDown(Level.Invocation)
+    public void shutdown() throws InterruptedException {
+        BootGate.shutdown();
+        Panini$System.threads.awaitTermination();
+    }
+}
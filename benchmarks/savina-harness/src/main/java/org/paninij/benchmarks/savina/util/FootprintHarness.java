@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij.benchmarks.savina.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.ProcessBuilder.Redirect;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.paninij.benchmarks.scale.Boot;
+import org.paninij.benchmarks.scale.BootGate;
+import org.paninij.benchmarks.scale.ScaleConfig;
+import org.paninij.lang.CapsuleSystem;
+import org.paninij.lang.ExecutionProfile;
+import org.paninij.runtime.Panini$System;
+
+/**
+ * Reports how many bytes of heap each idle capsule retains under each execution profile, by
+ * starting a `Boot` capsule system and comparing the heap used (after a full collection) before
+ * it was started and once it has booted. Only the heap is measured: the stacks of the threads of
+ * the THREAD profile are not.
+ *
+ * Each profile is measured in a JVM of its own (with the same JVM arguments as the harness), so
+ * that whatever one profile leaves behind (e.g. loaded classes, worker pools, or a grown heap) is
+ * not charged to the next. That JVM first boots and shuts down a system as a warm-up, and then
+ * boots one with half of the capsules and one with all of them. The reported footprint is the
+ * slope between those two sizes, so the fixed cost of a capsule system cancels out.
+ *
+ * Usage: `FootprintHarness [capsules [profile...]]`, e.g. `FootprintHarness 100000 TASK SERIAL`.
+ * Run it with `-Dpanini.footprint=compact` to measure the compact footprint mode.
+ */
+public class FootprintHarness
+{
+    private static final String[] NO_ARGS = {};
+
+    /** The first argument with which the harness runs itself to measure just one profile. */
+    private static final String MEASURE = "--measure";
+
+    private static final ExecutionProfile[] DEFAULT_PROFILES = {
+        ExecutionProfile.TASK,
+        ExecutionProfile.VIRTUAL_THREAD,
+        ExecutionProfile.MONITOR,
+        ExecutionProfile.SERIAL,
+    };
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        if (args.length == 3 && args[0].equals(MEASURE)) {
+            int capsules = Integer.parseInt(args[1]);
+            System.out.println(measureSlope(ExecutionProfile.valueOf(args[2]), capsules));
+            return;
+        }
+
+        int capsules = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+        if (capsules < 2) {
+            throw new IllegalArgumentException("At least 2 capsules are needed to find a slope.");
+        }
+        ExecutionProfile[] profiles = DEFAULT_PROFILES;
+        if (args.length > 1) {
+            profiles = new ExecutionProfile[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                profiles[i - 1] = ExecutionProfile.valueOf(args[i].toUpperCase());
+            }
+        }
+
+        System.out.println("footprint: " + (Panini$System.COMPACT_FOOTPRINT ? "compact" : "default")
+                           + ", capsules: " + capsules / 2 + " to " + capsules);
+        for (ExecutionProfile profile : profiles) {
+            double bytes = measureInNewJvm(profile, capsules);
+            System.out.printf("%-16s %10.1f bytes/capsule%n", profile, bytes);
+        }
+    }
+
+    /**
+     * Runs this harness in a new JVM to measure the given profile.
+     *
+     * @return The number of bytes retained per capsule, as reported by `measureSlope()`.
+     */
+    private static double measureInNewJvm(ExecutionProfile profile, int capsules)
+            throws IOException, InterruptedException
+    {
+        List<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator
+                    + "java");
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(FootprintHarness.class.getName());
+        command.add(MEASURE);
+        command.add(Integer.toString(capsules));
+        command.add(profile.name());
+
+        Process process = new ProcessBuilder(command).redirectError(Redirect.INHERIT).start();
+        String last = null;
+        try (BufferedReader out = new BufferedReader(
+                new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = out.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    last = line.trim();
+                }
+            }
+        }
+        int status = process.waitFor();
+        if (status != 0 || last == null) {
+            throw new IllegalStateException("Measuring " + profile + " failed (exit status "
+                                            + status + ").");
+        }
+        return Double.parseDouble(last);
+    }
+
+    /**
+     * @return The number of bytes retained per capsule, between a booted `Boot` system of half of
+     *         the given number of capsules and one of all of them, once a first system has been
+     *         booted and shut down as a warm-up.
+     */
+    private static double measureSlope(ExecutionProfile profile, int capsules)
+            throws InterruptedException
+    {
+        int half = capsules / 2;
+        measure(profile, half);
+        long small = measure(profile, half);
+        long large = measure(profile, capsules);
+        return (double) (large - small) / (capsules - half);
+    }
+
+    /**
+     * @return The number of bytes retained by a booted `Boot` system of the given number of
+     *         capsules, run with the given profile.
+     */
+    private static long measure(final ExecutionProfile profile, int capsules)
+            throws InterruptedException
+    {
+        ScaleConfig.CAPSULES = capsules;
+        BootGate.reset();
+        long before = usedHeap();
+
+        Thread root = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                CapsuleSystem.start(Boot.class, profile, NO_ARGS);
+            }
+        });
+        root.start();
+        BootGate.awaitBoot();
+        long after = usedHeap();
+
+        BootGate.shutdown();
+        Panini$System.threads.awaitTermination();
+        root.join();
+        return after - before;
+    }
+
+    /**
+     * @return The number of bytes of heap in use once the garbage collector has settled.
+     */
+    private static long usedHeap() throws InterruptedException
+    {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(50);
+            used = Math.min(used, memory.getHeapMemoryUsage().getUsed());
+        }
+        return used;
+    }
+}
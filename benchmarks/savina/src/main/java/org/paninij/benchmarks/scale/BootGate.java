@@ -23,45 +23,45 @@
  * 	David Johnston,
  * 	Trey Erenberger
  *******************************************************************************/
-package org.paninij.runtime;
+package org.paninij.benchmarks.scale;
 
 import java.util.concurrent.CountDownLatch;
 
-public class Panini$Latch {
-    private CountDownLatch latch;
-    private final Object lock = new Object();
+/**
+ * Lets a harness wait until a `Boot` capsule system has started up (i.e. its root has started all
+ * of its children and begun to run), and then tell it to shut down.
+ */
+public class BootGate
+{
+    private static CountDownLatch booted = new CountDownLatch(1);
+    private static CountDownLatch shutdown = new CountDownLatch(1);
 
-    public Panini$Latch() {
-        this.latch = new CountDownLatch(0);
+    /**
+     * Prepares the gate for the next `Boot`.
+     */
+    public static void reset() {
+        booted = new CountDownLatch(1);
+        shutdown = new CountDownLatch(1);
     }
 
-    public Panini$Latch(int count) {
-        this.latch = new CountDownLatch(count);
+    public static void awaitBoot() throws InterruptedException {
+        booted.await();
     }
 
-    public void await() throws InterruptedException {
-        synchronized(lock) {
-            while (latch.getCount() != 0) lock.wait();
-        }
+    public static void shutdown() {
+        shutdown.countDown();
     }
 
-    public void countDown() throws InterruptedException {
-        synchronized(lock) {
-            latch.countDown();
-            lock.notifyAll();
-        }
-    }
-
-    public void countUp() throws InterruptedException {
-        synchronized(lock) {
-            latch = new CountDownLatch((int) latch.getCount() + 1);
-            lock.notifyAll();
-        }
+    static void booted() {
+        booted.countDown();
     }
 
-    public int getCount() {
-        synchronized(lock) {
-            return (int) latch.getCount();
+    static void awaitShutdown() {
+        while (true) {
+            try {
+                shutdown.await();
+                return;
+            } catch (InterruptedException e) { /* Do nothing: try again to wait indefinitely. */ }
         }
     }
 }
@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij.benchmarks.scale;
+
+import org.paninij.lang.Capsule;
+import org.paninij.lang.Local;
+import org.paninij.lang.Root;
+
+/**
+ * A root capsule with `ScaleConfig.CAPSULES` mostly-idle children, to which it sends
+ * `ScaleConfig.MESSAGES` messages each (round-robin). With no messages, running a `Fleet` measures
+ * just the creation, startup, and termination of its capsules.
+ */
+@Root
+@Capsule
+class FleetCore
+{
+    @Local Session[] sessions = new Session[ScaleConfig.CAPSULES];
+
+    void run() {
+        for (int m = 0; m < ScaleConfig.MESSAGES; m++) {
+            for (Session s : sessions) {
+                s.touch(m);
+            }
+        }
+        for (Session s : sessions) {
+            s.exit();
+        }
+    }
+}
@@ -0,0 +1,371 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij.runtime;
+
+import java.util.concurrent.ForkJoinPool;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+/**
+ * The runtime's JDK Flight Recorder events. `Panini$Flight` loads this class reflectively, and
+ * only once it has found JFR, since it cannot be loaded on a JVM without JFR. It is kept out of
+ * the main source set because it cannot be compiled against a Java 8 platform without JFR either.
+ *
+ * <p>Every event is created, checked with `isEnabled()`, and dropped when no recording enables it,
+ * so once the JIT has inlined these methods, a disabled event costs neither an allocation nor a
+ * call.
+ */
+final class Panini$FlightEvents implements Panini$Flight.Events
+{
+    static {
+        FlightRecorder.addPeriodicEvent(TaskPoolStatistics.class, new Runnable() {
+            @Override
+            public void run() {
+                Panini$TaskPool pool = Panini$TaskPool.current();
+                if (pool != null) {
+                    ForkJoinPool workers = pool.workers();
+                    TaskPoolStatistics event = new TaskPoolStatistics();
+                    event.liveCapsules = pool.live();
+                    event.workers = workers.getPoolSize();
+                    event.activeWorkers = workers.getActiveThreadCount();
+                    event.idleWorkers = Math.max(0, event.workers - event.activeWorkers);
+                    event.steals = workers.getStealCount();
+                    event.queuedCapsules = workers.getQueuedTaskCount()
+                                         + workers.getQueuedSubmissionCount();
+                    event.commit();
+                }
+            }
+        });
+    }
+
+    Panini$FlightEvents() { }
+
+    @Override
+    public void capsuleStarted(Object capsule)
+    {
+        CapsuleStart event = new CapsuleStart();
+        if (event.isEnabled()) {
+            event.capsuleType = Panini$Metrics.capsuleType(capsule.getClass());
+            event.capsuleId = System.identityHashCode(capsule);
+            event.commit();
+        }
+    }
+
+    @Override
+    public void capsuleTerminated(Object capsule)
+    {
+        CapsuleTerminate event = new CapsuleTerminate();
+        if (event.isEnabled()) {
+            event.capsuleType = Panini$Metrics.capsuleType(capsule.getClass());
+            event.capsuleId = System.identityHashCode(capsule);
+            event.commit();
+        }
+    }
+
+    @Override
+    public void enqueued(Object capsule, Object msg, int count, Panini$Mailbox mailbox)
+    {
+        MessageEnqueue event = new MessageEnqueue();
+        if (event.isEnabled()) {
+            event.capsuleType = Panini$Metrics.capsuleType(capsule.getClass());
+            event.capsuleId = System.identityHashCode(capsule);
+            event.procedure = procedureName(capsule, msg);
+            event.messages = count;
+            event.mailboxDepth = mailbox.size();
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object executionStarted()
+    {
+        ProcedureExecution event = new ProcedureExecution();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void executionEnded(Object started, Object capsule, int procID)
+    {
+        ProcedureExecution event = (ProcedureExecution) started;
+        event.end();
+        if (event.shouldCommit()) {
+            event.capsuleType = Panini$Metrics.capsuleType(capsule.getClass());
+            event.capsuleId = System.identityHashCode(capsule);
+            event.procedure = procedureName(capsule, procID);
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object waitStarted()
+    {
+        MessageWait event = new MessageWait();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void waitEnded(Object started, Object awaited)
+    {
+        MessageWait event = (MessageWait) started;
+        event.end();
+        if (event.shouldCommit()) {
+            event.messageType = (awaited == null) ? null : awaited.getClass().getName();
+            event.procedureId = (awaited instanceof Panini$Message)
+                              ? ((Panini$Message) awaited).panini$msgID()
+                              : Integer.MIN_VALUE;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object batchStarted()
+    {
+        TaskBatch event = new TaskBatch();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void batchEnded(Object started, Object capsule, int messages)
+    {
+        TaskBatch event = (TaskBatch) started;
+        event.end();
+        if (event.shouldCommit()) {
+            event.capsuleType = Panini$Metrics.capsuleType(capsule.getClass());
+            event.capsuleId = System.identityHashCode(capsule);
+            event.messages = messages;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void ownershipViolation(String site, Object transfer)
+    {
+        OwnershipViolation event = new OwnershipViolation();
+        if (event.isEnabled()) {
+            Object capsule = Panini$System.self.get();
+            event.capsuleType = (capsule == null) ? null
+                              : Panini$Metrics.capsuleType(capsule.getClass());
+            event.site = site;
+            event.transferType = transfer.getClass().getName();
+            event.commit();
+        }
+    }
+
+    private static String procedureName(Object capsule, Object msg) {
+        return (msg instanceof Panini$Message)
+             ? procedureName(capsule, ((Panini$Message) msg).panini$msgID())
+             : null;
+    }
+
+    /**
+     * @return The signature of the given capsule's procedure, or the name of a control message.
+     */
+    private static String procedureName(Object capsule, int procID)
+    {
+        switch (procID) {
+        case Capsule$Thread.PANINI$CLOSE_LINK:
+            return "<close link>";
+        case Capsule$Thread.PANINI$TERMINATE:
+            return "<terminate>";
+        case Capsule$Thread.PANINI$CONTINUE:
+            return "<continuation>";
+        }
+        String[] names = Panini$Metrics.NO_PROCEDURES;
+        if (capsule instanceof Capsule$Thread) {
+            names = ((Capsule$Thread) capsule).panini$procedureNames();
+        } else if (capsule instanceof Capsule$Task) {
+            names = ((Capsule$Task) capsule).panini$procedureNames();
+        }
+        return (procID >= 0 && procID < names.length) ? names[procID] : "#" + procID;
+    }
+
+
+    @Name("org.paninij.CapsuleStart")
+    @Label("Capsule Start")
+    @Category({"PaniniJ"})
+    @StackTrace(false)
+    static final class CapsuleStart extends Event
+    {
+        @Label("Capsule Type")
+        String capsuleType;
+
+        @Label("Capsule Id")
+        @Description("The capsule's identity hash code.")
+        int capsuleId;
+    }
+
+    @Name("org.paninij.CapsuleTerminate")
+    @Label("Capsule Terminate")
+    @Category({"PaniniJ"})
+    @StackTrace(false)
+    static final class CapsuleTerminate extends Event
+    {
+        @Label("Capsule Type")
+        String capsuleType;
+
+        @Label("Capsule Id")
+        @Description("The capsule's identity hash code.")
+        int capsuleId;
+    }
+
+    @Name("org.paninij.MessageEnqueue")
+    @Label("Message Enqueue")
+    @Description("Messages pushed onto a capsule's mailbox, by the thread which pushed them.")
+    @Category({"PaniniJ"})
+    @StackTrace(false)
+    static final class MessageEnqueue extends Event
+    {
+        @Label("Capsule Type")
+        String capsuleType;
+
+        @Label("Capsule Id")
+        int capsuleId;
+
+        @Label("Procedure")
+        @Description("The procedure of the (first) message, or the kind of a control message.")
+        String procedure;
+
+        @Label("Messages")
+        int messages;
+
+        @Label("Mailbox Depth")
+        @Description("The number of messages in the mailbox just after the push.")
+        int mailboxDepth;
+    }
+
+    @Name("org.paninij.ProcedureExecution")
+    @Label("Procedure Execution")
+    @Category({"PaniniJ"})
+    @StackTrace(false)
+    static final class ProcedureExecution extends Event
+    {
+        @Label("Capsule Type")
+        String capsuleType;
+
+        @Label("Capsule Id")
+        int capsuleId;
+
+        @Label("Procedure")
+        String procedure;
+    }
+
+    @Name("org.paninij.MessageWait")
+    @Label("Message Wait")
+    @Description("A thread blocked until a message it sent (e.g. by a `@Block` procedure call, or "
+               + "through a future) had been processed.")
+    @Category({"PaniniJ"})
+    static final class MessageWait extends Event
+    {
+        @Label("Message Type")
+        String messageType;
+
+        @Label("Procedure Id")
+        @Description("The ID of the awaited procedure in its capsule, if it is known.")
+        int procedureId;
+    }
+
+    @Name("org.paninij.TaskBatch")
+    @Label("Task Batch")
+    @Description("A task pool worker running a batch of one capsule's messages.")
+    @Category({"PaniniJ", "Task Pool"})
+    @StackTrace(false)
+    static final class TaskBatch extends Event
+    {
+        @Label("Capsule Type")
+        String capsuleType;
+
+        @Label("Capsule Id")
+        int capsuleId;
+
+        @Label("Messages")
+        int messages;
+    }
+
+    @Name("org.paninij.TaskPoolStatistics")
+    @Label("Task Pool Statistics")
+    @Category({"PaniniJ", "Task Pool"})
+    @StackTrace(false)
+    @Period("1 s")
+    static final class TaskPoolStatistics extends Event
+    {
+        @Label("Live Capsules")
+        int liveCapsules;
+
+        @Label("Workers")
+        int workers;
+
+        @Label("Active Workers")
+        int activeWorkers;
+
+        @Label("Idle Workers")
+        int idleWorkers;
+
+        @Label("Steals")
+        @Description("The total number of tasks stolen by one worker from another's queue.")
+        long steals;
+
+        @Label("Queued Capsules")
+        @Description("The number of runnable capsules waiting for a worker.")
+        long queuedCapsules;
+    }
+
+    @Name("org.paninij.OwnershipViolation")
+    @Label("Ownership Violation")
+    @Description("A dynamic ownership check found an object graph which was transferred while "
+               + "the sending capsule's state still referred into it.")
+    @Category({"PaniniJ"})
+    static final class OwnershipViolation extends Event
+    {
+        @Label("Capsule Type")
+        @Description("The type of the sending capsule, if it is known.")
+        String capsuleType;
+
+        @Label("Site")
+        String site;
+
+        @Label("Transfer Type")
+        String transferType;
+    }
+}
@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij.lang;
+
+import java.lang.annotation.Documented;
+
+/**
+ * <p>
+ * Used to bound the number of messages which may be pending in a capsule's mailbox.
+ * <h3>Purpose</h3>
+ * <p>
+ * By default, a capsule's mailbox grows without limit. A fast producer sending to a slow capsule
+ * can therefore fill the heap with pending messages. Annotating a capsule core with &#64;Bounded
+ * caps the mailbox of each instance of that capsule, and the given {@link Overflow} policy dictates
+ * what happens to a message sent while that mailbox is full.
+ * <h3>Details</h3>
+ * <p>
+ * The capacity only applies to the THREAD and TASK execution profiles, since capsules in the other
+ * profiles have no mailbox. It can be overridden at runtime, either for all capsules with the
+ * system properties `panini.mailbox.capacity` and `panini.mailbox.overflow`, or for the instances
+ * of one capsule by suffixing these properties with that capsule's fully qualified name (e.g.
+ * `-Dpanini.mailbox.capacity.org.paninij.examples.histogram.Bucket=4096`).
+ * <p>
+ * A capsule's mailbox only grows as its backlog requires, so a large capacity costs nothing until
+ * it is needed.
+ * <h3>Exceptions</h3>
+ * <p>
+ * The capacity must be positive. Note that with the {@link Overflow#BLOCK BLOCK} policy, two
+ * capsules with full mailboxes which are sending to one another will deadlock, as will a capsule
+ * sending to itself while its own mailbox is full.
+ * <h3>Examples</h3>
+ * <p>
+ * In this example, a reader which sends one message per byte of input can get at most 1024
+ * messages ahead of the bucket, after which it waits for the bucket to catch up.
+ * <blockquote><pre>
+ * &#64;Capsule
+ * &#64;Bounded(capacity = 1024, overflow = Overflow.BLOCK)
+ * public class BucketCore {
+ *     int count = 0;
+ *
+ *     public void bump() {
+ *         count++;
+ *     }
+ * }
+ * </pre></blockquote>
+ */
+@Documented
+public @interface Bounded
+{
+    int capacity();
+
+    Overflow overflow() default Overflow.BLOCK;
+}
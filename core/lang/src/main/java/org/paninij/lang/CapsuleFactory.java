@@ -33,6 +33,7 @@ import org.paninij.runtime.Capsule$Monitor;
 import org.paninij.runtime.Capsule$Serial;
 import org.paninij.runtime.Capsule$Task;
 import org.paninij.runtime.Capsule$Thread;
+import org.paninij.runtime.Capsule$VirtualThread;
 import org.paninij.runtime.Panini$Capsule;
 
 
@@ -47,6 +48,7 @@ public class CapsuleFactory
     public final Class<Capsule$Serial>  capsuleSerial;
     public final Class<Capsule$Task>    capsuleTask;
     public final Class<Capsule$Thread>  capsuleThread;
+    public final Class<Capsule$VirtualThread> capsuleVirtualThread;
 
     @SuppressWarnings("unchecked")
     public CapsuleFactory(Class<? extends Panini$Capsule> clazz) throws ClassNotFoundException
@@ -57,6 +59,7 @@ public class CapsuleFactory
         capsuleSerial  = (Class<Capsule$Serial>)  Class.forName(clazz.getName() + "$Serial");
         capsuleTask    = (Class<Capsule$Task>)    Class.forName(clazz.getName() + "$Task");
         capsuleThread  = (Class<Capsule$Thread>)  Class.forName(clazz.getName() + "$Thread");
+        capsuleVirtualThread = (Class<Capsule$VirtualThread>) Class.forName(clazz.getName() + "$VirtualThread");
     }
 
     public Capsule$Monitor newMonitorInstance() {
@@ -74,6 +77,10 @@ public class CapsuleFactory
     public Capsule$Thread newThreadInstance() {
         return newInstance(capsuleThread);
     }
+
+    public Capsule$VirtualThread newVirtualThreadInstance() {
+        return newInstance(capsuleVirtualThread);
+    }
     
 
     public Panini$Capsule newInstance(ExecutionProfile profile)
@@ -87,6 +94,8 @@ public class CapsuleFactory
             return newTaskInstance();
         case THREAD:
             return newThreadInstance();
+        case VIRTUAL_THREAD:
+            return newVirtualThreadInstance();
         default:
             throw new IllegalArgumentException("Unknown execution profile: " + profile);
         }
@@ -103,6 +112,8 @@ public class CapsuleFactory
             return capsuleTask;
         case THREAD:
             return capsuleThread;
+        case VIRTUAL_THREAD:
+            return capsuleVirtualThread;
         default:
             throw new IllegalArgumentException("Unknown execution profile: " + profile);
         }
@@ -74,14 +74,21 @@ public class CapsuleSystem
 
     
     /** 
-     * Starts a capsule system from the given root capsule using the default execution profile.
+     * Starts a capsule system from the given root capsule using the default execution profile,
+     * unless some other profile is named by the `panini.profile` system property (e.g.
+     * `-Dpanini.profile=VIRTUAL_THREAD`).
      * 
      * @param root The class of the capsule which will act as the root capsule.
      * @param args The arguments to be passed into the root capsule's `main()` method.
      */
     public static void start(Class<? extends Panini$Capsule$Root> root, String[] args)
     {
-        start(root, DEFAULT_EXECUTION_PROFILE, args);
+        String profile = System.getProperty("panini.profile");
+        if (profile == null || profile.isEmpty()) {
+            start(root, DEFAULT_EXECUTION_PROFILE, args);
+        } else {
+            start(root, ExecutionProfile.valueOf(profile.toUpperCase()), args);
+        }
     }
 
     
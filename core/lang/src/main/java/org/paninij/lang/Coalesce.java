@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+
+package org.paninij.lang;
+
+import java.lang.annotation.Documented;
+
+/**
+ * <p>
+ * Used to declare that consecutive pending invocations of a procedure may be merged into one.
+ * <h3>Purpose</h3>
+ * <p>
+ * Many procedures are notifications whose repeated invocation is redundant (e.g. "something has
+ * changed, so refresh") or whose invocations can be summed up (e.g. "add this many to a counter").
+ * When such a procedure is sent to a busy capsule faster than the capsule can handle it, the
+ * pending invocations pile up in the capsule's mailbox. A procedure annotated with &#64;Coalesce
+ * instead has each run of consecutive pending invocations merged into a single invocation when the
+ * capsule gets around to it.
+ * <h3>Details</h3>
+ * <p>
+ * When no `merge` function is given, consecutive pending invocations whose arguments are equal
+ * (compared with `==` for primitives and with `equals()` for objects) are deduplicated, so that
+ * the procedure is only invoked once for each run of them.
+ * <p>
+ * When a `merge` function is given, it names a static method of the capsule core which takes two
+ * arguments of the procedure's parameter type and returns a value of that type. Its first argument
+ * is the older of two consecutive pending invocations' arguments, and its second is the newer. All
+ * of the consecutive pending invocations are folded together with this function, and the procedure
+ * is then invoked once with the result.
+ * <p>
+ * Only invocations which are already pending when the capsule handles the first of them are
+ * merged, and only if nothing else is queued in between them, so invocations are never reordered
+ * with respect to any other message. The capsule may be invoked fewer times than it is sent a
+ * message, but it always sees the effect of the latest one.
+ * <h3>Exceptions</h3>
+ * <p>
+ * A coalescing procedure must return `void`, and may not also be annotated with &#64;Block,
+ * &#64;Future, or &#64;Duck. A procedure with a `merge` function must have exactly one parameter.
+ * Coalescing only applies to the THREAD and TASK execution profiles, since capsules in the other
+ * profiles have no mailbox.
+ * <h3>Examples</h3>
+ * <p>
+ * In this example, however many `add()` messages have piled up in a busy counter's mailbox, the
+ * counter handles each run of them as a single `add()` of their sum.
+ * <blockquote><pre>
+ * &#64;Capsule
+ * public class CounterCore {
+ *     long count = 0;
+ *
+ *     &#64;Coalesce(merge = "sum")
+ *     public void add(long n) {
+ *         count += n;
+ *     }
+ *
+ *     static long sum(long older, long newer) {
+ *         return older + newer;
+ *     }
+ * }
+ * </pre></blockquote>
+ */
+@Documented
+public @interface Coalesce
+{
+    /**
+     * The name of the core's static merge function, or the empty string to only deduplicate equal
+     * invocations.
+     */
+    java.lang.String merge() default "";
+}
@@ -32,7 +32,9 @@ package org.paninij.lang;
  * <li>MOCKUP - Creates capsules with `stub` procedures. Used behind-the-scenes by the annotation 
  * 			processor.</li>
  * <li>THREAD - Each capsule gets it's own JVM thread.</li>
- * <li>TASK - Capsules are assigned to a thread pool in round-robin fashion.</li>
+ * <li>TASK - Capsules are run by a work-stealing thread pool whenever they have messages.</li>
+ * <li>VIRTUAL_THREAD - Each capsule gets its own virtual thread (on Java 21 or later, and otherwise
+ * 			its own JVM thread).</li>
  * <li>MONITOR - Capsules procedures are given basic synchronization.</li>
  * <li>SERIAL - Capsules are sequential (no threads).</li>
  * </ol>
@@ -51,4 +53,5 @@ public enum ExecutionProfile {
     TASK,
     MONITOR,
     SERIAL,
+    VIRTUAL_THREAD,
 }
@@ -99,6 +99,13 @@ import java.lang.annotation.Documented;
  *     }
  * }
  * </pre></blockquote>
+ * <p>
+ * The future which is returned is in fact a {@link Promise}, so the caller may instead register a callback to be run once
+ * the result is available, without blocking at all. If the caller is itself a capsule, then the callback is delivered back
+ * to it as a message:
+ * <blockquote><pre>
+ * squarer.getSquare(i).thenAccept(square -{@literal >} total += square);
+ * </pre></blockquote>
  * <h3>Internal Notes</h3>
  * <p>
  * This annotation is used to cover the cases in which the return type of the procedure cannot be duckified. Such cases include:
@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij.lang;
+
+/**
+ * <p>Used to dictate what happens when a message is sent to a capsule whose mailbox is full. See
+ * {@link org.paninij.lang.Bounded @Bounded}.
+ *
+ * <h3>Policies</h3>
+ * <ol>
+ * <li>BLOCK - The sender waits until the capsule has consumed enough messages to make room.</li>
+ * <li>FAIL - The sender gets an {@link IllegalStateException} and the message is not sent.</li>
+ * <li>DROP_OLDEST - The oldest pending message in the mailbox is discarded to make room.</li>
+ * <li>DROP_NEWEST - The message being sent is silently discarded.</li>
+ * </ol>
+ *
+ * <p>A discarded message is never executed, so the dropping policies are meant for capsules whose
+ * procedures return `void`.
+ */
+public enum Overflow {
+    BLOCK,
+    FAIL,
+    DROP_OLDEST,
+    DROP_NEWEST;
+
+    /**
+     * Converts the given string `s` to the matching enum value. Note that if either `null` or the
+     * empty string are given, then the default `Overflow` is returned.
+     *
+     * @throws IllegalArgumentException If there is no enum value matching the given string.
+     */
+    public static Overflow fromString(java.lang.String s)
+    {
+        if (s == null || s.isEmpty())
+            return getDefault();
+        return valueOf(s.toUpperCase());
+    }
+
+    public static Overflow getDefault() {
+        return BLOCK;
+    }
+}
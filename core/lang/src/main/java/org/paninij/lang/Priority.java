@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+
+package org.paninij.lang;
+
+import java.lang.annotation.Documented;
+
+/**
+ * <p>
+ * Used to declare that a procedure's invocations are to be handled ahead of a capsule's other
+ * pending messages.
+ * <h3>Purpose</h3>
+ * <p>
+ * A capsule's mailbox is a single queue, so by default a latency-sensitive invocation (e.g. a
+ * health check, or a request to shut down) waits behind every message which was sent before it,
+ * however many bulk messages those are. Invocations of a procedure annotated with &#64;Priority are
+ * instead queued in a separate priority lane of the capsule's mailbox, and the capsule takes the
+ * messages in that lane ahead of the others.
+ * <h3>Details</h3>
+ * <p>
+ * The capsule drains its mailbox's lanes by weight: it takes up to a fixed number of priority
+ * messages for every other message that it takes, so that a steady stream of priority invocations
+ * cannot starve the capsule's other procedures. This weight defaults to 8, and can be set with
+ * the system property `panini.priority.weight`, or for the instances of one capsule by suffixing
+ * this property with that capsule's fully qualified name (e.g.
+ * `-Dpanini.priority.weight.org.paninij.examples.histogram.Bucket=4`).
+ * <p>
+ * Invocations are only ordered with respect to the other invocations in the same lane. Closing a
+ * link to a capsule also takes its priority lane, but the capsule still handles all of its pending
+ * messages before it terminates.
+ * <p>
+ * Only capsules whose core declares at least one &#64;Priority procedure have a priority lane, and
+ * the annotation only has an effect in the THREAD and TASK execution profiles, since capsules in
+ * the other profiles have no mailbox. A &#64;Priority message is never blocked, refused, or dropped
+ * by a capsule's &#64;{@link Bounded} capacity.
+ * <h3>Exceptions</h3>
+ * <p>
+ * Only procedures can be annotated with &#64;Priority. A priority procedure can also be annotated
+ * with &#64;Block, &#64;Future, &#64;Duck, or &#64;{@link Coalesce}.
+ * <h3>Examples</h3>
+ * <p>
+ * In this example, a call to `count()` does not have to wait for the bucket to work through its
+ * backlog of `bump()` messages.
+ * <blockquote><pre>
+ * &#64;Capsule
+ * public class BucketCore {
+ *     int count = 0;
+ *
+ *     public void bump() {
+ *         count++;
+ *     }
+ *
+ *     &#64;Priority
+ *     public int count() {
+ *         return count;
+ *     }
+ * }
+ * </pre></blockquote>
+ */
+@Documented
+public @interface Priority
+{
+}
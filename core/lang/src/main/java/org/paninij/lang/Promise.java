@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij.lang;
+
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.paninij.runtime.Panini$Promise;
+
+/**
+ * The result of a procedure annotated with {@link org.paninij.lang.Future @Future}.
+ *
+ * <p>Besides being a {@link java.util.concurrent.Future Future}, a promise can be composed in the
+ * style of {@link java.util.concurrent.CompletionStage CompletionStage}, so that a capsule can act
+ * on another capsule's result without blocking its own thread in `get()`. A callback which is
+ * registered by a capsule is delivered back to that capsule as a message, and so it runs on the
+ * capsule's own thread, between its procedures, just like a procedure would. This means that the
+ * callback may freely read and write the capsule's state. (A callback which is registered from
+ * outside of any capsule, or from a capsule of the monitor or serial profile, is instead run by
+ * whichever thread completes the promise.)
+ *
+ * <p>For example, a renderer may gather the chunks of an image from an array of tracers without
+ * waiting on any one of them:
+ *
+ * <blockquote><pre>
+ * for (int i = 0; i &lt; tracers.length; i++) {
+ *     final int idx = i;
+ *     chunks[idx] = tracers[idx].renderChunk(scene).thenAccept(pixels -&gt; paint(idx, pixels));
+ * }
+ * Promise.allOf(chunks).thenAccept(done -&gt; publish());
+ * </pre></blockquote>
+ *
+ * <p>If a promise is cancelled (or fails), then the promises derived from it are cancelled (or
+ * fail) as well, and their callbacks are never run. A promise whose procedure throws fails with
+ * what was thrown. A derived promise whose callback can no longer be delivered, because the
+ * capsule which registered it has terminated, is cancelled.
+ *
+ * <p>A capsule must not wait (e.g. in `get()`) on a promise which it derived itself, before the
+ * promise's callback has run: the callback is delivered to that very capsule, which would never
+ * get to run it. Such a `get()` throws an `IllegalStateException` instead of deadlocking.
+ *
+ * @param <T> The type of the procedure's result.
+ */
+public interface Promise<T> extends Future<T>
+{
+    /**
+     * @return A promise of the result of applying `fn` to this promise's result.
+     */
+    <U> Promise<U> thenApply(Function<? super T, ? extends U> fn);
+
+    /**
+     * @return A promise which is resolved once `action` has consumed this promise's result.
+     */
+    Promise<Void> thenAccept(Consumer<? super T> action);
+
+    /**
+     * @return A promise of the result of the promise which `fn` returns for this promise's result.
+     *         This is typically used to chain a call to another capsule's `@Future` procedure.
+     */
+    <U> Promise<U> thenCompose(Function<? super T, ? extends Promise<U>> fn);
+
+    /**
+     * @return A promise which is resolved once all of the given promises are, or which fails (or
+     *         is cancelled) as soon as any one of them does.
+     */
+    public static Promise<Void> allOf(Promise<?>... promises) {
+        return Panini$Promise.allOf(promises);
+    }
+
+    /**
+     * @return A promise of the result of whichever of the given promises is first done.
+     */
+    public static Promise<Object> anyOf(Promise<?>... promises) {
+        return Panini$Promise.anyOf(promises);
+    }
+}
@@ -30,6 +30,7 @@ import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
 import java.util.Comparator;
 import java.util.IllegalFormatException;
+import java.util.concurrent.CompletionException;
 import java.util.regex.PatternSyntaxException;
 
 import org.paninij.runtime.Panini$Future;
@@ -241,6 +242,26 @@ public class String extends Object implements CharSequence,
      */
     private boolean panini$resolved;
 
+    /**
+     * What the procedure which was to fill in the value threw, if it threw.
+     */
+    private Throwable panini$failure;
+
+    /**
+     * Save the failure and notify listeners that no value will be available.
+     *
+     * @param failure    What the procedure threw. Getting the value will throw a
+     *                   {@code CompletionException} caused by it.
+     */
+    @Override
+    public void panini$fail(Throwable failure) {
+        synchronized(this) {
+            panini$failure = failure;
+            panini$resolved = true;
+            notifyAll();
+        }
+    }
+
     /**
      * Save the value and notify listeners the value is available.
      *
@@ -300,6 +321,9 @@ public class String extends Object implements CharSequence,
             }catch (InterruptedException e){
             }
         }
+        if (panini$failure != null) {
+            throw new CompletionException(panini$failure);
+        }
         return java.lang.String.valueOf(value);
     }
     // End Panini$Duck management
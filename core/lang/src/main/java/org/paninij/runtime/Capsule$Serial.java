@@ -27,24 +27,55 @@
 package org.paninij.runtime;
 
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
-public abstract class Capsule$Serial implements Panini$Capsule
+import org.paninij.runtime.check.OwnershipWalk;
+import org.paninij.runtime.check.OwnershipWalkable;
+
+public abstract class Capsule$Serial implements Panini$Capsule, OwnershipWalkable
 {
+    private static final AtomicReferenceFieldUpdater<Capsule$Serial, Panini$ErrorQueue>
+            PANINI$ERRORS = AtomicReferenceFieldUpdater.newUpdater(Capsule$Serial.class,
+                                                                   Panini$ErrorQueue.class,
+                                                                   "panini$errors");
 
     protected int panini$links;
-    protected final Panini$ErrorQueue panini$errors;
+
+    /**
+     * The errors thrown by this capsule's procedures, or `null` until one is first reported or
+     * polled. See `panini$errors()`.
+     */
+    private volatile Panini$ErrorQueue panini$errors;
+
     protected boolean panini$terminated;
+    private boolean panini$finished = false;
 
     protected Capsule$Serial() {
         panini$links = 0;
-        panini$errors = new Panini$ErrorQueue();
         panini$terminated = false;
     }
 
     @Override
     public void panini$start()
     {
+        Panini$System.threads.started();
+        Panini$Flight.capsuleStarted(this);
         this.run();
+        panini$finish();
+    }
+
+    /**
+     * Called once this capsule's core's `run()` has returned (or by `panini$start()`, if it has
+     * none). Counts the capsule as terminated, unless it already has been.
+     */
+    protected final void panini$finish()
+    {
+        if (!panini$finished) {
+            panini$finished = true;
+            Panini$System.threads.done();
+            Panini$System.threads.terminated();
+            Panini$Flight.capsuleTerminated(this);
+        }
     }
 
     @Override
@@ -133,14 +164,47 @@ public abstract class Capsule$Serial implements Panini$Capsule
         return null;
     }
 
+    /**
+     * Reports the objects which this capsule's core holds as its state. Overridden by generated
+     * capsules. See `panini$getAllState()`.
+     */
+    @Override
+    public void panini$walk(OwnershipWalk walk) {
+        // Do nothing.
+    }
+
+    /**
+     * Reports an error thrown by one of this capsule's procedures.
+     */
+    protected final void panini$reportError(Throwable thrown) {
+        panini$errors().add(thrown);
+    }
+
+    /**
+     * Returns the queue of this capsule's errors, creating it if it does not exist yet. In the
+     * compact footprint mode, this is the queue shared by every capsule, `Panini$System.errors`.
+     */
+    private Panini$ErrorQueue panini$errors()
+    {
+        Panini$ErrorQueue errors = panini$errors;
+        if (errors == null) {
+            if (Panini$System.COMPACT_FOOTPRINT) {
+                return Panini$System.errors;
+            }
+            PANINI$ERRORS.compareAndSet(this, null, new Panini$ErrorQueue());
+            errors = panini$errors;
+        }
+        return errors;
+    }
+
     public Throwable panini$pollErrors() {
-        return panini$errors.poll();
+        return panini$errors().poll();
     }
 
     public Throwable panini$pollErrors(long timeout, TimeUnit unit)
     {
         try {
-            return panini$errors.poll(timeout, unit);
+            return panini$errors().poll(timeout, unit);
         } catch (InterruptedException ex) {
             return null;
         }
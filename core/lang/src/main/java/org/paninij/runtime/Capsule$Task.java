@@ -26,217 +26,592 @@
 
 package org.paninij.runtime;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 
-public abstract class Capsule$Task implements Panini$Capsule
+import org.paninij.lang.Overflow;
+import org.paninij.runtime.check.OwnershipWalk;
+import org.paninij.runtime.check.OwnershipWalkable;
+
+public abstract class Capsule$Task implements Panini$Capsule, OwnershipWalkable, Panini$Receiver
 {
-    Capsule$Task panini$nextCapsule;
+    /** The capsule has no pending messages, or nobody has yet noticed that it does. */
+    static final int PANINI$IDLE = 0;
+
+    /** The capsule is queued to run, is running, or has not yet been started. */
+    static final int PANINI$SCHEDULED = 1;
+
+    /** The capsule has processed its termination message, and will never run again. */
+    static final int PANINI$DEAD = 2;
+
+    private static final AtomicIntegerFieldUpdater<Capsule$Task> PANINI$RUN_STATE =
+            AtomicIntegerFieldUpdater.newUpdater(Capsule$Task.class, "panini$runState");
+
     Panini$TaskPool panini$containingPool;
 
-    protected volatile Object[] panini$queue;
+    /**
+     * Whoever moves this capsule from `PANINI$IDLE` to `PANINI$SCHEDULED` becomes the only thread
+     * which may run it, until it moves the capsule back again.
+     */
+    private volatile int panini$runState = PANINI$SCHEDULED;
+
+    private static final AtomicIntegerFieldUpdater<Capsule$Task> PANINI$DORMANT =
+            AtomicIntegerFieldUpdater.newUpdater(Capsule$Task.class, "panini$dormant");
+
+    /**
+     * Set to 1 while this capsule has been started lazily (see `Panini$System.LAZY_ACTIVATION`),
+     * but has not yet been added to a pool. Whoever clears it adds the capsule to the pool.
+     */
+    private volatile int panini$dormant = 0;
 
-    protected volatile int panini$head, panini$tail, panini$size, panini$links;
-    protected final ReentrantLock panini$queueLock;
-    protected final Panini$ErrorQueue panini$errors;
+    private static final AtomicReferenceFieldUpdater<Capsule$Task, Waiter> PANINI$WAITERS =
+            AtomicReferenceFieldUpdater.newUpdater(Capsule$Task.class, Waiter.class,
+                                                   "panini$waiters");
+
+    /**
+     * The threads which are parked in `Panini$TaskPool.awaitIdleOrEmpty()` until this capsule is
+     * released, runs dry, or processes some message, or `null` if there are none.
+     */
+    private volatile Waiter panini$waiters = null;
+
+    /**
+     * A thread in `panini$waiters`, together with the message (if any) which it awaits.
+     */
+    static final class Waiter
+    {
+        final Thread thread;
+        final Object awaited;
+        final Waiter next;
+
+        Waiter(Thread thread, Object awaited, Waiter next) {
+            this.thread = thread;
+            this.awaited = awaited;
+            this.next = next;
+        }
+    }
+
+    /**
+     * What the pool runs when this capsule is scheduled. Allocated once, rather than per schedule.
+     */
+    final Runnable panini$activation = new Runnable() {
+        @Override
+        public void run() {
+            panini$runBatch(Panini$TaskPool.BATCH_SIZE);
+        }
+    };
+
+    protected final Panini$Mailbox panini$mailbox;
+
+    /**
+     * This capsule's runtime metrics, or `null` unless `Panini$System.METRICS` is set.
+     */
+    private final Panini$Metrics panini$metrics;
+
+    /**
+     * Whether the messages sent to this capsule may be buffered in their senders' outboxes. They
+     * may not be if its mailbox refuses messages while it is full (i.e. under `Overflow.FAIL`),
+     * since a sender must then get the `IllegalStateException` from its send, rather than from a
+     * later flush which it cannot catch.
+     */
+    private final boolean panini$batchable;
+
+    /**
+     * Whether this capsule is busy with a unit of work which `Panini$System.threads` has counted
+     * (i.e. the message which it last took, or else its own start-up), and which it has not yet
+     * counted as done. Only touched by the thread which is running the capsule.
+     */
+    private boolean panini$handling = true;
+
+    protected volatile int panini$links;
+    /**
+     * The errors thrown by this capsule's procedures, or `null` until one is first reported or
+     * polled. See `panini$errors()`.
+     */
+    private volatile Panini$ErrorQueue panini$errors;
+
+    private static final AtomicReferenceFieldUpdater<Capsule$Task, Panini$ErrorQueue>
+            PANINI$ERRORS = AtomicReferenceFieldUpdater.newUpdater(Capsule$Task.class,
+                                                                   Panini$ErrorQueue.class,
+                                                                   "panini$errors");
+
+    /**
+     * Delivers the promise callbacks which this capsule registers back to it, as control messages
+     * (so that a bounded mailbox never refuses or drops them). See `Panini$Promise`.
+     */
+    protected final Executor panini$continuations = new Executor() {
+        @Override
+        public void execute(Runnable callback) {
+            panini$pushControl(new Panini$Continuation(callback));
+        }
+    };
 
     protected boolean panini$terminated;
 
     public static final int PANINI$CLOSE_LINK = -1;
     public static final int PANINI$TERMINATE = -2;
+    public static final int PANINI$CONTINUE = -3;
 
     protected Capsule$Task() {
-        panini$queue = new Object[10];
-        panini$head = 0;
-        panini$tail = 0;
-        panini$size = 0;
+        this(0, null);
+    }
+
+    /**
+     * @param capacity  The mailbox capacity declared by the capsule core, or 0 if none was.
+     * @param overflow  The overflow policy declared by the capsule core, or `null` if none was.
+     */
+    protected Capsule$Task(int capacity, Overflow overflow) {
+        this(capacity, overflow, false);
+    }
+
+    /**
+     * @param capacity  The mailbox capacity declared by the capsule core, or 0 if none was.
+     * @param overflow  The overflow policy declared by the capsule core, or `null` if none was.
+     * @param lanes     Whether the capsule core declares any `@Priority` procedures, and so needs
+     *                  a mailbox with a priority lane.
+     */
+    protected Capsule$Task(int capacity, Overflow overflow, boolean lanes) {
+        panini$mailbox = Panini$System.newMailbox(getClass(), capacity, overflow, lanes);
+        panini$batchable = panini$mailbox.capacity() == Panini$Mailbox.UNBOUNDED
+                        || panini$mailbox.overflow() != Overflow.FAIL;
+        panini$metrics = Panini$System.METRICS
+                ? Panini$Metrics.register(getClass(), panini$procedureNames(), panini$mailbox)
+                : null;
         panini$links = 0;
-        panini$queueLock = new ReentrantLock();
-        panini$errors = new Panini$ErrorQueue();
         panini$terminated = false;
     }
 
-    protected final void panini$extendQueue() {
-        assert (panini$tail >= panini$queue.length);
-
-        Object[] newObjects = new Object[panini$queue.length + 10];
-        if (panini$tail <= panini$head) {
-            System.arraycopy(panini$queue, panini$head, newObjects, 0,
-                    panini$queue.length - panini$head);
-            System.arraycopy(panini$queue, 0, newObjects, panini$queue.length - panini$head,
-                    panini$tail);
-        } else {
-            System.arraycopy(panini$queue, panini$head, newObjects, 0, panini$tail - panini$head);
+    @Override
+    public void panini$start() {
+        Panini$System.threads.started();
+        Panini$Flight.capsuleStarted(this);
+        if (Panini$System.LAZY_ACTIVATION && !panini$isActive()) {
+            // The capsule does nothing until its first message arrives. A push which comes after
+            // this write will see it, and one which came before is seen by the re-check.
+            panini$endHandling();
+            panini$dormant = 1;
+            if (!panini$mailbox.isEmpty()) {
+                panini$activate();
+            }
+            return;
         }
-
-        panini$head = 0;
-        panini$tail = panini$size;
-        panini$queue = newObjects;
+        panini$containingPool = Panini$TaskPool.add(this);
     }
 
     /**
-     * Checks to ensure whether this capsule's queue can accommodate numElems number of elements,
-     * and if not extends it.
-     *
-     * @param numElems
+     * Adds this lazily started capsule to the pool, which then initializes it on one of its
+     * workers, unless someone else already has. The push which woke it up only pays for the former.
      */
-    protected final void panini$ensureSpace(int numElems) {
-        if (panini$head < panini$tail) {
-            if (panini$queue.length + (panini$head - panini$tail) < numElems) {
-                if (panini$size != 0) panini$extendQueue();
-            }
-        } else if (panini$head - panini$tail < numElems) {
-            if (panini$size != 0) panini$extendQueue();
+    private final void panini$activate() {
+        if (PANINI$DORMANT.compareAndSet(this, 1, 0)) {
+            Panini$TaskPool.addLater(this);
         }
     }
 
-    @Override
-    public void panini$start() {
-        panini$containingPool = Panini$TaskPool.add(this);
+    /**
+     * Whether this capsule's core is active (i.e. it has a `run()` method). Overridden by the
+     * capsules generated from active cores.
+     */
+    protected boolean panini$isActive() {
+        return false;
+    }
+
+    protected final boolean panini$isEmpty() {
+        return panini$mailbox.isEmpty();
     }
 
-    protected final synchronized boolean panini$isEmpty() {
-        return panini$size == 0;
+    final boolean panini$isIdle() {
+        return panini$runState == PANINI$IDLE;
     }
 
     /**
      * Extracts and returns the first message from the capsule's queue.
      *
-     * Precondition: it is assumed that `panini$queueLock` is held before calling this method.
+     * Precondition: the calling thread is the one which scheduled this capsule (i.e. it is either
+     * a pool worker or a client blocked in `panini$awaitMessage()`).
      *
-     * @return the first available message in the capsule's queue.
+     * @return the first available message in the capsule's queue, or `null` if it is empty.
      */
-    protected final synchronized Panini$Message panini$nextMessage() {
-        if (this.panini$size <= 0) return null;
-        panini$size--;
-        Panini$Message msg = (Panini$Message) panini$queue[panini$head++];
-        if (panini$head >= panini$queue.length) panini$head = 0;
-        return msg;
+    protected final Panini$Message panini$nextMessage() {
+        Object msg = panini$mailbox.poll();
+        if (msg != null) {
+            panini$handling = true;
+            if (panini$metrics != null) panini$metrics.dequeued();
+        }
+        return (Panini$Message) Panini$Trace.received(msg);
     }
 
     /**
-     * Pushes a single object on this capsule's queue.
+     * Extracts and returns the first message from the capsule's queue, but only if it has the
+     * given message ID. Used to coalesce consecutive pending invocations of a procedure annotated
+     * with `@Coalesce`.
      *
-     * @param o Object to be stored.
+     * Precondition: the same as that of `panini$nextMessage()`.
+     *
+     * @return the first message in the capsule's queue, or `null` if there is no such message.
      */
-    @Override
-    public final synchronized void panini$push(Object o)
-    {
-        panini$ensureSpace(1);
-        panini$size = panini$size + 1;
-        panini$queue[panini$tail++] = o;
+    protected final Panini$Message panini$nextMessageIf(int msgID) {
+        Object msg = panini$mailbox.pollMatching(msgID);
+        if (msg != null) {
+            Panini$System.threads.done();  // It is merged into the message being processed.
+            if (panini$metrics != null) panini$metrics.dequeued();
+        }
+        return (Panini$Message) Panini$Trace.unwrap(msg);
+    }
 
-        if (panini$tail >= panini$queue.length) {
-            panini$tail = 0;
+    /**
+     * Counts the unit of work which this capsule is busy with (if any) as done. Called once each
+     * message has been processed, and by the pool once this capsule has been initialized.
+     */
+    final void panini$endHandling() {
+        if (panini$handling) {
+            panini$handling = false;
+            Panini$System.threads.done();
         }
+    }
 
-        if (panini$size == 1) {
-            notifyAll();
+    /**
+     * Called once this capsule has processed its termination message, or once its core's `run()`
+     * has returned. Counts the capsule as terminated (unless it already has been), and discards any
+     * messages which are left in its mailbox.
+     */
+    protected final void panini$finish() {
+        panini$endHandling();
+        if (PANINI$RUN_STATE.getAndSet(this, PANINI$DEAD) != PANINI$DEAD) {
+            panini$discardPending();
+            panini$wakeWaiters();
+            Panini$System.threads.terminated();
+            Panini$Flight.capsuleTerminated(this);
+            if (panini$metrics != null) panini$metrics.retire();
         }
     }
 
-    protected synchronized void panini$emptyQueue() {
-        while (this.panini$size > 0) {
-            this.run();
+    /**
+     * Discards the messages in the mailbox of this capsule, which is dead. Either the capsule or
+     * any pusher which sees that it is dead may do this, so this is serialized to keep the
+     * mailbox's consumer single.
+     */
+    private final void panini$discardPending() {
+        List<Object> pending = new ArrayList<Object>();
+        synchronized (panini$mailbox) {
+            Object msg;
+            while ((msg = panini$mailbox.poll()) != null) {
+                pending.add(msg);
+            }
+        }
+        // Discarding a message may run arbitrary code, so that is not done while holding the lock.
+        for (Object msg : pending) {
+            Panini$Mailbox.discarded(msg);
         }
     }
 
+    /**
+     * Pushes a single object on this capsule's queue.
+     *
+     * @param o Object to be stored.
+     */
+    @Override
+    public final void panini$push(Object o) {
+        Panini$Outbox.flushCurrent();
+        o = Panini$Trace.wrap(o);
+        Panini$System.threads.sent();
+        panini$mailbox.push(o);
+        if (panini$metrics != null) panini$metrics.enqueued(1);
+        Panini$Flight.enqueued(this, o, 1, panini$mailbox);
+        panini$schedule();
+    }
 
     /**
-     * Pushes two objects on this capsule's queue.
+     * Sends a message to this capsule. Unlike `panini$push()`, the message may be buffered in the
+     * sending thread's outbox, to be pushed later on together with others.
      *
-     * @param o1 first object to be stored.
-     * @param o2 second object to be stored.
+     * @param o Object to be stored.
      */
-    protected final synchronized void panini$push(Object o1, Object o2)
-    {
-        panini$ensureSpace(2);
-        panini$size = panini$size + 2;
+    protected final void panini$send(Object o) {
+        o = Panini$Trace.wrap(o);  // Before it is buffered, while its sender is still running.
+        if (!Panini$System.SEND_BATCHING || !panini$batchable
+                || !Panini$Outbox.current().add(this, o)) {
+            panini$push(o);
+        }
+    }
 
-        panini$queue[panini$tail++] = o1;
-        if (panini$tail >= panini$queue.length) {
-            panini$tail = 0;
+    @Override
+    public final void panini$pushBatch(Object[] msgs, int count) {
+        Panini$System.threads.sent(count);
+        try {
+            panini$mailbox.push(msgs, count);
+            if (panini$metrics != null) panini$metrics.enqueued(count);
+            Panini$Flight.enqueued(this, msgs[0], count, panini$mailbox);
+        } finally {
+            panini$schedule();  // Even if the mailbox only took some of the messages.
         }
+    }
 
-        panini$queue[panini$tail++] = o2;
-        if (panini$tail >= panini$queue.length) {
-            panini$tail = 0;
+    /**
+     * Pushes multiple objects on this capsule's queue.
+     *
+     * @param items List of objects to be stored.
+     */
+    protected final void panini$push(Object... items) {
+        Panini$Outbox.flushCurrent();
+        items = Panini$Trace.wrap(items);
+        Panini$System.threads.sent(items.length);
+        panini$mailbox.push(items);
+        if (panini$metrics != null) panini$metrics.enqueued(items.length);
+        if (items.length > 0) {
+            Panini$Flight.enqueued(this, items[0], items.length, panini$mailbox);
         }
+        panini$schedule();
+    }
+
+    /**
+     * Pushes one of the runtime's own control messages, ignoring the mailbox's capacity.
+     */
+    protected final void panini$pushControl(Object o) {
+        Panini$Outbox.flushCurrent();
+        o = Panini$Trace.wrap(o);
+        Panini$System.threads.sent();
+        panini$mailbox.pushControl(o);
+        if (panini$metrics != null) panini$metrics.enqueued(1);
+        Panini$Flight.enqueued(this, o, 1, panini$mailbox);
+        panini$schedule();
+    }
 
-        if (panini$size == 2) {
-            notifyAll();
+    /**
+     * Pushes a message onto the priority lane of this capsule's mailbox, if it has one (i.e. the
+     * message of a `@Priority` procedure, or a `PANINI$CLOSE_LINK` message).
+     */
+    protected final void panini$pushPriority(Object o) {
+        Panini$Outbox.flushCurrent();
+        o = Panini$Trace.wrap(o);
+        Panini$System.threads.sent();
+        panini$mailbox.pushPriority(o);
+        if (panini$metrics != null) panini$metrics.enqueued(1);
+        Panini$Flight.enqueued(this, o, 1, panini$mailbox);
+        panini$schedule();
+    }
+
+    /**
+     * Hands this capsule to its pool if it has just become runnable. Called after every push.
+     *
+     * A push's write to the mailbox is ordered before its read of the run state, and a release's
+     * write to the run state is ordered before its re-read of the mailbox (see
+     * `panini$release()`), so either the pusher or the releasing thread will see the other's
+     * write, and the message cannot be stranded. Likewise, a message pushed onto a dead capsule is
+     * discarded either by its pusher or by `panini$finish()`.
+     */
+    private final void panini$schedule() {
+        int state = panini$runState;
+        if (state == PANINI$IDLE && PANINI$RUN_STATE.compareAndSet(this, PANINI$IDLE, PANINI$SCHEDULED)) {
+            panini$containingPool.schedule(this);
+        } else if (state == PANINI$DEAD) {
+            panini$discardPending();
+        } else if (panini$dormant != 0) {
+            panini$activate();
         }
     }
 
+    /**
+     * Called by the pool once this capsule has been initialized. Until then, pushes only enqueue.
+     */
+    final void panini$initialized() {
+        panini$release();
+    }
+
+    private final void panini$release() {
+        panini$runState = PANINI$IDLE;
+        if (panini$waiters != null) {
+            panini$wakeWaiters();
+        }
+        if (!panini$mailbox.isEmpty()) {
+            panini$schedule();
+        }
+    }
 
     /**
-     * Pushes three objects on this capsule's queue.
+     * Adds the current thread to the threads which are unparked once this capsule is released,
+     * runs dry, or processes the given message. The caller must then re-check whether it may
+     * return before it parks, since the capsule may have done so already.
      *
-     * @param o1 First object to be stored.
-     * @param o2 Second object to be stored.
-     * @param o3 Third object to be stored.
+     * A waiter which returns without having been unparked leaves its entry behind, which costs
+     * it no more than a spurious unpark later on.
      */
-    protected final synchronized void panini$push(Object o1, Object o2, Object o3)
-    {
-        panini$ensureSpace(3);
-        panini$size = panini$size + 3;
+    final void panini$addWaiter(Object awaited) {
+        Thread current = Thread.currentThread();
+        Waiter top;
+        do {
+            top = panini$waiters;
+        } while (!PANINI$WAITERS.compareAndSet(this, top, new Waiter(current, awaited, top)));
+    }
 
-        panini$queue[panini$tail++] = o1;
-        if (panini$tail >= panini$queue.length) {
-            panini$tail = 0;
+    private final void panini$wakeWaiters() {
+        for (Waiter w = PANINI$WAITERS.getAndSet(this, null); w != null; w = w.next) {
+            LockSupport.unpark(w.thread);
         }
+    }
 
-        panini$queue[panini$tail++] = o2;
-        if (panini$tail >= panini$queue.length) {
-            panini$tail = 0;
+    /**
+     * Called after each message of a batch. Unparks the waiters, but only once some of them may
+     * return, i.e. once this capsule has run dry or has processed a message which one awaits.
+     */
+    private final void panini$wakeSatisfiedWaiters() {
+        Waiter top = panini$waiters;
+        if (top == null) {
+            return;
         }
+        boolean empty = panini$mailbox.isEmpty();
+        for (Waiter w = top; w != null; w = w.next) {
+            if (empty || panini$isDone(w.awaited)) {
+                panini$wakeWaiters();
+                return;
+            }
+        }
+    }
 
-        panini$queue[panini$tail++] = o3;
-        if (panini$tail >= panini$queue.length) {
-            panini$tail = 0;
+    /**
+     * Runs up to `limit` of this capsule's messages, and then releases it.
+     *
+     * Precondition: the calling thread moved this capsule into `PANINI$SCHEDULED`.
+     */
+    final void panini$runBatch(int limit) {
+        panini$runBatch(limit, null);
+    }
+
+    /**
+     * Runs up to `limit` of this capsule's messages, or fewer if the given message is processed
+     * before then, and then releases it.
+     *
+     * Precondition: the calling thread moved this capsule into `PANINI$SCHEDULED`.
+     *
+     * @param awaited  A message whose result a caller is waiting on, or `null`.
+     */
+    private final void panini$runBatch(int limit, Object awaited) {
+        Executor outer = Panini$System.continuations.get();
+        Panini$System.continuations.set(panini$continuations);
+        Panini$Outbox outbox = Panini$System.SEND_BATCHING ? Panini$Outbox.current() : null;
+        boolean wasBatching = (outbox != null) && outbox.open();
+        Object batch = Panini$Flight.batchStarted();
+        int i = 0;
+        try {
+            for (; i < limit && !panini$mailbox.isEmpty() && !panini$isDone(awaited); i++) {
+                boolean terminated = this.run();
+                if (outbox != null) {
+                    // Each message's sends are pushed once it has been processed.
+                    panini$flushOutbox(outbox);
+                }
+                panini$endHandling();
+                if (terminated) {
+                    panini$finish();
+                    panini$containingPool.terminated(this);
+                    return;
+                }
+                panini$wakeSatisfiedWaiters();
+            }
+            panini$release();
+        } finally {
+            if (outbox != null) {
+                panini$flushOutbox(outbox);
+                outbox.close(wasBatching);
+            }
+            Panini$System.continuations.set(outer);
+            Panini$Flight.batchEnded(batch, this, i);
         }
+    }
 
-        if (panini$size == 3) {
-            notifyAll();
+    /**
+     * Pushes the messages which the messages run by `panini$runBatch()` have sent. A failure is
+     * reported as one of this capsule's errors, since the procedures which sent them have
+     * returned, and since the capsule must still be released.
+     */
+    private final void panini$flushOutbox(Panini$Outbox outbox) {
+        try {
+            outbox.flush();
+        } catch (Throwable thrown) {
+            panini$reportError(thrown);
         }
     }
 
+    /**
+     * Waits until every message which is currently in this capsule's queue has been processed.
+     * Used by blocking procedure calls. If this capsule is idle, then the calling thread runs
+     * those messages itself, rather than waiting for a pool worker to do so.
+     */
+    protected void panini$emptyQueue() {
+        panini$awaitMessage(null);
+    }
 
     /**
-     * Pushes multiple objects on this capsule's queue.
+     * Waits until the given message has been processed, or else until every message which is
+     * currently in this capsule's queue has been processed (whichever comes first). Used by
+     * blocking procedure calls, which may thereby return before the rest of the capsule's backlog
+     * has been processed (e.g. the call of an `@Priority` procedure). If this capsule is idle, then
+     * the calling thread runs those messages itself, rather than waiting for a pool worker to do so.
      *
-     * @param items List of objects to be stored.
+     * @param awaited  The message pushed by the blocking call, or `null` to always wait for the
+     *                 whole queue.
      */
-    protected final synchronized void panini$push(Object... items)
-    {
-        int numItems = items.length;
-        panini$ensureSpace(numItems);
-        panini$size = panini$size + numItems;
-
-        for (Object o : items) {
-            panini$queue[panini$tail++] = o;
-            if (panini$tail >= panini$queue.length) {
-                panini$tail = 0;
+    protected void panini$awaitMessage(Object awaited) {
+        Panini$Outbox.flushCurrent();  // The caller is about to wait, perhaps on one of these.
+        Object wait = null;
+        while (!panini$mailbox.isEmpty() && !panini$isDone(awaited) && panini$runState != PANINI$DEAD) {
+            if (PANINI$RUN_STATE.compareAndSet(this, PANINI$IDLE, PANINI$SCHEDULED)) {
+                panini$runBatch(panini$mailbox.size(), awaited);
+            } else {
+                if (wait == null) {
+                    wait = Panini$Flight.waitStarted();
+                }
+                Panini$TaskPool.awaitIdleOrEmpty(this, awaited);
             }
         }
-        if (panini$size == numItems) {
-            notifyAll();
-        }
+        Panini$Flight.waitEnded(wait, awaited);
     }
 
+    static boolean panini$isDone(Object msg) {
+        return msg instanceof Panini$Future && ((Panini$Future<?>) msg).panini$isDone();
+    }
+
+    /**
+     * Waits until this capsule's pool has terminated. A lazily started capsule which has not yet
+     * been activated has no pool, and so this waits until every capsule has terminated instead,
+     * since it is still one of them (see `panini$start()`).
+     */
     @Override
     public void panini$join() throws java.lang.InterruptedException {
-        panini$containingPool.join(); // TODO
+        Panini$TaskPool pool = panini$containingPool;
+        if (pool == null) {
+            Panini$System.threads.awaitTermination();
+        } else {
+            pool.join();
+        }
     }
 
+    /**
+     * Causes the current capsule to sleep for the specified number of milliseconds. The pool
+     * worker which is running the capsule sleeps with it, but the pool may start a spare worker
+     * in the meantime, so the pool's other capsules keep running.
+     *
+     * Note that the capsule cannot process any of its messages while it sleeps. To do something
+     * after a delay without blocking the capsule, schedule it with `Panini$TimerWheel` instead.
+     *
+     * @param millis The length of time to sleep in milliseconds
+     * @throws IllegalArgumentException If the value of millis is negative
+     */
     @Override
     public void yield(long millis) {
-        // TODO
+        if (millis < 0) {
+            throw new IllegalArgumentException();
+        }
+        Panini$Outbox.flushCurrent();
+        Panini$TaskPool.sleep(TimeUnit.MILLISECONDS.toNanos(millis));
     }
 
     @Override
     public void panini$closeLink() {
-        panini$push(new SimpleMessage(PANINI$CLOSE_LINK));
+        panini$pushPriority(new SimpleMessage(PANINI$CLOSE_LINK));
     }
 
     @Override
@@ -251,7 +626,7 @@ public abstract class Capsule$Task implements Panini$Capsule
 
     protected void panini$onCloseLink() {
         panini$links--;
-        if (panini$links == 0 && !panini$terminated) panini$push(new SimpleMessage(PANINI$TERMINATE));
+        if (panini$links == 0 && !panini$terminated) panini$pushControl(new SimpleMessage(PANINI$TERMINATE));
     }
 
     public final static void panini$init(int size) throws Exception {
@@ -306,13 +681,108 @@ public abstract class Capsule$Task implements Panini$Capsule
         return null;
     }
 
+    /**
+     * Reports the objects which this capsule's core holds as its state. Overridden by generated
+     * capsules. See `panini$getAllState()`.
+     */
+    @Override
+    public void panini$walk(OwnershipWalk walk) {
+        // Do nothing.
+    }
+
+    /**
+     * Returns the signature of each of this capsule's procedures, by procedure ID. Generated
+     * capsules override this so that their runtime metrics can name their procedures.
+     */
+    protected String[] panini$procedureNames() {
+        return Panini$Metrics.NO_PROCEDURES;
+    }
+
+    /**
+     * Called by `run()` before it executes a message.
+     *
+     * @return The time at which the message's execution started, if metrics are being collected.
+     */
+    protected final long panini$serviceStarted() {
+        return (panini$metrics == null) ? 0L : System.nanoTime();
+    }
+
+    /**
+     * Called by `run()` once it has executed the given message, whose execution started at the
+     * time returned by `panini$serviceStarted()`.
+     */
+    protected final void panini$serviceEnded(Panini$Message msg, long started) {
+        if (panini$metrics != null) {
+            panini$metrics.served(msg.panini$msgID(), started);
+        }
+    }
+
+    /**
+     * Called by `run()` before it executes the given message, just after
+     * `panini$serviceStarted()`. If tracing is enabled, this makes the span of its execution the
+     * current thread's trace context.
+     *
+     * @return The flight recorder event of the message's execution, if it is being recorded, or
+     *         else `null`. See `Panini$Flight`.
+     */
+    protected final Object panini$executionStarted(Panini$Message msg) {
+        if (Panini$System.TRACING && isTraced(msg.panini$msgID())) {
+            Panini$Trace.enter();
+        }
+        return Panini$Flight.executionStarted();
+    }
+
+    /**
+     * Called by `run()` once it has executed the given message, just before
+     * `panini$serviceEnded()`.
+     */
+    protected final void panini$executionEnded(Panini$Message msg, Object execution) {
+        int msgID = msg.panini$msgID();
+        Panini$Flight.executionEnded(execution, this, msgID);
+        if (Panini$System.TRACING && isTraced(msgID)) {
+            Panini$Trace.exit(getClass(), panini$procedureNames(), msgID);
+        }
+    }
+
+    /**
+     * Procedure calls and promise callbacks are traced, but other control messages are not.
+     */
+    private static boolean isTraced(int msgID) {
+        return msgID >= 0 || msgID == PANINI$CONTINUE;
+    }
+
+    /**
+     * Reports an error thrown by one of this capsule's procedures.
+     */
+    protected final void panini$reportError(Throwable thrown) {
+        panini$errors().add(thrown);
+    }
+
+    /**
+     * Returns the queue of this capsule's errors, creating it if it does not exist yet. In the
+     * compact footprint mode, this is the queue shared by every capsule, `Panini$System.errors`.
+     */
+    private Panini$ErrorQueue panini$errors()
+    {
+        Panini$ErrorQueue errors = panini$errors;
+        if (errors == null) {
+            if (Panini$System.COMPACT_FOOTPRINT) {
+                return Panini$System.errors;
+            }
+            PANINI$ERRORS.compareAndSet(this, null, new Panini$ErrorQueue());
+            errors = panini$errors;
+        }
+        return errors;
+    }
+
     public Throwable panini$pollErrors() {
-        return panini$errors.poll();
+        return panini$errors().poll();
     }
 
-    public Throwable panini$pollErrors(long timeout, TimeUnit unit) {
+    public Throwable panini$pollErrors(long timeout, TimeUnit unit)
+    {
         try {
-            return panini$errors.poll(timeout, unit);
+            return panini$errors().poll(timeout, unit);
         } catch (InterruptedException ex) {
             return null;
         }
@@ -26,118 +26,323 @@
 
 package org.paninij.runtime;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 
-public abstract class Capsule$Thread implements Panini$Capsule, Runnable
+import org.paninij.lang.Overflow;
+import org.paninij.runtime.check.DynamicOwnershipTransfer;
+import org.paninij.runtime.check.OwnershipWalk;
+import org.paninij.runtime.check.OwnershipWalkable;
+
+public abstract class Capsule$Thread implements Panini$Capsule, OwnershipWalkable, Panini$Receiver, Runnable
 {
     protected Thread panini$thread;
-    protected volatile Object[] panini$queue;
-    protected volatile int panini$head, panini$tail, panini$size, panini$links;
+    protected final Panini$Mailbox panini$mailbox;
+    protected volatile int panini$links;
+
+    /**
+     * This capsule's runtime metrics, or `null` unless `Panini$System.METRICS` is set.
+     */
+    private final Panini$Metrics panini$metrics;
+
+    /**
+     * Whether this capsule's thread is (or is about to be) parked waiting for a message. Pushes
+     * only need to unpark the capsule's thread when this is set.
+     */
+    private volatile boolean panini$waiting;
+
+    /**
+     * Whether this capsule's thread is busy with a unit of work which `Panini$System.threads` has
+     * counted (i.e. the message which it last took, or else its own start-up), and which it has not
+     * yet counted as done.
+     */
+    private boolean panini$handling = true;
+
+    /**
+     * Set once this capsule has stopped taking messages. After then, a push discards whatever is in
+     * the mailbox, rather than leaving it in flight forever.
+     */
+    private volatile boolean panini$dead = false;
+
+    private static final AtomicIntegerFieldUpdater<Capsule$Thread> PANINI$DORMANT =
+            AtomicIntegerFieldUpdater.newUpdater(Capsule$Thread.class, "panini$dormant");
+
+    /**
+     * Set to 1 while this capsule has no thread, because it has been started lazily (see
+     * `Panini$System.LAZY_ACTIVATION`), or because it is hibernating (see
+     * `Panini$System.HIBERNATION_MILLIS`). Whoever clears it gives the capsule a thread.
+     */
+    private volatile int panini$dormant = 0;
+
+    /**
+     * Whether this capsule has hibernated, so that `run()` resumes its message loop rather than
+     * initializing the capsule.
+     */
+    private boolean panini$resuming = false;
+
+    /**
+     * The outbox which batches the messages sent by this capsule's thread, or `null` unless
+     * `Panini$System.SEND_BATCHING` is set.
+     */
+    private Panini$Outbox panini$outbox;
+
+    /**
+     * Whether the messages sent to this capsule may be buffered in their senders' outboxes. They
+     * may not be if its mailbox refuses messages while it is full (i.e. under `Overflow.FAIL`),
+     * since a sender must then get the `IllegalStateException` from its send, rather than from a
+     * later flush which it cannot catch.
+     */
+    private final boolean panini$batchable;
+
+    /**
+     * The errors thrown by this capsule's procedures, or `null` until one is first reported or
+     * polled. See `panini$errors()`.
+     */
+    private volatile Panini$ErrorQueue panini$errors;
 
-    protected final ReentrantLock panini$queueLock;
+    private static final AtomicReferenceFieldUpdater<Capsule$Thread, Panini$ErrorQueue>
+            PANINI$ERRORS = AtomicReferenceFieldUpdater.newUpdater(Capsule$Thread.class,
+                                                                   Panini$ErrorQueue.class,
+                                                                   "panini$errors");
 
-    protected final Panini$ErrorQueue panini$errors;
+    /**
+     * Delivers the promise callbacks which this capsule registers back to it, as control messages
+     * (so that a bounded mailbox never refuses or drops them). See `Panini$Promise`.
+     */
+    protected final Executor panini$continuations = new Executor() {
+        @Override
+        public void execute(Runnable callback) {
+            panini$pushControl(new Panini$Continuation(callback));
+        }
+    };
 
     protected boolean panini$terminated;
 
+    /**
+     * What the `BUDGETED` dynamic ownership check may still spend on this capsule's transfers, or
+     * `null` until it first checks one. Only touched by the thread which is running the capsule.
+     */
+    private DynamicOwnershipTransfer.Budget panini$ownershipBudget;
+
     public static final int PANINI$CLOSE_LINK = -1;
     public static final int PANINI$TERMINATE = -2;
+    public static final int PANINI$CONTINUE = -3;
 
 
-    protected Capsule$Thread()
+    protected Capsule$Thread() {
+        this(0, null);
+    }
+
+    /**
+     * @param capacity  The mailbox capacity declared by the capsule core, or 0 if none was.
+     * @param overflow  The overflow policy declared by the capsule core, or `null` if none was.
+     */
+    protected Capsule$Thread(int capacity, Overflow overflow) {
+        this(capacity, overflow, false);
+    }
+
+    /**
+     * @param capacity  The mailbox capacity declared by the capsule core, or 0 if none was.
+     * @param overflow  The overflow policy declared by the capsule core, or `null` if none was.
+     * @param lanes     Whether the capsule core declares any `@Priority` procedures, and so needs
+     *                  a mailbox with a priority lane.
+     */
+    protected Capsule$Thread(int capacity, Overflow overflow, boolean lanes)
     {
-        panini$queue = new Object[10];
-        panini$head = 0;
-        panini$tail = 0;
-        panini$size = 0;
+        panini$mailbox = Panini$System.newMailbox(getClass(), capacity, overflow, lanes);
+        panini$batchable = panini$mailbox.capacity() == Panini$Mailbox.UNBOUNDED
+                        || panini$mailbox.overflow() != Overflow.FAIL;
+        panini$metrics = Panini$System.METRICS
+                ? Panini$Metrics.register(getClass(), panini$procedureNames(), panini$mailbox)
+                : null;
         panini$links = 0;
-        panini$queueLock = new ReentrantLock();
+        panini$waiting = false;
         panini$terminated = false;
-        panini$errors = new Panini$ErrorQueue();
     }
 
 
-    protected final void panini$extendQueue()
+    /**
+     * Extracts and returns the first message from the capsule's queue. This method blocks if there
+     * are no messages in the queue.
+     *
+     * Precondition: this is only called from this capsule's own thread.
+     *
+     * @return the first available message in the capsule's queue, or `null` if the capsule has
+     *         hibernated, in which case `run()` must return at once.
+     */
+    protected final Panini$Message panini$nextMessage()
     {
-        assert (panini$tail >= panini$queue.length);
-
-        Object[] newObjects = new Object[panini$queue.length + 10];
-        if (panini$tail <= panini$head)
-        {
-            System.arraycopy(panini$queue, panini$head, newObjects, 0,
-                    panini$queue.length - panini$head);
-            System.arraycopy(panini$queue, 0, newObjects, panini$queue.length - panini$head,
-                    panini$tail);
+        panini$flushOutbox();  // The previous message has been processed.
+        panini$endHandling();
+        Object msg = panini$mailbox.poll();
+        if (msg == null) {
+            msg = panini$blockCapsule();
+            if (msg == null) {
+                return null;  // The capsule is hibernating, so its thread must not touch it again.
+            }
         }
-        else
-        {
-            System.arraycopy(panini$queue, panini$head, newObjects, 0, panini$tail - panini$head);
+        panini$handling = true;
+        if (panini$metrics != null) panini$metrics.dequeued();
+        return (Panini$Message) Panini$Trace.received(msg);
+    }
+
+
+    /**
+     * Extracts and returns the first message from the capsule's queue, but only if it has the
+     * given message ID. This never blocks. Used to coalesce consecutive pending invocations of a
+     * procedure annotated with `@Coalesce`.
+     *
+     * Precondition: this is only called from this capsule's own thread.
+     *
+     * @return the first message in the capsule's queue, or `null` if there is no such message.
+     */
+    protected final Panini$Message panini$nextMessageIf(int msgID)
+    {
+        Object msg = panini$mailbox.pollMatching(msgID);
+        if (msg != null) {
+            Panini$System.threads.done();  // It is merged into the message being processed.
+            if (panini$metrics != null) panini$metrics.dequeued();
         }
+        return (Panini$Message) Panini$Trace.unwrap(msg);
+    }
 
-        panini$head = 0;
-        panini$tail = panini$size;
-        panini$queue = newObjects;
+    private final void panini$endHandling()
+    {
+        if (panini$handling) {
+            panini$handling = false;
+            Panini$System.threads.done();
+        }
     }
 
+    /**
+     * Called by `run()` once this capsule has stopped processing messages, or once its core's
+     * `run()` has returned. Counts the capsule as terminated, and discards any messages which are
+     * left in its mailbox.
+     */
+    protected final void panini$finish()
+    {
+        panini$flushOutbox();
+        panini$endHandling();
+        panini$dead = true;
+        panini$discardPending();
+        Panini$System.threads.terminated();
+        Panini$Flight.capsuleTerminated(this);
+        if (panini$metrics != null) panini$metrics.retire();
+    }
 
     /**
-     * Checks to ensure whether this capsule's queue can accommodate numElems number of elements,
-     * and if not extends it.
-     *
-     * @param numElems
+     * Discards the messages in the mailbox of this capsule, which has stopped taking messages.
+     * Either the capsule or any pusher which sees that it has stopped may do this, so this is
+     * serialized to keep the mailbox's consumer single.
      */
-    protected final void panini$ensureSpace(int numElems)
+    private final void panini$discardPending()
     {
-        if (panini$head < panini$tail)
-        {
-            if (panini$queue.length + (panini$head - panini$tail) < numElems) {
-                if (panini$size != 0) {
-                    panini$extendQueue();
-                }
+        List<Object> pending = new ArrayList<Object>();
+        synchronized (panini$mailbox) {
+            Object msg;
+            while ((msg = panini$mailbox.poll()) != null) {
+                pending.add(msg);
             }
         }
-        else if (panini$head - panini$tail < numElems)
-        {
-            if (panini$size != 0) {
-                panini$extendQueue();
-            }
+        // Discarding a message may run arbitrary code, so that is not done while holding the lock.
+        for (Object msg : pending) {
+            Panini$Mailbox.discarded(msg);
         }
     }
 
     /**
-     * Extracts and returns the first duck from the capsule's queue. This method blocks if there
-     * are no ducks in the queue.
-     *
-     * Precondition: it is assumed that `panini$queueLock` is held before calling this method.
-     *
-     * @return the first available duck in the capsule's queue.
+     * Starts batching the messages sent by this capsule's thread, if `Panini$System.SEND_BATCHING`
+     * is set. Called by `run()` before the capsule does anything else.
      */
-    protected final synchronized Panini$Message panini$nextMessage()
+    protected final void panini$openOutbox()
     {
-        if (this.panini$size <= 0)
-            panini$blockCapsule();
-        panini$size--;
-        Panini$Message msg = (Panini$Message) panini$queue[panini$head++];
-        if (panini$head >= panini$queue.length)
-            panini$head = 0;
-        return msg;
+        if (Panini$System.SEND_BATCHING) {
+            panini$outbox = Panini$Outbox.current();
+            panini$outbox.open();
+        }
     }
 
-
-    private final void panini$blockCapsule()
+    /**
+     * Pushes any messages which this capsule's thread has sent but not yet pushed.
+     */
+    protected final void panini$flushOutbox()
     {
-        nomessages: while (this.panini$size <= 0) {
+        if (panini$outbox != null) {
             try {
-                wait();
-            } catch (InterruptedException e) {
-                continue nomessages;
+                panini$outbox.flush();
+            } catch (Throwable thrown) {
+                panini$reportError(thrown);  // The procedures which sent them have returned.
+            }
+        }
+    }
+
+    private final Object panini$blockCapsule()
+    {
+        final long idle = TimeUnit.MILLISECONDS.toNanos(Math.max(0, Panini$System.HIBERNATION_MILLIS));
+        long deadline = System.nanoTime() + idle;
+        Object msg;
+        while (true) {
+            // Announce that we are about to park before re-checking the mailbox. Any push which
+            // happens after this re-check will see the flag and unpark us.
+            panini$waiting = true;
+            msg = panini$mailbox.poll();
+            if (msg != null) {
+                break;
+            }
+            if (idle == 0) {
+                LockSupport.park(this);
+            } else {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    if (panini$hibernate()) {
+                        return null;
+                    }
+                    deadline = System.nanoTime() + idle;
+                    continue;
+                }
+                LockSupport.parkNanos(this, remaining);
             }
+            Thread.interrupted();  // Interrupts are ignored, so clear them to avoid spinning.
         }
+        panini$waiting = false;
+        return msg;
+    }
+
+    /**
+     * Tries to make this idle capsule dormant, so that its thread can exit and its next push will
+     * resume it on a new thread.
+     *
+     * A push whose read of `panini$waiting` comes after this clears it will go on to read
+     * `panini$dormant`, and so either it activates the capsule, or the re-check of the mailbox
+     * sees its message. In the latter case, the capsule carries on unless someone has already
+     * activated it.
+     *
+     * @return Whether the capsule is now dormant (or already running on another thread), in which
+     *         case the calling thread must not touch it again.
+     */
+    private final boolean panini$hibernate()
+    {
+        panini$waiting = false;
+        panini$resuming = true;
+        panini$dormant = 1;
+        return panini$mailbox.isEmpty() || !PANINI$DORMANT.compareAndSet(this, 1, 0);
+    }
+
+    /**
+     * @return Whether `run()` is resuming this capsule after it hibernated, rather than starting
+     *         it, and so must not initialize it again.
+     */
+    protected final boolean panini$isResuming() {
+        return panini$resuming;
     }
 
     protected final boolean panini$isEmpty() {
-        return panini$size == 0;
+        return panini$mailbox.isEmpty();
     }
 
     /**
@@ -145,6 +350,9 @@ public abstract class Capsule$Thread implements Panini$Capsule, Runnable
      * of milliseconds, subject to the precision and accuracy of system timers and schedulers. The
      * capsule does not lose ownership of any monitors.
      *
+     * Note that the capsule cannot process any of its messages while it sleeps. To do something
+     * after a delay without blocking the capsule, schedule it with `Panini$TimerWheel` instead.
+     *
      * @param millis The length of time to sleep in milliseconds
      * @throws IllegalArgumentException If the value of millis is negative
      *
@@ -156,6 +364,7 @@ public abstract class Capsule$Thread implements Panini$Capsule, Runnable
             throw new IllegalArgumentException();
         }
 
+        panini$flushOutbox();
         try {
             Thread.sleep(millis);
             // TODO: this may also be a good place to introduce interleaving.
@@ -177,101 +386,120 @@ public abstract class Capsule$Thread implements Panini$Capsule, Runnable
      * @param o Object to be stored.
      */
     @Override
-    public final synchronized void panini$push(Object o)
+    public final void panini$push(Object o)
     {
-        panini$ensureSpace(1);
-        panini$size = panini$size + 1;
-        panini$queue[panini$tail++] = o;
+        Panini$Outbox.flushCurrent();
+        o = Panini$Trace.wrap(o);
+        Panini$System.threads.sent();
+        panini$mailbox.push(o);
+        if (panini$metrics != null) panini$metrics.enqueued(1);
+        Panini$Flight.enqueued(this, o, 1, panini$mailbox);
+        panini$wakeUp();
+    }
 
-        if (panini$tail >= panini$queue.length) {
-            panini$tail = 0;
+    /**
+     * Sends a message to this capsule. Unlike `panini$push()`, the message may be buffered in the
+     * sending thread's outbox, to be pushed later on together with others.
+     *
+     * @param o Object to be stored.
+     */
+    protected final void panini$send(Object o)
+    {
+        o = Panini$Trace.wrap(o);  // Before it is buffered, while its sender is still running.
+        if (!Panini$System.SEND_BATCHING || !panini$batchable
+                || !Panini$Outbox.current().add(this, o)) {
+            panini$push(o);
         }
+    }
 
-        if (panini$size == 1) {
-            notifyAll();
+    @Override
+    public final void panini$pushBatch(Object[] msgs, int count)
+    {
+        Panini$System.threads.sent(count);
+        try {
+            panini$mailbox.push(msgs, count);
+            if (panini$metrics != null) panini$metrics.enqueued(count);
+            Panini$Flight.enqueued(this, msgs[0], count, panini$mailbox);
+        } finally {
+            panini$wakeUp();  // Even if the mailbox only took some of the messages.
         }
     }
 
 
     /**
-     * Pushes two objects on this capsule's queue.
+     * Pushes multiple objects on this capsule's queue.
      *
-     * @param o1 first object to be stored.
-     * @param o2 second object to be stored.
+     * @param items List of objects to be stored.
      */
-    protected final synchronized void panini$push(Object o1, Object o2)
+    protected final void panini$push(Object... items)
     {
-        panini$ensureSpace(2);
-        panini$size = panini$size + 2;
-
-        panini$queue[panini$tail++] = o1;
-        if (panini$tail >= panini$queue.length) {
-            panini$tail = 0;
-        }
-
-        panini$queue[panini$tail++] = o2;
-        if (panini$tail >= panini$queue.length) {
-            panini$tail = 0;
-        }
-
-        if (panini$size == 2) {
-            notifyAll();
+        Panini$Outbox.flushCurrent();
+        items = Panini$Trace.wrap(items);
+        Panini$System.threads.sent(items.length);
+        panini$mailbox.push(items);
+        if (panini$metrics != null) panini$metrics.enqueued(items.length);
+        if (items.length > 0) {
+            Panini$Flight.enqueued(this, items[0], items.length, panini$mailbox);
         }
+        panini$wakeUp();
     }
 
 
     /**
-     * Pushes three objects on this capsule's queue.
-     *
-     * @param o1 First object to be stored.
-     * @param o2 Second object to be stored.
-     * @param o3 Third object to be stored.
+     * Pushes one of the runtime's own control messages, ignoring the mailbox's capacity.
      */
-    protected final synchronized void panini$push(Object o1, Object o2, Object o3)
+    protected final void panini$pushControl(Object o)
     {
-        panini$ensureSpace(3);
-        panini$size = panini$size + 3;
+        Panini$Outbox.flushCurrent();
+        o = Panini$Trace.wrap(o);
+        Panini$System.threads.sent();
+        panini$mailbox.pushControl(o);
+        if (panini$metrics != null) panini$metrics.enqueued(1);
+        Panini$Flight.enqueued(this, o, 1, panini$mailbox);
+        panini$wakeUp();
+    }
 
-        panini$queue[panini$tail++] = o1;
-        if (panini$tail >= panini$queue.length) {
-            panini$tail = 0;
-        }
 
-        panini$queue[panini$tail++] = o2;
-        if (panini$tail >= panini$queue.length) {
-            panini$tail = 0;
-        }
+    /**
+     * Pushes a message onto the priority lane of this capsule's mailbox, if it has one (i.e. the
+     * message of a `@Priority` procedure, or a `PANINI$CLOSE_LINK` message).
+     */
+    protected final void panini$pushPriority(Object o)
+    {
+        Panini$Outbox.flushCurrent();
+        o = Panini$Trace.wrap(o);
+        Panini$System.threads.sent();
+        panini$mailbox.pushPriority(o);
+        if (panini$metrics != null) panini$metrics.enqueued(1);
+        Panini$Flight.enqueued(this, o, 1, panini$mailbox);
+        panini$wakeUp();
+    }
 
-        panini$queue[panini$tail++] = o3;
-        if (panini$tail >= panini$queue.length) {
-            panini$tail = 0;
-        }
 
-        if (panini$size == 3) {
-            notifyAll();
+    /**
+     * Called after every push. A push's write to the mailbox is ordered before its read of
+     * `panini$dead`, and `panini$finish()` sets `panini$dead` before it drains the mailbox, so a
+     * message pushed onto a terminated capsule is discarded by one of them.
+     */
+    private final void panini$wakeUp()
+    {
+        if (panini$waiting) {
+            LockSupport.unpark(panini$thread);
+        } else if (panini$dormant != 0) {
+            panini$activate();
+        } else if (panini$dead) {
+            panini$discardPending();
         }
     }
 
-
     /**
-     * Pushes multiple objects on this capsule's queue.
-     *
-     * @param items List of objects to be stored.
+     * Gives this dormant capsule a thread, unless someone else already has.
      */
-    protected final synchronized void panini$push(Object... items)
+    private final void panini$activate()
     {
-        int numItems = items.length;
-        panini$ensureSpace(numItems);
-        panini$size = panini$size + numItems;
-
-        for (Object o : items) {
-            panini$queue[panini$tail++] = o;
-            if (panini$tail >= panini$queue.length) {
-                panini$tail = 0;
-            }
-        }
-        if (panini$size == numItems) {
-            notifyAll();
+        if (PANINI$DORMANT.compareAndSet(this, 1, 0)) {
+            panini$thread = panini$newThread();
+            panini$thread.start();
         }
     }
 
@@ -317,16 +545,57 @@ public abstract class Capsule$Thread implements Panini$Capsule, Runnable
         return null;
     }
 
+    /**
+     * Reports the objects which this capsule's core holds as its state. Overridden by generated
+     * capsules. See `panini$getAllState()`.
+     */
+    @Override
+    public void panini$walk(OwnershipWalk walk) {
+        // Do nothing.
+    }
+
+    /**
+     * @return The budget of the `BUDGETED` dynamic ownership check for this capsule's transfers.
+     */
+    public final DynamicOwnershipTransfer.Budget panini$ownershipBudget() {
+        if (panini$ownershipBudget == null) {
+            panini$ownershipBudget = new DynamicOwnershipTransfer.Budget();
+        }
+        return panini$ownershipBudget;
+    }
+
+    /**
+     * Whether this capsule's core is active (i.e. it has a `run()` method). Overridden by the
+     * capsules generated from active cores.
+     */
+    protected boolean panini$isActive() {
+        return false;
+    }
+
+    /**
+     * Creates the (unstarted) thread which will run this capsule.
+     */
+    protected Thread panini$newThread() {
+        return new Thread(this);
+    }
+
     @Override
     public void panini$start()
     {
-        try {
-            Panini$System.threads.countUp();
-            panini$thread = new Thread(this);
-            panini$thread.start();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        Panini$System.threads.started();
+        Panini$Flight.capsuleStarted(this);
+        if (Panini$System.LAZY_ACTIVATION && !panini$isActive()) {
+            // The capsule does nothing until its first message arrives. A push which comes after
+            // this write will see it, and one which came before is seen by the re-check.
+            panini$endHandling();
+            panini$dormant = 1;
+            if (!panini$mailbox.isEmpty()) {
+                panini$activate();
+            }
+            return;
         }
+        panini$thread = panini$newThread();
+        panini$thread.start();
     }
 
     @Override
@@ -347,22 +616,107 @@ public abstract class Capsule$Thread implements Panini$Capsule, Runnable
 
     @Override
     public void panini$closeLink() {
-        panini$push(new SimpleMessage(PANINI$CLOSE_LINK));
+        panini$pushPriority(new SimpleMessage(PANINI$CLOSE_LINK));
     }
 
     protected void panini$onCloseLink() {
         panini$links--;
-        if (panini$links == 0 && !panini$terminated) panini$push(new SimpleMessage(PANINI$TERMINATE));
+        if (panini$links == 0 && !panini$terminated) panini$pushControl(new SimpleMessage(PANINI$TERMINATE));
+    }
+
+    /**
+     * Returns the signature of each of this capsule's procedures, by procedure ID. Generated
+     * capsules override this so that their runtime metrics can name their procedures.
+     */
+    protected String[] panini$procedureNames() {
+        return Panini$Metrics.NO_PROCEDURES;
+    }
+
+    /**
+     * Called by `run()` before it executes a message.
+     *
+     * @return The time at which the message's execution started, if metrics are being collected.
+     */
+    protected final long panini$serviceStarted() {
+        return (panini$metrics == null) ? 0L : System.nanoTime();
+    }
+
+    /**
+     * Called by `run()` once it has executed the given message, whose execution started at the
+     * time returned by `panini$serviceStarted()`.
+     */
+    protected final void panini$serviceEnded(Panini$Message msg, long started) {
+        if (panini$metrics != null) {
+            panini$metrics.served(msg.panini$msgID(), started);
+        }
+    }
+
+    /**
+     * Called by `run()` before it executes the given message, just after
+     * `panini$serviceStarted()`. If tracing is enabled, this makes the span of its execution the
+     * current thread's trace context.
+     *
+     * @return The flight recorder event of the message's execution, if it is being recorded, or
+     *         else `null`. See `Panini$Flight`.
+     */
+    protected final Object panini$executionStarted(Panini$Message msg) {
+        if (Panini$System.TRACING && isTraced(msg.panini$msgID())) {
+            Panini$Trace.enter();
+        }
+        return Panini$Flight.executionStarted();
+    }
+
+    /**
+     * Called by `run()` once it has executed the given message, just before
+     * `panini$serviceEnded()`.
+     */
+    protected final void panini$executionEnded(Panini$Message msg, Object execution) {
+        int msgID = msg.panini$msgID();
+        Panini$Flight.executionEnded(execution, this, msgID);
+        if (Panini$System.TRACING && isTraced(msgID)) {
+            Panini$Trace.exit(getClass(), panini$procedureNames(), msgID);
+        }
+    }
+
+    /**
+     * Procedure calls and promise callbacks are traced, but other control messages are not.
+     */
+    private static boolean isTraced(int msgID) {
+        return msgID >= 0 || msgID == PANINI$CONTINUE;
+    }
+
+    /**
+     * Reports an error thrown by one of this capsule's procedures.
+     */
+    protected final void panini$reportError(Throwable thrown) {
+        panini$errors().add(thrown);
+    }
+
+    /**
+     * Returns the queue of this capsule's errors, creating it if it does not exist yet. In the
+     * compact footprint mode, this is the queue shared by every capsule, `Panini$System.errors`.
+     */
+    private Panini$ErrorQueue panini$errors()
+    {
+        Panini$ErrorQueue errors = panini$errors;
+        if (errors == null) {
+            if (Panini$System.COMPACT_FOOTPRINT) {
+                return Panini$System.errors;
+            }
+            PANINI$ERRORS.compareAndSet(this, null, new Panini$ErrorQueue());
+            errors = panini$errors;
+        }
+        return errors;
     }
 
     public Throwable panini$pollErrors() {
-        return panini$errors.poll();
+        return panini$errors().poll();
     }
 
     public Throwable panini$pollErrors(long timeout, TimeUnit unit)
     {
         try {
-            return panini$errors.poll(timeout, unit);
+            return panini$errors().poll(timeout, unit);
         } catch (InterruptedException ex) {
             return null;
         }
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+
+package org.paninij.runtime;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import org.paninij.lang.Overflow;
+
+/**
+ * The runtime base class of the VIRTUAL_THREAD execution profile. It is the THREAD profile, except
+ * that each capsule runs its message loop on a virtual thread rather than on a platform thread, so
+ * an idle capsule costs a few hundred bytes of heap rather than an OS thread and its stack.
+ *
+ * <p>A capsule waiting for a message parks with `LockSupport.park()`, which unmounts its virtual
+ * thread and frees the carrier thread for other capsules.
+ *
+ * <p>The runtime is compiled for Java 8, so virtual threads are created reflectively. On a JVM
+ * without virtual threads (i.e. before Java 21), capsules fall back to platform threads, and so
+ * behave exactly as in the THREAD profile.
+ */
+public abstract class Capsule$VirtualThread extends Capsule$Thread
+{
+    /** `Thread.ofVirtual()`, or `null` if this JVM has no virtual threads. */
+    private static final MethodHandle OF_VIRTUAL;
+
+    /** `Thread.Builder.unstarted(Runnable)`, or `null` if this JVM has no virtual threads. */
+    private static final MethodHandle UNSTARTED;
+
+    static {
+        MethodHandle ofVirtual = null;
+        MethodHandle unstarted = null;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            ofVirtual = lookup.findStatic(Thread.class, "ofVirtual",
+                    MethodType.methodType(Class.forName("java.lang.Thread$Builder$OfVirtual")));
+            unstarted = lookup.findVirtual(builder, "unstarted",
+                    MethodType.methodType(Thread.class, Runnable.class));
+        } catch (ReflectiveOperationException ex) {
+            ofVirtual = null;
+            unstarted = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        UNSTARTED = unstarted;
+    }
+
+    protected Capsule$VirtualThread() {
+        super();
+    }
+
+    protected Capsule$VirtualThread(int capacity, Overflow overflow) {
+        super(capacity, overflow);
+    }
+
+    protected Capsule$VirtualThread(int capacity, Overflow overflow, boolean lanes) {
+        super(capacity, overflow, lanes);
+    }
+
+    /**
+     * @return Whether capsules of this profile really run on virtual threads on this JVM.
+     */
+    public static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    @Override
+    protected Thread panini$newThread()
+    {
+        if (OF_VIRTUAL == null) {
+            return super.panini$newThread();
+        }
+        try {
+            // A new builder every time, since builders are not safe for use by concurrent threads.
+            Object builder = OF_VIRTUAL.invoke();
+            return (Thread) UNSTARTED.invoke(builder, this);
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable thrown) {
+            throw new IllegalStateException("Failed to create a virtual thread.", thrown);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+
+package org.paninij.runtime;
+
+/**
+ * A promise callback, delivered to the capsule which registered it. Since its message ID is
+ * negative, it is treated as a control message. See `Panini$Promise`.
+ */
+public final class Panini$Continuation implements Panini$Message, Runnable
+{
+    private final Runnable callback;
+
+    public Panini$Continuation(Runnable callback) {
+        this.callback = callback;
+    }
+
+    @Override
+    public int panini$msgID() {
+        return Capsule$Thread.PANINI$CONTINUE;
+    }
+
+    @Override
+    public void run() {
+        callback.run();
+    }
+
+    /**
+     * Called instead of `run()` if this continuation is discarded (e.g. because its capsule has
+     * terminated). If the callback was to complete a derived promise, then that promise is
+     * cancelled, so that nobody waits on it forever. If it was a run of a timer task, then the
+     * task's timeout is cancelled, so that the task is not run again.
+     */
+    public void panini$discard() {
+        if (callback instanceof Panini$Promise.Callback) {
+            ((Panini$Promise.Callback) callback).abandon();
+        } else if (callback instanceof Panini$Timeout.Delivery) {
+            ((Panini$Timeout.Delivery) callback).abandon();
+        }
+    }
+}
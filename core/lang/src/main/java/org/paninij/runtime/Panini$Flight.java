@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij.runtime;
+
+/**
+ * Emits the runtime's JDK Flight Recorder events (see `Panini$FlightEvents`), so that standard JFR
+ * tooling can relate a stalled or slow capsule system to its mailbox backlogs and blocked calls.
+ *
+ * <p>The runtime is compiled for Java 8, which may have no JFR, so the event classes are built from
+ * a source set of their own, and are only ever loaded (reflectively) by this class, once it has
+ * found that JFR is there. Each method does nothing (and
+ * each `...Started()` method returns `null`) if JFR is missing, if `Panini$System.FLIGHT_EVENTS`
+ * is cleared, if the event classes are missing, or if no running recording enables the event.
+ */
+public final class Panini$Flight
+{
+    private static final Events EVENTS = Panini$System.FLIGHT_EVENTS ? loadEvents() : null;
+
+    static final boolean ENABLED = EVENTS != null;
+
+    private Panini$Flight() { }
+
+    /**
+     * @return The `Panini$FlightEvents`, or `null` if either it or JFR is missing.
+     */
+    private static Events loadEvents()
+    {
+        try {
+            Class.forName("jdk.jfr.Event");
+            Class<?> events = Class.forName("org.paninij.runtime.Panini$FlightEvents");
+            return (Events) events.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            return null;
+        }
+    }
+
+    /**
+     * What `Panini$FlightEvents` implements, so that the main source set need not refer to it.
+     */
+    interface Events
+    {
+        void capsuleStarted(Object capsule);
+
+        void capsuleTerminated(Object capsule);
+
+        void enqueued(Object capsule, Object msg, int count, Panini$Mailbox mailbox);
+
+        Object executionStarted();
+
+        void executionEnded(Object started, Object capsule, int procID);
+
+        Object waitStarted();
+
+        void waitEnded(Object started, Object awaited);
+
+        Object batchStarted();
+
+        void batchEnded(Object started, Object capsule, int messages);
+
+        void ownershipViolation(String site, Object transfer);
+    }
+
+    /**
+     * Called once the given capsule has been started. A root capsule is not started by its parent,
+     * so the `main()` method generated for it calls this itself.
+     */
+    public static void capsuleStarted(Object capsule) {
+        if (ENABLED) EVENTS.capsuleStarted(capsule);
+    }
+
+    static void capsuleTerminated(Object capsule) {
+        if (ENABLED) EVENTS.capsuleTerminated(capsule);
+    }
+
+    /**
+     * Called once `count` messages have been pushed onto the given capsule's mailbox, the first
+     * of which was `msg`.
+     */
+    static void enqueued(Object capsule, Object msg, int count, Panini$Mailbox mailbox) {
+        if (ENABLED) EVENTS.enqueued(capsule, msg, count, mailbox);
+    }
+
+    /**
+     * @return The event to pass to `executionEnded()`, or `null`.
+     */
+    static Object executionStarted() {
+        return ENABLED ? EVENTS.executionStarted() : null;
+    }
+
+    static void executionEnded(Object event, Object capsule, int procID) {
+        if (event != null) EVENTS.executionEnded(event, capsule, procID);
+    }
+
+    /**
+     * Called once a thread is about to block until a message has been processed.
+     *
+     * @return The event to pass to `waitEnded()`, or `null`.
+     */
+    static Object waitStarted() {
+        return ENABLED ? EVENTS.waitStarted() : null;
+    }
+
+    /**
+     * @param awaited  The message (e.g. a future) which was waited on, or `null`.
+     */
+    static void waitEnded(Object event, Object awaited) {
+        if (event != null) EVENTS.waitEnded(event, awaited);
+    }
+
+    /**
+     * @return The event to pass to `batchEnded()`, or `null`.
+     */
+    static Object batchStarted() {
+        return ENABLED ? EVENTS.batchStarted() : null;
+    }
+
+    static void batchEnded(Object event, Object capsule, int messages) {
+        if (event != null) EVENTS.batchEnded(event, capsule, messages);
+    }
+
+    /**
+     * Called once a dynamic ownership check has found that `transfer` was unsafe to transfer.
+     *
+     * @param site  The name of the site at which it was transferred.
+     */
+    public static void ownershipViolation(String site, Object transfer) {
+        if (ENABLED) EVENTS.ownershipViolation(site, transfer);
+    }
+}
@@ -30,4 +30,37 @@ public interface Panini$Future<T>
 {
     T panini$get();
     void panini$resolve(T t);
+
+    /**
+     * Completes this future exceptionally, so that `panini$get()` throws a `CompletionException`
+     * caused by `failure`. Called by the receiving capsule, which has claimed the future, if the
+     * future's procedure throws.
+     */
+    void panini$fail(Throwable failure);
+
+    /**
+     * Called by the receiving capsule just before it executes this future's message.
+     *
+     * @return `false` if the message has been cancelled, and so must not be executed.
+     */
+    default boolean panini$claim() {
+        return true;
+    }
+
+    /**
+     * Cancels this future if its message has not yet started to execute.
+     *
+     * @return Whether the future was cancelled by this call.
+     */
+    default boolean panini$cancel() {
+        return false;
+    }
+
+    /**
+     * @return Whether this future has been resolved or cancelled. A future which cannot tell
+     *         always returns `false`.
+     */
+    default boolean panini$isDone() {
+        return false;
+    }
 }
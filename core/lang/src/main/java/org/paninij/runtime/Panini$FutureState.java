@@ -0,0 +1,355 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+
+package org.paninij.runtime;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The lock-free state machine behind every generated future message (including ducks).
+ *
+ * <p>Each future keeps its whole state in a single `volatile Object` field, which it exposes to
+ * these methods through an `AtomicReferenceFieldUpdater`. (Ducks must extend their procedure's
+ * return type, so the state cannot live in a common superclass.) The field holds one of:
+ *
+ * <ul>
+ * <li>`null`: the message is pending, and nobody is waiting on it.</li>
+ * <li>{@link #RUNNING}: the receiving capsule has claimed the message, and nobody is waiting.</li>
+ * <li>A {@link Waiter}: the top of a stack of parked threads and of callbacks to run once the
+ *     future is done. The top node also records whether the message has been claimed.</li>
+ * <li>{@link #RESOLVED} or {@link #CANCELLED}: the future is done, and will never change again.</li>
+ * </ul>
+ *
+ * <p>A future's result is stored in a plain field before it is resolved, and is published by the
+ * volatile write of {@link #RESOLVED}. A reader who sees {@link #RESOLVED} may therefore read the
+ * result directly, without calling into this class at all.
+ */
+public final class Panini$FutureState
+{
+    public static final Object RUNNING = new Object();
+    public static final Object RESOLVED = new Object();
+    public static final Object CANCELLED = new Object();
+
+    private Panini$FutureState() { }
+
+    /**
+     * Either a thread which is parked until some future is done, or an action to run once it is.
+     */
+    static final class Waiter
+    {
+        final Thread thread;
+        final Runnable action;
+        final Waiter next;
+        final boolean running;
+
+        Waiter(Thread thread, Runnable action, Waiter next, boolean running) {
+            this.thread = thread;
+            this.action = action;
+            this.next = next;
+            this.running = running;
+        }
+
+        /**
+         * Creates a waiter to replace the pending (i.e. neither done nor cancelled) state `top`.
+         */
+        Waiter(Thread thread, Runnable action, Object top) {
+            this(thread, action, top instanceof Waiter ? (Waiter) top : null, isRunning(top));
+        }
+    }
+
+    public static boolean isDone(Object state) {
+        return state == RESOLVED || state == CANCELLED;
+    }
+
+    private static boolean isRunning(Object state) {
+        return state == RUNNING || (state instanceof Waiter && ((Waiter) state).running);
+    }
+
+    /**
+     * Moves a pending future into the running state. Called by the receiving capsule just before
+     * it executes the future's message. At most one claim of a future ever succeeds, so a claim
+     * also decides which of several would-be completers is to complete the future.
+     *
+     * @return `false` if the future has already been claimed, cancelled, or resolved, in which
+     *         case the message must not be executed.
+     */
+    public static <F> boolean claim(F future, AtomicReferenceFieldUpdater<F, Object> state)
+    {
+        while (true)
+        {
+            Object s = state.get(future);
+            if (isDone(s) || isRunning(s)) {
+                return false;
+            }
+            Object claimed = RUNNING;
+            if (s != null) {
+                Waiter top = (Waiter) s;
+                claimed = new Waiter(top.thread, top.action, top.next, true);
+            }
+            if (state.compareAndSet(future, s, claimed)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Marks the future as resolved, wakes every waiter, and runs every action registered with
+     * {@link #whenDone}. The caller must already have stored the result.
+     *
+     * @return `false` if the future was already done, in which case nobody will see the result.
+     */
+    public static <F> boolean resolve(F future, AtomicReferenceFieldUpdater<F, Object> state) {
+        return complete(future, state, RESOLVED, false);
+    }
+
+    /**
+     * Cancels the future, provided that the receiving capsule has not yet claimed its message.
+     *
+     * @return Whether this call cancelled the future.
+     */
+    public static <F> boolean cancel(F future, AtomicReferenceFieldUpdater<F, Object> state) {
+        return complete(future, state, CANCELLED, true);
+    }
+
+    /**
+     * Cancels the future even though it has been claimed. Used by the claimant when whatever it
+     * was to compute the result from has itself been cancelled.
+     *
+     * @return Whether this call cancelled the future.
+     */
+    public static <F> boolean abandon(F future, AtomicReferenceFieldUpdater<F, Object> state) {
+        return complete(future, state, CANCELLED, false);
+    }
+
+    private static <F> boolean complete(F future, AtomicReferenceFieldUpdater<F, Object> state,
+                                        Object done, boolean onlyIfPending)
+    {
+        while (true)
+        {
+            Object s = state.get(future);
+            if (isDone(s) || (onlyIfPending && isRunning(s))) {
+                return false;
+            }
+            if (state.compareAndSet(future, s, done)) {
+                if (s instanceof Waiter) {
+                    release((Waiter) s);
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Wakes the stacked threads, and then runs the stacked actions in the order in which they
+     * were registered.
+     */
+    private static void release(Waiter top)
+    {
+        int actions = 0;
+        for (Waiter w = top; w != null; w = w.next) {
+            if (w.thread != null) {
+                LockSupport.unpark(w.thread);
+            } else {
+                actions++;
+            }
+        }
+        if (actions == 0) {
+            return;
+        }
+        Runnable[] ordered = new Runnable[actions];
+        for (Waiter w = top; w != null; w = w.next) {
+            if (w.action != null) {
+                ordered[--actions] = w.action;
+            }
+        }
+        for (Runnable action : ordered) {
+            action.run();
+        }
+    }
+
+    /**
+     * Registers an action to be run by whichever thread completes the future (i.e. resolves or
+     * cancels it). The action should be short, and must not throw.
+     *
+     * @return `false` if the future is already done, in which case the action was not registered
+     *         and the caller should run it itself.
+     */
+    public static <F> boolean whenDone(F future, AtomicReferenceFieldUpdater<F, Object> state,
+                                       Runnable action)
+    {
+        Object s;
+        while (!isDone(s = state.get(future))) {
+            if (state.compareAndSet(future, s, new Waiter(null, action, s))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Waits until the future is resolved. Interrupts do not end the wait, but they are not lost
+     * either: the thread's interrupt status is restored before returning.
+     *
+     * @throws CancellationException if the future was cancelled.
+     */
+    public static <F> void await(F future, AtomicReferenceFieldUpdater<F, Object> state)
+    {
+        Panini$Outbox.flushCurrent();  // Never wait on a message which has yet to be pushed.
+        boolean interrupted = false;
+        boolean queued = false;
+        Object wait = null;
+        Object s;
+        while (!isDone(s = state.get(future)))
+        {
+            if (!queued) {
+                queued = push(future, state, s);
+                wait = queued ? Panini$Flight.waitStarted() : null;
+                continue;
+            }
+            LockSupport.park(future);
+            interrupted |= Thread.interrupted();
+        }
+        Panini$Flight.waitEnded(wait, future);
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        checkNotCancelled(s);
+    }
+
+    /**
+     * Waits at most `nanos` nanoseconds for the future to be resolved.
+     *
+     * @throws CancellationException if the future was cancelled.
+     * @throws InterruptedException if the thread was interrupted while waiting.
+     * @throws TimeoutException if the future was still pending once the time ran out.
+     */
+    public static <F> void await(F future, AtomicReferenceFieldUpdater<F, Object> state, long nanos)
+            throws InterruptedException, TimeoutException
+    {
+        Panini$Outbox.flushCurrent();  // Never wait on a message which has yet to be pushed.
+        final long deadline = System.nanoTime() + nanos;
+        boolean queued = false;
+        Object wait = null;
+        Object s;
+        try {
+            while (!isDone(s = state.get(future)))
+            {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                if (nanos <= 0L) {
+                    throw new TimeoutException();
+                }
+                if (!queued) {
+                    queued = push(future, state, s);
+                    wait = queued ? Panini$Flight.waitStarted() : null;
+                    continue;
+                }
+                LockSupport.parkNanos(future, nanos);
+                nanos = deadline - System.nanoTime();
+            }
+        } finally {
+            if (queued) {
+                unpush(future, state);
+            }
+            Panini$Flight.waitEnded(wait, future);
+        }
+        checkNotCancelled(s);
+    }
+
+    /**
+     * Pushes a waiter for the current thread onto the pending state `s`.
+     *
+     * @return Whether the waiter was pushed, i.e. whether the state was still `s`.
+     */
+    private static <F> boolean push(F future, AtomicReferenceFieldUpdater<F, Object> state, Object s) {
+        return state.compareAndSet(future, s, new Waiter(Thread.currentThread(), null, s));
+    }
+
+    /**
+     * Unstacks the current thread's waiter from a future which may still be pending, i.e. after a
+     * timed wait has given up. Otherwise, a future which is polled with timeouts, but never
+     * resolved, would keep one node per poll. As in `FutureTask.removeWaiter()`, the stack is
+     * traversed and the node is unlinked; but since waiters are immutable (and since a claim
+     * replaces the top waiter), the waiter is found by its thread, and the waiters above it are
+     * copied. The waiters below it are shared with the old stack.
+     */
+    private static <F> void unpush(F future, AtomicReferenceFieldUpdater<F, Object> state)
+    {
+        final Thread current = Thread.currentThread();
+        Object s;
+        while ((s = state.get(future)) instanceof Waiter)
+        {
+            Waiter top = (Waiter) s;
+            int above = 0;  // The number of waiters down to the current thread's (deepest) one.
+            int depth = 0;
+            for (Waiter w = top; w != null; w = w.next) {
+                depth++;
+                if (w.thread == current) {
+                    above = depth;
+                }
+            }
+            if (above == 0) {
+                return;
+            }
+
+            Waiter[] copied = new Waiter[above];
+            Waiter w = top;
+            for (int i = 0; i < above; i++, w = w.next) {
+                copied[i] = w;
+            }
+            Waiter rest = copied[above - 1].next;
+            for (int i = above - 1; i >= 0; i--) {
+                if (copied[i].thread != current) {
+                    rest = new Waiter(copied[i].thread, copied[i].action, rest, false);
+                }
+            }
+
+            // Only the top waiter records whether the message has been claimed.
+            Object unpushed;
+            if (rest == null) {
+                unpushed = top.running ? RUNNING : null;
+            } else if (rest.running != top.running) {
+                unpushed = new Waiter(rest.thread, rest.action, rest.next, top.running);
+            } else {
+                unpushed = rest;
+            }
+            if (state.compareAndSet(future, s, unpushed)) {
+                return;
+            }
+        }
+    }
+
+    private static void checkNotCancelled(Object state)
+    {
+        if (state == CANCELLED) {
+            throw new CancellationException("The message was cancelled before it was executed.");
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+
+package org.paninij.runtime;
+
+import org.paninij.lang.Overflow;
+
+/**
+ * A mailbox with two lanes: a priority lane, which holds the messages of procedures annotated with
+ * `@Priority` (along with `PANINI$CLOSE_LINK` messages), and a normal lane, which holds all other
+ * messages. Each lane is itself a mailbox of the configured kind (see
+ * {@link Panini$System#MAILBOX_KIND}).
+ *
+ * <p>The consumer drains the lanes by weight: it takes up to `weight` messages from the priority
+ * lane for every one message which it takes from the normal lane, so a priority message waits
+ * behind at most one normal message (plus those priority messages ahead of it), however deep the
+ * normal lane is, and yet a steady stream of priority messages cannot starve the normal lane.
+ *
+ * <p>Messages are only ordered with respect to the other messages in the same lane. In particular,
+ * `PANINI$TERMINATE` is pushed onto the normal lane (see {@link #pushControl(Object)}), so that a
+ * capsule still processes all of its pending messages before it terminates.
+ *
+ * <p>The priority lane is unbounded, since its messages are expected to be few, and a priority
+ * message is never blocked, refused, or dropped. The capacity and overflow policy of the mailbox
+ * apply to its normal lane.
+ */
+public final class Panini$LanedMailbox implements Panini$Mailbox
+{
+    private final Panini$Mailbox priority;
+    private final Panini$Mailbox normal;
+    private final int weight;
+
+    /** The number of priority messages polled since the last normal one. Consumer-only. */
+    private int run;
+
+    /**
+     * @param priority  The priority lane.
+     * @param normal    The normal lane.
+     * @param weight    The number of priority messages to take for each normal message. Must be
+     *                  positive.
+     */
+    public Panini$LanedMailbox(Panini$Mailbox priority, Panini$Mailbox normal, int weight)
+    {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Priority weight must be positive: " + weight);
+        }
+        this.priority = priority;
+        this.normal = normal;
+        this.weight = weight;
+    }
+
+    @Override
+    public void push(Object msg) {
+        normal.push(msg);
+    }
+
+    @Override
+    public void push(Object... msgs) {
+        normal.push(msgs);
+    }
+
+    @Override
+    public void push(Object[] msgs, int count) {
+        normal.push(msgs, count);
+    }
+
+    @Override
+    public void pushControl(Object msg) {
+        normal.pushControl(msg);
+    }
+
+    @Override
+    public void pushPriority(Object msg) {
+        priority.pushControl(msg);
+    }
+
+    @Override
+    public Object poll()
+    {
+        Object msg;
+        if (run < weight && (msg = priority.poll()) != null) {
+            run++;
+            return msg;
+        }
+        run = 0;
+        msg = normal.poll();
+        return msg != null ? msg : priority.poll();
+    }
+
+    /**
+     * Normal messages are not coalesced while any priority message is pending, since that would
+     * delay the priority message for longer than the weight allows.
+     */
+    @Override
+    public Object pollMatching(int msgID)
+    {
+        Object msg = priority.pollMatching(msgID);
+        if (msg != null || !priority.isEmpty()) {
+            return msg;
+        }
+        return normal.pollMatching(msgID);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return normal.isEmpty() && priority.isEmpty();
+    }
+
+    @Override
+    public int size()
+    {
+        long size = (long) normal.size() + priority.size();
+        return size >= Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) size;
+    }
+
+    @Override
+    public int capacity() {
+        return normal.capacity();
+    }
+
+    @Override
+    public Overflow overflow() {
+        return normal.overflow();
+    }
+}
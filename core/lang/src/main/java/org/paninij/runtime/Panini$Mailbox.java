@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+
+package org.paninij.runtime;
+
+import org.paninij.lang.Overflow;
+
+/**
+ * A capsule's queue of pending messages. Any number of threads may push onto a mailbox, but only
+ * the one thread which is currently executing the owning capsule may poll from it.
+ *
+ * <p>A mailbox may be bounded, in which case its {@link Overflow} policy dictates what a push does
+ * while the mailbox is full. A push onto an unbounded mailbox always succeeds.
+ */
+public interface Panini$Mailbox
+{
+    /** The capacity of a mailbox which may grow without limit. */
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    /**
+     * Enqueues a single message. May be called from any thread.
+     */
+    public void push(Object msg);
+
+    /**
+     * Enqueues several messages such that they are contiguous in the mailbox. May be called from
+     * any thread. Note that on a bounded mailbox each message is subject to the overflow policy on
+     * its own, so the messages are in order but may be interleaved with those of other senders.
+     */
+    public void push(Object... msgs);
+
+    /**
+     * Enqueues the first `count` of the given messages, just as `push(Object...)` would.
+     */
+    public void push(Object[] msgs, int count);
+
+    /**
+     * Enqueues one of the runtime's own control messages (see {@link #isControlMessage(Object)}).
+     * This ignores the capacity: a control message is never blocked, refused, or dropped, since
+     * a capsule could otherwise never terminate (or could deadlock while sending one to itself).
+     */
+    public void pushControl(Object msg);
+
+    /**
+     * Enqueues a message which is to be handled ahead of the mailbox's other pending messages, if
+     * this mailbox has a priority lane (see {@link Panini$LanedMailbox}). A mailbox without one
+     * enqueues the message just as {@link #pushControl(Object)} would.
+     */
+    public default void pushPriority(Object msg) {
+        pushControl(msg);
+    }
+
+    /**
+     * Dequeues the oldest message. Must only be called by the mailbox's consumer.
+     *
+     * @return The oldest message, or `null` if the mailbox is empty.
+     */
+    public Object poll();
+
+    /**
+     * Dequeues the oldest message, but only if it is a `Panini$Message` with the given ID. Must
+     * only be called by the mailbox's consumer. This lets a capsule coalesce consecutive pending
+     * invocations of the same procedure (see {@link org.paninij.lang.Coalesce}).
+     *
+     * @return The oldest message, or `null` if the mailbox is empty or its oldest message has
+     *         some other ID.
+     */
+    public Object pollMatching(int msgID);
+
+    /**
+     * Note that when called from some thread other than the consumer, the result may be stale.
+     */
+    public boolean isEmpty();
+
+    /**
+     * Note that when called from some thread other than the consumer, the result is approximate.
+     */
+    public int size();
+
+    /**
+     * @return The maximum number of pending messages, or {@link #UNBOUNDED}.
+     */
+    public int capacity();
+
+    /**
+     * @return What a push does while this mailbox is full. Meaningless if it is unbounded.
+     */
+    public Overflow overflow();
+
+    /**
+     * @return Whether `msg` is one of the runtime's own control messages (e.g.
+     *         `Capsule$Thread.PANINI$CLOSE_LINK`), which all have negative message IDs.
+     */
+    public static boolean isControlMessage(Object msg) {
+        return msg instanceof Panini$Message && ((Panini$Message) msg).panini$msgID() < 0;
+    }
+
+    /**
+     * @return Whether `msg` is a `Panini$Message` with the given message ID.
+     */
+    public static boolean hasID(Object msg, int msgID) {
+        return msg instanceof Panini$Message && ((Panini$Message) msg).panini$msgID() == msgID;
+    }
+
+    /**
+     * Called on each message which a mailbox's overflow policy drops or refuses, or which is left
+     * over in the mailbox of a terminated capsule. If the sender is (or may later be) waiting on
+     * the message's result, then that future is cancelled, so that the sender learns that the
+     * message was lost rather than waiting forever. Likewise, a discarded promise callback cancels
+     * the promise which it was to complete. The message is no longer in flight.
+     */
+    public static void discarded(Object msg) {
+        msg = Panini$Trace.unwrap(msg);
+        if (msg instanceof Panini$Future) {
+            ((Panini$Future<?>) msg).panini$cancel();
+        } else if (msg instanceof Panini$Continuation) {
+            ((Panini$Continuation) msg).panini$discard();
+        }
+        Panini$System.threads.done();
+    }
+
+
+    public static enum Kind
+    {
+        /** A lock-free, multi-producer/single-consumer queue. See {@link Panini$MpscMailbox}. */
+        MPSC,
+
+        /** A circular array guarded by a lock. See {@link Panini$RingMailbox}. */
+        RING;
+
+        public Panini$Mailbox newMailbox() {
+            return newMailbox(UNBOUNDED, Overflow.getDefault());
+        }
+
+        /**
+         * A bounded MPSC mailbox which is to drop its oldest message is a RING mailbox instead,
+         * since only an MPSC mailbox's consumer can remove a message, and a busy consumer would
+         * then let the mailbox grow without bound.
+         *
+         * @param capacity  The maximum number of pending messages. Must be positive.
+         * @param overflow  What a push does while the new mailbox is full.
+         */
+        public Panini$Mailbox newMailbox(int capacity, Overflow overflow)
+        {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("Mailbox capacity must be positive: " + capacity);
+            }
+            if (overflow == null) {
+                throw new IllegalArgumentException("Mailbox overflow policy must be given.");
+            }
+            switch (this) {
+            case MPSC:
+                if (capacity != UNBOUNDED && overflow == Overflow.DROP_OLDEST) {
+                    return new Panini$RingMailbox(capacity, overflow);
+                }
+                return new Panini$MpscMailbox(capacity, overflow);
+            case RING:
+                return new Panini$RingMailbox(capacity, overflow);
+            default:
+                throw new IllegalArgumentException("Unknown mailbox kind: " + this);
+            }
+        }
+
+        /**
+         * Converts the given string `s` to the matching enum value. Note that if either `null` or
+         * the empty string are given, then the default `Kind` is returned.
+         *
+         * @throws IllegalArgumentException If there is no enum value matching the given string.
+         */
+        public static Kind fromString(String s)
+        {
+            if (s == null || s.isEmpty())
+                return getDefault();
+            return valueOf(s.toUpperCase());
+        }
+
+        public static Kind getDefault() {
+            return MPSC;
+        }
+    }
+}
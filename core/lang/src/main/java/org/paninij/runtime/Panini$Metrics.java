@@ -0,0 +1,282 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij.runtime;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * The runtime metrics of one thread or task capsule, which are collected if
+ * `Panini$System.METRICS` is set, and are published over JMX as the MBean
+ * {@code org.paninij:type=Capsule,name=<capsule type>,id=<n>} until the capsule terminates. See
+ * `Panini$MetricsMXBean`.
+ *
+ * Recording never allocates or blocks. Messages are counted as they are enqueued by any number of
+ * producers, so that count is striped. Every other value is only ever written by the capsule's
+ * consumer (i.e. whichever thread is running it), so it is updated with a plain read and an
+ * ordered write.
+ */
+public final class Panini$Metrics implements Panini$MetricsMXBean
+{
+    /** The number of entries in each service time histogram. The last starts at about 2 seconds. */
+    static final int BUCKETS = 32;
+
+    static final String[] NO_PROCEDURES = {};
+
+    private static final AtomicLong ids = new AtomicLong();
+
+    private static final AtomicLongFieldUpdater<Panini$Metrics> DEQUEUED =
+            AtomicLongFieldUpdater.newUpdater(Panini$Metrics.class, "dequeued");
+    private static final AtomicLongFieldUpdater<Panini$Metrics> MAX_DEPTH =
+            AtomicLongFieldUpdater.newUpdater(Panini$Metrics.class, "maxDepth");
+
+    private final Panini$TypeMetrics type;
+    private final Panini$Mailbox mailbox;
+    private final ObjectName name;
+
+    final LongAdder enqueued = new LongAdder();
+    volatile long dequeued = 0;
+    volatile long maxDepth = 0;
+
+    /** Indexed by procedure ID. */
+    final AtomicLongArray invocations;
+    final AtomicLongArray serviceNanos;
+
+    /** Indexed by `procedure ID * BUCKETS + bucket`. */
+    final AtomicLongArray histograms;
+
+    private Panini$Metrics(Panini$TypeMetrics type, Panini$Mailbox mailbox, ObjectName name)
+    {
+        int procedures = type.procedures.length;
+        this.type = type;
+        this.mailbox = mailbox;
+        this.name = name;
+        invocations = new AtomicLongArray(procedures);
+        serviceNanos = new AtomicLongArray(procedures);
+        histograms = new AtomicLongArray(procedures * BUCKETS);
+    }
+
+    /**
+     * Makes and publishes the metrics of a new capsule.
+     *
+     * @param capsule     The generated capsule class (e.g. `Foo$Thread`).
+     * @param procedures  The signature of each of the capsule's procedures, by procedure ID.
+     * @param mailbox     The capsule's mailbox.
+     */
+    static Panini$Metrics register(Class<?> capsule, String[] procedures, Panini$Mailbox mailbox)
+    {
+        Panini$TypeMetrics type = Panini$TypeMetrics.of(capsuleType(capsule), procedures);
+        ObjectName name = objectName("Capsule", type.name, ids.incrementAndGet());
+        Panini$Metrics metrics = new Panini$Metrics(type, mailbox, name);
+        type.added(metrics);
+        publish(metrics, name);
+        return metrics;
+    }
+
+    /**
+     * Called by a producer once it has pushed `count` messages.
+     */
+    void enqueued(int count) {
+        enqueued.add(count);
+    }
+
+    /**
+     * Called by the consumer once it has taken a message from the mailbox.
+     */
+    void dequeued()
+    {
+        DEQUEUED.lazySet(this, dequeued + 1);
+        long depth = mailbox.size() + 1L;
+        if (depth > maxDepth) {
+            MAX_DEPTH.lazySet(this, depth);
+        }
+    }
+
+    /**
+     * Called by the consumer once it has executed the message with the given ID, which it began to
+     * execute at the given `System.nanoTime()`. Control messages are not recorded.
+     */
+    void served(int procID, long started)
+    {
+        if (procID < 0 || procID >= invocations.length()) {
+            return;
+        }
+        long nanos = System.nanoTime() - started;
+        invocations.lazySet(procID, invocations.get(procID) + 1);
+        serviceNanos.lazySet(procID, serviceNanos.get(procID) + nanos);
+        int bucket = procID * BUCKETS + bucket(nanos);
+        histograms.lazySet(bucket, histograms.get(bucket) + 1);
+    }
+
+    /**
+     * Called once the capsule has terminated. Unpublishes these metrics, and adds them to the
+     * totals of the capsule's type.
+     */
+    void retire()
+    {
+        unpublish(name);
+        type.retired(this);
+    }
+
+    static int bucket(long nanos) {
+        return Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(Math.max(nanos, 1)));
+    }
+
+    /**
+     * Strips the profile suffix from the name of a generated capsule class, e.g. `org.example.Foo`
+     * from `org.example.Foo$Thread`.
+     */
+    static String capsuleType(Class<?> capsule)
+    {
+        String name = capsule.getName();
+        int sep = name.lastIndexOf('$');
+        return (sep > 0) ? name.substring(0, sep) : name;
+    }
+
+    static ObjectName objectName(String kind, String capsuleType, long id)
+    {
+        String name = "org.paninij:type=" + kind + ",name=" + ObjectName.quote(capsuleType);
+        if (id > 0) {
+            name += ",id=" + id;
+        }
+        try {
+            return new ObjectName(name);
+        } catch (JMException ex) {
+            throw new IllegalArgumentException("Bad MBean name: " + name, ex);
+        }
+    }
+
+    static void publish(Object mbean, ObjectName name)
+    {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, name);
+        } catch (JMException ex) {
+            // The metrics are still collected (and counted in their type's totals), just not
+            // published on their own, e.g. if another class loader has already published a type.
+        }
+    }
+
+    static void unpublish(ObjectName name)
+    {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException ex) {
+            // It was never published. See `publish()`.
+        }
+    }
+
+    static Map<String, Long> byProcedure(String[] procedures, long[] values)
+    {
+        Map<String, Long> map = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < procedures.length; i++) {
+            map.put(procedures[i], values[i]);
+        }
+        return map;
+    }
+
+    static long[] toArray(AtomicLongArray array)
+    {
+        long[] values = new long[array.length()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = array.get(i);
+        }
+        return values;
+    }
+
+    static long[] means(long[] totals, long[] counts)
+    {
+        long[] means = new long[totals.length];
+        for (int i = 0; i < means.length; i++) {
+            means[i] = (counts[i] == 0) ? 0 : totals[i] / counts[i];
+        }
+        return means;
+    }
+
+    static Map<String, long[]> histograms(String[] procedures, long[] histograms)
+    {
+        Map<String, long[]> map = new LinkedHashMap<String, long[]>();
+        for (int i = 0; i < procedures.length; i++) {
+            long[] histogram = new long[BUCKETS];
+            System.arraycopy(histograms, i * BUCKETS, histogram, 0, BUCKETS);
+            map.put(procedures[i], histogram);
+        }
+        return map;
+    }
+
+    @Override
+    public String getCapsuleType() {
+        return type.name;
+    }
+
+    @Override
+    public int getLiveInstances() {
+        return 1;
+    }
+
+    @Override
+    public long getMessagesEnqueued() {
+        return enqueued.sum();
+    }
+
+    @Override
+    public long getMessagesDequeued() {
+        return dequeued;
+    }
+
+    @Override
+    public long getMailboxDepth() {
+        return mailbox.size();
+    }
+
+    @Override
+    public long getMaxMailboxDepth() {
+        return maxDepth;
+    }
+
+    @Override
+    public Map<String, Long> getInvocations() {
+        return byProcedure(type.procedures, toArray(invocations));
+    }
+
+    @Override
+    public Map<String, Long> getMeanServiceNanos() {
+        long[] means = means(toArray(serviceNanos), toArray(invocations));
+        return byProcedure(type.procedures, means);
+    }
+
+    @Override
+    public Map<String, long[]> getServiceTimeHistograms() {
+        return histograms(type.procedures, toArray(histograms));
+    }
+}
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij.runtime;
+
+import java.util.Map;
+
+/**
+ * The view of a capsule's runtime metrics which is published over JMX, either for one capsule
+ * instance (see `Panini$Metrics`), or summed over every instance of one capsule type (see
+ * `Panini$TypeMetrics`). Metrics are only collected if `Panini$System.METRICS` is set.
+ *
+ * Every value is read without stopping the capsules, so values read together may be slightly
+ * inconsistent with one another.
+ */
+public interface Panini$MetricsMXBean
+{
+    /** The fully qualified name of the capsule type, e.g. `org.example.Dictionary`. */
+    public String getCapsuleType();
+
+    /** The number of instances which these metrics cover, and which have not yet terminated. */
+    public int getLiveInstances();
+
+    /** The number of messages (including control messages) pushed onto the mailbox. */
+    public long getMessagesEnqueued();
+
+    /** The number of messages taken from the mailbox. */
+    public long getMessagesDequeued();
+
+    /** The number of messages which are waiting in the mailbox. */
+    public long getMailboxDepth();
+
+    /** The largest number of messages which a capsule has found waiting in its mailbox. */
+    public long getMaxMailboxDepth();
+
+    /** The number of times each procedure has been executed, by procedure signature. */
+    public Map<String, Long> getInvocations();
+
+    /** The mean time in nanoseconds taken to execute each procedure, by procedure signature. */
+    public Map<String, Long> getMeanServiceNanos();
+
+    /**
+     * A histogram of the times taken to execute each procedure, by procedure signature. Entry `i`
+     * of a histogram counts the executions which took between `2^i` and `2^(i+1)` nanoseconds,
+     * except that the last entry also counts every longer execution.
+     */
+    public Map<String, long[]> getServiceTimeHistograms();
+}
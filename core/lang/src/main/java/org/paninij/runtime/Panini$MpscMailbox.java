@@ -0,0 +1,509 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+
+package org.paninij.runtime;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.paninij.lang.Overflow;
+
+/**
+ * A lock-free, multi-producer/single-consumer mailbox.
+ *
+ * <p>Messages are stored in a linked list of chunks. Every message is given a sequence number: a
+ * producer claims the next sequence number (`tailSeq`) with a single atomic operation, finds (or
+ * appends) the chunk holding that sequence number, and then stores its message into the
+ * corresponding slot. The consumer walks the chunks in order, following its own sequence number
+ * (`headSeq`), and nulls out every slot that it consumes.
+ *
+ * <p>Chunks are sized by the backlog at the time they are appended: the first chunk is small, each
+ * appended chunk doubles in size (up to `MAX_CHUNK_SIZE` and the capacity) while the backlog keeps
+ * up with it, and chunk sizes shrink again once the backlog drains. An idle mailbox therefore stays
+ * small, while a busy one amortizes chunk allocation over many messages.
+ *
+ * <p>When the mailbox is bounded, producers claim sequence numbers with a compare-and-set which
+ * fails while `tailSeq - headSeq` is at the capacity. To avoid reading the consumer's line on every
+ * push, producers share a cached limit (`producerLimit`), and only re-read `headSeq` once their
+ * claims have reached it. Since only the consumer may remove a message, a producer cannot make
+ * room by dropping the oldest one, so a bounded mailbox under {@link Overflow#DROP_OLDEST} is a
+ * {@link Panini$RingMailbox} instead (see `Panini$Mailbox.Kind.newMailbox()`).
+ *
+ * <p>The producer-side and consumer-side fields are padded onto separate cache lines (see the
+ * `MpscMailbox*` superclasses below), so producers do not invalidate the consumer's line on every
+ * push. The consumer also caches the last value of `tailSeq` which it has seen, so it only needs
+ * to read the contended producer line once per batch of messages, rather than once per message.
+ */
+public final class Panini$MpscMailbox extends MpscMailboxPad2 implements Panini$Mailbox
+{
+    static final int MIN_CHUNK_SIZE = 16;
+    static final int MAX_CHUNK_SIZE = 1024;
+
+    /** The number of times a blocked producer yields before it waits. */
+    static final int BLOCK_SPINS = 64;
+    static final long BLOCK_WAIT_MILLIS = 1;
+
+    private final int capacity;
+    private final Overflow overflow;
+    private final int maxChunkSize;
+
+    /**
+     * Guards the waits of blocked producers, or `null` unless this mailbox is bounded and blocks
+     * when full. It is a `ReentrantLock` rather than the mailbox's monitor, since a virtual thread
+     * which waits on a monitor also blocks its carrier thread (see `Capsule$VirtualThread`).
+     */
+    private final ReentrantLock blockLock;
+
+    /** Signalled by the consumer when it polls while a producer is blocked. */
+    private final Condition polled;
+
+    public Panini$MpscMailbox() {
+        this(UNBOUNDED, Overflow.getDefault());
+    }
+
+    /**
+     * @throws IllegalArgumentException If the mailbox is bounded, and `overflow` is
+     *                                  `Overflow.DROP_OLDEST`.
+     */
+    public Panini$MpscMailbox(int capacity, Overflow overflow)
+    {
+        if (capacity != UNBOUNDED && overflow == Overflow.DROP_OLDEST) {
+            throw new IllegalArgumentException("An MPSC mailbox cannot drop its oldest message.");
+        }
+        this.capacity = capacity;
+        this.overflow = overflow;
+        this.maxChunkSize = Math.min(MAX_CHUNK_SIZE, capacity);
+        this.producerLimit = capacity;
+        this.blockLock = (capacity != UNBOUNDED && overflow == Overflow.BLOCK)
+                       ? new ReentrantLock() : null;
+        this.polled = (blockLock != null) ? blockLock.newCondition() : null;
+
+        Chunk first = new Chunk(0, Math.min(firstChunkSize(), maxChunkSize));
+        consumerChunk = first;
+        producerChunk = first;
+    }
+
+    /**
+     * The size of a new mailbox's first chunk. Later chunks still shrink no further than
+     * `MIN_CHUNK_SIZE`, so a mailbox which starts smaller only stays small while it is quiet.
+     */
+    private static int firstChunkSize() {
+        int initial = Panini$System.MAILBOX_INITIAL_CAPACITY;
+        return (initial > 0) ? initial : MIN_CHUNK_SIZE;
+    }
+
+    @Override
+    public void push(Object msg)
+    {
+        checkNotNull(msg);
+        long seq;
+        try {
+            seq = claim();
+        } catch (IllegalStateException full) {
+            Panini$Mailbox.discarded(msg);
+            throw full;
+        }
+        if (seq >= 0) {
+            store(seq, msg);
+        } else {
+            Panini$Mailbox.discarded(msg);
+        }
+    }
+
+    @Override
+    public void push(Object... msgs) {
+        push(msgs, msgs.length);
+    }
+
+    @Override
+    public void push(Object[] msgs, int count)
+    {
+        for (int i = 0; i < count; i++) {
+            checkNotNull(msgs[i]);
+        }
+
+        if (capacity == UNBOUNDED) {
+            // Claim a contiguous run of sequence numbers, so the messages cannot be interleaved
+            // with those of any other producer.
+            long seq = TAIL_SEQ.getAndAdd(this, count);
+            for (int i = 0; i < count; i++) {
+                store(seq++, msgs[i]);
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                Object msg = msgs[i];
+                long seq;
+                try {
+                    seq = claim();
+                } catch (IllegalStateException full) {
+                    while (i < count) {
+                        Panini$Mailbox.discarded(msgs[i++]);
+                    }
+                    throw full;
+                }
+                if (seq >= 0) {
+                    store(seq, msg);
+                } else {
+                    Panini$Mailbox.discarded(msg);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void pushControl(Object msg)
+    {
+        checkNotNull(msg);
+        store(TAIL_SEQ.getAndIncrement(this), msg);
+    }
+
+    @Override
+    public Object poll() {
+        return poll(false, 0);
+    }
+
+    @Override
+    public Object pollMatching(int msgID) {
+        return poll(true, msgID);
+    }
+
+    /**
+     * @param matching  Whether to leave the oldest message in place unless it has the given ID.
+     */
+    private Object poll(boolean matching, int msgID)
+    {
+        long head = headSeq;
+        if (head == tailCache) {
+            tailCache = tailSeq;
+            if (head == tailCache) {
+                return null;
+            }
+        }
+
+        if (matching && !Panini$Mailbox.hasID(peek(head), msgID)) {
+            return null;
+        }
+
+        Object msg = take(head);
+        HEAD_SEQ.lazySet(this, head + 1);
+        if (blocked != 0) {
+            wakeBlockedProducers();
+        }
+        return msg;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return headSeq >= tailSeq;
+    }
+
+    @Override
+    public int size() {
+        long size = tailSeq - headSeq;
+        return size <= 0 ? 0 : (size >= Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) size);
+    }
+
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+
+    @Override
+    public Overflow overflow() {
+        return overflow;
+    }
+
+    /**
+     * Claims the next sequence number, subject to the overflow policy.
+     *
+     * @return The claimed sequence number, or -1 if the message is to be dropped.
+     */
+    private long claim()
+    {
+        if (capacity == UNBOUNDED) {
+            return TAIL_SEQ.getAndIncrement(this);
+        }
+
+        int attempts = 0;
+        while (true)
+        {
+            long tail = tailSeq;
+            if (tail >= producerLimit)
+            {
+                long limit = headSeq + capacity;
+                if (tail >= limit)
+                {
+                    switch (overflow) {
+                    case FAIL:
+                        throw new IllegalStateException("Mailbox is full (capacity = " + capacity + ").");
+                    case DROP_NEWEST:
+                        return -1;
+                    default:
+                        backOff(attempts++);
+                        continue;
+                    }
+                }
+                producerLimit = limit;
+            }
+            if (TAIL_SEQ.compareAndSet(this, tail, tail + 1)) {
+                return tail;
+            }
+        }
+    }
+
+    /**
+     * Waits for the consumer to make room. A producer first yields, since the consumer is usually
+     * only a few messages behind, and then waits on `polled` until the consumer polls. The consumer's notification is not fenced against the producer's re-check of
+     * `headSeq`, so the wait is timed to recover from a missed notification.
+     */
+    private void backOff(int attempts)
+    {
+        if (attempts < BLOCK_SPINS) {
+            Thread.yield();
+            return;
+        }
+
+        boolean interrupted = false;
+        blockLock.lock();
+        try {
+            BLOCKED.incrementAndGet(this);
+            if (tailSeq >= headSeq + capacity) {
+                polled.await(BLOCK_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException ex) {
+            // The push is not abandoned, since the sender has no way to learn that its message
+            // was lost. Its interrupt status is restored below.
+            interrupted = true;
+        } finally {
+            BLOCKED.decrementAndGet(this);
+            blockLock.unlock();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void wakeBlockedProducers()
+    {
+        blockLock.lock();
+        try {
+            polled.signalAll();
+        } finally {
+            blockLock.unlock();
+        }
+    }
+
+    /**
+     * Returns, without removing, the message with the given sequence number, which must be the
+     * consumer's next.
+     */
+    private Object peek(long seq)
+    {
+        Chunk chunk = consumerChunk;
+        int idx = (int) (seq - chunk.base);
+        if (idx == chunk.slots.length()) {
+            // The producer of `seq` is responsible for appending the next chunk.
+            Chunk next;
+            while ((next = chunk.next) == null) {
+                Thread.yield();
+            }
+            consumerChunk = chunk = next;
+            idx = 0;
+        }
+
+        // The producer of `seq` may have claimed its sequence number without having stored its
+        // message yet. This window is only a few instructions long.
+        Object msg;
+        while ((msg = chunk.slots.get(idx)) == null) {
+            Thread.yield();
+        }
+        return msg;
+    }
+
+    /**
+     * Removes the message with the given sequence number, which must be the consumer's next.
+     */
+    private Object take(long seq)
+    {
+        Object msg = peek(seq);
+        Chunk chunk = consumerChunk;
+        chunk.slots.lazySet((int) (seq - chunk.base), null);
+        return msg;
+    }
+
+    /**
+     * A `null` slot means "not yet stored", so `null` messages must be rejected before a sequence
+     * number is claimed for them.
+     */
+    private static void checkNotNull(Object msg)
+    {
+        if (msg == null) {
+            throw new IllegalArgumentException("Cannot push `null` onto a mailbox.");
+        }
+    }
+
+    private void store(long seq, Object msg)
+    {
+        Chunk chunk = findChunk(seq);
+        chunk.slots.lazySet((int) (seq - chunk.base), msg);
+    }
+
+    /**
+     * Finds the chunk holding the given sequence number, appending new chunks as needed.
+     */
+    private Chunk findChunk(long seq)
+    {
+        Chunk hint = producerChunk;
+        Chunk chunk = hint;
+        if (chunk.base > seq) {
+            // Some other producer has already moved the hint past our chunk. The consumer cannot
+            // have moved past our chunk, since it has not yet consumed `seq`.
+            chunk = consumerChunk;
+        }
+
+        while (seq >= chunk.end()) {
+            Chunk next = chunk.next;
+            if (next == null) {
+                next = new Chunk(chunk.end(), nextChunkSize(chunk));
+                if (!Chunk.NEXT.compareAndSet(chunk, null, next)) {
+                    next = chunk.next;
+                }
+            }
+            chunk = next;
+        }
+
+        if (chunk.base > hint.base) {
+            PRODUCER_CHUNK.compareAndSet(this, hint, chunk);  // Best effort.
+        }
+        return chunk;
+    }
+
+    /**
+     * Doubles the chunk size while the backlog fills whole chunks, and halves it once the backlog
+     * has fallen well below a chunk.
+     */
+    private int nextChunkSize(Chunk last)
+    {
+        int size = last.slots.length();
+        long backlog = last.end() - headSeq;
+        if (backlog >= size) {
+            return Math.min(size << 1, maxChunkSize);
+        } else if (backlog < (size >> 2)) {
+            return Math.max(size >> 1, Math.min(MIN_CHUNK_SIZE, maxChunkSize));
+        } else {
+            return size;
+        }
+    }
+
+
+    static final class Chunk
+    {
+        static final AtomicReferenceFieldUpdater<Chunk, Chunk> NEXT =
+                AtomicReferenceFieldUpdater.newUpdater(Chunk.class, Chunk.class, "next");
+
+        final long base;
+        final AtomicReferenceArray<Object> slots;
+        volatile Chunk next;
+
+        Chunk(long base, int size)
+        {
+            this.base = base;
+            this.slots = new AtomicReferenceArray<Object>(size);
+        }
+
+        long end() {
+            return base + slots.length();
+        }
+    }
+}
+
+
+abstract class MpscMailboxPad0
+{
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+}
+
+
+/**
+ * The consumer's fields.
+ */
+abstract class MpscMailboxHead extends MpscMailboxPad0
+{
+    static final AtomicLongFieldUpdater<MpscMailboxHead> HEAD_SEQ =
+            AtomicLongFieldUpdater.newUpdater(MpscMailboxHead.class, "headSeq");
+
+    static final AtomicIntegerFieldUpdater<MpscMailboxHead> BLOCKED =
+            AtomicIntegerFieldUpdater.newUpdater(MpscMailboxHead.class, "blocked");
+
+    volatile long headSeq;
+    volatile Panini$MpscMailbox.Chunk consumerChunk;
+    long tailCache;
+
+    /**
+     * The number of producers waiting for room. Only written on the (rare) blocking path, so it
+     * shares the consumer's line, where the consumer can check it cheaply after every poll.
+     */
+    volatile int blocked;
+}
+
+
+abstract class MpscMailboxPad1 extends MpscMailboxHead
+{
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+}
+
+
+/**
+ * The producers' fields.
+ */
+abstract class MpscMailboxTail extends MpscMailboxPad1
+{
+    static final AtomicLongFieldUpdater<MpscMailboxTail> TAIL_SEQ =
+            AtomicLongFieldUpdater.newUpdater(MpscMailboxTail.class, "tailSeq");
+
+    static final AtomicReferenceFieldUpdater<MpscMailboxTail, Panini$MpscMailbox.Chunk>
+            PRODUCER_CHUNK = AtomicReferenceFieldUpdater.newUpdater(
+                    MpscMailboxTail.class, Panini$MpscMailbox.Chunk.class, "producerChunk");
+
+    volatile long tailSeq;
+    volatile Panini$MpscMailbox.Chunk producerChunk;
+
+    /**
+     * A lower bound on `headSeq + capacity`. Only used by strictly bounded mailboxes.
+     */
+    volatile long producerLimit;
+}
+
+
+abstract class MpscMailboxPad2 extends MpscMailboxTail
+{
+    long p20, p21, p22, p23, p24, p25, p26, p27;
+}
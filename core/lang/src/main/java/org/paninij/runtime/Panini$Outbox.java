@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+
+package org.paninij.runtime;
+
+import java.util.Arrays;
+
+/**
+ * Buffers the messages which one thread sends while it runs a capsule, so that each target's
+ * messages can be pushed onto its mailbox all at once. Only used when `Panini$System.SEND_BATCHING`
+ * is set.
+ *
+ * <p>Each thread has its own outbox, which only buffers while it is open, i.e. while the thread is
+ * running a thread or task capsule. The capsule flushes its outbox whenever it has processed a
+ * message (and when an active capsule's `run()` returns). The outbox is also flushed whenever the
+ * thread pushes a message directly (e.g. a blocking procedure call or a control message), and
+ * before the thread waits on a future, so that messages between any one sender and receiver are
+ * always delivered in the order in which they were sent, and a thread never waits on a message
+ * which is still sitting in its own outbox.
+ *
+ * <p>Messages to a capsule whose mailbox refuses messages while it is full (i.e. under
+ * `Overflow.FAIL`) are never buffered, so that the sender gets the `IllegalStateException` from
+ * the send itself. A flush which fails anyway still pushes every other target's messages.
+ */
+public final class Panini$Outbox
+{
+    /** The number of distinct targets which an outbox tracks before it flushes all of them. */
+    static final int MAX_TARGETS = 64;
+
+    private static final ThreadLocal<Panini$Outbox> outboxes = new ThreadLocal<Panini$Outbox>();
+
+    private final Panini$Receiver[] targets = new Panini$Receiver[MAX_TARGETS];
+    private final Object[][] batches = new Object[MAX_TARGETS][];
+    private final int[] counts = new int[MAX_TARGETS];
+    private int numTargets = 0;
+
+    /** The index of the most recent target, which is usually also the next. */
+    private int last = 0;
+
+    private boolean open = false;
+
+    /**
+     * Set while this outbox is pushing. A push can (very rarely) run arbitrary code on this thread,
+     * e.g. the callbacks of a future which a full mailbox cancels, so sends made during a flush
+     * are not buffered, and nested flushes do nothing.
+     */
+    private boolean flushing = false;
+
+    private Panini$Outbox() { }
+
+    /**
+     * @return The current thread's outbox, which is created if need be.
+     */
+    public static Panini$Outbox current()
+    {
+        Panini$Outbox outbox = outboxes.get();
+        if (outbox == null) {
+            outbox = new Panini$Outbox();
+            outboxes.set(outbox);
+        }
+        return outbox;
+    }
+
+    /**
+     * Flushes the current thread's outbox, if it has one.
+     */
+    public static void flushCurrent()
+    {
+        if (Panini$System.SEND_BATCHING) {
+            Panini$Outbox outbox = outboxes.get();
+            if (outbox != null) {
+                outbox.flush();
+            }
+        }
+    }
+
+    /**
+     * Starts buffering sends.
+     *
+     * @return Whether this outbox was already open.
+     */
+    public boolean open()
+    {
+        boolean wasOpen = open;
+        open = true;
+        return wasOpen;
+    }
+
+    /**
+     * Flushes this outbox, and then stops buffering sends unless `stayOpen` is set.
+     */
+    public void close(boolean stayOpen)
+    {
+        flush();
+        open = stayOpen;
+    }
+
+    /**
+     * Buffers a message for the given target, if this outbox is open.
+     *
+     * @return Whether the message was buffered. If not, then the caller must push it itself.
+     */
+    boolean add(Panini$Receiver target, Object msg)
+    {
+        if (!open || flushing) {
+            return false;
+        }
+
+        int idx = last;
+        if (idx >= numTargets || targets[idx] != target) {
+            idx = indexOf(target);
+            if (idx < 0) {
+                return false;  // The caller's push flushes this outbox first.
+            }
+        }
+        last = idx;
+
+        Object[] batch = batches[idx];
+        batch[counts[idx]++] = msg;
+        if (counts[idx] == batch.length) {
+            flushing = true;
+            try {
+                flush(idx);
+            } finally {
+                flushing = false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The index of the given target, which is added if need be, or -1 if this outbox is
+     *         already tracking as many targets as it can.
+     */
+    private int indexOf(Panini$Receiver target)
+    {
+        for (int i = 0; i < numTargets; i++) {
+            if (targets[i] == target) {
+                return i;
+            }
+        }
+        if (numTargets == MAX_TARGETS) {
+            return -1;
+        }
+        int idx = numTargets++;
+        targets[idx] = target;
+        if (batches[idx] == null || batches[idx].length != Panini$System.SEND_BATCH_SIZE) {
+            batches[idx] = new Object[Panini$System.SEND_BATCH_SIZE];
+        }
+        return idx;
+    }
+
+    /**
+     * Pushes every buffered message to its target, and forgets the targets. Every target's batch is
+     * pushed even if pushing an earlier one throws, and then the first such exception is rethrown.
+     * (A mailbox which refuses part of a batch has already discarded the rest of it.)
+     */
+    public void flush()
+    {
+        if (flushing || numTargets == 0) {
+            return;
+        }
+        flushing = true;
+        Throwable failure = null;
+        try {
+            for (int i = 0; i < numTargets; i++) {
+                try {
+                    flush(i);
+                } catch (RuntimeException | Error thrown) {
+                    if (failure == null) {
+                        failure = thrown;
+                    } else {
+                        failure.addSuppressed(thrown);
+                    }
+                }
+            }
+        } finally {
+            flushing = false;
+            for (int i = 0; i < numTargets; i++) {
+                targets[i] = null;
+                counts[i] = 0;
+            }
+            numTargets = 0;
+            last = 0;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw (RuntimeException) failure;
+        }
+    }
+
+    private void flush(int idx)
+    {
+        int count = counts[idx];
+        if (count > 0) {
+            Object[] batch = batches[idx];
+            counts[idx] = 0;
+            try {
+                targets[idx].panini$pushBatch(batch, count);
+            } finally {
+                Arrays.fill(batch, 0, count, null);  // Don't keep sent messages reachable.
+            }
+        }
+    }
+}
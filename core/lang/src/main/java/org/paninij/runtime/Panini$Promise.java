@@ -0,0 +1,392 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+
+package org.paninij.runtime;
+
+import java.util.Objects;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.paninij.lang.Promise;
+
+/**
+ * The runtime's implementation of {@link Promise}. Every message generated for a `@Future`
+ * procedure extends this class, as does every promise derived from one (e.g. by `thenApply()`).
+ *
+ * <p>A callback is registered together with the executor found in
+ * `Panini$System.continuations` on the registering thread: if the registering thread is running
+ * a capsule, then this executor pushes the callback onto that capsule's mailbox. Once the promise
+ * is done, the callback is handed to that executor, or run directly if there was none. If the
+ * promise is already done when the callback is registered, the callback is run immediately, since
+ * the registering thread is then the one on which it ought to run anyway.
+ *
+ * @param <T> The type of the result.
+ */
+public class Panini$Promise<T> implements Promise<T>, Panini$Future<T>
+{
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Panini$Promise, Object> PANINI$STATE =
+            AtomicReferenceFieldUpdater.newUpdater(Panini$Promise.class, Object.class, "panini$state");
+
+    private T panini$result = null;
+    private Throwable panini$failure = null;
+    private volatile Object panini$state = null;
+
+    /**
+     * The executor of the capsule which is to run the callback that completes this (derived)
+     * promise, until that callback has started, or else `null`. Only ever compared against the
+     * current thread's `Panini$System.continuations`, so it need not be volatile.
+     */
+    private Executor panini$completer = null;
+
+    @Override
+    public boolean panini$claim() {
+        return Panini$FutureState.claim(this, PANINI$STATE);
+    }
+
+    @Override
+    public void panini$resolve(T result) {
+        panini$result = result;
+        Panini$FutureState.resolve(this, PANINI$STATE);
+        panini$release();
+    }
+
+    /**
+     * Completes this promise exceptionally: `get()` will throw an `ExecutionException` caused by
+     * `failure`, and `panini$get()` a `CompletionException`. As with `panini$resolve()`, the caller
+     * must be the promise's only completer (e.g. by having claimed it).
+     */
+    public void panini$fail(Throwable failure) {
+        panini$failure = Objects.requireNonNull(failure);
+        Panini$FutureState.resolve(this, PANINI$STATE);
+        panini$release();
+    }
+
+    @Override
+    public boolean panini$cancel() {
+        if (Panini$FutureState.cancel(this, PANINI$STATE)) {
+            panini$release();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Called once this promise is done. Overridden by generated messages to drop their references
+     * to the procedure's arguments.
+     */
+    protected void panini$release() {
+        // Do nothing.
+    }
+
+    @Override
+    public T panini$get()
+    {
+        if (panini$state != Panini$FutureState.RESOLVED) {
+            panini$checkNotSelfWait();
+            Panini$FutureState.await(this, PANINI$STATE);
+        }
+        if (panini$failure != null) {
+            throw new CompletionException(panini$failure);
+        }
+        return panini$result;
+    }
+
+    @Override
+    public T get() throws ExecutionException
+    {
+        if (panini$state != Panini$FutureState.RESOLVED) {
+            panini$checkNotSelfWait();
+            Panini$FutureState.await(this, PANINI$STATE);
+        }
+        return panini$report();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException
+    {
+        if (panini$state != Panini$FutureState.RESOLVED) {
+            panini$checkNotSelfWait();
+            Panini$FutureState.await(this, PANINI$STATE, unit.toNanos(timeout));
+        }
+        return panini$report();
+    }
+
+    /**
+     * @throws IllegalStateException If the current thread is running the capsule which must run
+     *                               the callback that completes this promise, and so would wait
+     *                               on it forever.
+     */
+    private void panini$checkNotSelfWait()
+    {
+        Executor completer = panini$completer;
+        if (completer != null && completer == Panini$System.continuations.get()
+                && !Panini$FutureState.isDone(panini$state)) {
+            throw new IllegalStateException("A capsule cannot wait on a promise which is only "
+                                            + "completed by its own callback.");
+        }
+    }
+
+    private T panini$report() throws ExecutionException
+    {
+        if (panini$failure != null) {
+            throw new ExecutionException(panini$failure);
+        }
+        return panini$result;
+    }
+
+    @Override
+    public boolean isDone() {
+        return Panini$FutureState.isDone(panini$state);
+    }
+
+    @Override
+    public boolean panini$isDone() {
+        return Panini$FutureState.isDone(panini$state);
+    }
+
+    /**
+     * Succeeds only if this promise's message has not yet started to execute, in which case it
+     * never will. A message which is already running is never interrupted.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return this.panini$cancel();
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return panini$state == Panini$FutureState.CANCELLED;
+    }
+
+    @Override
+    public <U> Promise<U> thenApply(Function<? super T, ? extends U> fn)
+    {
+        Objects.requireNonNull(fn);
+        Panini$Promise<U> next = new Panini$Promise<U>();
+        panini$whenDone(next, () -> {
+            if (!next.panini$claim() || next.panini$completeIfAbnormal(this)) {
+                return;
+            }
+            try {
+                next.panini$resolve(fn.apply(panini$result));
+            } catch (Throwable thrown) {
+                next.panini$fail(thrown);
+            }
+        });
+        return next;
+    }
+
+    @Override
+    public Promise<Void> thenAccept(Consumer<? super T> action)
+    {
+        Objects.requireNonNull(action);
+        Panini$Promise<Void> next = new Panini$Promise<Void>();
+        panini$whenDone(next, () -> {
+            if (!next.panini$claim() || next.panini$completeIfAbnormal(this)) {
+                return;
+            }
+            try {
+                action.accept(panini$result);
+                next.panini$resolve(null);
+            } catch (Throwable thrown) {
+                next.panini$fail(thrown);
+            }
+        });
+        return next;
+    }
+
+    @Override
+    public <U> Promise<U> thenCompose(Function<? super T, ? extends Promise<U>> fn)
+    {
+        Objects.requireNonNull(fn);
+        Panini$Promise<U> next = new Panini$Promise<U>();
+        panini$whenDone(next, () -> {
+            if (!next.panini$claim() || next.panini$completeIfAbnormal(this)) {
+                return;
+            }
+            try {
+                Panini$Promise<U> inner = panini$promise(fn.apply(panini$result));
+                // Only `next` is completed here, so there is no need to hop back to this capsule.
+                inner.panini$whenDoneDirect(() -> next.panini$completeLike(inner));
+            } catch (Throwable thrown) {
+                next.panini$fail(thrown);
+            }
+        });
+        return next;
+    }
+
+    public static Promise<Void> allOf(Promise<?>... promises)
+    {
+        Panini$Promise<Void> all = new Panini$Promise<Void>();
+        AtomicInteger pending = new AtomicInteger(promises.length);
+        if (promises.length == 0) {
+            all.panini$resolve(null);
+        }
+        for (Promise<?> p : promises)
+        {
+            Panini$Promise<?> promise = panini$promise(p);
+            promise.panini$whenDoneDirect(() -> {
+                if (promise.panini$isAbnormal()) {
+                    if (all.panini$claim()) {
+                        all.panini$completeLike(promise);
+                    }
+                } else if (pending.decrementAndGet() == 0 && all.panini$claim()) {
+                    all.panini$resolve(null);
+                }
+            });
+        }
+        return all;
+    }
+
+    public static Promise<Object> anyOf(Promise<?>... promises)
+    {
+        Panini$Promise<Object> any = new Panini$Promise<Object>();
+        for (Promise<?> p : promises)
+        {
+            Panini$Promise<?> promise = panini$promise(p);
+            promise.panini$whenDoneDirect(() -> {
+                if (any.panini$claim()) {
+                    any.panini$completeLike(promise);
+                }
+            });
+        }
+        return any;
+    }
+
+    /**
+     * Registers a callback which is to run on the registering thread's capsule (if any), and which
+     * is to complete `next`. Should that capsule have terminated by then, the callback is never
+     * run, and `next` is cancelled instead (see `Panini$Continuation.panini$discard()`).
+     */
+    private void panini$whenDone(Panini$Promise<?> next, Runnable callback)
+    {
+        Executor origin = Panini$System.continuations.get();
+        Runnable action = callback;
+        if (origin != null) {
+            Callback dependent = new Callback(callback, next);
+            next.panini$completer = origin;
+            action = () -> origin.execute(dependent);
+        }
+        if (!Panini$FutureState.whenDone(this, PANINI$STATE, action)) {
+            callback.run();
+        }
+    }
+
+    /**
+     * Registers a callback which is to run on whichever thread completes this promise. Only used
+     * for callbacks which do nothing but complete some other promise.
+     */
+    private void panini$whenDoneDirect(Runnable callback)
+    {
+        if (!Panini$FutureState.whenDone(this, PANINI$STATE, callback)) {
+            callback.run();
+        }
+    }
+
+    /**
+     * @return Whether this promise (which must be done) was cancelled or failed.
+     */
+    private boolean panini$isAbnormal() {
+        return panini$state == Panini$FutureState.CANCELLED || panini$failure != null;
+    }
+
+    /**
+     * If `source` (which must be done) was cancelled or failed, then this promise is cancelled or
+     * fails in turn. Precondition: the caller has claimed this promise.
+     *
+     * @return Whether this promise was completed, i.e. whether there is nothing left to do.
+     */
+    private boolean panini$completeIfAbnormal(Panini$Promise<?> source)
+    {
+        if (source.panini$state == Panini$FutureState.CANCELLED) {
+            Panini$FutureState.abandon(this, PANINI$STATE);
+            panini$release();
+            return true;
+        }
+        if (source.panini$failure != null) {
+            panini$fail(source.panini$failure);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Completes this promise just as `source` (which must be done) was completed. Precondition:
+     * the caller has claimed this promise.
+     */
+    @SuppressWarnings("unchecked")
+    private void panini$completeLike(Panini$Promise<?> source)
+    {
+        if (!panini$completeIfAbnormal(source)) {
+            panini$resolve((T) source.panini$result);
+        }
+    }
+
+    /**
+     * A callback which is to complete the derived promise `next`, as delivered to a capsule.
+     */
+    static final class Callback implements Runnable
+    {
+        private final Runnable body;
+        private final Panini$Promise<?> next;
+
+        Callback(Runnable body, Panini$Promise<?> next) {
+            this.body = body;
+            this.next = next;
+        }
+
+        @Override
+        public void run() {
+            next.panini$completer = null;
+            body.run();
+        }
+
+        /**
+         * Called instead of `run()` if this callback is discarded, so that `next` is cancelled
+         * rather than left pending forever.
+         */
+        void abandon() {
+            next.panini$cancel();
+        }
+    }
+
+    private static <U> Panini$Promise<U> panini$promise(Promise<U> promise)
+    {
+        if (promise instanceof Panini$Promise) {
+            return (Panini$Promise<U>) promise;
+        }
+        throw new IllegalArgumentException("Not a promise made by the @PaniniJ runtime: " + promise);
+    }
+}
@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+
+package org.paninij.runtime;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Detects when a capsule system has terminated (i.e. it has no live capsules), and when it is
+ * quiescent (i.e. no capsule is busy, and no message is in flight).
+ *
+ * <p>Each of the two quantities is kept as a pair of striped counters which only ever increase: one
+ * counts up (e.g. messages sent), and one counts down (e.g. messages done), so that neither
+ * creating a capsule nor sending a message makes threads contend on a single shared word, or on
+ * a lock. A quantity is read by summing its down-counter and then its up-counter. Since both only
+ * increase, and a message is never done before it is sent, equal sums prove that the quantity
+ * really was zero at some instant between the two reads.
+ *
+ * <p>The units of work counted are:
+ * <ul>
+ * <li>each started capsule's initialization and, if it is active, its `run()`;
+ * <li>each message pushed onto a thread or task capsule's mailbox, from the moment it is pushed
+ *     until it has been processed, dropped by the mailbox's overflow policy, or discarded because
+ *     its capsule had already terminated.
+ * </ul>
+ * Tasks which are pending on the `Panini$TimerWheel`, and threads outside of the capsule system,
+ * are not counted, so a system which is quiescent may still be woken up by them.
+ *
+ * <p>Waiters block on a monitor, but they only need to be signalled by a count which may have
+ * made a quantity zero while someone is waiting, so the counting itself never takes a lock.
+ */
+public final class Panini$Quiescence
+{
+    private final LongAdder retained = new LongAdder();
+    private final LongAdder released = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder done = new LongAdder();
+
+    private final Object lock = new Object();
+
+    /** The number of threads waiting on `lock`. Only modified while holding `lock`. */
+    private volatile int waiters = 0;
+
+    /**
+     * Counts a capsule which is starting, both as live and as busy until it has initialized (and,
+     * if it is active, until its `run()` has returned). The latter is ended by `done()`.
+     */
+    public void started() {
+        retained.increment();
+        sent.increment();
+    }
+
+    /**
+     * Counts a capsule which has terminated, and so is no longer live.
+     */
+    public void terminated() {
+        release();
+    }
+
+    /**
+     * Counts something other than a capsule which a capsule system needs to release before it has
+     * terminated (e.g. the `Panini$TaskPool`).
+     */
+    public void retain() {
+        retained.increment();
+    }
+
+    /**
+     * Counts the release of something which was counted by `retain()`.
+     */
+    public void release() {
+        released.increment();
+        if (waiters != 0 && isTerminated()) {
+            signal();
+        }
+    }
+
+    /**
+     * Counts a message which is about to be pushed onto a mailbox.
+     */
+    public void sent() {
+        sent.increment();
+    }
+
+    /**
+     * Counts messages which are about to be pushed onto a mailbox.
+     */
+    public void sent(int count) {
+        sent.add(count);
+    }
+
+    /**
+     * Counts a unit of work which has ended, i.e. a message which has been processed or dropped,
+     * or a capsule which has started up.
+     */
+    public void done() {
+        done.increment();
+        if (waiters != 0 && isQuiescent()) {
+            signal();
+        }
+    }
+
+    /**
+     * Counts units of work which have ended, just as `done()` does.
+     */
+    public void done(int count) {
+        if (count != 0) {
+            done.add(count);
+            if (waiters != 0 && isQuiescent()) {
+                signal();
+            }
+        }
+    }
+
+    /**
+     * @return The number of live capsules (and of other things which have been retained), which
+     *         may already be out of date if the system is running.
+     */
+    public long live() {
+        return retained.sum() - released.sum();
+    }
+
+    /**
+     * @return The number of busy capsules plus the number of messages which are in flight, which
+     *         may already be out of date if the system is running.
+     */
+    public long pending() {
+        return sent.sum() - done.sum();
+    }
+
+    /**
+     * @return Whether there has been a moment since this was called at which there were no live
+     *         capsules.
+     */
+    public boolean isTerminated() {
+        long down = released.sum();
+        return retained.sum() == down;
+    }
+
+    /**
+     * @return Whether there has been a moment since this was called at which no capsule was busy
+     *         and no message was in flight.
+     */
+    public boolean isQuiescent() {
+        long down = done.sum();
+        return sent.sum() == down;
+    }
+
+    /**
+     * Waits until there are no live capsules. Kept for the programs and harnesses which awaited
+     * the system's former latch.
+     */
+    public void await() throws InterruptedException {
+        awaitTermination();
+    }
+
+    /**
+     * Waits until there are no live capsules.
+     */
+    public void awaitTermination() throws InterruptedException {
+        await(false, -1);
+    }
+
+    /**
+     * Waits until there are no live capsules, or until the given time has elapsed.
+     *
+     * @return Whether the capsule system has terminated.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return await(false, Math.max(0, unit.toNanos(timeout)));
+    }
+
+    /**
+     * Waits until no capsule is busy and no message is in flight. This must not be called by a
+     * capsule, since that capsule is itself busy until it returns.
+     */
+    public void awaitQuiescence() throws InterruptedException {
+        await(true, -1);
+    }
+
+    /**
+     * Waits until no capsule is busy and no message is in flight, or until the given time has
+     * elapsed. This must not be called by a capsule.
+     *
+     * @return Whether the capsule system is quiescent.
+     */
+    public boolean awaitQuiescence(long timeout, TimeUnit unit) throws InterruptedException {
+        return await(true, Math.max(0, unit.toNanos(timeout)));
+    }
+
+    /**
+     * @param nanos  How long to wait for, or a negative number to wait indefinitely.
+     */
+    private boolean await(boolean quiescence, long nanos) throws InterruptedException
+    {
+        final long deadline = System.nanoTime() + nanos;
+        synchronized (lock) {
+            // A count which comes after this write will see it, and so signal us, whereas a count
+            // which comes before it will be seen by the check below.
+            waiters++;
+            try {
+                while (!(quiescence ? isQuiescent() : isTerminated())) {
+                    if (nanos < 0) {
+                        lock.wait();
+                    } else {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            return false;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                    }
+                }
+                return true;
+            } finally {
+                waiters--;
+            }
+        }
+    }
+
+    private void signal() {
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+}
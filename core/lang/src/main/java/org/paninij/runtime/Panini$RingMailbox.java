@@ -0,0 +1,410 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+
+package org.paninij.runtime;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.paninij.lang.Overflow;
+
+/**
+ * A mailbox backed by a circular array, where every operation is guarded by the mailbox's lock.
+ * This was the only kind of capsule queue before the introduction of {@link Panini$MpscMailbox}.
+ *
+ * <p>The array starts small and doubles whenever it is full, up to the mailbox's capacity. A
+ * producer which is blocked on a full mailbox waits on the lock's `polled` condition until the
+ * consumer polls. The lock is a `ReentrantLock` rather than the mailbox's monitor, since a virtual
+ * thread which blocks on a monitor (or waits on one) also blocks its carrier thread, while one
+ * which blocks on a `ReentrantLock` unmounts (see `Capsule$VirtualThread`).
+ *
+ * <p>The messages which a push drops or refuses are only passed to `Panini$Mailbox.discarded()`
+ * once the push has released the lock, since discarding a message may run arbitrary code (e.g.
+ * the callbacks of a cancelled future), or push onto another mailbox of this kind.
+ */
+public class Panini$RingMailbox implements Panini$Mailbox
+{
+    private static final int INITIAL_CAPACITY = 10;
+
+    private final int capacity;
+    private final Overflow overflow;
+
+    /** Guards every field below. Package-private for tests. */
+    final ReentrantLock lock = new ReentrantLock();
+
+    /** Signalled by the consumer when it polls while a producer is blocked. */
+    private final Condition polled = lock.newCondition();
+
+    private Object[] queue;
+    private int head, tail, size;
+    private int blocked;
+
+    /**
+     * The messages which have been dropped while the lock was held, and which have yet to be
+     * discarded by the push which takes them (see `takeDropped()`), or `null` if there are none.
+     */
+    private List<Object> dropped;
+
+    public Panini$RingMailbox() {
+        this(UNBOUNDED, Overflow.getDefault());
+    }
+
+    public Panini$RingMailbox(int capacity, Overflow overflow)
+    {
+        this.capacity = capacity;
+        this.overflow = overflow;
+        queue = new Object[Math.min(initialCapacity(), capacity)];
+        head = 0;
+        tail = 0;
+        size = 0;
+    }
+
+    private static int initialCapacity() {
+        int initial = Panini$System.MAILBOX_INITIAL_CAPACITY;
+        return (initial > 0) ? initial : INITIAL_CAPACITY;
+    }
+
+    @Override
+    public void push(Object msg)
+    {
+        boolean taken = false;
+        List<Object> discards = null;
+        lock.lock();
+        try {
+            try {
+                taken = offer(msg);
+            } finally {
+                discards = takeDropped();
+                lock.unlock();
+            }
+        } finally {
+            discard(discards);
+            if (!taken) {
+                Panini$Mailbox.discarded(msg);
+            }
+        }
+    }
+
+    @Override
+    public void push(Object... msgs) {
+        push(msgs, msgs.length);
+    }
+
+    @Override
+    public void push(Object[] msgs, int count)
+    {
+        int done = 0;
+        List<Object> discards = null;
+        lock.lock();
+        try {
+            try {
+                if (size + count <= capacity) {
+                    ensureSpace(count);
+                    for (; done < count; done++) {
+                        enqueue(msgs[done]);
+                    }
+                } else {
+                    for (; done < count; done++) {
+                        if (!offer(msgs[done])) {
+                            drop(msgs[done]);
+                        }
+                    }
+                }
+            } finally {
+                discards = takeDropped();
+                lock.unlock();
+            }
+        } finally {
+            discard(discards);
+            while (done < count) {
+                // The mailbox refused one of the messages, and so the rest of them, too.
+                Panini$Mailbox.discarded(msgs[done++]);
+            }
+        }
+    }
+
+    @Override
+    public void pushControl(Object msg)
+    {
+        lock.lock();
+        try {
+            ensureSpace(1);
+            enqueue(msg);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Object poll()
+    {
+        lock.lock();
+        try {
+            if (size == 0) {
+                return null;
+            }
+            return pollHead();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Object pollMatching(int msgID)
+    {
+        lock.lock();
+        try {
+            if (size == 0 || !Panini$Mailbox.hasID(queue[head], msgID)) {
+                return null;
+            }
+            return pollHead();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Object pollHead()
+    {
+        Object msg = dequeue();
+        if (blocked > 0) {
+            polled.signalAll();
+        }
+        return msg;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        lock.lock();
+        try {
+            return size == 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+
+    @Override
+    public Overflow overflow() {
+        return overflow;
+    }
+
+    /**
+     * Enqueues the given message, if the overflow policy lets it. Called with the lock held.
+     *
+     * @return Whether the message was enqueued.
+     * @throws IllegalStateException If the mailbox is full, under `Overflow.FAIL`.
+     */
+    private boolean offer(Object msg)
+    {
+        if (!makeRoom(1)) {
+            return false;
+        }
+        enqueue(msg);
+        return true;
+    }
+
+    /**
+     * Remembers a message which is to be discarded once the lock has been released.
+     */
+    private void drop(Object msg)
+    {
+        if (dropped == null) {
+            dropped = new ArrayList<Object>();
+        }
+        dropped.add(msg);
+    }
+
+    /**
+     * @return The messages which are to be discarded, if any, which the caller must then discard
+     *         once it has released the lock. A push which waits in `awaitPoll()` may also take
+     *         those which other pushes dropped in the meantime.
+     */
+    private List<Object> takeDropped()
+    {
+        List<Object> msgs = dropped;
+        dropped = null;
+        return msgs;
+    }
+
+    private static void discard(List<Object> msgs)
+    {
+        if (msgs != null) {
+            for (Object msg : msgs) {
+                Panini$Mailbox.discarded(msg);
+            }
+        }
+    }
+
+    private void enqueue(Object msg)
+    {
+        queue[tail++] = msg;
+        if (tail >= queue.length) {
+            tail = 0;
+        }
+        size++;
+    }
+
+    private Object dequeue()
+    {
+        Object msg = queue[head];
+        queue[head] = null;  // Don't keep consumed messages reachable.
+        head++;
+        if (head >= queue.length) {
+            head = 0;
+        }
+        size--;
+        return msg;
+    }
+
+    /**
+     * Applies the overflow policy until this queue can accommodate `numElems` more elements.
+     *
+     * @return Whether the elements should be enqueued.
+     */
+    private boolean makeRoom(int numElems)
+    {
+        while (capacity - size < numElems)
+        {
+            switch (overflow) {
+            case FAIL:
+                throw new IllegalStateException("Mailbox is full (capacity = " + capacity + ").");
+            case DROP_NEWEST:
+                return false;
+            case DROP_OLDEST:
+                if (!dropOldest()) {
+                    ensureSpace(numElems);  // Only control messages are pending.
+                    return true;
+                }
+                break;
+            default:
+                awaitPoll();
+                break;
+            }
+        }
+        ensureSpace(numElems);
+        return true;
+    }
+
+    /**
+     * Removes the oldest pending message which is not a control message, shifting any older
+     * control messages up to fill its slot. The message is discarded once the lock has been
+     * released.
+     *
+     * @return Whether a message was removed.
+     */
+    private boolean dropOldest()
+    {
+        for (int i = 0; i < size; i++)
+        {
+            int idx = (head + i) % queue.length;
+            if (!Panini$Mailbox.isControlMessage(queue[idx]))
+            {
+                Object oldest = queue[idx];
+                for (int j = i; j > 0; j--) {
+                    int prev = (head + j - 1) % queue.length;
+                    queue[(head + j) % queue.length] = queue[prev];
+                }
+                dequeue();  // The head is now a copy of the control message shifted after it.
+                drop(oldest);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Waits for the consumer to poll. The sender's interrupt status is preserved, but an interrupt
+     * does not abandon the push, since the sender has no way to learn that its message was lost.
+     */
+    private void awaitPoll()
+    {
+        boolean interrupted = false;
+        blocked++;
+        try {
+            polled.await();
+        } catch (InterruptedException ex) {
+            interrupted = true;
+        } finally {
+            blocked--;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Checks to ensure whether this queue can accommodate `numElems` more elements, and if not
+     * extends it.
+     */
+    private void ensureSpace(int numElems)
+    {
+        if (queue.length - size < numElems) {
+            extendQueue(size + numElems);
+        }
+    }
+
+    private void extendQueue(int minCapacity)
+    {
+        // Double the array, but don't exceed the capacity unless control messages require it.
+        int newCapacity = Math.max(queue.length, 1);
+        while (newCapacity < minCapacity && newCapacity > 0) {
+            newCapacity <<= 1;
+        }
+        if (newCapacity <= 0 || newCapacity > capacity) {
+            newCapacity = Math.max(capacity, minCapacity);
+        }
+
+        Object[] newQueue = new Object[newCapacity];
+        if (size > 0) {
+            if (head < tail) {
+                System.arraycopy(queue, head, newQueue, 0, size);
+            } else {
+                System.arraycopy(queue, head, newQueue, 0, queue.length - head);
+                System.arraycopy(queue, 0, newQueue, queue.length - head, tail);
+            }
+        }
+
+        head = 0;
+        tail = size;
+        queue = newQueue;
+    }
+}
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij.runtime;
+
+/**
+ * The execution of one message by a thread or task capsule, as recorded by `Panini$Trace`. A span
+ * belongs to the same trace as the span which sent its message, and names that span as its parent,
+ * so following parents from a span leads back to the request which caused it.
+ *
+ * <p>A span is also the trace context which the messages pushed while it is running carry (see
+ * `Panini$Trace.wrap()`), so tracing allocates one span per executed message, and one envelope per
+ * message pushed from within a span.
+ */
+public final class Panini$Span
+{
+    final long traceId;
+    final long spanId;
+    final long parentId;
+
+    /** The span which was running on this span's thread when this one started, if any. */
+    final Panini$Span outer;
+
+    final long startNanos;
+    long endNanos;
+    long threadId;
+
+    /** The generated capsule class (e.g. `Foo$Thread`), and the signatures of its procedures. */
+    Class<?> capsule;
+    String[] procedures;
+    int procID;
+
+    Panini$Span(long traceId, long spanId, long parentId, Panini$Span outer, long startNanos)
+    {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.parentId = parentId;
+        this.outer = outer;
+        this.startNanos = startNanos;
+    }
+
+    public long traceId() {
+        return traceId;
+    }
+
+    public long spanId() {
+        return spanId;
+    }
+
+    /**
+     * @return The ID of the span which sent this span's message, or 0 if this span began a trace.
+     */
+    public long parentId() {
+        return parentId;
+    }
+
+    /**
+     * @return The fully qualified name of the capsule type which executed the message.
+     */
+    public String capsuleType() {
+        return Panini$Metrics.capsuleType(capsule);
+    }
+
+    /**
+     * @return The signature of the executed procedure, or the kind of control message.
+     */
+    public String procedure()
+    {
+        if (procID == Capsule$Thread.PANINI$CONTINUE) {
+            return "<continuation>";
+        }
+        return (procID >= 0 && procID < procedures.length) ? procedures[procID] : "#" + procID;
+    }
+
+    public long startNanos() {
+        return startNanos;
+    }
+
+    public long durationNanos() {
+        return endNanos - startNanos;
+    }
+
+    public long threadId() {
+        return threadId;
+    }
+}
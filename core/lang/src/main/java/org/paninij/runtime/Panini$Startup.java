@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+
+package org.paninij.runtime;
+
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ * Constructs and starts the capsules of a capsule's `@Local` capsule arrays. Called by the
+ * generated `panini$initLocals()` of thread and task capsules.
+ *
+ * <p>An array of at least `Panini$System.PARALLEL_STARTUP_THRESHOLD` capsules is constructed, and
+ * then started, by the common fork-join pool (with the parent's thread helping), rather than one
+ * capsule at a time by the parent's thread. This matters most for the TASK profile, in which
+ * starting a capsule also initializes it (and, recursively, its own locals). Siblings never depend
+ * on the order in which they are started, since messages sent to a capsule which has not yet
+ * been started are kept in its mailbox.
+ *
+ * <p>How each capsule is started is up to its profile (see `Panini$System.LAZY_ACTIVATION`).
+ */
+public final class Panini$Startup
+{
+    private Panini$Startup() { }
+
+    /**
+     * Sets each element of `capsules` to a new capsule made by `factory`.
+     */
+    public static <T extends Panini$Capsule> void construct(T[] capsules,
+                                                            IntFunction<? extends T> factory)
+    {
+        if (capsules.length >= Panini$System.PARALLEL_STARTUP_THRESHOLD) {
+            Arrays.parallelSetAll(capsules, factory);
+        } else {
+            for (int i = 0; i < capsules.length; i++) {
+                capsules[i] = factory.apply(i);
+            }
+        }
+    }
+
+    /**
+     * Starts each of the given capsules.
+     */
+    public static void start(Panini$Capsule[] capsules)
+    {
+        if (capsules.length >= Panini$System.PARALLEL_STARTUP_THRESHOLD) {
+            Arrays.stream(capsules).parallel().forEach(Panini$Capsule::panini$start);
+        } else {
+            for (Panini$Capsule capsule : capsules) {
+                capsule.panini$start();
+            }
+        }
+    }
+}
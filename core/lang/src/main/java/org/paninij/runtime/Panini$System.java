@@ -25,11 +25,182 @@
  *******************************************************************************/
 package org.paninij.runtime;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.paninij.lang.Overflow;
+
 public class Panini$System
 {
 
     public static int POOL_SIZE = 4;
-    public static Panini$Latch threads = new Panini$Latch();
+
+    /**
+     * Whether capsules are laid out to use as little memory as possible while they are idle, at
+     * some cost in throughput. This mode changes the defaults of the settings below which affect a
+     * capsule's footprint: mailboxes are unpadded `RING` mailboxes which start with room for
+     * `MAILBOX_INITIAL_CAPACITY` messages, passive capsules are activated lazily, idle thread
+     * capsules hibernate, and errors are reported to the shared `Panini$System.errors` queue
+     * rather than to a queue per capsule. This can be set with the `panini.footprint` system
+     * property (i.e. `-Dpanini.footprint=compact`), before this class is first used.
+     */
+    public static final boolean COMPACT_FOOTPRINT =
+            "compact".equalsIgnoreCase(System.getProperty("panini.footprint"));
+
+    /**
+     * The kind of mailbox given to each newly created `Capsule$Thread` or `Capsule$Task`. This can
+     * be set with the `panini.mailbox` system property (e.g. `-Dpanini.mailbox=RING`).
+     */
+    public static Panini$Mailbox.Kind MAILBOX_KIND = Panini$Mailbox.Kind.fromString(
+            System.getProperty("panini.mailbox", COMPACT_FOOTPRINT ? "RING" : null));
+
+    /**
+     * The number of messages which a new mailbox has room for before it first grows, or 0 to use
+     * the mailbox kind's own default. This can be set with the `panini.mailbox.initial` system
+     * property. In the compact footprint mode, it defaults to 2.
+     */
+    public static int MAILBOX_INITIAL_CAPACITY =
+            Math.max(0, Integer.getInteger("panini.mailbox.initial", COMPACT_FOOTPRINT ? 2 : 0));
+
+    /**
+     * The capacity of the mailbox given to each newly created `Capsule$Thread` or `Capsule$Task`
+     * whose core is not annotated with `@Bounded`. This can be set with the
+     * `panini.mailbox.capacity` system property. By default, mailboxes are unbounded.
+     */
+    public static int MAILBOX_CAPACITY =
+            parseCapacity(System.getProperty("panini.mailbox.capacity"), Panini$Mailbox.UNBOUNDED);
+
+    /**
+     * The overflow policy of bounded mailboxes whose core is not annotated with `@Bounded`. This
+     * can be set with the `panini.mailbox.overflow` system property.
+     */
+    public static Overflow MAILBOX_OVERFLOW =
+            Overflow.fromString(System.getProperty("panini.mailbox.overflow"));
+
+    /**
+     * Whether capsules batch their sends. When set, the messages which a thread or task capsule
+     * sends while processing a message are buffered per target, and are pushed onto each target's
+     * mailbox all at once (with a single wakeup) when that message has been processed, or as soon
+     * as `SEND_BATCH_SIZE` messages for one target have been buffered. See `Panini$Outbox`. This
+     * can be set with the `panini.batch` system property (e.g. `-Dpanini.batch=true`).
+     */
+    public static boolean SEND_BATCHING = Boolean.getBoolean("panini.batch");
+
+    /**
+     * The largest number of messages which a capsule buffers for any one target before pushing
+     * them. This can be set with the `panini.batch.size` system property.
+     */
+    public static int SEND_BATCH_SIZE = parseCapacity(System.getProperty("panini.batch.size"), 64);
+
+    /**
+     * The number of messages which a capsule with priority procedures takes from its mailbox's
+     * priority lane for each message which it takes from its normal lane. See
+     * `Panini$LanedMailbox`. This can be set with the `panini.priority.weight` system property, or
+     * for the instances of one capsule by suffixing this property with that capsule's fully
+     * qualified name.
+     */
+    public static int PRIORITY_WEIGHT = parseCapacity(System.getProperty("panini.priority.weight"), 8);
+
+    /**
+     * The length of a tick of the `Panini$TimerWheel` in milliseconds, i.e. its resolution. This can
+     * be set with the `panini.timer.tick` system property, before the wheel is first used.
+     */
+    public static int TIMER_TICK_MILLIS = parseCapacity(System.getProperty("panini.timer.tick"), 1);
+
+    /**
+     * The length from which the capsules of a `@Local` capsule array are constructed and started in
+     * parallel, rather than one at a time by the parent capsule's thread. See `Panini$Startup`.
+     * This can be set with the `panini.startup.parallel` system property (e.g.
+     * `-Dpanini.startup.parallel=1024`). By default, startup is sequential.
+     */
+    public static int PARALLEL_STARTUP_THRESHOLD =
+            parseCapacity(System.getProperty("panini.startup.parallel"), Integer.MAX_VALUE);
+
+    /**
+     * Whether passive thread and task capsules are only activated once they receive their first
+     * message, rather than when they are started. Until then, a thread capsule has no thread, and
+     * a task capsule is neither initialized nor added to the task pool. This can be set with the
+     * `panini.startup.lazy` system property (e.g. `-Dpanini.startup.lazy=true`). In the compact
+     * footprint mode, it is set by default.
+     */
+    public static boolean LAZY_ACTIVATION = Boolean.parseBoolean(
+            System.getProperty("panini.startup.lazy", Boolean.toString(COMPACT_FOOTPRINT)));
+
+    /**
+     * How long (in milliseconds) a passive thread capsule may wait for a message before it
+     * hibernates, or 0 if capsules never hibernate. A hibernating capsule's thread exits, but the
+     * capsule keeps its state, and its next push resumes it on a new thread (so a core must not
+     * rely on the identity of its capsule's thread, e.g. through a `ThreadLocal`). This can be set
+     * with the `panini.hibernate` system property (e.g. `-Dpanini.hibernate=60000`). In the compact
+     * footprint mode, it defaults to one second.
+     */
+    public static int HIBERNATION_MILLIS =
+            Integer.getInteger("panini.hibernate", COMPACT_FOOTPRINT ? 1000 : 0);
+
+    /**
+     * Whether thread and task capsules collect runtime metrics (message counts, mailbox depths, and
+     * the counts and service times of their procedures), and publish them as JMX MBeans per
+     * capsule instance and per capsule type. See `Panini$Metrics`. This can be set with the
+     * `panini.metrics` system property (e.g. `-Dpanini.metrics=true`).
+     */
+    public static boolean METRICS = Boolean.getBoolean("panini.metrics");
+
+    /**
+     * Whether the runtime emits its JDK Flight Recorder events (see `Panini$Flight`). An event
+     * costs next to nothing unless a recording which enables it is running, so this only needs to
+     * be cleared (with `-Dpanini.jfr=false`) to rule out even the checks for one.
+     */
+    public static final boolean FLIGHT_EVENTS =
+            !"false".equalsIgnoreCase(System.getProperty("panini.jfr"));
+
+    /**
+     * Whether thread and task capsules trace the causal chains of the messages which they execute
+     * (see `Panini$Trace`). This can be set with the `panini.trace` system property.
+     */
+    public static boolean TRACING = Boolean.getBoolean("panini.trace");
+
+    /**
+     * How many of the most recent spans `Panini$Trace` keeps, rounded up to a power of two. This
+     * can be set with the `panini.trace.buffer` system property.
+     */
+    public static final int TRACE_BUFFER_SIZE =
+            parseCapacity(System.getProperty("panini.trace.buffer"), 65536);
+
+    /**
+     * The file to which `Panini$Trace` writes its spans when the JVM exits, if any: as OTLP JSON if
+     * its name ends with `.otlp.json`, or else as a Chrome trace. This can be set with the
+     * `panini.trace.file` system property.
+     */
+    public static final String TRACE_FILE = System.getProperty("panini.trace.file");
+
+    /**
+     * How many transfers the `SAMPLED` dynamic ownership check lets pass at each site between two
+     * checks, before any back-off (see `DynamicOwnershipTransfer.Site`). This can be set with the
+     * `panini.ownership.sample` system property.
+     */
+    public static int OWNERSHIP_SAMPLE_PERIOD =
+            parseCapacity(System.getProperty("panini.ownership.sample"), 64);
+
+    /**
+     * The share of each thread's time, in thousandths, which the `BUDGETED` dynamic ownership
+     * check may spend checking transfers. This can be set with the `panini.ownership.budget`
+     * system property (e.g. `-Dpanini.ownership.budget=10` for 1%).
+     */
+    public static int OWNERSHIP_BUDGET = Integer.getInteger("panini.ownership.budget", 10);
+
+    /**
+     * Tracks the live capsules and the messages in flight, so that a program can wait for the
+     * capsule system to terminate, or to become quiescent. See `Panini$Quiescence`.
+     */
+    public static final Panini$Quiescence threads = new Panini$Quiescence();
+
+    /**
+     * The queue to which every capsule reports the errors thrown by its procedures in the compact
+     * footprint mode (see `COMPACT_FOOTPRINT`), so that each capsule's `panini$pollErrors()` polls
+     * the errors of every capsule. Otherwise, each capsule creates its own queue when it first
+     * reports or polls an error.
+     */
+    public static final Panini$ErrorQueue errors = new Panini$ErrorQueue();
 
     /**
      * System-global variable meant to hold thread-local references to a capsule instance. This
@@ -40,4 +211,98 @@ public class Panini$System
      * it was running the procedure wrapper on another capsule.)
      */
     public static final ThreadLocal<Capsule$Thread> self = new ThreadLocal<Capsule$Thread>();
+
+    /**
+     * Thread-local reference to the executor which delivers callbacks back to the capsule that the
+     * current thread is running, or `null` if it is not running a thread or task capsule. A
+     * `Panini$Promise` callback is run by whatever executor was found here when it was registered.
+     */
+    public static final ThreadLocal<Executor> continuations = new ThreadLocal<Executor>();
+
+    /**
+     * Makes a new mailbox for an instance of the given capsule class. The mailbox's capacity and
+     * overflow policy are, in order of precedence, those given by the system properties
+     * {@code panini.mailbox.capacity.<capsule>} and {@code panini.mailbox.overflow.<capsule>}
+     * (where {@code <capsule>} is the capsule's fully qualified name), those declared by the
+     * capsule core's `@Bounded` annotation, and finally `MAILBOX_CAPACITY` and `MAILBOX_OVERFLOW`.
+     *
+     * @param capsule   The generated capsule class (e.g. `Foo$Thread`).
+     * @param capacity  The capacity declared by the capsule core, or 0 if none was declared.
+     * @param overflow  The overflow policy declared by the capsule core, or `null`.
+     */
+    public static Panini$Mailbox newMailbox(Class<?> capsule, int capacity, Overflow overflow) {
+        return newMailbox(capsule, capacity, overflow, false);
+    }
+
+    /**
+     * Makes a new mailbox just as `newMailbox(Class, int, Overflow)` does, except that if `lanes`
+     * is set, then the mailbox also has a priority lane, which is drained with the weight given
+     * by the system property {@code panini.priority.weight.<capsule>}, or else by
+     * `PRIORITY_WEIGHT`.
+     *
+     * @param lanes  Whether the capsule core declares any procedures annotated with `@Priority`.
+     */
+    public static Panini$Mailbox newMailbox(Class<?> capsule, int capacity, Overflow overflow,
+                                           boolean lanes)
+    {
+        if (capacity <= 0) {
+            capacity = MAILBOX_CAPACITY;
+        }
+        if (overflow == null) {
+            overflow = MAILBOX_OVERFLOW;
+        }
+
+        String name = capsule.getName();
+        int sep = name.lastIndexOf('$');
+        if (sep > 0) {
+            name = name.substring(0, sep);
+        }
+        capacity = parseCapacity(System.getProperty("panini.mailbox.capacity." + name), capacity);
+        String policy = System.getProperty("panini.mailbox.overflow." + name);
+        if (policy != null) {
+            overflow = Overflow.fromString(policy);
+        }
+
+        Panini$Mailbox normal = MAILBOX_KIND.newMailbox(capacity, overflow);
+        if (!lanes) {
+            return normal;
+        }
+        int weight = parseCapacity(System.getProperty("panini.priority.weight." + name),
+                                   PRIORITY_WEIGHT);
+        return new Panini$LanedMailbox(MAILBOX_KIND.newMailbox(), normal, weight);
+    }
+
+    /**
+     * Waits until no capsule is busy and no message is in flight. This must not be called by a
+     * capsule. See `Panini$Quiescence`.
+     */
+    public static void awaitQuiescence() throws InterruptedException {
+        threads.awaitQuiescence();
+    }
+
+    /**
+     * Waits until every capsule has terminated, or until the given time has elapsed.
+     *
+     * @return Whether every capsule has terminated.
+     */
+    public static boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return threads.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * @throws IllegalArgumentException If `s` is neither `null`, empty, nor a positive integer.
+     */
+    private static int parseCapacity(String s, int defaultCapacity)
+    {
+        if (s == null || s.isEmpty()) {
+            return defaultCapacity;
+        }
+        try {
+            int capacity = Integer.parseInt(s.trim());
+            if (capacity > 0) {
+                return capacity;
+            }
+        } catch (NumberFormatException ex) { /* Fall through. */ }
+        throw new IllegalArgumentException("Expected a positive integer: " + s);
+    }
 }
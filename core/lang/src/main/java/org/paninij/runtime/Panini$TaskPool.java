@@ -26,135 +26,254 @@
 
 package org.paninij.runtime;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
-public final class Panini$TaskPool extends Thread {
-    private static volatile boolean initiated = false;
-    private static Panini$TaskPool[] pools = new Panini$TaskPool[1];
-    private static int poolSize = 1;
-    private static int nextPool = 0;
-    private static AtomicInteger shutdown = new AtomicInteger(0);
-    private static AtomicInteger startup = new AtomicInteger(0);
-    private Capsule$Task headNode;
+/**
+ * The scheduler of the TASK execution profile.
+ *
+ * <p>A pool owns a work-stealing {@link ForkJoinPool} with `Panini$System.POOL_SIZE` workers. A
+ * `Capsule$Task` is only handed to the pool when a push makes it runnable (see
+ * `Capsule$Task.panini$schedule()`), and a worker then runs a bounded batch of that capsule's
+ * messages before moving on. Workers which find no runnable capsule park, so an idle capsule
+ * system costs no CPU, and the cost of scheduling a capsule does not depend on how many capsules
+ * share the pool.
+ *
+ * <p>The pool is created when its first capsule is added, and it shuts down once every capsule
+ * added to it has terminated. The pool is retained by `Panini$System.threads` until then, so that
+ * a program which awaits the system's termination may go on to start another pool.
+ */
+public final class Panini$TaskPool
+{
+    /**
+     * The maximum number of messages a worker will process from one capsule before letting
+     * other runnable capsules have a turn.
+     */
+    static final int BATCH_SIZE = 64;
 
-    private Panini$TaskPool() { }
+    private static Panini$TaskPool current;
 
-    static final synchronized void init(int size) throws Exception {
-        if (initiated) throw new Exception("TaskPool already initialized");
-        poolSize = size;
-        pools = new Panini$TaskPool[size];
-        shutdown.set(0);
-        startup.set(0);
-        for (int i = 0; i < pools.length; i ++)
-            pools[i] = new Panini$TaskPool();
+    private final ForkJoinPool workers;
+    private final AtomicInteger live = new AtomicInteger(0);
+    private final Object terminationLock = new Object();
+    private boolean terminated = false;
+
+    private Panini$TaskPool(int size) {
+        workers = new ForkJoinPool(size, new WorkerFactory(), null, true);
+    }
 
-        initiated = true;
+    static final synchronized void init(int size) throws Exception {
+        if (current != null) throw new Exception("TaskPool already initialized");
+        current = new Panini$TaskPool(size);
+        Panini$System.threads.retain();
     }
 
     static final synchronized void init() throws Exception {
         init(Panini$System.POOL_SIZE);
     }
 
-    private final synchronized void reset() {
-        nextPool = 0;
-        poolSize = 1;
-        pools = new Panini$TaskPool[1];
-        initiated = false;
-        shutdown.set(0);
-        startup.set(0);
+    /**
+     * Adds the given capsule to the current pool (creating the pool if there is none), initializes
+     * the capsule, and then makes it schedulable.
+     */
+    static final Panini$TaskPool add(Capsule$Task t) {
+        Panini$TaskPool pool = admit(t);
+        initialize(t);
+        return pool;
     }
 
-    private final synchronized void shutdown() {
-        shutdown.incrementAndGet();
-        if (shutdown.get() == startup.get()) {
-            reset();
-        }
-        try {
-            Panini$System.threads.countDown();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+    /**
+     * Adds the given capsule to the current pool (creating the pool if there is none), but leaves
+     * its initialization to one of the pool's workers. Used to activate a lazily started capsule
+     * from the thread of the push which woke it up, which is usually running some other capsule.
+     */
+    static final Panini$TaskPool addLater(final Capsule$Task t) {
+        Panini$TaskPool pool = admit(t);
+        pool.workers.execute(new Runnable() {
+            @Override
+            public void run() {
+                initialize(t);
+            }
+        });
+        return pool;
     }
 
-    static final synchronized Panini$TaskPool add(Capsule$Task t) {
-        if (!initiated) {
-            try {
-                init();
-            } catch (Exception e1) {
-                e1.printStackTrace();
+    /**
+     * Counts the given capsule as one of the current pool's live capsules, so that the pool cannot
+     * shut down before it has been initialized.
+     */
+    private static Panini$TaskPool admit(Capsule$Task t) {
+        Panini$TaskPool pool;
+        synchronized (Panini$TaskPool.class) {
+            if (current == null) {
+                try {
+                    init();
+                } catch (Exception e1) {
+                    e1.printStackTrace();
+                }
             }
+            pool = current;
+            pool.live.incrementAndGet();
         }
+        t.panini$containingPool = pool;
+        return pool;
+    }
 
-        // TODO: See load balancing
-        int currentPool = nextPool;
-        nextPool++;
-        if (nextPool >= poolSize) nextPool = 0;
-        pools[currentPool]._add(t);
-        if (!pools[currentPool].isAlive()) {
-            try {
-                Panini$System.threads.countUp();
-                startup.incrementAndGet();
-                pools[currentPool].start();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+    /**
+     * Initializes the given capsule, and then makes it schedulable. The capsule's initialization
+     * runs as the capsule itself, just as its messages do: the promise callbacks and timer tasks
+     * which it registers are delivered back to it, and its sends are batched in an outbox scope of
+     * its own, rather than in that of whichever capsule the calling thread may be running.
+     */
+    private static void initialize(Capsule$Task t) {
+        Executor outer = Panini$System.continuations.get();
+        Panini$System.continuations.set(t.panini$continuations);
+        Panini$Outbox outbox = Panini$System.SEND_BATCHING ? Panini$Outbox.current() : null;
+        boolean wasBatching = false;
+        if (outbox != null) {
+            outbox.flush();  // The caller's own sends go first.
+            wasBatching = outbox.open();
+        }
+        try {
+            t.panini$capsuleInit();
+        } finally {
+            if (outbox != null) {
+                outbox.close(wasBatching);
             }
+            Panini$System.continuations.set(outer);
         }
-        return pools[currentPool];
+        t.panini$endHandling();
+        t.panini$initialized();
     }
 
-    private final synchronized void _add(Capsule$Task t) {
-        if (headNode == null) {
-            headNode = t;
-            t.panini$nextCapsule = t;
-        } else {
-            t.panini$nextCapsule = headNode.panini$nextCapsule;
-            headNode.panini$nextCapsule = t;
+    /**
+     * @return The current pool, or `null` if there is none.
+     */
+    static final synchronized Panini$TaskPool current() {
+        return current;
+    }
+
+    final ForkJoinPool workers() {
+        return workers;
+    }
+
+    /**
+     * @return The number of capsules which have been added to this pool and not yet terminated.
+     */
+    final int live() {
+        return live.get();
+    }
+
+    final void schedule(Capsule$Task t) {
+        workers.execute(t.panini$activation);
+    }
+
+    /**
+     * Called once by each capsule of this pool, after it has processed its termination message.
+     */
+    final void terminated(Capsule$Task t) {
+        if (live.decrementAndGet() == 0) {
+            shutdown();
         }
-        t.panini$capsuleInit();
     }
 
-    static final synchronized void remove(Panini$TaskPool pool, Capsule$Task t) {
-        pool._remove(t);
+    private final void shutdown() {
+        synchronized (Panini$TaskPool.class) {
+            if (current == this) {
+                current = null;
+            }
+        }
+        workers.shutdown();
+        synchronized (terminationLock) {
+            terminated = true;
+            terminationLock.notifyAll();
+        }
+        Panini$System.threads.release();
     }
 
-    private final synchronized void _remove(Capsule$Task t) {
-        Capsule$Task current = headNode;
-        Capsule$Task previous = headNode;
-        while (current != t) {
-            previous = current;
-            current = current.panini$nextCapsule;
+    /**
+     * Waits until every capsule of this pool has terminated.
+     */
+    final void join() throws InterruptedException {
+        synchronized (terminationLock) {
+            while (!terminated) terminationLock.wait();
         }
+    }
+
+    /**
+     * Waits (without holding any worker hostage) until the given capsule is neither being run nor
+     * queued to run, until it has no pending messages, or until the given message (if any) has
+     * been processed. If the calling thread is one of the pool's workers, the pool may start a
+     * spare worker while this one waits.
+     *
+     * Rather than polling, the calling thread parks until the capsule unparks it (see
+     * `Capsule$Task.panini$addWaiter()`).
+     */
+    static final void awaitIdleOrEmpty(final Capsule$Task t, final Object awaited) {
+        ForkJoinPool.ManagedBlocker blocker = new ForkJoinPool.ManagedBlocker() {
+            @Override
+            public boolean isReleasable() {
+                return t.panini$isIdle() || t.panini$isEmpty() || Capsule$Task.panini$isDone(awaited);
+            }
 
-        if (previous == current) {
-            if (current.panini$nextCapsule == current) {
-                headNode = null;
-                return;
+            @Override
+            public boolean block() {
+                t.panini$addWaiter(awaited);
+                if (!isReleasable()) {
+                    LockSupport.park(this);
+                }
+                return isReleasable();
             }
-            Capsule$Task tmp = previous;
-            while (tmp != previous.panini$nextCapsule)
-                previous = previous.panini$nextCapsule;
-
-            headNode = current.panini$nextCapsule;
-            previous.panini$nextCapsule = headNode;
-        } else {
-            previous.panini$nextCapsule = current.panini$nextCapsule;
+        };
+        try {
+            ForkJoinPool.managedBlock(blocker);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
-    @Override
-    public void run() {
-        // implementation relies on at least one capsule being present
-        Capsule$Task current = headNode;
-        while (true) {
-            if (current.panini$size != 0) {
-                if (current.run() == true) remove(this, current);
-                if (headNode == null) break;
+
+    /**
+     * Sleeps for the given time (without holding any worker hostage), just as
+     * `awaitIdleOrEmpty()` waits. An interrupt ends the sleep early, and is preserved.
+     */
+    static final void sleep(long nanos) {
+        final long deadline = System.nanoTime() + nanos;
+        ForkJoinPool.ManagedBlocker blocker = new ForkJoinPool.ManagedBlocker() {
+            @Override
+            public boolean isReleasable() {
+                return deadline - System.nanoTime() <= 0;
             }
-            synchronized(this) {
-                current = current.panini$nextCapsule;
+
+            @Override
+            public boolean block() {
+                LockSupport.parkNanos(this, deadline - System.nanoTime());
+                return isReleasable() || Thread.currentThread().isInterrupted();
             }
+        };
+        try {
+            ForkJoinPool.managedBlock(blocker);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-        shutdown();
     }
 
+    /**
+     * Creates non-daemon workers, so a capsule system keeps the JVM alive until it terminates,
+     * just as it does under the THREAD profile.
+     */
+    private static final class WorkerFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+        private final AtomicInteger nextID = new AtomicInteger(0);
+
+        @Override
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread worker = new ForkJoinWorkerThread(pool) { };
+            worker.setDaemon(false);
+            worker.setName("panini-task-" + nextID.getAndIncrement());
+            return worker;
+        }
+    }
 }
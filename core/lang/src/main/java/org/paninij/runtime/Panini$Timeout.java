@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+
+package org.paninij.runtime;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A handle on a task which has been scheduled on the {@link Panini$TimerWheel}, which can be used
+ * to cancel it.
+ *
+ * <p>A timeout is also the wheel's own node for the task: the fields other than `state` are only
+ * ever touched by the thread which schedules the timeout (before it hands the timeout to the
+ * wheel) and by the wheel's thread, so a pending timeout costs one small object and nothing else.
+ */
+public final class Panini$Timeout
+{
+    static final int PENDING = 0;
+    static final int EXPIRED = 1;
+    static final int CANCELLED = 2;
+
+    private static final AtomicIntegerFieldUpdater<Panini$Timeout> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(Panini$Timeout.class, "state");
+
+    final Runnable task;
+
+    /** The executor which runs `task`, or `null` if the wheel's thread runs it. */
+    final Executor executor;
+
+    /** What is handed to `executor` on each run of the task, or `null` if there is no executor. */
+    final Delivery delivery;
+
+    /** The interval between runs of a periodic task in ticks, or 0 if the task runs once. */
+    final long period;
+
+    /** The tick on which the task is next due to run. */
+    long deadline;
+
+    /** The timeout's neighbours in its wheel slot, or in the wheel's stack of new timeouts. */
+    Panini$Timeout prev, next;
+
+    /** The next timeout in the wheel's stack of cancelled timeouts. */
+    Panini$Timeout nextCancelled;
+
+    /** The wheel level and slot which hold this timeout, or -1 if it is not in a slot. */
+    int level = -1, slot;
+
+    private volatile int state = PENDING;
+
+    Panini$Timeout(Runnable task, Executor executor, long deadline, long period)
+    {
+        this.task = task;
+        this.executor = executor;
+        this.delivery = executor == null ? null : new Delivery(this);
+        this.deadline = deadline;
+        this.period = period;
+    }
+
+    /**
+     * Cancels the task, if it has not yet run (or if it is periodic). A task which has already been
+     * handed to the executor of the capsule which scheduled it may still run.
+     *
+     * @return Whether the task was cancelled by this call.
+     */
+    public boolean cancel()
+    {
+        if (STATE.compareAndSet(this, PENDING, CANCELLED)) {
+            Panini$TimerWheel.get().cancelled(this);
+            return true;
+        }
+        return false;
+    }
+
+    public boolean isCancelled() {
+        return state == CANCELLED;
+    }
+
+    /**
+     * @return Whether the task was run once and for all, i.e. whether a one-shot task has run.
+     */
+    public boolean isExpired() {
+        return state == EXPIRED;
+    }
+
+    boolean isPending() {
+        return state == PENDING;
+    }
+
+    boolean expire() {
+        return STATE.compareAndSet(this, PENDING, EXPIRED);
+    }
+
+    /**
+     * Runs the task on the capsule which scheduled it. If that capsule has terminated, then the
+     * delivery is discarded rather than run (see `Panini$Continuation.panini$discard()`), and the
+     * timeout is cancelled, so that a periodic task is not rescheduled forever.
+     */
+    static final class Delivery implements Runnable
+    {
+        private final Panini$Timeout timeout;
+
+        Delivery(Panini$Timeout timeout) {
+            this.timeout = timeout;
+        }
+
+        @Override
+        public void run() {
+            timeout.task.run();
+        }
+
+        void abandon() {
+            timeout.cancel();
+        }
+    }
+}
@@ -0,0 +1,437 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+
+package org.paninij.runtime;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hierarchical timer wheel, which runs tasks after a delay or at a fixed rate. There is one
+ * wheel per JVM, which is shared by every capsule and every execution profile.
+ *
+ * <p>A task scheduled by a thread or task capsule (i.e. while the capsule is processing a message)
+ * is delivered back to that capsule as a control message (see `Panini$System.continuations`), so
+ * it runs on the capsule itself, between its other messages, and may use the capsule core's state
+ * or invoke procedures on any capsule. The capsule is never blocked while it waits. A task which
+ * is scheduled from anywhere else runs on the wheel's own thread, and so should do no more than
+ * invoke a procedure or two. A periodic task runs until it is cancelled. If the capsule which
+ * scheduled it terminates first, then its timeout is cancelled on the next run which finds the
+ * capsule dead. A task which runs on the wheel's thread and throws is reported to
+ * `Panini$System.errors`, and if it is periodic, its timeout is cancelled.
+ *
+ * <p>Time is divided into ticks of `Panini$System.TIMER_TICK_MILLIS` milliseconds, and a task runs
+ * on the first tick at or after its deadline. The wheel has `LEVELS` levels of 64 slots each: a
+ * slot of level `L` spans `64^L` ticks, so the wheel spans `64^LEVELS` ticks (over two years with
+ * the default tick). Scheduling and cancelling a timeout take constant time, whatever the number
+ * of pending timeouts: a timeout is linked into the slot of the lowest level which spans its
+ * deadline, and each time the wheel's current tick enters a slot of some higher level, that slot's
+ * timeouts are moved down into the lower levels. Each level keeps a bitmap of its non-empty slots,
+ * so the wheel's thread sleeps until the next tick on which there is any work to do, rather than
+ * waking up on every tick.
+ *
+ * <p>Other threads hand new and cancelled timeouts to the wheel's thread through two lock-free
+ * stacks. Only the wheel's thread touches the slots.
+ */
+public final class Panini$TimerWheel
+{
+    static final int LEVELS = 6;
+    static final int SLOT_BITS = 6;
+    static final int SLOTS = 1 << SLOT_BITS;
+    static final long MAX_TICKS = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+    private static final AtomicReferenceFieldUpdater<Panini$TimerWheel, Panini$Timeout> INCOMING =
+            AtomicReferenceFieldUpdater.newUpdater(Panini$TimerWheel.class, Panini$Timeout.class, "incoming");
+
+    private static final AtomicReferenceFieldUpdater<Panini$TimerWheel, Panini$Timeout> CANCELLED =
+            AtomicReferenceFieldUpdater.newUpdater(Panini$TimerWheel.class, Panini$Timeout.class, "cancelled");
+
+    private static volatile Panini$TimerWheel instance;
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final Thread thread;
+
+    /** Newly scheduled timeouts, linked through `next`. */
+    private volatile Panini$Timeout incoming;
+
+    /** Cancelled timeouts, linked through `nextCancelled`. */
+    private volatile Panini$Timeout cancelled;
+
+    /**
+     * The tick on which the wheel's thread will next wake up, or -1 while it is awake. A thread
+     * which schedules an earlier timeout must wake it.
+     */
+    private volatile long wakeTick = -1;
+
+    // The following are only touched by the wheel's thread.
+
+    private final Panini$Timeout[][] slots = new Panini$Timeout[LEVELS][SLOTS];
+    private final long[] occupied = new long[LEVELS];
+
+    /** The last tick which has been processed. */
+    private long current = 0;
+
+
+    private Panini$TimerWheel(long tickNanos)
+    {
+        this.tickNanos = tickNanos;
+        this.startNanos = System.nanoTime();
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Panini$TimerWheel.this.run();
+            }
+        }, "panini-timer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * @return The shared wheel, which is started on first use.
+     */
+    static Panini$TimerWheel get()
+    {
+        Panini$TimerWheel wheel = instance;
+        if (wheel == null) {
+            synchronized (Panini$TimerWheel.class) {
+                wheel = instance;
+                if (wheel == null) {
+                    long tick = TimeUnit.MILLISECONDS.toNanos(Panini$System.TIMER_TICK_MILLIS);
+                    instance = wheel = new Panini$TimerWheel(tick);
+                }
+            }
+        }
+        return wheel;
+    }
+
+    /**
+     * Runs the given task once, after the given delay.
+     */
+    public static Panini$Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        return get().add(task, unit.toNanos(delay), 0);
+    }
+
+    /**
+     * Runs the given task after the given initial delay, and then every `period` until the returned
+     * timeout is cancelled. The task's runs are due at fixed times (`initialDelay`,
+     * `initialDelay + period`, and so on). If a run is late by more than a period, the runs which
+     * it has missed are skipped, rather than run in a burst.
+     *
+     * @throws IllegalArgumentException If `period` is not positive.
+     */
+    public static Panini$Timeout scheduleAtFixedRate(Runnable task, long initialDelay, long period,
+                                                    TimeUnit unit)
+    {
+        if (period <= 0) {
+            throw new IllegalArgumentException("Timer period must be positive: " + period);
+        }
+        return get().add(task, unit.toNanos(initialDelay), unit.toNanos(period));
+    }
+
+    private Panini$Timeout add(Runnable task, long delayNanos, long periodNanos)
+    {
+        if (task == null) {
+            throw new IllegalArgumentException("Cannot schedule a `null` task.");
+        }
+        long now = System.nanoTime() - startNanos;
+        long deadline = toTicks(now + Math.max(delayNanos, 0));
+        long period = periodNanos == 0 ? 0 : Math.max(toTicks(periodNanos), 1);
+        Panini$Timeout timeout = new Panini$Timeout(task, Panini$System.continuations.get(),
+                                                    deadline, period);
+        Panini$Timeout top;
+        do {
+            top = incoming;
+            timeout.next = top;
+        } while (!INCOMING.compareAndSet(this, top, timeout));
+
+        long wake = wakeTick;
+        if (wake >= 0 && deadline < wake) {
+            LockSupport.unpark(thread);
+        }
+        return timeout;
+    }
+
+    void cancelled(Panini$Timeout timeout)
+    {
+        Panini$Timeout top;
+        do {
+            top = cancelled;
+            timeout.nextCancelled = top;
+        } while (!CANCELLED.compareAndSet(this, top, timeout));
+        // The wheel's thread is not woken, since the cancelled timeout will not run anyway.
+    }
+
+    /**
+     * Rounds up, so that no task runs before its deadline.
+     */
+    private long toTicks(long nanos) {
+        return (nanos + tickNanos - 1) / tickNanos;
+    }
+
+    private long now() {
+        return (System.nanoTime() - startNanos) / tickNanos;
+    }
+
+    private void run()
+    {
+        while (true)
+        {
+            wakeTick = -1;
+            drainIncoming();
+            drainCancelled();
+            advanceTo(now());
+
+            // Announce when we will wake up before re-checking for new timeouts. Any timeout which
+            // is scheduled after this re-check will see the announcement, and wake us if need be.
+            long next = nextEventTick();
+            wakeTick = next;
+            if (incoming != null) {
+                continue;
+            }
+            if (next == Long.MAX_VALUE) {
+                LockSupport.park(this);
+            } else {
+                long delay = startNanos + next * tickNanos - System.nanoTime();
+                if (delay > 0) {
+                    LockSupport.parkNanos(this, delay);
+                }
+            }
+        }
+    }
+
+    private void drainIncoming()
+    {
+        Panini$Timeout timeout = INCOMING.getAndSet(this, null);
+        while (timeout != null) {
+            Panini$Timeout next = timeout.next;
+            if (timeout.isPending()) {
+                insert(timeout);
+            }
+            timeout = next;
+        }
+    }
+
+    private void drainCancelled()
+    {
+        Panini$Timeout timeout = CANCELLED.getAndSet(this, null);
+        while (timeout != null) {
+            Panini$Timeout next = timeout.nextCancelled;
+            timeout.nextCancelled = null;
+            if (timeout.level >= 0) {
+                unlink(timeout);
+            }
+            timeout = next;
+        }
+    }
+
+    /**
+     * Processes every tick from `current` up to `now` on which there is any work to do.
+     */
+    private void advanceTo(long now)
+    {
+        while (current < now) {
+            long next = nextEventTick();
+            if (next > now) {
+                current = now;
+                return;
+            }
+            current = next;
+            processTick(next);
+        }
+    }
+
+    private void processTick(long tick)
+    {
+        // Cascade from the highest level down, since a cascaded timeout may land in a slot of a
+        // lower level which is also due on this tick.
+        for (int level = LEVELS - 1; level > 0; level--) {
+            int shift = level * SLOT_BITS;
+            if ((tick & ((1L << shift) - 1)) == 0) {
+                Panini$Timeout timeout = take(level, (int) ((tick >>> shift) & (SLOTS - 1)));
+                while (timeout != null) {
+                    Panini$Timeout next = timeout.next;
+                    insert(timeout, true);
+                    timeout = next;
+                }
+            }
+        }
+
+        Panini$Timeout timeout = take(0, (int) (tick & (SLOTS - 1)));
+        while (timeout != null) {
+            Panini$Timeout next = timeout.next;
+            fire(timeout);
+            timeout = next;
+        }
+    }
+
+    private void fire(Panini$Timeout timeout)
+    {
+        if (timeout.period == 0) {
+            if (timeout.expire()) {
+                dispatch(timeout);
+            }
+            return;
+        }
+
+        if (!timeout.isPending()) {
+            return;
+        }
+        // Reschedule before running the task, so that the task may cancel its own timeout.
+        long missed = (current - timeout.deadline) / timeout.period;
+        timeout.deadline += (missed + 1) * timeout.period;
+        insert(timeout);
+        if (!dispatch(timeout)) {
+            timeout.cancel();
+        }
+    }
+
+    /**
+     * Hands the task to the capsule which scheduled it, or runs it on the wheel's thread. The
+     * former cannot fail: if the capsule has terminated, its mailbox discards the delivery, which
+     * cancels the timeout (see `Panini$Timeout.Delivery`).
+     *
+     * @return Whether the task could be run (or handed to its executor).
+     */
+    private boolean dispatch(Panini$Timeout timeout)
+    {
+        try {
+            if (timeout.executor != null) {
+                timeout.executor.execute(timeout.delivery);
+            } else {
+                timeout.task.run();
+            }
+            return true;
+        } catch (Throwable thrown) {
+            Panini$System.errors.add(thrown);
+            return false;
+        }
+    }
+
+    private void insert(Panini$Timeout timeout) {
+        insert(timeout, false);
+    }
+
+    /**
+     * Links the given timeout into the slot of the lowest level which spans its deadline. A
+     * timeout whose deadline has passed is due on the next tick.
+     *
+     * @param cascading  Whether the timeout is being moved down from a higher level while the
+     *                   current tick is processed. Only such a timeout can be due on the current
+     *                   tick, since that tick's level-0 slot has not yet been processed.
+     */
+    private void insert(Panini$Timeout timeout, boolean cascading)
+    {
+        long deadline = timeout.deadline;
+        long delta = deadline - current;
+        if (delta < 0 || (delta == 0 && !cascading)) {
+            deadline = current + 1;
+            delta = 1;
+        } else if (delta > MAX_TICKS) {
+            delta = MAX_TICKS;
+            deadline = current + delta;
+            timeout.deadline = deadline;
+        }
+
+        int level = 0;
+        while (delta >= (1L << ((level + 1) * SLOT_BITS))) {
+            level++;
+        }
+        int slot = (int) ((deadline >>> (level * SLOT_BITS)) & (SLOTS - 1));
+
+        Panini$Timeout head = slots[level][slot];
+        timeout.prev = null;
+        timeout.next = head;
+        if (head != null) {
+            head.prev = timeout;
+        }
+        slots[level][slot] = timeout;
+        occupied[level] |= 1L << slot;
+        timeout.level = level;
+        timeout.slot = slot;
+    }
+
+    private void unlink(Panini$Timeout timeout)
+    {
+        int level = timeout.level;
+        int slot = timeout.slot;
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            slots[level][slot] = timeout.next;
+            if (timeout.next == null) {
+                occupied[level] &= ~(1L << slot);
+            }
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = timeout.next = null;
+        timeout.level = -1;
+    }
+
+    /**
+     * Empties the given slot.
+     *
+     * @return The first of the slot's timeouts, which are still linked through `next`.
+     */
+    private Panini$Timeout take(int level, int slot)
+    {
+        Panini$Timeout head = slots[level][slot];
+        slots[level][slot] = null;
+        occupied[level] &= ~(1L << slot);
+        for (Panini$Timeout t = head; t != null; t = t.next) {
+            t.level = -1;
+            t.prev = null;
+        }
+        return head;
+    }
+
+    /**
+     * @return The first tick after `current` on which some slot is due to be processed, or
+     *         `Long.MAX_VALUE` if the wheel is empty.
+     */
+    private long nextEventTick()
+    {
+        long next = Long.MAX_VALUE;
+        for (int level = 0; level < LEVELS; level++) {
+            long bits = occupied[level];
+            if (bits == 0) {
+                continue;
+            }
+            // A slot of this level is processed when the current tick enters it. Find the first
+            // occupied slot after the one which the current tick is in, going round the wheel.
+            int shift = level * SLOT_BITS;
+            long index = current >>> shift;
+            int after = (int) (index & (SLOTS - 1)) + 1;
+            int distance = Long.numberOfTrailingZeros(Long.rotateRight(bits, after)) + 1;
+            next = Math.min(next, (index + distance) << shift);
+        }
+        return next;
+    }
+}
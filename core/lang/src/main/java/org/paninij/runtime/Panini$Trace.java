@@ -0,0 +1,369 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij.runtime;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Causal message tracing, which is enabled by `Panini$System.TRACING`.
+ *
+ * <p>While a thread or task capsule executes a message, the span of that execution (see
+ * `Panini$Span`) is its thread's trace context. Every message pushed meanwhile captures that span,
+ * and the span of its own execution then continues the same trace, with the sender's span as its
+ * parent. A message sent from outside of any span (e.g. by a root capsule's `run()`) begins a new
+ * trace. Promise callbacks continue the trace of the span which resolved their promise.
+ *
+ * <p>Messages do not carry a trace context of their own. Instead, a message which is pushed from
+ * within a span is pushed in an `Envelope` with that span (see `wrap()`), which the receiving
+ * capsule takes it out of again (see `received()`). Without tracing, nothing is allocated, and a
+ * message costs no more memory than its own fields.
+ *
+ * <p>Finished spans are kept in a fixed-size ring buffer, which overwrites the oldest spans once
+ * it is full. The buffer is only allocated once the first span has been recorded. Recording a
+ * span is lock-free: it claims a slot with one atomic increment, and publishes the span into it
+ * with an ordered write. The buffer can be written out as a Chrome trace (for `chrome://tracing`
+ * or Perfetto), or as OpenTelemetry (OTLP) JSON. If `Panini$System.TRACE_FILE` is set, then it
+ * is written to that file when the JVM exits.
+ */
+public final class Panini$Trace
+{
+    private static final ThreadLocal<Panini$Span> current = new ThreadLocal<Panini$Span>();
+
+    /**
+     * The span which sent the message which the current thread has most recently taken from a
+     * mailbox, if that message was traced.
+     */
+    private static final ThreadLocal<Panini$Span> sender = new ThreadLocal<Panini$Span>();
+
+    /** Converts `System.nanoTime()` to nanoseconds since the epoch. */
+    private static final long EPOCH_OFFSET_NANOS =
+            System.currentTimeMillis() * 1000000L - System.nanoTime();
+
+    /**
+     * Holds the ring buffer, so that it is only allocated once it is first used.
+     */
+    private static final class Ring
+    {
+        static final AtomicReferenceArray<Panini$Span> spans;
+        static final int mask;
+        static final AtomicLong next = new AtomicLong();
+
+        static {
+            int size = Integer.highestOneBit(Math.max(Panini$System.TRACE_BUFFER_SIZE, 2) - 1) << 1;
+            spans = new AtomicReferenceArray<Panini$Span>(size);
+            mask = size - 1;
+        }
+    }
+
+    /**
+     * A message pushed from within a span, together with that span.
+     */
+    static final class Envelope implements Panini$Message
+    {
+        final Object msg;
+        final Panini$Span sender;
+
+        Envelope(Object msg, Panini$Span sender) {
+            this.msg = msg;
+            this.sender = sender;
+        }
+
+        @Override
+        public int panini$msgID() {
+            return ((Panini$Message) msg).panini$msgID();
+        }
+    }
+
+    static {
+        final String file = Panini$System.TRACE_FILE;
+        if (file != null && !file.isEmpty()) {
+            Runtime.getRuntime().addShutdownHook(new Thread("panini-trace-dump") {
+                @Override
+                public void run() {
+                    try (Writer out = new FileWriter(file)) {
+                        if (file.endsWith(".otlp.json")) {
+                            writeOpenTelemetry(out);
+                        } else {
+                            writeChromeTrace(out);
+                        }
+                    } catch (IOException ex) {
+                        ex.printStackTrace();
+                    }
+                }
+            });
+        }
+    }
+
+    private Panini$Trace() { }
+
+    /**
+     * @return The trace context of the current thread, i.e. the span which it is running, or
+     *         `null` if it is running none, or if tracing is disabled.
+     */
+    public static Panini$Span current() {
+        return Panini$System.TRACING ? current.get() : null;
+    }
+
+    /**
+     * @return The given message, in an envelope with the current thread's trace context if it has
+     *         one. Called by each push onto a mailbox.
+     */
+    static Object wrap(Object msg)
+    {
+        if (!Panini$System.TRACING || !(msg instanceof Panini$Message) || msg instanceof Envelope) {
+            return msg;
+        }
+        Panini$Span span = current.get();
+        return (span == null) ? msg : new Envelope(msg, span);
+    }
+
+    /**
+     * @return The given messages, each wrapped as by `wrap()`, in a new array if any of them was.
+     */
+    static Object[] wrap(Object[] msgs)
+    {
+        if (!Panini$System.TRACING || current.get() == null) {
+            return msgs;
+        }
+        Object[] wrapped = new Object[msgs.length];
+        for (int i = 0; i < msgs.length; i++) {
+            wrapped[i] = wrap(msgs[i]);
+        }
+        return wrapped;
+    }
+
+    /**
+     * @return The given message, taken out of its envelope (if any). Called on each message which
+     *         a capsule takes from its mailbox in order to execute it, which then starts a span
+     *         with the envelope's span as its sender (see `enter()`).
+     */
+    static Object received(Object msg)
+    {
+        if (msg instanceof Envelope) {
+            Envelope envelope = (Envelope) msg;
+            sender.set(envelope.sender);
+            return envelope.msg;
+        }
+        if (Panini$System.TRACING) {
+            sender.set(null);
+        }
+        return msg;
+    }
+
+    /**
+     * @return The given message, taken out of its envelope (if any), for a capsule which merges or
+     *         discards it rather than executing it.
+     */
+    static Object unwrap(Object msg)
+    {
+        return (msg instanceof Envelope) ? ((Envelope) msg).msg : msg;
+    }
+
+    /**
+     * Starts the span of the execution of the message which the current thread has most recently
+     * received (see `received()`).
+     */
+    static void enter()
+    {
+        Panini$Span outer = current.get();
+        Panini$Span sender = Panini$Trace.sender.get();
+        Panini$Trace.sender.set(null);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long spanId = nonZero(random.nextLong());
+        Panini$Span span = (sender == null)
+                ? new Panini$Span(nonZero(random.nextLong()), spanId, 0L, outer, System.nanoTime())
+                : new Panini$Span(sender.traceId, spanId, sender.spanId, outer, System.nanoTime());
+        current.set(span);
+    }
+
+    /**
+     * Ends the span which the current thread is running, records it, and makes the span which it
+     * was running before that one current again.
+     *
+     * @param capsule     The generated capsule class which executed the message.
+     * @param procedures  The signatures of that capsule's procedures.
+     */
+    static void exit(Class<?> capsule, String[] procedures, int procID)
+    {
+        Panini$Span span = current.get();
+        if (span == null) {
+            return;  // Tracing was enabled while the message was executing.
+        }
+        span.endNanos = System.nanoTime();
+        span.threadId = Thread.currentThread().getId();
+        span.capsule = capsule;
+        span.procedures = procedures;
+        span.procID = procID;
+        current.set(span.outer);
+        Ring.spans.lazySet((int) (Ring.next.getAndIncrement() & Ring.mask), span);
+    }
+
+    private static long nonZero(long id) {
+        return (id == 0L) ? 1L : id;
+    }
+
+    /**
+     * @return The spans in the ring buffer, ordered by start time.
+     */
+    public static List<Panini$Span> spans()
+    {
+        List<Panini$Span> spans = new ArrayList<Panini$Span>();
+        for (int i = 0; i < Ring.spans.length(); i++) {
+            Panini$Span span = Ring.spans.get(i);
+            if (span != null) {
+                spans.add(span);
+            }
+        }
+        spans.sort(Comparator.comparingLong(Panini$Span::startNanos));
+        return spans;
+    }
+
+    /**
+     * Empties the ring buffer.
+     */
+    public static void clear()
+    {
+        for (int i = 0; i < Ring.spans.length(); i++) {
+            Ring.spans.set(i, null);
+        }
+    }
+
+    /**
+     * Writes the spans in the ring buffer in the Chrome trace event format. Each span is a complete
+     * event on its thread's track, and each message which links a span to its parent is a flow
+     * event, so that a trace viewer draws the causal path through the capsules.
+     */
+    public static void writeChromeTrace(Writer out) throws IOException
+    {
+        List<Panini$Span> spans = spans();
+        Map<Long, Panini$Span> byId = new HashMap<Long, Panini$Span>();
+        for (Panini$Span span : spans) {
+            byId.put(span.spanId, span);
+        }
+
+        out.write("{\"displayTimeUnit\":\"ns\",\"traceEvents\":[");
+        boolean first = true;
+        for (Panini$Span span : spans) {
+            if (!first) {
+                out.write(",");
+            }
+            first = false;
+            out.write("\n{\"ph\":\"X\",\"name\":");
+            string(out, span.procedure());
+            out.write(",\"cat\":");
+            string(out, span.capsuleType());
+            out.write(",\"pid\":1,\"tid\":" + span.threadId);
+            out.write(",\"ts\":" + micros(span.startNanos));
+            out.write(",\"dur\":" + String.format(Locale.ROOT, "%.3f",
+                                                   span.durationNanos() / 1000.0));
+            out.write(",\"args\":{\"traceId\":\"" + hex(span.traceId) + "\",\"spanId\":\""
+                      + hex(span.spanId) + "\",\"parentId\":\"" + hex(span.parentId) + "\"}}");
+
+            Panini$Span parent = byId.get(span.parentId);
+            if (parent != null) {
+                // The flow starts within the sending span, and ends at the start of this one.
+                long sent = Math.max(parent.startNanos, Math.min(parent.endNanos, span.startNanos));
+                out.write(",\n{\"ph\":\"s\",\"name\":\"message\",\"cat\":\"message\",\"id\":\""
+                          + hex(span.spanId) + "\",\"pid\":1,\"tid\":" + parent.threadId
+                          + ",\"ts\":" + micros(sent) + "}");
+                out.write(",\n{\"ph\":\"f\",\"bp\":\"e\",\"name\":\"message\",\"cat\":\"message\","
+                          + "\"id\":\"" + hex(span.spanId) + "\",\"pid\":1,\"tid\":"
+                          + span.threadId + ",\"ts\":" + micros(span.startNanos) + "}");
+            }
+        }
+        out.write("\n]}\n");
+        out.flush();
+    }
+
+    /**
+     * Writes the spans in the ring buffer as OpenTelemetry (OTLP/JSON) trace data, as accepted by
+     * an OpenTelemetry collector's `otlpjsonfile` receiver, for example.
+     */
+    public static void writeOpenTelemetry(Writer out) throws IOException
+    {
+        out.write("{\"resourceSpans\":[{\"resource\":{\"attributes\":[{\"key\":\"service.name\","
+                  + "\"value\":{\"stringValue\":\"paninij\"}}]},\"scopeSpans\":[{\"scope\":"
+                  + "{\"name\":\"org.paninij\"},\"spans\":[");
+        boolean first = true;
+        for (Panini$Span span : spans()) {
+            if (!first) {
+                out.write(",");
+            }
+            first = false;
+            out.write("\n{\"traceId\":\"" + hex(0L) + hex(span.traceId) + "\",\"spanId\":\""
+                      + hex(span.spanId) + "\",\"parentSpanId\":\""
+                      + (span.parentId == 0L ? "" : hex(span.parentId)) + "\",\"name\":");
+            string(out, span.capsuleType() + "." + span.procedure());
+            out.write(",\"kind\":1");
+            out.write(",\"startTimeUnixNano\":\"" + (span.startNanos + EPOCH_OFFSET_NANOS) + "\"");
+            out.write(",\"endTimeUnixNano\":\"" + (span.endNanos + EPOCH_OFFSET_NANOS) + "\"");
+            out.write(",\"attributes\":[{\"key\":\"paninij.capsule\",\"value\":{\"stringValue\":");
+            string(out, span.capsuleType());
+            out.write("}},{\"key\":\"paninij.procedure\",\"value\":{\"stringValue\":");
+            string(out, span.procedure());
+            out.write("}},{\"key\":\"thread.id\",\"value\":{\"intValue\":\"" + span.threadId
+                      + "\"}}]}");
+        }
+        out.write("\n]}]}]}\n");
+        out.flush();
+    }
+
+    private static String micros(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", (nanos + EPOCH_OFFSET_NANOS) / 1000.0);
+    }
+
+    private static String hex(long id) {
+        return String.format("%016x", id);
+    }
+
+    private static void string(Writer out, String s) throws IOException
+    {
+        out.write('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            } else if (c < 0x20) {
+                out.write(String.format("\\u%04x", (int) c));
+            } else {
+                out.write(c);
+            }
+        }
+        out.write('"');
+    }
+}
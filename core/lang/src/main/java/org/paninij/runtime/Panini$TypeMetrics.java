@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij.runtime;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * The runtime metrics of every instance of one capsule type, published over JMX as the MBean
+ * {@code org.paninij:type=CapsuleType,name=<capsule type>} once the first instance is created. These
+ * are the sums of the metrics of the live instances (see `Panini$Metrics`) and the totals of
+ * those which have terminated, so comparing capsule types finds the bottleneck type, and then
+ * comparing its instances finds the bottleneck capsule.
+ */
+final class Panini$TypeMetrics implements Panini$MetricsMXBean
+{
+    private static final ConcurrentHashMap<String, Panini$TypeMetrics> types =
+            new ConcurrentHashMap<String, Panini$TypeMetrics>();
+
+    final String name;
+    final String[] procedures;
+
+    private final Set<Panini$Metrics> live = ConcurrentHashMap.newKeySet();
+
+    // The totals of the instances which have terminated.
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder dequeued = new LongAdder();
+    private final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+    private final AtomicLongArray invocations;
+    private final AtomicLongArray serviceNanos;
+    private final AtomicLongArray histograms;
+
+    private Panini$TypeMetrics(String name, String[] procedures)
+    {
+        this.name = name;
+        this.procedures = procedures;
+        invocations = new AtomicLongArray(procedures.length);
+        serviceNanos = new AtomicLongArray(procedures.length);
+        histograms = new AtomicLongArray(procedures.length * Panini$Metrics.BUCKETS);
+    }
+
+    /**
+     * Returns the metrics of the given capsule type, making and publishing them if need be.
+     */
+    static Panini$TypeMetrics of(String name, String[] procedures)
+    {
+        Panini$TypeMetrics type = types.get(name);
+        if (type == null) {
+            Panini$TypeMetrics made = new Panini$TypeMetrics(name, procedures);
+            type = types.putIfAbsent(name, made);
+            if (type == null) {
+                type = made;
+                Panini$Metrics.publish(type, Panini$Metrics.objectName("CapsuleType", name, 0));
+            }
+        }
+        return type;
+    }
+
+    void added(Panini$Metrics instance) {
+        live.add(instance);
+    }
+
+    void retired(Panini$Metrics instance)
+    {
+        enqueued.add(instance.enqueued.sum());
+        dequeued.add(instance.dequeued);
+        maxDepth.accumulate(instance.maxDepth);
+        addAll(invocations, instance.invocations);
+        addAll(serviceNanos, instance.serviceNanos);
+        addAll(histograms, instance.histograms);
+        live.remove(instance);
+    }
+
+    private static void addAll(AtomicLongArray totals, AtomicLongArray values)
+    {
+        for (int i = 0; i < totals.length(); i++) {
+            totals.addAndGet(i, values.get(i));
+        }
+    }
+
+    /**
+     * Sums the given totals of the terminated instances and the matching values of the live ones.
+     */
+    private long[] sum(AtomicLongArray totals, Function<Panini$Metrics, AtomicLongArray> values)
+    {
+        long[] sums = Panini$Metrics.toArray(totals);
+        for (Panini$Metrics instance : live) {
+            AtomicLongArray array = values.apply(instance);
+            for (int i = 0; i < sums.length; i++) {
+                sums[i] += array.get(i);
+            }
+        }
+        return sums;
+    }
+
+    @Override
+    public String getCapsuleType() {
+        return name;
+    }
+
+    @Override
+    public int getLiveInstances() {
+        return live.size();
+    }
+
+    @Override
+    public long getMessagesEnqueued()
+    {
+        long sum = enqueued.sum();
+        for (Panini$Metrics instance : live) {
+            sum += instance.enqueued.sum();
+        }
+        return sum;
+    }
+
+    @Override
+    public long getMessagesDequeued()
+    {
+        long sum = dequeued.sum();
+        for (Panini$Metrics instance : live) {
+            sum += instance.dequeued;
+        }
+        return sum;
+    }
+
+    @Override
+    public long getMailboxDepth()
+    {
+        long sum = 0;
+        for (Panini$Metrics instance : live) {
+            sum += instance.getMailboxDepth();
+        }
+        return sum;
+    }
+
+    @Override
+    public long getMaxMailboxDepth()
+    {
+        long max = maxDepth.get();
+        for (Panini$Metrics instance : live) {
+            max = Math.max(max, instance.maxDepth);
+        }
+        return max;
+    }
+
+    @Override
+    public Map<String, Long> getInvocations() {
+        return Panini$Metrics.byProcedure(procedures, sum(invocations, m -> m.invocations));
+    }
+
+    @Override
+    public Map<String, Long> getMeanServiceNanos()
+    {
+        long[] means = Panini$Metrics.means(sum(serviceNanos, m -> m.serviceNanos),
+                                            sum(invocations, m -> m.invocations));
+        return Panini$Metrics.byProcedure(procedures, means);
+    }
+
+    @Override
+    public Map<String, long[]> getServiceTimeHistograms() {
+        return Panini$Metrics.histograms(procedures, sum(histograms, m -> m.histograms));
+    }
+}
@@ -38,5 +38,4 @@ public class SimpleMessage implements Panini$Message
     public int panini$msgID() {
         return procID;
     }
-
 }
@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij.runtime.check;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.paninij.lang.Capsule;
+import org.paninij.runtime.Panini$Capsule;
+
+/**
+ * What the `REFLECTION` ownership check needs to know about a class in order to walk the object
+ * graphs which pass through its instances. Each class's shape is computed (by reflection) the first
+ * time an instance of it is visited, and is then cached for the life of the class.
+ */
+final class ClassShape
+{
+    private static final ClassValue<ClassShape> SHAPES = new ClassValue<ClassShape>() {
+        @Override
+        protected ClassShape computeValue(Class<?> cls) {
+            return new ClassShape(cls);
+        }
+    };
+
+    private static final MethodHandle[] NO_GETTERS = {};
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    /**
+     * Whether an instance of the class is safe to alias from several capsules, i.e. whether it is
+     * immutable, or is a capsule's handle (which is only used to send it messages, and is meant to
+     * be shared). A safe object is neither recorded nor walked.
+     */
+    final boolean safe;
+
+    /** Whether the class is a capsule, whose instances are never safe to transfer. */
+    final boolean capsule;
+
+    /** Whether the class reports its own references. See `OwnershipWalkable`. */
+    final boolean walkable;
+
+    /** Whether the class is an array type. */
+    final boolean array;
+
+    /** Whether the class is an array type whose elements may be unsafe. */
+    final boolean unsafeElements;
+
+    /**
+     * Getters for the instance fields (declared by the class or by any of its superclasses) whose
+     * values may be unsafe. Each is of type `(Object)Object`.
+     */
+    final MethodHandle[] getters;
+
+    private ClassShape(Class<?> cls)
+    {
+        capsule = cls.getAnnotation(Capsule.class) != null;
+        walkable = OwnershipWalkable.class.isAssignableFrom(cls);
+        array = cls.isArray();
+        if (array) {
+            safe = false;
+            unsafeElements = !isAlwaysSafe(cls.getComponentType());
+            getters = NO_GETTERS;
+        } else {
+            unsafeElements = false;
+            List<Field> unsafeFields = new ArrayList<Field>();
+            boolean immutable = true;
+            for (Class<?> c = cls; c != null; c = c.getSuperclass()) {
+                for (Field f : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(f.getModifiers())) {
+                        continue;
+                    }
+                    immutable &= Modifier.isFinal(f.getModifiers());
+                    if (!isAlwaysSafe(f.getType())) {
+                        immutable = false;
+                        unsafeFields.add(f);
+                    }
+                }
+            }
+            safe = !capsule && (isAlwaysSafe(cls) || cls.isEnum() || immutable
+                                || Panini$Capsule.class.isAssignableFrom(cls));
+            getters = safe ? NO_GETTERS : getters(unsafeFields);
+        }
+    }
+
+    static ClassShape of(Class<?> cls) {
+        return SHAPES.get(cls);
+    }
+
+    /**
+     * @return The value of the field which `getter` reads from `obj`.
+     */
+    static Object get(MethodHandle getter, Object obj)
+    {
+        try {
+            return (Object) getter.invokeExact(obj);
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new AssertionError(ex);  // A field getter throws no checked exceptions.
+        }
+    }
+
+    /**
+     * Fields which cannot be made accessible (e.g. the fields of the JDK's own classes, from the
+     * modules which do not open them) are skipped, just as an inaccessible field always has been.
+     */
+    private static MethodHandle[] getters(List<Field> fields)
+    {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        List<MethodHandle> getters = new ArrayList<MethodHandle>(fields.size());
+        for (Field f : fields) {
+            try {
+                f.setAccessible(true);
+                getters.add(lookup.unreflectGetter(f).asType(GETTER_TYPE));
+            } catch (IllegalAccessException | RuntimeException ex) {
+                continue;
+            }
+        }
+        return getters.isEmpty() ? NO_GETTERS : getters.toArray(new MethodHandle[getters.size()]);
+    }
+
+    /**
+     * @return Whether every instance of the given type is known to be safe to transfer.
+     */
+    static boolean isAlwaysSafe(Class<?> cls)
+    {
+        return cls.isPrimitive()
+            // Known safe java classes (including the eight primitive wrapper types).
+            || cls == String.class
+            || cls == Integer.class
+            || cls == Boolean.class
+            || cls == Byte.class
+            || cls == Character.class
+            || cls == Double.class
+            || cls == Short.class
+            || cls == Long.class
+            || cls == Float.class
+            || cls == Void.class
+
+            // Known safe panini classes.
+            || cls == org.paninij.lang.String.class;
+    }
+}
@@ -25,11 +25,14 @@
  *******************************************************************************/
 package org.paninij.runtime.check;
 
-import java.lang.reflect.Field;
-import java.util.ArrayList;
-import java.util.List;
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
 
-import org.paninij.lang.Capsule;
+import org.paninij.runtime.Capsule$Thread;
+import org.paninij.runtime.Panini$Capsule;
+import org.paninij.runtime.Panini$Flight;
 import org.paninij.runtime.Panini$System;
 import org.paninij.runtime.util.IdentitySet;
 import org.paninij.runtime.util.IdentitySetStore;
@@ -44,28 +47,84 @@ public class DynamicOwnershipTransfer
     /**
      * @param msg The outgoing message (i.e. transfer) to check against the capsule's state.
      * 
-     * Note that this currently uses the `REFLECTION_OPTIMIZED` method. Also note that the capsule's
-     * state is retrieved via `Panini$System.self`, so this will not work for capsule execution
-     * profiles other than "Thread".
+     * Note that this uses the kind of check named by the `ARGUMENT_KEY` system property (see
+     * `INSTRUMENTED_KIND`). Also note that the capsule's state is retrieved via
+     * `Panini$System.self`, so this will not work for capsule execution profiles other than
+     * "Thread".
      */
     public static void assertSafeTransfer(Object msg)
     {
-        String err = "Capsule performed an illegal ownership transfer: " + Panini$System.self.get();
-        //assert REFLECTION_OPTIMIZED.isSafeTransfer(msg, Panini$System.self.get().panini$getAllState()) : err;
-        if (REFLECTION.isSafeTransfer(msg, Panini$System.self.get().panini$getAllState()) == false)
+        assertSafeTransfer(Site.of(msg.getClass()), msg);
+    }
+
+    /**
+     * Checks a transfer just as `assertSafeTransfer(Object)` does, but keeps the sampling state of
+     * the check at the named transfer site, rather than at the site shared by every transfer of an
+     * object of the same type. The instrumentation inserted by Soter calls this, with a name which
+     * is unique to each of the transfer sites which it instruments.
+     *
+     * @param site  The name of the transfer site (see `Site.named()`).
+     */
+    public static void assertSafeTransfer(Object msg, String site)
+    {
+        assertSafeTransfer(Site.named(site), msg);
+    }
+
+    private static void assertSafeTransfer(Site site, Object msg)
+    {
+        Object local = Panini$System.self.get().panini$getAllState();
+        if (isSafeTransfer(site, msg, local, INSTRUMENTED_KIND) == false)
         {
+            String err = "Capsule performed an illegal ownership transfer: "
+                       + Panini$System.self.get();
             System.err.println(err);
-            throw new AssertionError(err);
+            if (INSTRUMENTED_KIND == Kind.REFLECTION) {
+                throw new AssertionError(err);
+            }
         }
     }
+
+    /**
+     * The kind of check which `assertSafeTransfer()` performs, as named by the `ARGUMENT_KEY`
+     * system property. It is `REFLECTION` if the property is not set. A failed `SAMPLED` or
+     * `BUDGETED` check is only reported, so that a program can run with them in production.
+     */
+    private static final Kind INSTRUMENTED_KIND = System.getProperty(ARGUMENT_KEY) == null
+            ? Kind.REFLECTION
+            : Kind.fromString(System.getProperty(ARGUMENT_KEY));
+
+    /**
+     * The number of failed checks, across every site.
+     */
+    private static final LongAdder violations = new LongAdder();
+
+    /**
+     * @return The number of checks which have failed, across every site and kind of check.
+     */
+    public static long violations() {
+        return violations.sum();
+    }
     
     public static boolean isSafeTransfer(Object msg, Object local, Kind method)
+    {
+        return isSafeTransfer(Site.of(msg.getClass()), msg, local, method);
+    }
+
+    /**
+     * @param site  The site at which `msg` is being transferred. The `SAMPLED` and `BUDGETED`
+     *              checks keep their sampling state per site.
+     */
+    public static boolean isSafeTransfer(Site site, Object msg, Object local, Kind method)
     {
         switch (method) {
         case NONE:
             return true;
         case REFLECTION:
-            return REFLECTION.isSafeTransfer(msg, local);
+            return site.record(REFLECTION.isSafeTransfer(msg, local), msg);
+        case SAMPLED:
+            return SAMPLED.isSafeTransfer(site, msg, local);
+        case BUDGETED:
+            return BUDGETED.isSafeTransfer(site, msg, local);
         case NATIVE:
             return NATIVE.isSafeTransfer(msg, local);
         default:
@@ -77,6 +136,8 @@ public class DynamicOwnershipTransfer
     {
         NONE,
         REFLECTION,
+        SAMPLED,
+        BUDGETED,
         NATIVE;
         
         /**
@@ -93,6 +154,10 @@ public class DynamicOwnershipTransfer
                 return NONE;
             if (s.equals("RUNTIME_REFLECTION_OPTIMIZED"))
                 return REFLECTION;
+            if (s.equals("RUNTIME_SAMPLED"))
+                return SAMPLED;
+            if (s.equals("RUNTIME_BUDGETED"))
+                return BUDGETED;
             if (s.equals("RUNTIME_NATIVE"))
                 return NATIVE;
             
@@ -119,6 +184,133 @@ public class DynamicOwnershipTransfer
 
 
 
+    /**
+     * A place in a program at which objects are transferred from one capsule to another (e.g. the
+     * invocation of a procedure, or the return of its result), where the `SAMPLED` and `BUDGETED`
+     * checks keep their sampling state, and where failed checks are counted.
+     *
+     * <p>Only the transfer sites which Soter instruments have sites of their own (see
+     * `named()`). Every other check of an object shares the site of the object's type (see
+     * `of()`).
+     *
+     * <p>A site which has never failed backs off: each check which passes doubles the number of
+     * transfers until its next check, up to `MAX_BACK_OFF` times the kind's base period. Once a
+     * site fails, it is checked at the base period from then on. The sampling state is read and
+     * written without synchronization, so racing transfers may occasionally shift a sample.
+     */
+    public static final class Site
+    {
+        public static final int MAX_BACK_OFF = 64;
+
+        private static final ClassValue<Site> byType = new ClassValue<Site>() {
+            @Override
+            protected Site computeValue(Class<?> type) {
+                return new Site(type.getName());
+            }
+        };
+
+        private static final ConcurrentMap<String, Site> byName =
+                new ConcurrentHashMap<String, Site>();
+
+        private final String name;
+        private final LongAdder checks = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+
+        private int period;
+        private int countdown;
+        private volatile boolean failed;
+
+        public Site(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return The site shared by all transfers of objects of the given type which have no
+         *         site of their own (e.g. those checked by `assertSafeTransfer()`).
+         */
+        public static Site of(Class<?> type) {
+            return byType.get(type);
+        }
+
+        /**
+         * @return The site with the given name, e.g. `org.example.FooCore#bar(LBaz;)V@12` for the
+         *         transfer at bytecode index 12 of the core's `bar()` method. Every call with the
+         *         same name returns the same site.
+         */
+        public static Site named(String name)
+        {
+            Site site = byName.get(name);
+            if (site == null) {
+                Site created = new Site(name);
+                site = byName.putIfAbsent(name, created);
+                if (site == null) {
+                    site = created;
+                }
+            }
+            return site;
+        }
+
+        /**
+         * @return Whether the current transfer is to be checked, if this site should be checked
+         *         once every `basePeriod` transfers before any back-off.
+         */
+        boolean isDue(int basePeriod)
+        {
+            if (--countdown > 0) {
+                return false;
+            }
+            if (failed || period < basePeriod) {
+                period = basePeriod;
+            } else if (period < basePeriod * MAX_BACK_OFF) {
+                period <<= 1;
+            }
+            countdown = period;
+            return true;
+        }
+
+        /**
+         * Records the result of a check of `msg`, and reports it if it failed.
+         *
+         * @return `safe`
+         */
+        boolean record(boolean safe, Object msg)
+        {
+            checks.increment();
+            if (!safe) {
+                failed = true;
+                failures.increment();
+                violations.increment();
+                Panini$Flight.ownershipViolation(name, msg);
+            }
+            return safe;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        /**
+         * @return The number of transfers which have been checked at this site.
+         */
+        public long checks() {
+            return checks.sum();
+        }
+
+        /**
+         * @return The number of checks which have failed at this site.
+         */
+        public long violations() {
+            return failures.sum();
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+
+
     public static class NONE
     {
         public static boolean isSafeTransfer(Object msg, Object local)
@@ -197,7 +389,14 @@ public class DynamicOwnershipTransfer
             unsafe.clear();
             workstack.clear();
             
-            if (isSafeRoot(root_obj) == false)
+            OwnershipWalk walk = new OwnershipWalk(unsafe, workstack);
+            if (root_obj instanceof Panini$Capsule && root_obj instanceof OwnershipWalkable)
+            {
+                // A capsule's `panini$getAllState()` is the capsule itself, which reports its
+                // core's state, but is not a part of that state.
+                ((OwnershipWalkable) root_obj).panini$walk(walk);
+            }
+            else if (isSafeRoot(root_obj) == false)
             {
                 unsafe.add(root_obj);
                 workstack.add(root_obj);
@@ -206,14 +405,16 @@ public class DynamicOwnershipTransfer
             Object obj;
             while ((obj = workstack.pop()) != null)
             {
-                Class<? extends Object> cls = obj.getClass();
-                assert isAlwaysUnsafe(cls) == false:
-                    "An object of class " + cls + " is always unsafe to transfer.";
+                ClassShape shape = ClassShape.of(obj.getClass());
+                assert shape.capsule == false:
+                    "An object of class " + obj.getClass() + " is always unsafe to transfer.";
 
-                if (cls.isArray()) {
-                    findUnsafe$addComponents(obj, cls, unsafe, workstack);
+                if (shape.walkable) {
+                    ((OwnershipWalkable) obj).panini$walk(walk);
+                } else if (shape.unsafeElements) {
+                    findUnsafe$addComponents((Object[]) obj, walk);
                 } else {
-                    findUnsafe$addFields(obj, cls, unsafe, workstack);
+                    findUnsafe$addFields(obj, shape, walk);
                 }
             }
 
@@ -224,54 +425,23 @@ public class DynamicOwnershipTransfer
         /**
          * A helper method just for `findUnsafe()` for adding unsafe components of an array `obj`.
          */
-        private static void findUnsafe$addComponents(Object obj, Class<? extends Object> cls,
-                                                     IdentitySet<Object> unsafe,
-                                                     IdentityStack<Object> workstack)
+        private static void findUnsafe$addComponents(Object[] obj, OwnershipWalk walk)
         {
-            if (obj instanceof Object[] && isAlwaysSafe(cls.getComponentType()) == false)
-            {
-                for (Object found : (Object[]) obj) {
-                    if (found != null && unsafe.add(found) == true) {
-                        workstack.push(found);
-                    }
-                }
-            }            
+            for (Object found : obj) {
+                walk.visit(found);
+            }
         }
         
 
         /**
-         * A helper method just for `findUnsafe()` for adding unsafe fields of an object.
+         * A helper method just for `findUnsafe()` for adding unsafe fields of an object. Only the
+         * fields which may hold unsafe objects are read, including those of its superclasses.
          */
-        private static void findUnsafe$addFields(Object obj, Class<? extends Object> cls,
-                                                 IdentitySet<Object> unsafe,
-                                                 IdentityStack<Object> workstack)
+        private static void findUnsafe$addFields(Object obj, ClassShape shape, OwnershipWalk walk)
         {
-            for (Field f : findUnsafe$getAllFields(cls))
-            {
-                Object found = getFieldValueIfUnsafe(obj, f);
-                if (found != null && unsafe.add(found) == true) {
-                    workstack.add(found);
-                }
-            } 
-        }
-        
-        
-        /**
-         * A helper method just for `findUnsafe()` for getting all of the fields from a class.
-         */
-        private static List<Field> findUnsafe$getAllFields(Class<? extends Object> cls)
-        {
-        	List<Field> fields = new ArrayList<Field>();
-        	for(Field f : cls.getFields())
-        	{
-        		fields.add(f);
-        	}
-        	for(Field f : cls.getDeclaredFields())
-        	{
-        		fields.add(f);
-        	}
-        	
-        	return fields;
+            for (MethodHandle getter : shape.getters) {
+                walk.visit(ClassShape.get(getter, obj));
+            }
         }
         
         
@@ -280,76 +450,102 @@ public class DynamicOwnershipTransfer
             // TODO: I suspect that the semantics of checking "safe" on a root object is slightly
             // different than when we are in the `while` loop. So, be conservative and assume always
             // `false` for now.
-            return isAlwaysSafe(obj.getClass());
+            return ClassShape.of(obj.getClass()).safe;
         }
         
-        
-        /**
-         * Preconditions:
-         * 
-         *  - `obj` is classified as unsafe.
-         *  - `f` is a field of `obj.getClass()`.
-         * 
-         * @return The stored value of the 
-         */
-        private static Object getFieldValueIfUnsafe(Object obj, Field f)
+
+        private static boolean areDisjoint(IdentitySet<Object> msg_refs,
+                                           IdentitySet<Object> local_refs)
         {
-            if (isAlwaysSafe(f.getDeclaringClass()))
-            {
-                return null;
-            }
-            else
-            {
-                try {
-                    f.setAccessible(true);
-                    return (f.get(obj));
-                }
-                catch (IllegalAccessException ex) { return null; }
-            }
+            return msg_refs.isDisjointFrom(local_refs);
         }
-        
-       
-        private static boolean isAlwaysSafe(Class<? extends Object> cls)
+    }
+    
+    
+    /**
+     * Checks one in every `Panini$System.OWNERSHIP_SAMPLE_PERIOD` transfers at each site (fewer at
+     * a site which has never failed, see `Site`) with `REFLECTION`, and assumes the rest are safe.
+     */
+    public static class SAMPLED
+    {
+        public static boolean isSafeTransfer(Site site, Object msg, Object local)
         {
-            return cls.isPrimitive()
-                // Known safe java classes (including the eight primitive wrapper types).
-                || cls == String.class
-                || cls == Integer.class
-                || cls == Boolean.class
-                || cls == Byte.class
-                || cls == Character.class
-                || cls == Double.class
-                || cls == Short.class
-                || cls == Long.class
-                || cls == Float.class
-
-                // Known safe panini classes.
-                || cls == org.paninij.lang.String.class;
-
-                // TODO: Void?
+            if (site.isDue(Panini$System.OWNERSHIP_SAMPLE_PERIOD) == false) {
+                return true;
+            }
+            return site.record(REFLECTION.isSafeTransfer(msg, local), msg);
         }
-        
-        
-        private static boolean isAlwaysUnsafe(Class<? extends Object> cls)
-        {
-            Capsule anno = (Capsule) cls.getAnnotation(Capsule.class);
-            return anno != null;
+    }
+
+
+
+    /**
+     * The time which the `BUDGETED` check may still spend checking the transfers of one capsule:
+     * `Panini$System.OWNERSHIP_BUDGET` thousandths of the time which has passed, which accrues (up
+     * to one second's worth) while it performs no checks. It is measured in elapsed time, which
+     * for a check (that never blocks) is close to its CPU time, but is far cheaper to read.
+     *
+     * <p>A budget is only ever used by the thread which is running its capsule.
+     */
+    public static final class Budget
+    {
+        private long remaining = maxBudget();
+        private long last = System.nanoTime();
+
+        private static long maxBudget() {
+            return Panini$System.OWNERSHIP_BUDGET * 1000000L;
         }
-        
+    }
 
-        private static boolean areDisjoint(IdentitySet<Object> msg_refs,
-                                           IdentitySet<Object> local_refs)
+
+
+    /**
+     * Checks transfers with `REFLECTION` only while the transferring capsule has spent less than
+     * its `Budget` on checking, and assumes the rest are safe. Each site also backs off while it
+     * has never failed (see `Site`), so the budget is spent mostly on new and on failing sites.
+     *
+     * <p>The capsule is found from `local`, which is the capsule itself for a generated thread
+     * capsule (see `Capsule$Thread.panini$ownershipBudget()`). A transfer from anything else (e.g.
+     * a check called directly with some other state) is charged to a budget of its thread's.
+     */
+    public static class BUDGETED
+    {
+        private static final ThreadLocal<Budget> budgets = new ThreadLocal<Budget>() {
+            @Override
+            protected Budget initialValue() {
+                return new Budget();
+            }
+        };
+
+        public static boolean isSafeTransfer(Site site, Object msg, Object local)
         {
-            for (Object obj : msg_refs) {
-                if (local_refs.contains(obj)) {
-                    return false;
-                }
+            if (site.isDue(1) == false) {
+                return true;
             }
-            return true;
+
+            Budget budget = (local instanceof Capsule$Thread)
+                          ? ((Capsule$Thread) local).panini$ownershipBudget()
+                          : budgets.get();
+            long start = System.nanoTime();
+            long remaining = budget.remaining
+                           + (start - budget.last) * Panini$System.OWNERSHIP_BUDGET / 1000;
+            remaining = Math.min(remaining, Budget.maxBudget());
+            budget.last = start;
+            if (remaining <= 0) {
+                budget.remaining = remaining;
+                return true;
+            }
+
+            boolean safe = REFLECTION.isSafeTransfer(msg, local);
+            long end = System.nanoTime();
+            budget.remaining = remaining - (end - start);
+            budget.last = end;
+            return site.record(safe, msg);
         }
     }
-    
-    
+
+
+
     public static class NATIVE
     {
         public static boolean isSafeTransfer(Object msg, Object local)
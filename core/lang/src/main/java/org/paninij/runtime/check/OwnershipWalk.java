@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij.runtime.check;
+
+import java.lang.reflect.Array;
+
+import org.paninij.runtime.util.IdentitySet;
+import org.paninij.runtime.util.IdentityStack;
+
+/**
+ * One exploration of an object graph by the `REFLECTION` ownership check, to which objects report
+ * the objects they refer to (see `OwnershipWalkable`).
+ */
+public final class OwnershipWalk
+{
+    private final IdentitySet<Object> unsafe;
+    private final IdentityStack<Object> workstack;
+
+    OwnershipWalk(IdentitySet<Object> unsafe, IdentityStack<Object> workstack) {
+        this.unsafe = unsafe;
+        this.workstack = workstack;
+    }
+
+    /**
+     * Adds a newly found object to the graph, to be explored in turn, unless it is `null`, safe,
+     * or has already been found. An empty array is safe too, since it cannot be changed (and classes
+     * such as `ArrayList` share one between all of their empty instances).
+     */
+    public void visit(Object found)
+    {
+        if (found == null) {
+            return;
+        }
+        ClassShape shape = ClassShape.of(found.getClass());
+        if (shape.safe || (shape.array && Array.getLength(found) == 0)) {
+            return;
+        }
+        if (unsafe.add(found) == true) {
+            workstack.add(found);  // Not `push()`, which would rescan the stack.
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij.runtime.check;
+
+/**
+ * An object which reports its own outgoing references to the dynamic ownership check, so that the
+ * check need not discover them by reflection. The annotation processor implements this for every
+ * generated message (which reports its arguments) and for every generated capsule (which reports
+ * its core's state, i.e. its `panini$getAllState()`).
+ */
+public interface OwnershipWalkable
+{
+    /**
+     * Passes each object which this one refers to, and which may be unsafe to transfer, to
+     * `walk.visit()`. References which are known to be safe (e.g. those to deeply immutable
+     * objects) may be left out.
+     */
+    public void panini$walk(OwnershipWalk walk);
+}
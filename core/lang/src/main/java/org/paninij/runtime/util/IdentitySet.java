@@ -27,27 +27,54 @@ package org.paninij.runtime.util;
 
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 /**
  * Implements a monotonically-increasing set (i.e. identities cannot be removed except by clearing
  * the whole set).
+ *
+ * <p>The elements are kept in insertion order in a dense array, which is indexed by an
+ * open-addressing (linear probing) hash table keyed on `System.identityHashCode()`. So `add()` and
+ * `contains()` take expected constant time, iteration follows insertion order, and `clear()` only
+ * touches the slots which are in use, which keeps it cheap to reuse a set which once grew large.
  */
 public class IdentitySet<T> implements Iterable<T>
 {
     private static final int DEFAULT_INIT_CAPACITY = 8;
 
+    /** The elements, in insertion order. */
     private T[] data;
     private int size;
     private int capacity;
+
+    /**
+     * The hash table: each slot holds either 0 (empty) or 1 + the index in `data` of an element.
+     * Its length is a power of two and twice the capacity, so it is never more than half full.
+     */
+    private int[] table;
+    private int mask;
     
 
+    public IdentitySet() {
+        this(DEFAULT_INIT_CAPACITY);
+    }
+
+
+    /**
+     * @param expected  The number of elements which the set is expected to hold.
+     */
     @SuppressWarnings("unchecked")
-    public IdentitySet()
+    public IdentitySet(int expected)
     {
-        data = (T[]) new Object[DEFAULT_INIT_CAPACITY];
-        size = 0;
         capacity = DEFAULT_INIT_CAPACITY;
+        while (capacity < expected) {
+            capacity <<= 1;
+        }
+        data = (T[]) new Object[capacity];
+        table = new int[capacity << 1];
+        mask = table.length - 1;
+        size = 0;
     }
     
 
@@ -56,15 +83,18 @@ public class IdentitySet<T> implements Iterable<T>
      */
     public boolean add(T obj)
     {
-        if (contains(obj)) {
+        int slot = slotOf(obj);
+        if (table[slot] != 0) {
             return false;
         }
 
         if (size == capacity) {
             growArray();
+            slot = slotOf(obj);
         }
         data[size] = obj;
         size++;
+        table[slot] = size;
         return true;
     }
   
@@ -79,19 +109,53 @@ public class IdentitySet<T> implements Iterable<T>
 
     public boolean contains(T obj)
     {
-        for (int idx = 0; idx < size; idx++) {
-            if (obj == data[idx])
-                return true;
+        return table[slotOf(obj)] != 0;
+    }
+
+
+    /**
+     * @return The slot of `table` which holds `obj`, or else the empty slot where it would go.
+     */
+    private int slotOf(Object obj)
+    {
+        int slot = hash(obj) & mask;
+        int entry;
+        while ((entry = table[slot]) != 0 && data[entry - 1] != obj) {
+            slot = (slot + 1) & mask;
         }
-        return false;
+        return slot;
+    }
+
+
+    /**
+     * Spreads the identity hash code, whose low bits alone cluster badly under linear probing.
+     */
+    private static int hash(Object obj)
+    {
+        int h = System.identityHashCode(obj) * 0x9E3779B9;
+        return h ^ (h >>> 16);
     }
 
 
     public void clear()
     {
-        // TODO: Shrink capacity if appropriate.
+        if (size > (table.length >>> 3)) {
+            Arrays.fill(table, 0);
+        } else {
+            // Every element's probe chain only passes over the slots of elements added before it,
+            // so emptying the slots in reverse insertion order never breaks a chain still in use.
+            for (int idx = size - 1; idx >= 0; idx--) {
+                table[slotOf(data[idx])] = 0;
+            }
+        }
+        Arrays.fill(data, 0, size, null);
         size = 0;
-        Arrays.fill(data, null);
+    }
+
+
+    public int size()
+    {
+        return size;
     }
     
     
@@ -107,12 +171,12 @@ public class IdentitySet<T> implements Iterable<T>
         capacity = capacity << 1;
         assert capacity >= DEFAULT_INIT_CAPACITY;
 
-        @SuppressWarnings("unchecked")
-        T[] new_data = (T[]) new Object[capacity];
+        data = Arrays.copyOf(data, capacity);
+        table = new int[capacity << 1];
+        mask = table.length - 1;
         for (int idx = 0; idx < size; idx++) {
-            new_data[idx] = data[idx];
+            table[slotOf(data[idx])] = idx + 1;
         }
-        data = new_data;
     }
 
 
@@ -127,6 +191,9 @@ public class IdentitySet<T> implements Iterable<T>
 
         @Override
         public T next() {
+            if (cur >= size) {
+                throw new NoSuchElementException();
+            }
             return data[cur++];
         }
     }
@@ -134,7 +201,7 @@ public class IdentitySet<T> implements Iterable<T>
 
     public static <T> IdentitySet<T> make(Set<T> set)
     {
-        IdentitySet<T> result = new IdentitySet<T>();
+        IdentitySet<T> result = new IdentitySet<T>(set.size());
         for (T elem : set) {
             result.add(elem);
         }
@@ -142,15 +209,17 @@ public class IdentitySet<T> implements Iterable<T>
     }
 
 
+    /**
+     * Iterates over the smaller of the two sets, and looks each of its elements up in the other.
+     */
     public boolean isDisjointFrom(IdentitySet<T> that)
     {
-        for (int i = 0; i < this.size; i++)
+        IdentitySet<T> smaller = (this.size <= that.size) ? this : that;
+        IdentitySet<T> larger = (smaller == this) ? that : this;
+        for (int idx = 0; idx < smaller.size; idx++)
         {
-            for (int j = 0; j < that.size; j++)
-            {
-                if (this.data[i] == that.data[j]) {
-                    return false;
-                }
+            if (larger.contains(smaller.data[idx])) {
+                return false;
             }
         }
 
@@ -30,20 +30,28 @@ import java.util.HashSet;
 import java.util.Set;
 
 
-// TODO: Everything! (This is an extrememly naive implementation.)
+/**
+ * A map from `int` keys to non-`null` values, which never boxes its keys. It is an open-addressing
+ * (linear probing) hash table, kept at most half full, so keys may be sparse or negative. Mappings
+ * cannot be removed except by clearing the whole map.
+ */
 public class IntMap<T>
 {
     private static final int DEFAULT_INIT_CAPACITY = 8;
 
-    private T[] data;
-    private int capacity;
+    /** The keys, where `values` holds a value at the same index; else the slot is empty. */
+    private int[] keys;
+    private T[] values;
+    private int size;
+    private int mask;
     
 
     @SuppressWarnings("unchecked")
     public IntMap()
     {
-        data = (T[]) new Object[DEFAULT_INIT_CAPACITY];
-        capacity = DEFAULT_INIT_CAPACITY;
+        keys = new int[DEFAULT_INIT_CAPACITY];
+        values = (T[]) new Object[DEFAULT_INIT_CAPACITY];
+        mask = DEFAULT_INIT_CAPACITY - 1;
     }
     
 
@@ -52,10 +60,16 @@ public class IntMap<T>
         if (value == null) {
             throw new IllegalArgumentException("The given value cannot be `null`.");
         }
-        while (key >= capacity) {
-            growArray();
+        int slot = slotOf(key);
+        if (values[slot] == null) {
+            if ((size + 1) << 1 > values.length) {
+                growArray();
+                slot = slotOf(key);
+            }
+            keys[slot] = key;
+            size++;
         }
-        data[key] = value;
+        values[slot] = value;
     }
     
     
@@ -65,51 +79,98 @@ public class IntMap<T>
      */
     public T get(int key)
     {
-        return (key >= capacity) ? null : data[key];
+        return values[slotOf(key)];
+    }
+
+
+    /**
+     * @return The slot which holds `key`, or else the empty slot where it would go.
+     */
+    private int slotOf(int key)
+    {
+        int slot = hash(key) & mask;
+        while (values[slot] != null && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+
+    private static int hash(int key)
+    {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
     }
     
 
     public boolean contains(T obj)
     {
-        for (int idx = 0; idx < data.length; idx++) {
-            if (obj == data[idx])
+        for (int idx = 0; idx < values.length; idx++) {
+            if (obj == values[idx])
                 return true;
         }
         return false;
     }
 
 
+    public int size()
+    {
+        return size;
+    }
+
+
     public void clear()
     {
         // TODO: Shrink capacity if appropriate.
-        Arrays.fill(data, null);
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+
+    /**
+     * @return The keys which are mapped to values, in no particular order.
+     */
+    public int[] keys()
+    {
+        int[] result = new int[size];
+        int count = 0;
+        for (int idx = 0; idx < values.length; idx++)
+        {
+            if (values[idx] != null) {
+                result[count++] = keys[idx];
+            }
+        }
+        return result;
     }
     
     
-    // TODO: Make this use something more like an `int` set.
     public Set<Integer> keySet()
     {
         Set<Integer> keySet = new HashSet<Integer>();
-        for (int idx = 0; idx < data.length; idx++)
-        {
-            if (data[idx] != null) {
-                keySet.add(idx);
-            }
+        for (int key : keys()) {
+            keySet.add(key);
         }
         return keySet;
     }    
     
     
+    @SuppressWarnings("unchecked")
     private void growArray()
     {
-        capacity = capacity << 1;
-        assert capacity >= DEFAULT_INIT_CAPACITY;
+        int[] old_keys = keys;
+        T[] old_values = values;
 
-        @SuppressWarnings("unchecked")
-        T[] new_data = (T[]) new Object[capacity];
-        for (int idx = 0; idx < data.length; idx++) {
-            new_data[idx] = data[idx];
+        int capacity = old_values.length << 1;
+        keys = new int[capacity];
+        values = (T[]) new Object[capacity];
+        mask = capacity - 1;
+        for (int idx = 0; idx < old_values.length; idx++)
+        {
+            if (old_values[idx] != null) {
+                int slot = slotOf(old_keys[idx]);
+                keys[slot] = old_keys[idx];
+                values[slot] = old_values[idx];
+            }
         }
-        data = new_data;
     }
 }
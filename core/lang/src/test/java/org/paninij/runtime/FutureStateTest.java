@@ -0,0 +1,251 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import org.junit.Test;
+
+public class FutureStateTest
+{
+    /** The smallest possible future: just its state. */
+    static final class Future {
+        volatile Object state;
+    }
+
+    private static final AtomicReferenceFieldUpdater<Future, Object> STATE =
+            AtomicReferenceFieldUpdater.newUpdater(Future.class, Object.class, "state");
+
+    private static final long SHORT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final Future future = new Future();
+
+    @Test
+    public void claimsOnlyOnce()
+    {
+        assertTrue(Panini$FutureState.claim(future, STATE));
+        assertSame(Panini$FutureState.RUNNING, future.state);
+        assertFalse(Panini$FutureState.claim(future, STATE));
+
+        assertTrue(Panini$FutureState.resolve(future, STATE));
+        assertFalse(Panini$FutureState.claim(future, STATE));
+        assertFalse(Panini$FutureState.resolve(future, STATE));
+        Panini$FutureState.await(future, STATE);
+    }
+
+    @Test
+    public void cancelsOnlyWhilePending()
+    {
+        assertTrue(Panini$FutureState.cancel(future, STATE));
+        assertFalse(Panini$FutureState.claim(future, STATE));
+        assertFalse(Panini$FutureState.resolve(future, STATE));
+        try {
+            Panini$FutureState.await(future, STATE);
+            fail("A cancelled future was awaited.");
+        } catch (CancellationException expected) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void cannotCancelAClaimedFutureButCanAbandonIt()
+    {
+        assertTrue(Panini$FutureState.claim(future, STATE));
+        assertFalse(Panini$FutureState.cancel(future, STATE));
+        assertTrue(Panini$FutureState.abandon(future, STATE));
+        assertSame(Panini$FutureState.CANCELLED, future.state);
+        assertFalse(Panini$FutureState.abandon(future, STATE));
+    }
+
+    @Test
+    public void runsActionsInOrderOnceDone()
+    {
+        final List<String> ran = new ArrayList<String>();
+        assertTrue(Panini$FutureState.whenDone(future, STATE, record(ran, "a")));
+        assertTrue(Panini$FutureState.whenDone(future, STATE, record(ran, "b")));
+
+        // A claim keeps the registered actions, and records that the future is running.
+        assertTrue(Panini$FutureState.claim(future, STATE));
+        assertTrue(((Panini$FutureState.Waiter) future.state).running);
+        assertFalse(Panini$FutureState.cancel(future, STATE));
+
+        assertTrue(Panini$FutureState.whenDone(future, STATE, record(ran, "c")));
+        assertTrue(((Panini$FutureState.Waiter) future.state).running);
+        assertTrue(ran.isEmpty());
+
+        assertTrue(Panini$FutureState.resolve(future, STATE));
+        assertEquals(Arrays.asList("a", "b", "c"), ran);
+        assertFalse(Panini$FutureState.whenDone(future, STATE, record(ran, "d")));
+        assertEquals(3, ran.size());
+    }
+
+    @Test
+    public void runsActionsOnceCancelled()
+    {
+        final List<String> ran = new ArrayList<String>();
+        Panini$FutureState.whenDone(future, STATE, record(ran, "a"));
+        assertTrue(Panini$FutureState.cancel(future, STATE));
+        assertEquals(Arrays.asList("a"), ran);
+    }
+
+    @Test
+    public void wakesAWaitingThread() throws InterruptedException
+    {
+        Thread waiter = startWaiter();
+        awaitWaiters(1);
+        assertTrue(Panini$FutureState.resolve(future, STATE));
+        waiter.join();
+    }
+
+    @Test
+    public void unpushesATimedOutWaiter() throws InterruptedException
+    {
+        awaitTimeout();
+        assertNull(future.state);
+
+        assertTrue(Panini$FutureState.claim(future, STATE));
+        awaitTimeout();
+        assertSame(Panini$FutureState.RUNNING, future.state);
+    }
+
+    @Test
+    public void unpushesOnlyItsOwnWaiter() throws InterruptedException
+    {
+        final List<String> ran = new ArrayList<String>();
+        Panini$FutureState.whenDone(future, STATE, record(ran, "a"));
+        Thread other = startWaiter();
+        awaitWaiters(2);
+        assertTrue(Panini$FutureState.claim(future, STATE));
+
+        awaitTimeout();
+
+        // Both the other thread and the action are still waiting, and the top waiter still records
+        // the claim.
+        Panini$FutureState.Waiter top = (Panini$FutureState.Waiter) future.state;
+        assertTrue(top.running);
+        assertEquals(2, depth(top));
+        for (Panini$FutureState.Waiter w = top; w != null; w = w.next) {
+            assertTrue(w.thread == other || w.action != null);
+        }
+
+        assertTrue(Panini$FutureState.resolve(future, STATE));
+        other.join();
+        assertEquals(Arrays.asList("a"), ran);
+    }
+
+    @Test
+    public void unpushesAnInterruptedWaiter() throws TimeoutException
+    {
+        Thread.currentThread().interrupt();
+        try {
+            Panini$FutureState.await(future, STATE, TimeUnit.SECONDS.toNanos(10));
+            fail("An interrupted wait did not throw.");
+        } catch (InterruptedException expected) {
+            // Expected.
+        }
+        assertNull(future.state);
+    }
+
+    @Test
+    public void keepsNoNodesAcrossRepeatedTimeouts() throws InterruptedException
+    {
+        for (int i = 0; i < 100; i++) {
+            try {
+                Panini$FutureState.await(future, STATE, 1000);
+                fail("A pending future was awaited.");
+            } catch (TimeoutException expected) {
+                // Expected.
+            }
+        }
+        assertNull(future.state);
+    }
+
+
+    private static Runnable record(final List<String> ran, final String name)
+    {
+        return new Runnable() {
+            @Override
+            public void run() {
+                ran.add(name);
+            }
+        };
+    }
+
+    private void awaitTimeout() throws InterruptedException
+    {
+        try {
+            Panini$FutureState.await(future, STATE, SHORT_NANOS);
+            fail("A pending future was awaited.");
+        } catch (TimeoutException expected) {
+            // Expected.
+        }
+    }
+
+    private Thread startWaiter()
+    {
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Panini$FutureState.await(future, STATE);
+            }
+        });
+        waiter.start();
+        return waiter;
+    }
+
+    /**
+     * Waits until the future's stack of waiters (threads and actions) is `depth` deep.
+     */
+    private void awaitWaiters(int depth)
+    {
+        while (!(future.state instanceof Panini$FutureState.Waiter)
+                || depth((Panini$FutureState.Waiter) future.state) < depth) {
+            Thread.yield();
+        }
+    }
+
+    private static int depth(Panini$FutureState.Waiter top)
+    {
+        int depth = 0;
+        for (Panini$FutureState.Waiter w = top; w != null; w = w.next) {
+            depth++;
+        }
+        return depth;
+    }
+}
@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.paninij.lang.Overflow;
+
+public class LanedMailboxTest
+{
+    private static Panini$LanedMailbox newMailbox(int weight) {
+        return new Panini$LanedMailbox(new Panini$MpscMailbox(), new Panini$MpscMailbox(), weight);
+    }
+
+    @Test
+    public void takesPriorityMessagesByWeight()
+    {
+        Panini$Mailbox mailbox = newMailbox(2);
+        mailbox.push("n1", "n2");
+        for (int i = 1; i <= 5; i++) {
+            mailbox.pushPriority("p" + i);
+        }
+
+        String[] expected = {"p1", "p2", "n1", "p3", "p4", "n2", "p5"};
+        for (String msg : expected) {
+            assertEquals(msg, mailbox.poll());
+        }
+        assertNull(mailbox.poll());
+        assertTrue(mailbox.isEmpty());
+    }
+
+    @Test
+    public void pollsEitherLaneWhenTheOtherIsEmpty()
+    {
+        Panini$Mailbox mailbox = newMailbox(1);
+        mailbox.push("n1", "n2");
+        assertEquals("n1", mailbox.poll());
+        assertEquals("n2", mailbox.poll());
+
+        mailbox.pushPriority("p1");
+        mailbox.pushPriority("p2");
+        assertEquals("p1", mailbox.poll());
+        assertEquals("p2", mailbox.poll());
+        assertNull(mailbox.poll());
+    }
+
+    @Test
+    public void terminatesOnTheNormalLane()
+    {
+        Panini$Mailbox mailbox = newMailbox(1);
+        SimpleMessage terminate = new SimpleMessage(Capsule$Thread.PANINI$TERMINATE);
+        mailbox.push("n1");
+        mailbox.pushControl(terminate);
+        assertEquals(2, mailbox.size());
+        assertEquals("n1", mailbox.poll());
+        assertSame(terminate, mailbox.poll());
+    }
+
+    @Test
+    public void doesNotCoalescePastAPriorityMessage()
+    {
+        Panini$Mailbox mailbox = newMailbox(1);
+        SimpleMessage normal = new SimpleMessage(1);
+        SimpleMessage priority = new SimpleMessage(2);
+        mailbox.push(normal);
+        mailbox.pushPriority(priority);
+
+        assertNull(mailbox.pollMatching(1));
+        assertSame(priority, mailbox.pollMatching(2));
+        assertSame(normal, mailbox.pollMatching(1));
+    }
+
+    @Test
+    public void boundsOnlyTheNormalLane()
+    {
+        Panini$Mailbox mailbox = new Panini$LanedMailbox(new Panini$MpscMailbox(),
+                new Panini$MpscMailbox(1, Overflow.DROP_NEWEST), 1);
+        assertEquals(1, mailbox.capacity());
+        assertEquals(Overflow.DROP_NEWEST, mailbox.overflow());
+
+        mailbox.push("n1", "n2");
+        mailbox.pushPriority("p1");
+        mailbox.pushPriority("p2");
+        assertEquals(3, mailbox.size());
+        assertEquals("p1", mailbox.poll());
+        assertEquals("n1", mailbox.poll());
+        assertEquals("p2", mailbox.poll());
+        assertNull(mailbox.poll());
+    }
+}
@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij.runtime;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class LazyActivationTest
+{
+    private static final long TIMEOUT_SECONDS = 30;
+
+    /**
+     * A passive task capsule, which handles promise callbacks and timer tasks like a generated one
+     * does, and which otherwise pushes a message to its `target` for each message it receives.
+     */
+    private static class Passive extends Capsule$Task
+    {
+        Passive target;
+
+        @Override
+        protected boolean run() {
+            Panini$Message msg = panini$nextMessage();
+            if (msg == null) return false;
+            switch (msg.panini$msgID()) {
+            case PANINI$CONTINUE:
+                ((Panini$Continuation) msg).run();
+                break;
+            case PANINI$TERMINATE:
+                return true;
+            default:
+                if (target != null) target.panini$push(new SimpleMessage(0));
+            }
+            return false;
+        }
+    }
+
+    /**
+     * The timer which a lazily started capsule schedules in its initialization must run on that
+     * capsule, even if the capsule was woken up by a message from another capsule (i.e. on a pool
+     * worker which was then running the sender).
+     */
+    @Test
+    public void deliversTimersScheduledInInitToTheCapsule() throws InterruptedException
+    {
+        final CountDownLatch ran = new CountDownLatch(1);
+        final AtomicBoolean onCapsule = new AtomicBoolean();
+        boolean lazy = Panini$System.LAZY_ACTIVATION;
+        Panini$System.LAZY_ACTIVATION = true;
+        try {
+            final Passive woken = new Passive() {
+                @Override
+                protected void panini$initState() {
+                    final Passive self = this;
+                    Panini$TimerWheel.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            onCapsule.set(Panini$System.continuations.get() == self.panini$continuations);
+                            ran.countDown();
+                        }
+                    }, 1, TimeUnit.MILLISECONDS);
+                }
+            };
+            Passive sender = new Passive();
+            sender.target = woken;
+            sender.panini$start();
+            woken.panini$start();
+
+            sender.panini$push(new SimpleMessage(0));
+            assertTrue(ran.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            assertTrue(onCapsule.get());
+
+            sender.panini$pushControl(new SimpleMessage(Capsule$Task.PANINI$TERMINATE));
+            woken.panini$pushControl(new SimpleMessage(Capsule$Task.PANINI$TERMINATE));
+        } finally {
+            Panini$System.LAZY_ACTIVATION = lazy;
+        }
+    }
+
+    /**
+     * A capsule which has been started lazily but never woken up has no pool yet, and joining it
+     * must wait for it to terminate rather than fail.
+     */
+    @Test
+    public void joinsACapsuleWhichWasNeverActivated() throws InterruptedException
+    {
+        boolean lazy = Panini$System.LAZY_ACTIVATION;
+        Panini$System.LAZY_ACTIVATION = true;
+        try {
+            final Passive dormant = new Passive();
+            dormant.panini$start();
+
+            final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+            Thread joiner = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        dormant.panini$join();
+                    } catch (Throwable thrown) {
+                        failure.set(thrown);
+                    }
+                }
+            });
+            joiner.start();
+            joiner.join(50);
+            assertTrue("The join returned before the capsule terminated.", joiner.isAlive());
+
+            dormant.panini$pushControl(new SimpleMessage(Capsule$Task.PANINI$TERMINATE));
+            joiner.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+            assertFalse(joiner.isAlive());
+            assertNull(failure.get());
+        } finally {
+            Panini$System.LAZY_ACTIVATION = lazy;
+        }
+    }
+}
@@ -0,0 +1,353 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+import org.paninij.lang.Overflow;
+
+/**
+ * Tests the behavior which every kind of `Panini$Mailbox` shares, i.e. both `Panini$MpscMailbox`
+ * and `Panini$RingMailbox`.
+ */
+@RunWith(Parameterized.class)
+public class MailboxTest
+{
+    @Parameters(name = "{0}")
+    public static Object[] kinds() {
+        return Panini$Mailbox.Kind.values();
+    }
+
+    private final Panini$Mailbox.Kind kind;
+
+    public MailboxTest(Panini$Mailbox.Kind kind) {
+        this.kind = kind;
+    }
+
+    @Test
+    public void pollsInOrderWhileGrowing()
+    {
+        // Enough messages to make the MPSC mailbox append chunks of every size.
+        Panini$Mailbox mailbox = kind.newMailbox();
+        for (int i = 0; i < 10000; i++) {
+            mailbox.push(i);
+        }
+        assertEquals(10000, mailbox.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, mailbox.poll());
+        }
+        assertNull(mailbox.poll());
+        assertTrue(mailbox.isEmpty());
+    }
+
+    @Test
+    public void pollsInOrderWhileDraining()
+    {
+        // Interleaving pushes and polls makes the MPSC mailbox's chunk sizes grow and shrink.
+        Panini$Mailbox mailbox = kind.newMailbox();
+        int pushed = 0, polled = 0;
+        for (int round = 1; round < 200; round++) {
+            for (int i = 0; i < round % 37; i++) {
+                mailbox.push(pushed++);
+            }
+            for (int i = 0; i < round % 23 && polled < pushed; i++) {
+                assertEquals(polled++, mailbox.poll());
+            }
+        }
+        while (polled < pushed) {
+            assertEquals(polled++, mailbox.poll());
+        }
+        assertNull(mailbox.poll());
+    }
+
+    @Test
+    public void pushesTheFirstCountOfAnArray()
+    {
+        Panini$Mailbox mailbox = kind.newMailbox();
+        mailbox.push(new Object[] {"a", "b", "c"}, 2);
+        mailbox.push("d", "e");
+        assertEquals("a", mailbox.poll());
+        assertEquals("b", mailbox.poll());
+        assertEquals("d", mailbox.poll());
+        assertEquals("e", mailbox.poll());
+        assertNull(mailbox.poll());
+    }
+
+    @Test
+    public void pollsOnlyMatchingMessages()
+    {
+        Panini$Mailbox mailbox = kind.newMailbox();
+        SimpleMessage first = new SimpleMessage(1);
+        SimpleMessage second = new SimpleMessage(2);
+        mailbox.push(first, second);
+
+        assertNull(mailbox.pollMatching(2));
+        assertSame(first, mailbox.pollMatching(1));
+        assertNull(mailbox.pollMatching(1));
+        assertSame(second, mailbox.pollMatching(2));
+        assertNull(mailbox.pollMatching(2));
+    }
+
+    @Test
+    public void keepsEachProducersOrder() throws InterruptedException
+    {
+        final int producers = 4;
+        final int perProducer = 50000;
+        final Panini$Mailbox mailbox = kind.newMailbox();
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perProducer; i++) {
+                        mailbox.push(new int[] {producer, i});
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        int[] next = new int[producers];
+        int received = 0;
+        while (received < producers * perProducer) {
+            int[] msg = (int[]) mailbox.poll();
+            if (msg == null) {
+                Thread.yield();
+                continue;
+            }
+            assertEquals(next[msg[0]]++, msg[1]);
+            received++;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(mailbox.poll());
+    }
+
+    @Test
+    public void failsWhenFull()
+    {
+        Panini$Mailbox mailbox = kind.newMailbox(2, Overflow.FAIL);
+        mailbox.push("a");
+        mailbox.push("b");
+        try {
+            mailbox.push("c");
+            fail("A full mailbox accepted a message.");
+        } catch (IllegalStateException expected) {
+            // Expected.
+        }
+        assertEquals(2, mailbox.size());
+        assertEquals("a", mailbox.poll());
+        mailbox.push("c");
+        assertEquals("b", mailbox.poll());
+        assertEquals("c", mailbox.poll());
+    }
+
+    @Test
+    public void dropsNewestWhenFull()
+    {
+        Panini$Mailbox mailbox = kind.newMailbox(2, Overflow.DROP_NEWEST);
+        mailbox.push("a", "b", "c");
+        assertEquals("a", mailbox.poll());
+        assertEquals("b", mailbox.poll());
+        assertNull(mailbox.poll());
+    }
+
+    @Test
+    public void dropsOldestWhenFull()
+    {
+        Panini$Mailbox mailbox = kind.newMailbox(2, Overflow.DROP_OLDEST);
+        mailbox.push("a", "b", "c");
+        assertEquals("b", mailbox.poll());
+        assertEquals("c", mailbox.poll());
+        assertNull(mailbox.poll());
+    }
+
+    /**
+     * The bound holds at push time, even while nobody polls (e.g. while the capsule is blocked).
+     */
+    @Test
+    public void dropsOldestWhileNobodyPolls()
+    {
+        Panini$Mailbox mailbox = kind.newMailbox(4, Overflow.DROP_OLDEST);
+        for (int i = 0; i < 1000; i++) {
+            mailbox.push(i);
+            assertTrue(mailbox.size() <= 4);
+        }
+        for (int i = 996; i < 1000; i++) {
+            assertEquals(i, mailbox.poll());
+        }
+        assertNull(mailbox.poll());
+    }
+
+    @Test
+    public void neverDropsControlMessages()
+    {
+        Panini$Mailbox mailbox = kind.newMailbox(1, Overflow.DROP_OLDEST);
+        SimpleMessage terminate = new SimpleMessage(Capsule$Thread.PANINI$TERMINATE);
+        mailbox.pushControl(terminate);
+        mailbox.push("a", "b");
+        assertSame(terminate, mailbox.poll());
+        assertEquals("b", mailbox.poll());
+        assertNull(mailbox.poll());
+
+        mailbox = kind.newMailbox(1, Overflow.FAIL);
+        mailbox.push("a");
+        mailbox.pushControl(terminate);
+        assertEquals("a", mailbox.poll());
+        assertSame(terminate, mailbox.poll());
+    }
+
+    @Test
+    public void dropsTheOldestMessageBehindAControlMessage()
+    {
+        Panini$Mailbox mailbox = kind.newMailbox(2, Overflow.DROP_OLDEST);
+        SimpleMessage terminate = new SimpleMessage(Capsule$Thread.PANINI$TERMINATE);
+        CancellableFuture oldest = new CancellableFuture();
+        CancellableFuture newest = new CancellableFuture();
+        mailbox.pushControl(terminate);
+        mailbox.push(oldest);
+        mailbox.push(newest);
+        assertTrue(oldest.cancelled);
+        assertFalse(newest.cancelled);
+        assertSame(terminate, mailbox.poll());
+        assertSame(newest, mailbox.poll());
+        assertNull(mailbox.poll());
+    }
+
+    @Test
+    public void cancelsTheFutureOfADroppedMessage()
+    {
+        Panini$Mailbox mailbox = kind.newMailbox(1, Overflow.DROP_NEWEST);
+        CancellableFuture kept = new CancellableFuture();
+        CancellableFuture dropped = new CancellableFuture();
+        mailbox.push(kept, dropped);
+        assertFalse(kept.cancelled);
+        assertTrue(dropped.cancelled);
+    }
+
+    /**
+     * Cancelling a future may run arbitrary code (e.g. promise callbacks which push onto other
+     * mailboxes), so a mailbox must not hold its own lock while it does so.
+     */
+    @Test
+    public void discardsWithoutHoldingItsLock()
+    {
+        for (Overflow overflow : new Overflow[] {Overflow.DROP_NEWEST, Overflow.DROP_OLDEST,
+                                                 Overflow.FAIL}) {
+            Panini$Mailbox mailbox = kind.newMailbox(1, overflow);
+            CancellableFuture first = new CancellableFuture(mailbox);
+            CancellableFuture second = new CancellableFuture(mailbox);
+            mailbox.push(first);
+            try {
+                mailbox.push(second);
+            } catch (IllegalStateException full) {
+                assertSame(Overflow.FAIL, overflow);
+            }
+            mailbox.poll();
+            assertTrue(overflow.toString(), first.cancelled || second.cancelled);
+            assertFalse(overflow.toString(), first.underLock || second.underLock);
+        }
+    }
+
+    @Test
+    public void blocksWhenFull() throws InterruptedException
+    {
+        final Panini$Mailbox mailbox = kind.newMailbox(1, Overflow.BLOCK);
+        mailbox.push("a");
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mailbox.push("b");
+            }
+        });
+        producer.start();
+
+        producer.join(50);
+        assertTrue("A full mailbox accepted a message.", producer.isAlive());
+        assertEquals("a", mailbox.poll());
+        producer.join();
+        assertEquals("b", mailbox.poll());
+        assertNull(mailbox.poll());
+    }
+
+
+    static final class CancellableFuture implements Panini$Future<Object>
+    {
+        boolean cancelled;
+
+        /** Whether this was cancelled while the current thread held the lock of `mailbox`. */
+        boolean underLock;
+
+        private final Object mailbox;
+
+        CancellableFuture() {
+            this(null);
+        }
+
+        CancellableFuture(Object mailbox) {
+            this.mailbox = mailbox;
+        }
+
+        @Override
+        public Object panini$get() {
+            return null;
+        }
+
+        @Override
+        public void panini$resolve(Object t) {
+            // Nothing to resolve.
+        }
+
+        @Override
+        public void panini$fail(Throwable failure) {
+            // Nothing to fail.
+        }
+
+        @Override
+        public boolean panini$cancel() {
+            cancelled = true;
+            underLock = (mailbox instanceof Panini$RingMailbox)
+                     && ((Panini$RingMailbox) mailbox).lock.isHeldByCurrentThread();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class QuiescenceTest
+{
+    private static final long TIMEOUT_SECONDS = 30;
+
+    private final Panini$Quiescence threads = new Panini$Quiescence();
+
+    @Test
+    public void countsCapsulesAndMessages()
+    {
+        assertTrue(threads.isTerminated());
+        assertTrue(threads.isQuiescent());
+
+        threads.started();
+        assertEquals(1, threads.live());
+        assertEquals(1, threads.pending());
+        assertFalse(threads.isTerminated());
+        assertFalse(threads.isQuiescent());
+
+        threads.done();
+        threads.sent(3);
+        threads.sent();
+        assertEquals(4, threads.pending());
+        threads.done(3);
+        threads.done(0);
+        assertFalse(threads.isQuiescent());
+        threads.done();
+        assertTrue(threads.isQuiescent());
+
+        threads.retain();
+        threads.terminated();
+        assertFalse(threads.isTerminated());
+        threads.release();
+        assertTrue(threads.isTerminated());
+        assertEquals(0, threads.live());
+    }
+
+    @Test
+    public void timesOut() throws InterruptedException
+    {
+        threads.started();
+        assertFalse(threads.awaitQuiescence(10, TimeUnit.MILLISECONDS));
+        assertFalse(threads.awaitTermination(10, TimeUnit.MILLISECONDS));
+        assertFalse(threads.awaitTermination(-1, TimeUnit.MILLISECONDS));
+
+        threads.done();
+        assertTrue(threads.awaitQuiescence(0, TimeUnit.MILLISECONDS));
+        threads.terminated();
+        assertTrue(threads.awaitTermination(0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void wakesWaitersOnceTheCountsReachZero() throws InterruptedException
+    {
+        threads.started();
+        Thread quiescence = start(new Interruptible() {
+            @Override
+            public void run() throws InterruptedException {
+                threads.awaitQuiescence();
+            }
+        });
+        Thread termination = start(new Interruptible() {
+            @Override
+            public void run() throws InterruptedException {
+                threads.awaitTermination();
+            }
+        });
+
+        quiescence.join(50);
+        assertTrue(quiescence.isAlive());
+        threads.done();
+        quiescence.join();
+
+        termination.join(50);
+        assertTrue(termination.isAlive());
+        threads.terminated();
+        termination.join();
+    }
+
+    /**
+     * Passes a message along a chain of hops between pool threads, as capsules would. Each hop
+     * sends the next message before it is done with its own, so the system is only ever quiescent
+     * once the last hop is done.
+     */
+    @Test
+    public void isNotQuiescentWhileAMessageIsInFlight() throws InterruptedException
+    {
+        final int chains = 8;
+        final int hops = 10000;
+        final ExecutorService pool = Executors.newFixedThreadPool(4);
+        final AtomicInteger done = new AtomicInteger();
+        try {
+            for (int c = 0; c < chains; c++) {
+                threads.sent();
+                pool.execute(new Runnable() {
+                    int remaining = hops;
+
+                    @Override
+                    public void run() {
+                        if (--remaining > 0) {
+                            threads.sent();
+                            pool.execute(this);
+                        } else {
+                            done.incrementAndGet();
+                        }
+                        threads.done();
+                    }
+                });
+            }
+
+            assertTrue(threads.awaitQuiescence(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            assertEquals(chains, done.get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+
+    private interface Interruptible {
+        void run() throws InterruptedException;
+    }
+
+    private static Thread start(final Interruptible body)
+    {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    body.run();
+                } catch (InterruptedException ex) {
+                    throw new AssertionError(ex);
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+}
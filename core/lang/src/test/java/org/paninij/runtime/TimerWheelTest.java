@@ -0,0 +1,218 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Tests the shared `Panini$TimerWheel` in real time, with its default tick of one millisecond. A
+ * level-0 slot spans one tick and a level-1 slot 64 ticks, so a task due after 64 ms or more is
+ * first linked into level 1 (or higher), and only runs once it has been cascaded down.
+ */
+public class TimerWheelTest
+{
+    private static final long TIMEOUT_SECONDS = 30;
+
+    @Test
+    public void runsTasksInDeadlineOrderAcrossLevels() throws InterruptedException
+    {
+        // Distinct enough that no two tasks can fall due on the same tick.
+        long[] delays = {300, 1, 130, 64, 5, 4200, 60, 70, 4097};
+        final CountDownLatch done = new CountDownLatch(delays.length);
+        final List<long[]> ran = Collections.synchronizedList(new ArrayList<long[]>());
+        final long start = System.nanoTime();
+
+        for (final long delay : delays) {
+            Panini$TimerWheel.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    ran.add(new long[] {delay, System.nanoTime() - start});
+                    done.countDown();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        long previous = 0;
+        for (long[] run : ran) {
+            assertTrue("Out of order: " + run[0] + " ms", run[0] > previous);
+            assertTrue("Early: " + run[0] + " ms", run[1] >= TimeUnit.MILLISECONDS.toNanos(run[0]));
+            previous = run[0];
+        }
+    }
+
+    @Test
+    public void neverRunsACancelledTask() throws InterruptedException
+    {
+        final AtomicInteger runs = new AtomicInteger();
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        };
+        Panini$Timeout soon = Panini$TimerWheel.schedule(task, 20, TimeUnit.MILLISECONDS);
+        Panini$Timeout cascaded = Panini$TimerWheel.schedule(task, 100, TimeUnit.MILLISECONDS);
+        Panini$Timeout periodic = Panini$TimerWheel.scheduleAtFixedRate(task, 10, 10, TimeUnit.MILLISECONDS);
+        assertTrue(soon.cancel());
+        assertTrue(cascaded.cancel());
+        assertTrue(periodic.cancel());
+        assertFalse(soon.cancel());
+        assertTrue(soon.isCancelled());
+        assertFalse(soon.isExpired());
+
+        awaitTicks(150);
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    public void expiresAOneShotTask() throws InterruptedException
+    {
+        final CountDownLatch done = new CountDownLatch(1);
+        Panini$Timeout timeout = Panini$TimerWheel.schedule(countDown(done), 1, TimeUnit.MILLISECONDS);
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(timeout.isExpired());
+        assertFalse(timeout.cancel());
+        assertFalse(timeout.isCancelled());
+    }
+
+    @Test
+    public void runsAPeriodicTaskUntilItCancelsItself() throws InterruptedException
+    {
+        final AtomicInteger runs = new AtomicInteger();
+        final AtomicReference<Panini$Timeout> timeout = new AtomicReference<Panini$Timeout>();
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final CountDownLatch done = new CountDownLatch(1);
+        timeout.set(Panini$TimerWheel.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                if (runs.incrementAndGet() == 5) {
+                    // The timeout has already been rescheduled, and this must unlink it again.
+                    while (timeout.get() == null) {
+                        Thread.yield();
+                    }
+                    cancelled.set(timeout.get().cancel());
+                    done.countDown();
+                }
+            }
+        }, 1, 30, TimeUnit.MILLISECONDS));
+
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        awaitTicks(100);
+        assertEquals(5, runs.get());
+        assertTrue(cancelled.get());
+        assertTrue(timeout.get().isCancelled());
+    }
+
+    @Test
+    public void reportsAndCancelsAFailingPeriodicTask() throws InterruptedException
+    {
+        final RuntimeException failure = new RuntimeException("Expected by the test.");
+        Panini$Timeout timeout = Panini$TimerWheel.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                throw failure;
+            }
+        }, 1, 10, TimeUnit.MILLISECONDS);
+
+        Throwable reported;
+        do {
+            reported = Panini$System.errors.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } while (reported != null && reported != failure);
+        assertSame(failure, reported);
+        assertTrue(timeout.isCancelled());
+    }
+
+    @Test
+    public void cancelsAPeriodicTaskWhoseCapsuleIsDead() throws InterruptedException
+    {
+        // Stands in for the continuations of a terminated capsule, whose mailbox discards every
+        // message pushed onto it.
+        final CountDownLatch discarded = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+        Executor dead = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                new Panini$Continuation(command).panini$discard();
+                discarded.countDown();
+            }
+        };
+
+        Panini$Timeout timeout;
+        Panini$System.continuations.set(dead);
+        try {
+            timeout = Panini$TimerWheel.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    runs.incrementAndGet();
+                }
+            }, 1, 10, TimeUnit.MILLISECONDS);
+        } finally {
+            Panini$System.continuations.remove();
+        }
+
+        assertTrue(discarded.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(timeout.isCancelled());
+        assertEquals(0, runs.get());
+    }
+
+
+    private static Runnable countDown(final CountDownLatch latch)
+    {
+        return new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        };
+    }
+
+    /**
+     * Waits until the wheel has run a task scheduled the given number of milliseconds from now,
+     * and so has processed every tick before it.
+     */
+    private static void awaitTicks(long millis) throws InterruptedException
+    {
+        CountDownLatch done = new CountDownLatch(1);
+        Panini$TimerWheel.schedule(countDown(done), millis, TimeUnit.MILLISECONDS);
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TraceTest
+{
+    private static final String[] PROCEDURES = {"ping()"};
+
+    @Test
+    public void wrapsNothingUnlessTracingFromWithinASpan()
+    {
+        boolean tracing = Panini$System.TRACING;
+        try {
+            Object msg = new SimpleMessage(0);
+            Panini$System.TRACING = false;
+            assertSame(msg, Panini$Trace.wrap(msg));
+            Panini$System.TRACING = true;
+            assertSame(msg, Panini$Trace.wrap(msg));  // There is no current span.
+            assertNull(Panini$Trace.current());
+        } finally {
+            Panini$System.TRACING = tracing;
+        }
+    }
+
+    @Test
+    public void continuesTheSendersTrace()
+    {
+        boolean tracing = Panini$System.TRACING;
+        Panini$System.TRACING = true;
+        try {
+            Object first = new SimpleMessage(0);
+            assertSame(first, Panini$Trace.received(Panini$Trace.wrap(first)));
+            Panini$Trace.enter();
+            Panini$Span sender = Panini$Trace.current();
+            assertEquals(0L, sender.parentId());
+
+            Object second = new SimpleMessage(0);
+            Object wrapped = Panini$Trace.wrap(second);
+            assertTrue(wrapped instanceof Panini$Trace.Envelope);
+            assertSame(wrapped, Panini$Trace.wrap(wrapped));
+            assertEquals(0, ((Panini$Message) wrapped).panini$msgID());
+            Panini$Trace.exit(Capsule$Task.class, PROCEDURES, 0);
+            assertNull(Panini$Trace.current());
+
+            assertSame(second, Panini$Trace.received(wrapped));
+            Panini$Trace.enter();
+            Panini$Span receiver = Panini$Trace.current();
+            assertEquals(sender.traceId(), receiver.traceId());
+            assertEquals(sender.spanId(), receiver.parentId());
+            Panini$Trace.exit(Capsule$Task.class, PROCEDURES, 0);
+
+            assertTrue(Panini$Trace.spans().contains(sender));
+            assertTrue(Panini$Trace.spans().contains(receiver));
+            assertSame(second, Panini$Trace.unwrap(wrapped));
+        } finally {
+            Panini$System.TRACING = tracing;
+            Panini$Trace.clear();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij.runtime.check;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.paninij.runtime.Capsule$Thread;
+import org.paninij.runtime.Panini$System;
+import org.paninij.runtime.check.DynamicOwnershipTransfer.Kind;
+import org.paninij.runtime.check.DynamicOwnershipTransfer.Site;
+
+public class DynamicOwnershipTransferTest
+{
+    /**
+     * A capsule whose core holds `state`.
+     */
+    private static class Holder extends Capsule$Thread
+    {
+        final Object[] state;
+
+        Holder(Object[] state) {
+            this.state = state;
+        }
+
+        @Override
+        public void panini$walk(OwnershipWalk walk) {
+            walk.visit(state);
+        }
+
+        @Override
+        public void run() {
+            // Never run.
+        }
+    }
+
+    private static Object[] objects(int count)
+    {
+        Object[] objects = new Object[count];
+        for (int i = 0; i < count; i++) {
+            objects[i] = new int[1];
+        }
+        return objects;
+    }
+
+    @Test
+    public void namesEachSiteOnce()
+    {
+        assertSame(Site.named("Foo#bar(LBaz;)V@12"), Site.named("Foo#bar(LBaz;)V@12"));
+        assertNotSame(Site.named("Foo#bar(LBaz;)V@12"), Site.named("Foo#bar(LBaz;)V@20"));
+        assertEquals("Foo#bar(LBaz;)V@12", Site.named("Foo#bar(LBaz;)V@12").name());
+    }
+
+    /**
+     * A transfer which only ever passes at one site must not make another site skip its checks,
+     * even when both transfer objects of the same type.
+     */
+    @Test
+    public void samplesEachSiteOnItsOwn()
+    {
+        Holder capsule = new Holder(objects(1));
+        Object shared = capsule.state[0];
+        Site passing = Site.named("samplesEachSiteOnItsOwn@passing");
+        Site failing = Site.named("samplesEachSiteOnItsOwn@failing");
+
+        for (int i = 0; i < 10 * Panini$System.OWNERSHIP_SAMPLE_PERIOD; i++) {
+            assertTrue(DynamicOwnershipTransfer.isSafeTransfer(passing, new int[1], capsule,
+                                                               Kind.SAMPLED));
+        }
+        assertFalse(DynamicOwnershipTransfer.isSafeTransfer(failing, shared, capsule,
+                                                            Kind.SAMPLED));
+        assertEquals(1, failing.violations());
+        assertEquals(0, passing.violations());
+    }
+
+    /**
+     * One capsule which has spent its budget must not stop the checks of another capsule, even
+     * when both are run by the same thread (e.g. by one worker of a pool).
+     */
+    @Test
+    public void budgetsEachCapsuleOnItsOwn()
+    {
+        int budget = Panini$System.OWNERSHIP_BUDGET;
+        Panini$System.OWNERSHIP_BUDGET = 1;
+        try {
+            // Checking a transfer from this capsule takes far longer than its millisecond.
+            Holder spent = new Holder(objects(1000000));
+            Holder other = new Holder(objects(1));
+            assertTrue(DynamicOwnershipTransfer.isSafeTransfer(
+                    Site.named("budgetsEachCapsuleOnItsOwn@spent"), new int[1], spent,
+                    Kind.BUDGETED));
+
+            assertTrue(DynamicOwnershipTransfer.isSafeTransfer(
+                    Site.named("budgetsEachCapsuleOnItsOwn@unchecked"), spent.state[0], spent,
+                    Kind.BUDGETED));
+            assertFalse(DynamicOwnershipTransfer.isSafeTransfer(
+                    Site.named("budgetsEachCapsuleOnItsOwn@checked"), other.state[0], other,
+                    Kind.BUDGETED));
+            assertNotSame(spent.panini$ownershipBudget(), other.panini$ownershipBudget());
+        } finally {
+            Panini$System.OWNERSHIP_BUDGET = budget;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij.runtime.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class IdentitySetTest
+{
+    @Test
+    public void keepsInsertionOrderWhileGrowing()
+    {
+        IdentitySet<Object> set = new IdentitySet<Object>();
+        List<Object> added = newObjects(1000);
+        for (Object obj : added) {
+            assertTrue(set.add(obj));
+            assertFalse(set.add(obj));
+        }
+        assertEquals(added.size(), set.size());
+
+        List<Object> iterated = new ArrayList<Object>();
+        for (Object obj : set) {
+            iterated.add(obj);
+        }
+        assertEquals(added, iterated);
+        for (Object obj : added) {
+            assertTrue(set.contains(obj));
+        }
+        assertFalse(set.contains(new Object()));
+    }
+
+    @Test
+    public void tellsEqualButDistinctObjectsApart()
+    {
+        IdentitySet<String> set = new IdentitySet<String>();
+        String one = new String("same");
+        String other = new String("same");
+        assertTrue(set.add(one));
+        assertTrue(set.add(other));
+        assertEquals(2, set.size());
+    }
+
+    /**
+     * A set which once grew large, but now holds few elements, empties only the slots which it
+     * uses. It does so in reverse insertion order, so that no element's probe chain is broken
+     * before its own slot has been found. Enough elements are added that some of their probe
+     * chains are sure to collide.
+     */
+    @Test
+    public void clearsSparseTableCompletely() throws ReflectiveOperationException
+    {
+        IdentitySet<Object> set = new IdentitySet<Object>(1 << 14);
+        for (int round = 0; round < 20; round++)
+        {
+            List<Object> added = newObjects(2000);
+            for (Object obj : added) {
+                set.add(obj);
+            }
+            set.clear();
+
+            assertEquals(0, set.size());
+            assertTrue(set.isEmpty());
+            assertArrayEquals(new int[table(set).length], table(set));
+            for (Object obj : added) {
+                assertFalse(set.contains(obj));
+            }
+        }
+    }
+
+    @Test
+    public void clearsDenseTableCompletely() throws ReflectiveOperationException
+    {
+        IdentitySet<Object> set = new IdentitySet<Object>();
+        List<Object> added = newObjects(100);
+        for (Object obj : added) {
+            set.add(obj);
+        }
+        set.clear();
+        assertArrayEquals(new int[table(set).length], table(set));
+
+        for (Object obj : added) {
+            assertTrue(set.add(obj));
+        }
+        assertEquals(added.size(), set.size());
+    }
+
+    @Test
+    public void findsDisjointSets()
+    {
+        List<Object> objects = newObjects(30);
+        IdentitySet<Object> small = new IdentitySet<Object>();
+        IdentitySet<Object> large = new IdentitySet<Object>();
+        small.add(objects.get(0));
+        for (int idx = 1; idx < objects.size(); idx++) {
+            large.add(objects.get(idx));
+        }
+        assertTrue(small.isDisjointFrom(large));
+        assertTrue(large.isDisjointFrom(small));
+
+        small.add(objects.get(20));
+        assertFalse(small.isDisjointFrom(large));
+        assertFalse(large.isDisjointFrom(small));
+    }
+
+
+    private static List<Object> newObjects(int count)
+    {
+        List<Object> objects = new ArrayList<Object>(count);
+        for (int idx = 0; idx < count; idx++) {
+            objects.add(new Object());
+        }
+        return objects;
+    }
+
+    private static int[] table(IdentitySet<?> set) throws ReflectiveOperationException
+    {
+        Field table = IdentitySet.class.getDeclaredField("table");
+        table.setAccessible(true);
+        return (int[]) table.get(set);
+    }
+}
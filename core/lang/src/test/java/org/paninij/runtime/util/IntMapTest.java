@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij.runtime.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class IntMapTest
+{
+    /** Sparse keys of either sign, including zero. */
+    private static int key(int idx) {
+        return (idx % 2 == 0 ? 1 : -1) * idx * 7919;
+    }
+
+    @Test
+    public void keepsEveryMappingWhileGrowing()
+    {
+        IntMap<String> map = new IntMap<String>();
+        int count = 10000;
+        for (int idx = 0; idx < count; idx++) {
+            map.put(key(idx), "v" + idx);
+            assertEquals(idx + 1, map.size());
+        }
+        map.put(Integer.MIN_VALUE, "min");
+        map.put(Integer.MAX_VALUE, "max");
+
+        for (int idx = 0; idx < count; idx++) {
+            assertEquals("v" + idx, map.get(key(idx)));
+        }
+        assertEquals("min", map.get(Integer.MIN_VALUE));
+        assertEquals("max", map.get(Integer.MAX_VALUE));
+        assertNull(map.get(1));
+        assertEquals(count + 2, map.size());
+
+        Set<Integer> expected = new HashSet<Integer>();
+        for (int idx = 0; idx < count; idx++) {
+            expected.add(key(idx));
+        }
+        expected.add(Integer.MIN_VALUE);
+        expected.add(Integer.MAX_VALUE);
+        assertEquals(expected, map.keySet());
+        assertEquals(expected.size(), map.keys().length);
+    }
+
+    @Test
+    public void replacesAValueWithoutGrowing()
+    {
+        IntMap<String> map = new IntMap<String>();
+        map.put(-5, "a");
+        map.put(-5, "b");
+        assertEquals(1, map.size());
+        assertEquals("b", map.get(-5));
+        assertTrue(map.contains("b"));
+        assertFalse(map.contains("a"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNullValues() {
+        new IntMap<String>().put(0, null);
+    }
+
+    @Test
+    public void clears()
+    {
+        IntMap<String> map = new IntMap<String>();
+        for (int idx = 0; idx < 100; idx++) {
+            map.put(key(idx), "v" + idx);
+        }
+        map.clear();
+        assertEquals(0, map.size());
+        assertEquals(0, map.keys().length);
+        assertNull(map.get(key(1)));
+
+        map.put(key(1), "again");
+        assertEquals("again", map.get(key(1)));
+        assertTrue(Arrays.equals(new int[] {key(1)}, map.keys()));
+    }
+}
@@ -10,6 +10,7 @@ import org.paninij.proc.factory.CapsuleMonitorFactory;
 import org.paninij.proc.factory.CapsuleSerialFactory;
 import org.paninij.proc.factory.CapsuleTaskFactory;
 import org.paninij.proc.factory.CapsuleThreadFactory;
+import org.paninij.proc.factory.CapsuleVirtualThreadFactory;
 import org.paninij.proc.factory.MessageFactory;
 import org.paninij.proc.model.Capsule;
 import org.paninij.proc.model.CapsuleElement;
@@ -60,6 +61,7 @@ public class RoundOneProcessor extends AbstractProcessor {
     private final CapsuleSerialFactory capsuleSerialFactory = new CapsuleSerialFactory();
     private final CapsuleMonitorFactory capsuleMonitorFactory = new CapsuleMonitorFactory();
     private final CapsuleTaskFactory capsuleTaskFactory = new CapsuleTaskFactory();
+    private final CapsuleVirtualThreadFactory capsuleVirtualThreadFactory = new CapsuleVirtualThreadFactory();
 
     @Override
     public void init(ProcessingEnvironment processingEnv) {
@@ -93,6 +95,7 @@ public class RoundOneProcessor extends AbstractProcessor {
             artifactMaker.add(capsuleSerialFactory.make(model));
             artifactMaker.add(capsuleMonitorFactory.make(model));
             artifactMaker.add(capsuleTaskFactory.make(model));
+            artifactMaker.add(capsuleVirtualThreadFactory.make(model));
         }
 
         // Perform all remaining code-gen on OK signature cores:
@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij.proc.check.capsule;
+
+import static org.paninij.proc.check.Check.Result.OK;
+import static org.paninij.proc.check.Check.Result.error;
+
+import javax.lang.model.element.TypeElement;
+
+import org.paninij.lang.Bounded;
+
+/**
+ * Check that if a capsule core is annotated with {@code @Bounded}, then the given mailbox
+ * capacity is positive.
+ */
+public class CheckBoundedAnnotation implements CapsuleCheck
+{
+    @Override
+    public Result checkCapsule(TypeElement core)
+    {
+        Bounded bounded = core.getAnnotation(Bounded.class);
+        if (bounded == null || bounded.capacity() > 0) {
+            return OK;
+        } else {
+            String err = "The mailbox capacity given by `@Bounded` must be positive, but it is "
+                       + bounded.capacity() + ".";
+            return error(err, CheckBoundedAnnotation.class, core);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ *  Dr. Hridesh Rajan,
+ *  Dalton Mills,
+ *  David Johnston,
+ *  Trey Erenberger
+ *  Jackson Maddox
+ *******************************************************************************/
+package org.paninij.proc.check.capsule;
+
+import static java.text.MessageFormat.format;
+import static org.paninij.proc.check.Check.Result.OK;
+import static org.paninij.proc.check.Check.Result.error;
+
+import java.lang.annotation.Annotation;
+import java.util.Set;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Types;
+
+import org.paninij.lang.Block;
+import org.paninij.lang.Coalesce;
+import org.paninij.lang.Duck;
+import org.paninij.lang.Future;
+import org.paninij.lang.Handler;
+
+/**
+ * Check that every method of a capsule core which is annotated with {@code @Coalesce} is a `void`
+ * procedure without any other procedure annotation, and that if it names a merge function, then
+ * the procedure has exactly one parameter and the core has a matching static merge function.
+ */
+public class CheckCoalesceAnnotation implements CapsuleCheck
+{
+    private final Types typeUtils;
+
+    public CheckCoalesceAnnotation(ProcessingEnvironment procEnv) {
+        this.typeUtils = procEnv.getTypeUtils();
+    }
+
+    private static <A extends Annotation> boolean hasAnnotation(Element elem, Class<A> clazz) {
+        return elem.getAnnotation(clazz) != null;
+    }
+
+    private static boolean isDeclName(String name) {
+        return name.equals("init") || name.equals("design") || name.equals("run");
+    }
+
+    private Result checkMethod(TypeElement core, ExecutableElement e)
+    {
+        Coalesce coalesce = e.getAnnotation(Coalesce.class);
+        if (coalesce == null) {
+            return OK;
+        }
+
+        Set<Modifier> modifiers = e.getModifiers();
+        if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.PRIVATE)
+                || isDeclName(e.getSimpleName().toString()) || hasAnnotation(e, Handler.class)) {
+            String err = "Only a procedure can be annotated with `@Coalesce`.";
+            return error(err, CheckCoalesceAnnotation.class, e);
+        }
+
+        if (hasAnnotation(e, Block.class)
+                || hasAnnotation(e, Future.class)
+                || hasAnnotation(e, Duck.class)) {
+            String err = "A coalescing procedure cannot have `@Block`, `@Future`, or `@Duck`.";
+            return error(err, CheckCoalesceAnnotation.class, e);
+        }
+
+        if (e.getReturnType().getKind() != TypeKind.VOID) {
+            String err = "A coalescing procedure may not return anything.";
+            return error(err, CheckCoalesceAnnotation.class, e);
+        }
+
+        if (coalesce.merge().isEmpty()) {
+            return OK;
+        }
+
+        if (e.getParameters().size() != 1) {
+            String err = "A coalescing procedure with a merge function must have exactly 1 "
+                       + "parameter.";
+            return error(err, CheckCoalesceAnnotation.class, e);
+        }
+
+        TypeMirror paramType = e.getParameters().get(0).asType();
+        for (Element member : core.getEnclosedElements()) {
+            if (member.getKind() == ElementKind.METHOD
+                    && member.getSimpleName().contentEquals(coalesce.merge())
+                    && isMergeFunction((ExecutableElement) member, paramType)) {
+                return OK;
+            }
+        }
+
+        String err = "A coalescing procedure''s merge function must be a non-private, static "
+                   + "method of the capsule core declared as `static {0} {1}({0} older, {0} "
+                   + "newer)`, but no such method was found.";
+        err = format(err, paramType, coalesce.merge());
+        return error(err, CheckCoalesceAnnotation.class, e);
+    }
+
+    private boolean isMergeFunction(ExecutableElement method, TypeMirror type)
+    {
+        Set<Modifier> modifiers = method.getModifiers();
+        return modifiers.contains(Modifier.STATIC)
+            && !modifiers.contains(Modifier.PRIVATE)
+            && method.getParameters().size() == 2
+            && typeUtils.isSameType(method.getParameters().get(0).asType(), type)
+            && typeUtils.isSameType(method.getParameters().get(1).asType(), type)
+            && typeUtils.isSameType(method.getReturnType(), type);
+    }
+
+    @Override
+    public Result checkCapsule(TypeElement core)
+    {
+        for (Element e : core.getEnclosedElements()) {
+            if (e.getKind() == ElementKind.METHOD) {
+                Result result = checkMethod(core, (ExecutableElement) e);
+                if (!result.ok()) {
+                    return result;
+                }
+            }
+        }
+        return OK;
+    }
+}
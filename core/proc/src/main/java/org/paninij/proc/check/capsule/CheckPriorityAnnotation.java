@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ *  Dr. Hridesh Rajan,
+ *  Dalton Mills,
+ *  David Johnston,
+ *  Trey Erenberger
+ *  Jackson Maddox
+ *******************************************************************************/
+package org.paninij.proc.check.capsule;
+
+import static org.paninij.proc.check.Check.Result.OK;
+import static org.paninij.proc.check.Check.Result.error;
+
+import java.util.Set;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+
+import org.paninij.lang.Handler;
+import org.paninij.lang.Priority;
+
+/**
+ * Check that only the procedures of a capsule core are annotated with {@code @Priority}.
+ */
+public class CheckPriorityAnnotation implements CapsuleCheck
+{
+    private static boolean isDeclName(String name) {
+        return name.equals("init") || name.equals("design") || name.equals("run");
+    }
+
+    @Override
+    public Result checkCapsule(TypeElement core)
+    {
+        for (Element e : core.getEnclosedElements()) {
+            if (e.getKind() != ElementKind.METHOD || e.getAnnotation(Priority.class) == null) {
+                continue;
+            }
+            Set<Modifier> modifiers = e.getModifiers();
+            if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.PRIVATE)
+                    || isDeclName(e.getSimpleName().toString())
+                    || e.getAnnotation(Handler.class) != null) {
+                String err = "Only a procedure can be annotated with `@Priority`.";
+                return error(err, CheckPriorityAnnotation.class, e);
+            }
+        }
+        return OK;
+    }
+}
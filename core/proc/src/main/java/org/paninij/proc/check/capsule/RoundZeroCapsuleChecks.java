@@ -52,6 +52,9 @@ public class RoundZeroCapsuleChecks implements CapsuleCheck {
             new CheckThatOnlySignatureCoresAreImplemented(procEnv),
             new CheckHandlers(),
             new CheckEventFields(),
+            new CheckBoundedAnnotation(),
+            new CheckCoalesceAnnotation(procEnv),
+            new CheckPriorityAnnotation(),
         };
     }
 
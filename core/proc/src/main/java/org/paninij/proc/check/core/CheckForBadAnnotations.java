@@ -36,9 +36,11 @@ import javax.lang.model.element.TypeElement;
 import org.paninij.lang.Block;
 import org.paninij.lang.Broadcast;
 import org.paninij.lang.Chain;
+import org.paninij.lang.Coalesce;
 import org.paninij.lang.Duck;
 import org.paninij.lang.Future;
 import org.paninij.lang.Handler;
+import org.paninij.lang.Priority;
 
 /**
  * Check that a core does not have certain bad annotations. For example, capsule and signature
@@ -65,6 +67,10 @@ public class CheckForBadAnnotations implements CoreCheck {
             return "Future";
         } else if (core.getAnnotation(Duck.class) != null) {
             return "Duck";
+        } else if (core.getAnnotation(Coalesce.class) != null) {
+            return "Coalesce";
+        } else if (core.getAnnotation(Priority.class) != null) {
+            return "Priority";
         } else if (core.getAnnotation(Handler.class) != null) {
             return "Handler";
         } else if (core.getAnnotation(Chain.class) != null) {
@@ -57,9 +57,34 @@ public abstract class AbstractMessageFactory implements ArtifactFactory<Procedur
         for (Variable v : this.context.getParameters()) {
             fields.add("public " + v.slot() + " panini$arg" + (i++) + ";");
         }
+        fields.addAll(this.buildWalk());
         return fields;
     }
 
+    /**
+     * Every message reports its reference arguments to the dynamic ownership check (see
+     * `org.paninij.runtime.check.OwnershipWalkable`), so that the check need not discover them (or
+     * walk the message's own bookkeeping) by reflection. A message class is shared by every
+     * procedure of the same shape, whose argument types may differ, so each argument is visited.
+     */
+    protected List<String> buildWalk() {
+        List<String> visits = new ArrayList<String>();
+        int i = 0;
+        for (Variable v : this.context.getParameters()) {
+            if (!v.isPrimitive()) {
+                visits.add("panini$walk.visit(panini$arg" + i + ");");
+            }
+            i++;
+        }
+        List<String> src = Source.lines(
+                "",
+                "@Override",
+                "public void panini$walk(org.paninij.runtime.check.OwnershipWalk panini$walk) {",
+                "    ##",
+                "}");
+        return Source.formatAlignedFirst(src, visits);
+    }
+
     public String buildQualifiedClassName() {
         return this.shape.getPackage() + "." + this.shape.encoded;
     }
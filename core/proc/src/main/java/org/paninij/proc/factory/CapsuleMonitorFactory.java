@@ -101,6 +101,7 @@ public class CapsuleMonitorFactory extends CapsuleProfileFactory
         imports.add("org.paninij.runtime.Panini$Capsule");
         imports.add("org.paninij.runtime.Panini$Message");
         imports.add("org.paninij.runtime.Panini$Future");
+        imports.add("org.paninij.runtime.Panini$Flight");
         imports.add("org.paninij.runtime.Panini$System");
         imports.add(this.capsule.getQualifiedName());
 
@@ -306,14 +307,10 @@ public class CapsuleMonitorFactory extends CapsuleProfileFactory
                     "        panini$initState();",
                     "        panini$encapsulated.run();",
                     "    } catch (Throwable thrown) {",
-                    "        panini$errors.add(thrown);",
+                    "        panini$reportError(thrown);",
                     "    } finally {",
                     "        panini$onTerminate();",
-                    "        try {",
-                    "           Panini$System.threads.countDown();",
-                    "        } catch (InterruptedException e) {",
-                    "            e.printStackTrace();",
-                    "        }",
+                    "        panini$finish();",
                     "    }",
                     "}",
                     "");
@@ -328,7 +325,7 @@ public class CapsuleMonitorFactory extends CapsuleProfileFactory
                 "        panini$initLocals();",
                 "        panini$initState();",
                 "    } catch (Throwable thrown) {",
-                "        panini$errors.add(thrown);",
+                "        panini$reportError(thrown);",
                 "    }",
                 "}",
                 "");
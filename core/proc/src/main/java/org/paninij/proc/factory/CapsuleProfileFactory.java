@@ -33,6 +33,7 @@ import javax.lang.model.type.TypeKind;
 
 import org.paninij.proc.model.Procedure;
 import org.paninij.proc.model.Variable;
+import org.paninij.proc.util.DeepImmutability;
 import org.paninij.proc.util.MessageShape;
 import org.paninij.proc.util.PaniniModel;
 import org.paninij.proc.util.Source;
@@ -55,11 +56,37 @@ public abstract class CapsuleProfileFactory extends AbstractCapsuleFactory
         return base + p.getName() + paramStrings;
     }
 
+    /**
+     * Generates the `panini$procedureNames()` override, which names each of the given procedures
+     * (in procedure ID order) by its signature in the capsule's runtime metrics.
+     */
+    protected List<String> generateProcedureNames(List<Procedure> procedures)
+    {
+        List<String> names = new ArrayList<>();
+        for (Procedure p : procedures) {
+            List<String> params = new ArrayList<>();
+            for (Variable param : p.getParameters()) {
+                params.add(param.raw());
+            }
+            names.add("\"" + p.getName() + "(" + String.join(", ", params) + ")\"");
+        }
+
+        List<String> src = Source.lines(
+                "private static final java.lang.String[] panini$procedures = {#0};",
+                "",
+                "@Override",
+                "protected java.lang.String[] panini$procedureNames() {",
+                "    return panini$procedures;",
+                "}",
+                "");
+        return Source.formatAll(src, String.join(", ", names));
+    }
+
     protected String generateProcedureReturn(MessageShape shape) {
         switch (shape.behavior) {
         case BLOCKED_FUTURE:
             String ret = shape.returnType.isVoid() ? "" : "return ";
-            ret += "panini$message.get();";
+            ret += "panini$message.panini$get();";
             return ret;
         case BLOCKED_PREMADE:
             return "return panini$message.get();";
@@ -95,7 +122,7 @@ public abstract class CapsuleProfileFactory extends AbstractCapsuleFactory
                 "    #1 panini$message = null;",
                 "    panini$message = new #1(#2);",
                 "    #3;",
-                "    panini$push(panini$message);",
+                "    #6;",
                 "    #4",
                 "}",
                 "");
@@ -106,7 +133,135 @@ public abstract class CapsuleProfileFactory extends AbstractCapsuleFactory
                 this.generateProcedureArguments(shape),
                 this.generateAssertSafeInvocationTransfer(),
                 this.generateProcedureReturn(shape),
-                shape.kindAnnotation);
+                shape.kindAnnotation,
+                this.generateProcedureSend(shape));
+    }
+
+    /**
+     * A priority procedure pushes its message directly onto the priority lane of the capsule's
+     * mailbox. A blocking procedure pushes its message directly, since the caller is about to wait
+     * on it.
+     * Any other procedure sends its message, which (if send batching is enabled) may buffer it in
+     * the calling thread's outbox until the caller has finished processing its current message.
+     */
+    protected String generateProcedureSend(MessageShape shape) {
+        if (shape.procedure.isPriority()) {
+            return "panini$pushPriority(panini$message)";
+        }
+        switch (shape.behavior) {
+        case BLOCKED_FUTURE:
+        case BLOCKED_PREMADE:
+            return "panini$push(panini$message)";
+        default:
+            return "panini$send(panini$message)";
+        }
+    }
+
+    /**
+     * Generates the run-switch case of a procedure annotated with `@Coalesce`. Any invocations of
+     * the procedure which are pending directly behind `msg` are taken out of the mailbox too, and
+     * are either folded into one invocation with the core's merge function, or else are only
+     * invoked where their arguments differ from those of the invocation before them.
+     */
+    protected List<String> generateCoalescingRunSwitchCase(Procedure procedure)
+    {
+        MessageShape shape = new MessageShape(procedure);
+        String merge = procedure.getMergeFunction();
+
+        if (procedure.getParameters().isEmpty()) {
+            List<String> src = Source.lines(
+                    "case #0:",
+                    "    // Every pending invocation behind this one is redundant.",
+                    "    while (panini$nextMessageIf(#0) != null) { }",
+                    "    #1;",
+                    "    break;");
+            return Source.formatAll(src,
+                    this.generateProcedureID(procedure),
+                    this.generateEncapsulatedCall(shape, "msg"));
+        }
+
+        if (!merge.isEmpty()) {
+            Variable param = procedure.getParameters().get(0);
+            List<String> src = Source.lines(
+                    "case #0: {",
+                    "    #1 panini$merged = #2;",
+                    "    Panini$Message panini$next;",
+                    "    while ((panini$next = panini$nextMessageIf(#0)) != null) {",
+                    "        panini$merged = #3.#4(panini$merged, #5);",
+                    "    }",
+                    "    panini$encapsulated.#6(panini$merged);",
+                    "    break;",
+                    "}");
+            return Source.formatAll(src,
+                    this.generateProcedureID(procedure),
+                    param.getMirror().toString(),
+                    this.generateMessageArgument(shape, "msg", 0),
+                    this.capsule.getQualifiedName() + PaniniModel.CAPSULE_CORE_SUFFIX,
+                    merge,
+                    this.generateMessageArgument(shape, "panini$next", 0),
+                    procedure.getName());
+        }
+
+        List<String> src = Source.lines(
+                "case #0: {",
+                "    Panini$Message panini$last = msg;",
+                "    Panini$Message panini$next;",
+                "    while ((panini$next = panini$nextMessageIf(#0)) != null) {",
+                "        if (!(#1)) {",
+                "            #2;",
+                "        }",
+                "        panini$last = panini$next;",
+                "    }",
+                "    #2;",
+                "    break;",
+                "}");
+        return Source.formatAll(src,
+                this.generateProcedureID(procedure),
+                this.generateArgumentsEqual(shape, "panini$last", "panini$next"),
+                this.generateEncapsulatedCall(shape, "panini$last"));
+    }
+
+    /**
+     * Generates an expression which extracts the `i`th argument held in the message `msg`, which
+     * is of the given shape. If the message is storing an object in an `Object` box, then this
+     * also casts that argument to its original type.
+     */
+    private String generateMessageArgument(MessageShape shape, String msg, int i)
+    {
+        Variable param = shape.procedure.getParameters().get(i);
+        return Source.format("#0((#1) #2).panini$arg#3",
+                             param.isPrimitive() ? "" : "(" + param.raw() + ") ",
+                             shape.encoded,
+                             msg,
+                             i);
+    }
+
+    private String generateEncapsulatedCall(MessageShape shape, String msg)
+    {
+        List<String> args = new ArrayList<String>();
+        for (int i = 0; i < shape.procedure.getParameters().size(); i++) {
+            args.add(this.generateMessageArgument(shape, msg, i));
+        }
+        return Source.format("panini$encapsulated.#0(#1)",
+                             shape.procedure.getName(),
+                             String.join(", ", args));
+    }
+
+    /**
+     * Generates a condition which holds when the two messages of the given shape hold equal
+     * arguments: primitives are compared with `==`, and objects with `Objects.equals()`.
+     */
+    private String generateArgumentsEqual(MessageShape shape, String msg1, String msg2)
+    {
+        List<String> conjuncts = new ArrayList<String>();
+        List<Variable> params = shape.procedure.getParameters();
+        for (int i = 0; i < params.size(); i++) {
+            String fmt = params.get(i).isPrimitive()
+                       ? "((#0) #1).panini$arg#3 == ((#0) #2).panini$arg#3"
+                       : "java.util.Objects.equals(((#0) #1).panini$arg#3, ((#0) #2).panini$arg#3)";
+            conjuncts.add(Source.format(fmt, shape.encoded, msg1, msg2, i));
+        }
+        return String.join(" && ", conjuncts);
     }
 
     protected List<String> generateProcArgumentDecls(Procedure p) {
@@ -200,6 +355,11 @@ public abstract class CapsuleProfileFactory extends AbstractCapsuleFactory
                 "public #0() {",
                 generateClassName()));
 
+        String superCall = this.generateSuperConstructorCall();
+        if (superCall != null) {
+            list.add("    " + superCall);
+        }
+
         for (Variable v : capsule.getBroadcastEventFields()) {
             list.add(Source.format(
                     "    panini$encapsulated.#0 = new Event<>(org.paninij.runtime.EventMode.BROADCAST);",
@@ -217,6 +377,33 @@ public abstract class CapsuleProfileFactory extends AbstractCapsuleFactory
         return list;
     }
     
+    /**
+     * @return The first statement of the generated constructor, or `null` to use the superclass's
+     *         default constructor.
+     */
+    protected String generateSuperConstructorCall() {
+        return null;
+    }
+
+    /**
+     * @return A call to the `(int capacity, Overflow overflow)` constructor of `Capsule$Thread` or
+     *         `Capsule$Task` if the capsule core is annotated with `@Bounded`, and `null` otherwise.
+     */
+    protected String generateMailboxSuperCall() {
+        boolean lanes = false;
+        for (Procedure p : capsule.getProcedures()) {
+            lanes |= p.isPriority();
+        }
+
+        if (capsule.getMailboxCapacity() <= 0) {
+            return lanes ? "super(0, null, true);" : null;
+        }
+        return Source.format("super(#0, org.paninij.lang.Overflow.#1#2);",
+                capsule.getMailboxCapacity(),
+                capsule.getMailboxOverflow(),
+                lanes ? ", true" : "");
+    }
+
     protected String generateAssertSafeInvocationTransfer()
     {
         // TODO: Clean this up!
@@ -302,27 +489,37 @@ public abstract class CapsuleProfileFactory extends AbstractCapsuleFactory
         return src;
     }
 
+    /**
+     * A capsule's state is explored by the dynamic ownership check through the capsule itself,
+     * which reports every state field of its core that might refer to a mutable object. So
+     * `panini$getAllState()` allocates nothing, and fields of deeply immutable types are skipped.
+     */
     protected List<String> generateGetAllState()
     {
-        List<String> states = new ArrayList<>();
+        List<String> visits = new ArrayList<>();
 
-        for(Variable field : capsule.getStateFields())
+        for (Variable field : capsule.getStateFields())
         {
-            if(field.getKind() == TypeKind.ARRAY || field.getKind() == TypeKind.DECLARED)
+            if (!DeepImmutability.isDeeplyImmutable(field.getMirror()))
             {
-                states.add("panini$encapsulated." + field.getIdentifier());
+                visits.add("panini$walk.visit(panini$encapsulated." + field.getIdentifier() + ");");
             }
         }
 
         List<String> src = Source.lines("@Override",
                                         "public Object panini$getAllState()",
                                         "{",
-                                        "    Object[] state = {#0};",
-                                        "    return state;",
+                                        "    return this;",
+                                        "}",
+                                        "",
+                                        "@Override",
+                                        "public void panini$walk(org.paninij.runtime.check.OwnershipWalk panini$walk)",
+                                        "{",
+                                        "    ##",
                                         "}",
                                         "");
 
-        return Source.formatAll(src, String.join(", ", states));
+        return Source.formatAlignedFirst(src, visits);
     }
 
     protected List<String> generateInitState()
@@ -383,13 +580,10 @@ public abstract class CapsuleProfileFactory extends AbstractCapsuleFactory
 
         List<String> src = Source.lines(
                 "public static void main(String[] args) {",
-                "    try {",
-                "        Panini$System.threads.countUp();",
-                "        #0 root = new #0();",
-                "        root.run();",
-                "    } catch (InterruptedException e) {",
-                "       e.printStackTrace();",
-                "    }",
+                "    Panini$System.threads.started();",
+                "    #0 root = new #0();",
+                "    Panini$Flight.capsuleStarted(root);",
+                "    root.run();",
                 "}");
 
         return Source.formatAll(src, this.generateClassName());
@@ -103,6 +103,7 @@ public class CapsuleSerialFactory extends CapsuleProfileFactory
         imports.add("org.paninij.runtime.Panini$Capsule");
         imports.add("org.paninij.runtime.Panini$Message");
         imports.add("org.paninij.runtime.Panini$Future");
+        imports.add("org.paninij.runtime.Panini$Flight");
         imports.add("org.paninij.runtime.Panini$System");
         imports.add(this.capsule.getQualifiedName());
 
@@ -295,14 +296,10 @@ public class CapsuleSerialFactory extends CapsuleProfileFactory
                     "        panini$initState();",
                     "        panini$encapsulated.run();",
                     "    } catch (Throwable thrown) {",
-                    "        panini$errors.add(thrown);",
+                    "        panini$reportError(thrown);",
                     "    } finally {",
                     "        panini$onTerminate();",
-                    "        try {",
-                    "           Panini$System.threads.countDown();",
-                    "        } catch (InterruptedException e) {",
-                    "            e.printStackTrace();",
-                    "        }",
+                    "        panini$finish();",
                     "    }",
                     "}",
                     "");
@@ -317,7 +314,7 @@ public class CapsuleSerialFactory extends CapsuleProfileFactory
                 "        panini$initLocals();",
                 "        panini$initState();",
                 "    } catch (Throwable thrown) {",
-                "        panini$errors.add(thrown);",
+                "        panini$reportError(thrown);",
                 "    }",
                 "}",
                 "");
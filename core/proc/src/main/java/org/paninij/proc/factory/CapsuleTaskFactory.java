@@ -83,6 +83,11 @@ public class CapsuleTaskFactory extends CapsuleProfileFactory
         return this.capsule.getSimpleName() + CAPSULE_PROFILE_TASK_SUFFIX;
     }
 
+    @Override
+    protected String generateSuperConstructorCall() {
+        return this.generateMailboxSuperCall();
+    }
+
     private List<String> generateImports()
     {
         Set<String> imports = new HashSet<String>();
@@ -100,8 +105,11 @@ public class CapsuleTaskFactory extends CapsuleProfileFactory
         imports.add("org.paninij.runtime.EventMessage");
         imports.add("org.paninij.runtime.Capsule$Task");
         imports.add("org.paninij.runtime.Panini$Capsule");
+        imports.add("org.paninij.runtime.Panini$Continuation");
         imports.add("org.paninij.runtime.Panini$Message");
+        imports.add("org.paninij.runtime.Panini$Startup");
         imports.add("org.paninij.runtime.Panini$Future");
+        imports.add("org.paninij.runtime.Panini$Flight");
         imports.add("org.paninij.runtime.Panini$System");
         imports.add(this.capsule.getQualifiedName());
 
@@ -135,6 +143,7 @@ public class CapsuleTaskFactory extends CapsuleProfileFactory
         }
 
         decls.add("");
+        decls.addAll(generateProcedureNames(allProcs));
 
         return decls;
     }
@@ -142,7 +151,7 @@ public class CapsuleTaskFactory extends CapsuleProfileFactory
     @Override
     protected List<String> generateProcedure(Procedure procedure) {
         MessageShape shape = new MessageShape(procedure);
-        String doBlock = shape.behavior == Behavior.BLOCKED_FUTURE || shape.behavior == Behavior.BLOCKED_PREMADE ? "panini$emptyQueue();" : "";
+        String doBlock = shape.behavior == Behavior.BLOCKED_FUTURE || shape.behavior == Behavior.BLOCKED_PREMADE ? "panini$awaitMessage(panini$message);" : "";
         String encoding = PaniniModel.isPaniniCustom(shape.returnType.getMirror()) ? shape.returnType.raw() : shape.encoded;
         
         List<String> source = Source.lines(
@@ -153,7 +162,7 @@ public class CapsuleTaskFactory extends CapsuleProfileFactory
                 "    #1 panini$message = null;",
                 "    panini$message = new #1(#2);",
                 "    #3;",
-                "    panini$push(panini$message);",
+                "    #7;",
                 "    #4",
                 "    #5",
                 "}",
@@ -165,7 +174,8 @@ public class CapsuleTaskFactory extends CapsuleProfileFactory
                 this.generateAssertSafeInvocationTransfer(),
                 doBlock,
                 this.generateProcedureReturn(shape),
-                shape.kindAnnotation);
+                shape.kindAnnotation,
+                this.generateProcedureSend(shape));
     }
 
     private List<String> generateProcedures()
@@ -185,9 +195,7 @@ public class CapsuleTaskFactory extends CapsuleProfileFactory
         for (Variable local : locals) {
             if (local.isArray()) {
                 List<String> lines = Source.lines(
-                        "for (int i = 0; i < panini$encapsulated.#0.length; i++) {",
-                        "    panini$encapsulated.#0[i] = new #1#2();",
-                        "}",
+                        "Panini$Startup.construct(panini$encapsulated.#0, panini$i -> new #1#2());",
                         "");
                 source.addAll(Source.formatAll(
                         lines,
@@ -226,11 +234,9 @@ public class CapsuleTaskFactory extends CapsuleProfileFactory
 
         for (Variable local : locals) {
             if (local.isArray()) {
-                List<String> src = Source.lines(
-                        "for (int i = 0; i < panini$encapsulated.#0.length; i++) {",
-                        "    panini$encapsulated.#0[i].panini$start();",
-                        "}");
-                source.addAll(Source.formatAll(src, local.getIdentifier()));
+                source.add(Source.format(
+                        "Panini$Startup.start(panini$encapsulated.#0);",
+                        local.getIdentifier()));
             } else {
                 source.add(Source.format(
                         "panini$encapsulated.#0.panini$start();",
@@ -252,22 +258,26 @@ public class CapsuleTaskFactory extends CapsuleProfileFactory
     {
         if (this.capsule.isActive()) {
             return Source.lines(
+                    "@Override",
+                    "protected boolean panini$isActive() {",
+                    "    return true;",
+                    "}",
+                    "",
                     "@Override",
                     "public final boolean run() {",
+                    "    // An active capsule has no message loop, so its promise callbacks cannot be",
+                    "    // delivered back to it.",
+                    "    Panini$System.continuations.set(null);",
                     "    try {",
                     "        panini$capsuleInit();",
                     "        panini$encapsulated.run();",
                     "    } catch (Throwable thrown) {",
                     "        thrown.printStackTrace(System.out);",
-                    "        panini$errors.add(thrown);",
+                    "        panini$reportError(thrown);",
                     "    } finally {",
                     "        panini$onTerminate();",
                     "    }",
-                    "    try {",
-                    "       Panini$System.threads.countDown();",
-                    "    } catch (InterruptedException e) {",
-                    "        e.printStackTrace();",
-                    "    }",
+                    "    panini$finish();",
                     "    return true;",
                     "}",
                     "");
@@ -279,9 +289,10 @@ public class CapsuleTaskFactory extends CapsuleProfileFactory
                 "public final boolean run() {",
                 "    try {",
                 "        Panini$Message msg = panini$nextMessage();",
+                "        if (msg == null) return false;",
                 "        ##",
                 "    } catch (Throwable thrown) {",
-                "        panini$errors.add(thrown);",
+                "        panini$reportError(thrown);",
                 "    }",
                 "    return false;",
                 "}",
@@ -303,8 +314,11 @@ public class CapsuleTaskFactory extends CapsuleProfileFactory
             lines.addAll(this.generateRunHandlerSwitchCase(p));
         }
 
-        // add case statements for when a capsule shuts down and for EXIT command
+        // add case statements for promise callbacks, for when a capsule shuts down, and for EXIT command
         lines.addAll(Source.lines(
+                "case PANINI$CONTINUE:",
+                "    ((Panini$Continuation) msg).run();",
+                "    break;",
                 "case PANINI$CLOSE_LINK:",
                 "    panini$onCloseLink();",
                 "    break;",
@@ -312,13 +326,29 @@ public class CapsuleTaskFactory extends CapsuleProfileFactory
                 "    panini$onTerminate();",
                 "    return true;",
                 "}"));
-        return lines;
+
+        // The execution ends even if the message throws, so that its trace span, its flight
+        // recorder event, and its service time are never left open.
+        List<String> src = Source.lines(
+                "long panini$started = panini$serviceStarted();",
+                "Object panini$execution = panini$executionStarted(msg);",
+                "try {",
+                "    ##",
+                "} finally {",
+                "    panini$executionEnded(msg, panini$execution);",
+                "    panini$serviceEnded(msg, panini$started);",
+                "}");
+        return Source.formatAlignedFirst(src, lines);
     }
 
     private List<String> generateRunSwitchCase(Procedure procedure)
     {
         MessageShape shape = new MessageShape(procedure);
 
+        if (procedure.isCoalescing()) {
+            return this.generateCoalescingRunSwitchCase(procedure);
+        }
+
         // `duck` will need to be resolved if and only if `procedure` has a return value.
         if (shape.category == MessageShape.Category.SIMPLE) {
             // Simply call the core isntance's method with the args encapsulated in the duck.
@@ -333,11 +363,20 @@ public class CapsuleTaskFactory extends CapsuleProfileFactory
         }
 
         Type r = procedure.getReturnType();
+        // A message whose future has been cancelled is skipped without being executed. If the
+        // procedure throws, then its (claimed) future fails before the error is reported as usual,
+        // so that neither the sender nor any promise derived from the future waits forever.
         // A void wrapper cannot be instantiated, so we have to resolve with null
         if (r.isVoid()) {
             // Call the core instance's method and resolve the duck using null.
             List<String> src = Source.lines("case #0:",
-                                            "    #1;",
+                                            "    if (!((Panini$Future<#2>) msg).panini$claim()) break;",
+                                            "    try {",
+                                            "        #1;",
+                                            "    } catch (Throwable panini$thrown) {",
+                                            "        ((Panini$Future<#2>) msg).panini$fail(panini$thrown);",
+                                            "        throw panini$thrown;",
+                                            "    }",
                                             "    ((Panini$Future<#2>) msg).panini$resolve(null);",
                                             "    break;");
             return Source.formatAll(src,
@@ -347,8 +386,15 @@ public class CapsuleTaskFactory extends CapsuleProfileFactory
         } else {
             // Call the core instance's method and resolve the duck using the result.
             List<String> src = Source.lines("case #0: {",
-                                            "    #1 result = #2;",
-                                            "    #3;",
+                                            "    if (!((Panini$Future<#1>) msg).panini$claim()) break;",
+                                            "    #1 result;",
+                                            "    try {",
+                                            "        result = #2;",
+                                            "        #3;",
+                                            "    } catch (Throwable panini$thrown) {",
+                                            "        ((Panini$Future<#1>) msg).panini$fail(panini$thrown);",
+                                            "        throw panini$thrown;",
+                                            "    }",
                                             "    ((Panini$Future<#1>) msg).panini$resolve(result);",
                                             "    break;",
                                             "}");
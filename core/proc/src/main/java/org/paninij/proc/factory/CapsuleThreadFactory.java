@@ -43,10 +43,26 @@ public class CapsuleThreadFactory extends CapsuleProfileFactory
 {
     public static final String CAPSULE_PROFILE_THREAD_SUFFIX = "$Thread";
 
+    /**
+     * @return The suffix of the generated class's name, which is also used for its locals.
+     */
+    protected String getProfileSuffix()
+    {
+        return CAPSULE_PROFILE_THREAD_SUFFIX;
+    }
+
+    /**
+     * @return The simple name of the runtime class which the generated class extends.
+     */
+    protected String getProfileBaseClass()
+    {
+        return "Capsule$Thread";
+    }
+
     @Override
     protected String getQualifiedName()
     {
-        return this.capsule.getQualifiedName() + CAPSULE_PROFILE_THREAD_SUFFIX;
+        return this.capsule.getQualifiedName() + this.getProfileSuffix();
     }
 
     @Override
@@ -60,16 +76,17 @@ public class CapsuleThreadFactory extends CapsuleProfileFactory
                 "#1",
                 "@SuppressWarnings(\"unused\")",  // To suppress unused import warnings.
                 "@CapsuleThread",
-                "public class #2 extends Capsule$Thread implements #3",
+                "public class #2 extends #4 implements #3",
                 "{",
                 "    ##",
                 "}");
 
         src = Source.format(src,
                 this.capsule.getPackage(),
-                ArtifactFactory.getGeneratedAnno(CapsuleThreadFactory.class),
+                ArtifactFactory.getGeneratedAnno(this.getClass()),
                 this.generateClassName(),
-                this.capsule.getSimpleName());
+                this.capsule.getSimpleName(),
+                this.getProfileBaseClass());
 
         src = Source.formatAligned(src, generateImports());
         src = Source.formatAligned(src, generateCapsuleBody());
@@ -80,7 +97,12 @@ public class CapsuleThreadFactory extends CapsuleProfileFactory
     @Override
     protected String generateClassName()
     {
-        return this.capsule.getSimpleName() + CAPSULE_PROFILE_THREAD_SUFFIX;
+        return this.capsule.getSimpleName() + this.getProfileSuffix();
+    }
+
+    @Override
+    protected String generateSuperConstructorCall() {
+        return this.generateMailboxSuperCall();
     }
 
     private List<String> generateImports()
@@ -99,10 +121,13 @@ public class CapsuleThreadFactory extends CapsuleProfileFactory
         imports.add("org.paninij.lang.CapsuleThread");
         imports.add("org.paninij.lang.EventExecution");
         imports.add("org.paninij.runtime.EventMessage");
-        imports.add("org.paninij.runtime.Capsule$Thread");
+        imports.add("org.paninij.runtime." + this.getProfileBaseClass());
         imports.add("org.paninij.runtime.Panini$Capsule");
+        imports.add("org.paninij.runtime.Panini$Continuation");
         imports.add("org.paninij.runtime.Panini$Message");
+        imports.add("org.paninij.runtime.Panini$Startup");
         imports.add("org.paninij.runtime.Panini$Future");
+        imports.add("org.paninij.runtime.Panini$Flight");
         imports.add("org.paninij.runtime.Panini$System");
         imports.add("org.paninij.runtime.check.DynamicOwnershipTransfer");
         imports.add(this.capsule.getQualifiedName());
@@ -137,6 +162,7 @@ public class CapsuleThreadFactory extends CapsuleProfileFactory
         }
 
         decls.add("");
+        decls.addAll(generateProcedureNames(allProcs));
 
         return decls;
     }
@@ -158,21 +184,19 @@ public class CapsuleThreadFactory extends CapsuleProfileFactory
         for (Variable local : locals) {
             if (local.isArray()) {
                 List<String> lines = Source.lines(
-                        "for (int i = 0; i < panini$encapsulated.#0.length; i++) {",
-                        "    panini$encapsulated.#0[i] = new #1#2();",
-                        "}",
+                        "Panini$Startup.construct(panini$encapsulated.#0, panini$i -> new #1#2());",
                         "");
                 source.addAll(Source.formatAll(
                         lines,
                         local.getIdentifier(),
                         local.getEncapsulatedType(),
-                        CAPSULE_PROFILE_THREAD_SUFFIX));
+                        this.getProfileSuffix()));
             } else {
                 source.add(Source.format(
                         "panini$encapsulated.#0 = new #1#2();",
                         local.getIdentifier(),
                         local.raw(),
-                        CAPSULE_PROFILE_THREAD_SUFFIX));
+                        this.getProfileSuffix()));
             }
         }
 
@@ -199,11 +223,9 @@ public class CapsuleThreadFactory extends CapsuleProfileFactory
 
         for (Variable local : locals) {
             if (local.isArray()) {
-                List<String> src = Source.lines(
-                        "for (int i = 0; i < panini$encapsulated.#0.length; i++) {",
-                        "    panini$encapsulated.#0[i].panini$start();",
-                        "}");
-                source.addAll(Source.formatAll(src, local.getIdentifier()));
+                source.add(Source.format(
+                        "Panini$Startup.start(panini$encapsulated.#0);",
+                        local.getIdentifier()));
             } else {
                 source.add(Source.format(
                         "panini$encapsulated.#0.panini$start();",
@@ -225,23 +247,26 @@ public class CapsuleThreadFactory extends CapsuleProfileFactory
     {
         if (this.capsule.isActive()) {
             return Source.lines(
+                    "@Override",
+                    "protected boolean panini$isActive() {",
+                    "    return true;",
+                    "}",
+                    "",
                     "@Override",
                     "public void run() {",
                     "    Panini$System.self.set(this);",
+                    "    panini$openOutbox();",
                     "    try {",
                     "        panini$checkRequiredFields();",
                     "        panini$initLocals();",
                     "        panini$initState();",
                     "        panini$encapsulated.run();",
+                    "        panini$flushOutbox();",
                     "    } catch (Throwable thrown) {",
-                    "        panini$errors.add(thrown);",
+                    "        panini$reportError(thrown);",
                     "    } finally {",
                     "        panini$onTerminate();",
-                    "        try {",
-                    "           Panini$System.threads.countDown();",
-                    "        } catch (InterruptedException e) {",
-                    "            e.printStackTrace();",
-                    "        }",
+                    "        panini$finish();",
                     "    }",
                     "}",
                     "");
@@ -252,24 +277,25 @@ public class CapsuleThreadFactory extends CapsuleProfileFactory
                 "@SuppressWarnings(\"unchecked\")",
                 "public void run() {",
                 "    Panini$System.self.set(this);",
+                "    Panini$System.continuations.set(panini$continuations);",
+                "    panini$openOutbox();",
                 "    try {",
-                "        panini$checkRequiredFields();",
-                "        panini$initLocals();",
-                "        panini$initState();",
+                "        if (!panini$isResuming()) {",
+                "            panini$checkRequiredFields();",
+                "            panini$initLocals();",
+                "            panini$initState();",
+                "        }",
                 "",
                 "        boolean terminated = false;",
                 "        while (!terminated) {",
                 "            Panini$Message msg = panini$nextMessage();",
+                "            if (msg == null) return;  // Hibernating: a push resumes the loop on a new thread.",
                 "            ##",
                 "        }",
                 "    } catch (Throwable thrown) {",
-                "        panini$errors.add(thrown);",
-                "    }",
-                "    try {",
-                "       Panini$System.threads.countDown();",
-                "    } catch (InterruptedException e) {",
-                "        e.printStackTrace();",
+                "        panini$reportError(thrown);",
                 "    }",
+                "    panini$finish();",
                 "}",
                 "");
 
@@ -289,8 +315,11 @@ public class CapsuleThreadFactory extends CapsuleProfileFactory
             lines.addAll(this.generateRunHandlerSwitchCase(p));
         }
 
-        // add case statements for when a capsule shuts down and for EXIT command
+        // add case statements for promise callbacks, for when a capsule shuts down, and for EXIT command
         lines.addAll(Source.lines(
+                "case PANINI$CONTINUE:",
+                "    ((Panini$Continuation) msg).run();",
+                "    break;",
                 "case PANINI$CLOSE_LINK:",
                 "    panini$onCloseLink();",
                 "    break;",
@@ -299,13 +328,29 @@ public class CapsuleThreadFactory extends CapsuleProfileFactory
                 "    terminated = true;",
                 "    break;",
                 "}"));
-        return lines;
+
+        // The execution ends even if the message throws, so that its trace span, its flight
+        // recorder event, and its service time are never left open.
+        List<String> src = Source.lines(
+                "long panini$started = panini$serviceStarted();",
+                "Object panini$execution = panini$executionStarted(msg);",
+                "try {",
+                "    ##",
+                "} finally {",
+                "    panini$executionEnded(msg, panini$execution);",
+                "    panini$serviceEnded(msg, panini$started);",
+                "}");
+        return Source.formatAlignedFirst(src, lines);
     }
 
     private List<String> generateRunSwitchCase(Procedure procedure)
     {
         MessageShape shape = new MessageShape(procedure);
 
+        if (procedure.isCoalescing()) {
+            return this.generateCoalescingRunSwitchCase(procedure);
+        }
+
         // `duck` will need to be resolved if and only if `procedure` has a return value.
         if (shape.category == MessageShape.Category.SIMPLE) {
             // Simply call the core isntance's method with the args encapsulated in the duck.
@@ -320,11 +365,20 @@ public class CapsuleThreadFactory extends CapsuleProfileFactory
         }
 
         Type r = procedure.getReturnType();
+        // A message whose future has been cancelled is skipped without being executed. If the
+        // procedure throws, then its (claimed) future fails before the error is reported as usual,
+        // so that neither the sender nor any promise derived from the future waits forever.
         // A void wrapper cannot be instantiated, so we have to resolve with null
         if (r.isVoid()) {
             // Call the core instance's method and resolve the duck using null.
             List<String> src = Source.lines("case #0:",
-                                            "    #1;",
+                                            "    if (!((Panini$Future<#2>) msg).panini$claim()) break;",
+                                            "    try {",
+                                            "        #1;",
+                                            "    } catch (Throwable panini$thrown) {",
+                                            "        ((Panini$Future<#2>) msg).panini$fail(panini$thrown);",
+                                            "        throw panini$thrown;",
+                                            "    }",
                                             "    ((Panini$Future<#2>) msg).panini$resolve(null);",
                                             "    break;");
             return Source.formatAll(src,
@@ -334,8 +388,15 @@ public class CapsuleThreadFactory extends CapsuleProfileFactory
         } else {
             // Call the core instance's method and resolve the duck using the result.
             List<String> src = Source.lines("case #0: {",
-                                            "    #1 result = #2;",
-                                            "    #3;",
+                                            "    if (!((Panini$Future<#1>) msg).panini$claim()) break;",
+                                            "    #1 result;",
+                                            "    try {",
+                                            "        result = #2;",
+                                            "        #3;",
+                                            "    } catch (Throwable panini$thrown) {",
+                                            "        ((Panini$Future<#1>) msg).panini$fail(panini$thrown);",
+                                            "        throw panini$thrown;",
+                                            "    }",
                                             "    ((Panini$Future<#1>) msg).panini$resolve(result);",
                                             "    break;",
                                             "}");
@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *  Jackson Maddox
+ *******************************************************************************/
+
+package org.paninij.proc.factory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.paninij.proc.util.Source;
+
+/**
+ * Generates the VIRTUAL_THREAD execution profile of a capsule. Its source is the same as that of
+ * the THREAD profile, except that the generated class extends `Capsule$VirtualThread`, that its
+ * locals are instantiated with the VIRTUAL_THREAD profile as well, and that a root's `main()`
+ * waits for the capsule system to terminate before it returns.
+ */
+public class CapsuleVirtualThreadFactory extends CapsuleThreadFactory
+{
+    public static final String CAPSULE_PROFILE_VIRTUAL_THREAD_SUFFIX = "$VirtualThread";
+
+    @Override
+    protected String getProfileSuffix()
+    {
+        return CAPSULE_PROFILE_VIRTUAL_THREAD_SUFFIX;
+    }
+
+    @Override
+    protected String getProfileBaseClass()
+    {
+        return "Capsule$VirtualThread";
+    }
+
+    /**
+     * Virtual threads are daemon threads, so the JVM would otherwise exit as soon as the root's
+     * `run()` returned, while its locals are still running.
+     */
+    @Override
+    protected List<String> generateMain()
+    {
+        if (!this.deservesMain()) return new ArrayList<>();
+
+        List<String> src = Source.lines(
+                "public static void main(String[] args) throws InterruptedException {",
+                "    Panini$System.threads.started();",
+                "    #0 root = new #0();",
+                "    Panini$Flight.capsuleStarted(root);",
+                "    root.run();",
+                "    Panini$System.threads.awaitTermination();",
+                "}");
+
+        return Source.formatAll(src, this.generateClassName());
+    }
+}
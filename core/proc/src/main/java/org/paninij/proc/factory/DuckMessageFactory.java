@@ -73,11 +73,16 @@ public class DuckMessageFactory extends AbstractMessageFactory
                 "",
                 "#1",
                 "@SuppressWarnings(\"all\")",  // Suppress unused imports.
-                "public class #2 implements #3, Panini$Message, Panini$Future<#3>",
+                "public class #2 implements #3, Panini$Message, Panini$Future<#3>,",
+                "        org.paninij.runtime.check.OwnershipWalkable",
                 "{",
                 "    public final int panini$procID;",
                 "    private #3 panini$result = null;",
-                "    boolean panini$isResolved = false;",
+                "    private Throwable panini$failure = null;",
+                "    private volatile Object panini$state = null;",
+                "",
+                "    private static final AtomicReferenceFieldUpdater<#2, Object> PANINI$STATE =",
+                "            AtomicReferenceFieldUpdater.newUpdater(#2.class, Object.class, \"panini$state\");",
                 "",
                 "    ##",
                 "",
@@ -89,25 +94,51 @@ public class DuckMessageFactory extends AbstractMessageFactory
                 "    }",
                 "",
                 "    @Override",
+                "    public boolean panini$claim() {",
+                "        return Panini$FutureState.claim(this, PANINI$STATE);",
+                "    }",
+                "",
+                "    @Override",
                 "    public void panini$resolve(#3 result) {",
-                "        synchronized (this) {",
-                "            panini$result = result;",
-                "            panini$isResolved = true;",
-                "            this.notifyAll();",
+                "        panini$result = result;",
+                "        Panini$FutureState.resolve(this, PANINI$STATE);",
+                "        panini$release();",
+                "    }",
+                "",
+                "    @Override",
+                "    public void panini$fail(Throwable failure) {",
+                "        panini$failure = failure;",
+                "        Panini$FutureState.resolve(this, PANINI$STATE);",
+                "        panini$release();",
+                "    }",
+                "",
+                "    @Override",
+                "    public boolean panini$cancel() {",
+                "        if (Panini$FutureState.cancel(this, PANINI$STATE)) {",
+                "            panini$release();",
+                "            return true;",
                 "        }",
-                "        ##",
+                "        return false;",
+                "    }",
+                "",
+                "    @Override",
+                "    public boolean panini$isDone() {",
+                "        return Panini$FutureState.isDone(panini$state);",
                 "    }",
                 "",
                 "    @Override",
                 "    public #3 panini$get() {",
-                "        while (panini$isResolved == false) {",
-                "            try {",
-                "                synchronized (this) {",
-                "                    while (panini$isResolved == false) this.wait();",
-                "                }",
-                "            } catch (InterruptedException e) { /* try waiting again */ }",
-                "         }",
-                "         return panini$result;",
+                "        if (panini$state != Panini$FutureState.RESOLVED) {",
+                "            Panini$FutureState.await(this, PANINI$STATE);",
+                "        }",
+                "        if (panini$failure != null) {",
+                "            throw new CompletionException(panini$failure);",
+                "        }",
+                "        return panini$result;",
+                "    }",
+                "",
+                "    private void panini$release() {",
+                "        ##",
                 "    }",
                 "",
                 "    /* The following implement the methods of `#3` */",
@@ -138,11 +169,16 @@ public class DuckMessageFactory extends AbstractMessageFactory
                 "",
                 "#1",
                 "@SuppressWarnings(\"all\")",  // Suppress unused imports.
-                "public class #2 extends #3 implements Panini$Message, Panini$Future<#3>",
+                "public class #2 extends #3 implements Panini$Message, Panini$Future<#3>,",
+                "        org.paninij.runtime.check.OwnershipWalkable",
                 "{",
                 "    public final int panini$procID;",
                 "    private #3 panini$result = null;",
-                "    boolean panini$isResolved = false;",
+                "    private Throwable panini$failure = null;",
+                "    private volatile Object panini$state = null;",
+                "",
+                "    private static final AtomicReferenceFieldUpdater<#2, Object> PANINI$STATE =",
+                "            AtomicReferenceFieldUpdater.newUpdater(#2.class, Object.class, \"panini$state\");",
                 "",
                 "    ##",
                 "",
@@ -154,25 +190,51 @@ public class DuckMessageFactory extends AbstractMessageFactory
                 "    }",
                 "",
                 "    @Override",
+                "    public boolean panini$claim() {",
+                "        return Panini$FutureState.claim(this, PANINI$STATE);",
+                "    }",
+                "",
+                "    @Override",
                 "    public void panini$resolve(#3 result) {",
-                "        synchronized (this) {",
-                "            panini$result = result;",
-                "            panini$isResolved = true;",
-                "            this.notifyAll();",
+                "        panini$result = result;",
+                "        Panini$FutureState.resolve(this, PANINI$STATE);",
+                "        panini$release();",
+                "    }",
+                "",
+                "    @Override",
+                "    public void panini$fail(Throwable failure) {",
+                "        panini$failure = failure;",
+                "        Panini$FutureState.resolve(this, PANINI$STATE);",
+                "        panini$release();",
+                "    }",
+                "",
+                "    @Override",
+                "    public boolean panini$cancel() {",
+                "        if (Panini$FutureState.cancel(this, PANINI$STATE)) {",
+                "            panini$release();",
+                "            return true;",
                 "        }",
-                "        ##",
+                "        return false;",
+                "    }",
+                "",
+                "    @Override",
+                "    public boolean panini$isDone() {",
+                "        return Panini$FutureState.isDone(panini$state);",
                 "    }",
                 "",
                 "    @Override",
                 "    public #3 panini$get() {",
-                "        while (panini$isResolved == false) {",
-                "            try {",
-                "                synchronized (this) {",
-                "                    while (panini$isResolved == false) this.wait();",
-                "                }",
-                "            } catch (InterruptedException e) { /* try waiting again */ }",
-                "         }",
-                "         return panini$result;",
+                "        if (panini$state != Panini$FutureState.RESOLVED) {",
+                "            Panini$FutureState.await(this, PANINI$STATE);",
+                "        }",
+                "        if (panini$failure != null) {",
+                "            throw new CompletionException(panini$failure);",
+                "        }",
+                "        return panini$result;",
+                "    }",
+                "",
+                "    private void panini$release() {",
+                "        ##",
                 "    }",
                 "",
                 "    /* The following override the methods of `#3` */",
@@ -193,6 +255,15 @@ public class DuckMessageFactory extends AbstractMessageFactory
         return src;
     }
 
+    @Override
+    protected List<String> buildImports() {
+        List<String> packs = new ArrayList<String>();
+        packs.add("java.util.concurrent.CompletionException");
+        packs.add("java.util.concurrent.atomic.AtomicReferenceFieldUpdater");
+        packs.add("org.paninij.runtime.Panini$FutureState");
+        return super.buildImports(packs);
+    }
+
     protected List<String> buildReleaseArgs() {
         List<String> statements=  new ArrayList<String>();
         int i = 0;
@@ -63,11 +63,10 @@ public class FutureMessageFactory extends AbstractMessageFactory
                 "",
                 "#1",
                 "@SuppressWarnings(\"all\")",  // Suppress unused imports.
-                "public class #2 implements Panini$Message, Panini$Future<#3>, Future<#3>", //TODO drop the panini$future
+                "public class #2 extends Panini$Promise<#3> implements Panini$Message,",
+                "        org.paninij.runtime.check.OwnershipWalkable",
                 "{",
                 "    public final int panini$procID;",
-                "    private #3 panini$result = null;",
-                "    protected boolean panini$isResolved = false;",
                 "",
                 "    ##",
                 "",
@@ -79,54 +78,9 @@ public class FutureMessageFactory extends AbstractMessageFactory
                 "    }",
                 "",
                 "    @Override",
-                "    public void panini$resolve(#3 result) {",
-                "        synchronized (this) {",
-                "            panini$result = result;",
-                "            panini$isResolved = true;",
-                "            this.notifyAll();",
-                "        }",
+                "    protected void panini$release() {",
                 "        ##",
                 "    }",
-                "",
-                "    @Override",
-                "    public #3 panini$get() {",
-                "        while (panini$isResolved == false) {",
-                "            try {",
-                "                synchronized (this) {",
-                "                    while (panini$isResolved == false) this.wait();",
-                "                }",
-                "            } catch (InterruptedException e) { /* try waiting again */ }",
-                "         }",
-                "         return panini$result;",
-                "    }",
-                "",
-                "    @Override",
-                "    public #3 get() {",
-                "        return this.panini$get();",
-                "    }",
-                "",
-                "    @Override",
-                "    public #3 get(long timeout, TimeUnit unit)",
-                "            throws InterruptedException, ExecutionException, TimeoutException {",
-                "        //TODO throw error or implement timeout",
-                "        return this.panini$get();",
-                "    }",
-                "",
-                "    @Override",
-                "    public boolean isDone() {",
-                "        return this.panini$isResolved;",
-                "    }",
-                "",
-                "    @Override",
-                "    public boolean cancel(boolean mayInterruptIfRunning) {",
-                "        return false;",
-                "    }",
-                "",
-                "    @Override",
-                "    public boolean isCancelled() {",
-                "        return false;",
-                "    }",
-                "",
                 "}");
 
         src = Source.format(src,
@@ -147,10 +101,7 @@ public class FutureMessageFactory extends AbstractMessageFactory
     protected List<String> buildImports() {
         List<String> packs = new ArrayList<String>();
         packs.add("javax.annotation.Generated");
-        packs.add("java.util.concurrent.Future");
-        packs.add("java.util.concurrent.ExecutionException");
-        packs.add("java.util.concurrent.TimeUnit");
-        packs.add("java.util.concurrent.TimeoutException");
+        packs.add("org.paninij.runtime.Panini$Promise");
         return super.buildImports(packs);
     }
 
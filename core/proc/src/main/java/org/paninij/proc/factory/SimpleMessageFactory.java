@@ -58,7 +58,8 @@ public class SimpleMessageFactory extends AbstractMessageFactory
                 "import javax.annotation.Generated;",
                 "",
                 "#1",
-                "public class #2 implements Panini$Message",
+                "public class #2 implements Panini$Message,",
+                "        org.paninij.runtime.check.OwnershipWalkable",
                 "{",
                 "    public final int panini$procID;",
                 "",
@@ -29,6 +29,8 @@ package org.paninij.proc.model;
 
 import java.util.List;
 
+import org.paninij.lang.Overflow;
+
 public interface Capsule extends Signature
 {
     public List<Procedure> getEventHandlers();
@@ -44,4 +46,14 @@ public interface Capsule extends Signature
     public boolean hasDesign();
     public boolean isActive();
     public boolean hasActiveAncestor();
+
+    /**
+     * @return The mailbox capacity declared with `@Bounded`, or 0 if none was declared.
+     */
+    public int getMailboxCapacity();
+
+    /**
+     * @return The overflow policy declared with `@Bounded`, or `null` if none was declared.
+     */
+    public Overflow getMailboxOverflow();
 }
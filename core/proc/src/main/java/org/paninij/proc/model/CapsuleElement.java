@@ -37,7 +37,9 @@ import javax.lang.model.element.PackageElement;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.type.TypeMirror;
 
+import org.paninij.lang.Bounded;
 import org.paninij.lang.Handler;
+import org.paninij.lang.Overflow;
 import org.paninij.lang.Root;
 import org.paninij.proc.util.PaniniModel;
 import org.paninij.proc.util.TypeCollector;
@@ -186,6 +188,18 @@ public class CapsuleElement implements Capsule
         return this.element.getAnnotation(Root.class) != null;
     }
 
+    @Override
+    public int getMailboxCapacity() {
+        Bounded bounded = this.element.getAnnotation(Bounded.class);
+        return bounded == null ? 0 : bounded.capacity();
+    }
+
+    @Override
+    public Overflow getMailboxOverflow() {
+        Bounded bounded = this.element.getAnnotation(Bounded.class);
+        return bounded == null ? null : bounded.overflow();
+    }
+
     @Override
     public boolean hasInit() {
         return this.hasInitDecl;
@@ -36,4 +36,20 @@ public interface Procedure
     public abstract List<Variable> getParameters();
     public abstract List<String> getModifiers();
     public abstract List<String> getThrown();
+
+    /**
+     * @return Whether this procedure is annotated with `@Coalesce`.
+     */
+    public abstract boolean isCoalescing();
+
+    /**
+     * @return The name of the core's static merge function given by `@Coalesce`, or the empty
+     *         string if there is none.
+     */
+    public abstract String getMergeFunction();
+
+    /**
+     * @return Whether this procedure is annotated with `@Priority`.
+     */
+    public abstract boolean isPriority();
 }
@@ -36,8 +36,10 @@ import javax.lang.model.element.VariableElement;
 import javax.lang.model.type.TypeMirror;
 
 import org.paninij.lang.Block;
+import org.paninij.lang.Coalesce;
 import org.paninij.lang.Duck;
 import org.paninij.lang.Future;
+import org.paninij.lang.Priority;
 
 public class ProcedureElement implements Procedure
 {
@@ -130,4 +132,20 @@ public class ProcedureElement implements Procedure
         }
         return thrown;
     }
+
+    @Override
+    public boolean isCoalescing() {
+        return this.element.getAnnotation(Coalesce.class) != null;
+    }
+
+    @Override
+    public String getMergeFunction() {
+        Coalesce coalesce = this.element.getAnnotation(Coalesce.class);
+        return coalesce == null ? "" : coalesce.merge();
+    }
+
+    @Override
+    public boolean isPriority() {
+        return this.element.getAnnotation(Priority.class) != null;
+    }
 }
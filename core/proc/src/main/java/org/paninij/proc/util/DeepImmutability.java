@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+
+package org.paninij.proc.util;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+
+/**
+ * Decides at compile time whether a type is deeply immutable, i.e. whether every object of that
+ * type (including every object of any subtype) can never change, nor reach an object which can. An
+ * object of such a type is always safe to share between capsules, so the generated ownership
+ * walkers (see `org.paninij.runtime.check.OwnershipWalkable`) never visit it.
+ *
+ * <p>This is conservative: a type is only deeply immutable if it is a primitive type, one of a
+ * few known immutable classes, an enum, or a `final` class whose instance fields (including
+ * inherited ones) are all `final` and all of deeply immutable types.
+ */
+public class DeepImmutability
+{
+    private static final Set<String> KNOWN_IMMUTABLE = new HashSet<String>();
+    static {
+        KNOWN_IMMUTABLE.add("java.lang.String");
+        KNOWN_IMMUTABLE.add("java.lang.Boolean");
+        KNOWN_IMMUTABLE.add("java.lang.Byte");
+        KNOWN_IMMUTABLE.add("java.lang.Character");
+        KNOWN_IMMUTABLE.add("java.lang.Short");
+        KNOWN_IMMUTABLE.add("java.lang.Integer");
+        KNOWN_IMMUTABLE.add("java.lang.Long");
+        KNOWN_IMMUTABLE.add("java.lang.Float");
+        KNOWN_IMMUTABLE.add("java.lang.Double");
+        KNOWN_IMMUTABLE.add("java.lang.Void");
+        KNOWN_IMMUTABLE.add("org.paninij.lang.String");
+    }
+
+    public static boolean isDeeplyImmutable(TypeMirror type) {
+        return isDeeplyImmutable(type, new HashSet<String>());
+    }
+
+    /**
+     * @param assumed  The classes which are being decided further up the stack. A cycle through
+     *                 one of them is assumed not to make it mutable, since every other field
+     *                 along that cycle is checked in its own right.
+     */
+    private static boolean isDeeplyImmutable(TypeMirror type, Set<String> assumed)
+    {
+        if (type.getKind().isPrimitive()) {
+            return true;
+        }
+        if (type.getKind() != TypeKind.DECLARED) {
+            return false;  // E.g. an array, or a type variable.
+        }
+
+        TypeElement elem = (TypeElement) ((DeclaredType) type).asElement();
+        String name = elem.getQualifiedName().toString();
+        if (KNOWN_IMMUTABLE.contains(name) || elem.getKind() == ElementKind.ENUM) {
+            return true;
+        }
+        if (elem.getKind() != ElementKind.CLASS || !elem.getModifiers().contains(Modifier.FINAL)) {
+            return false;
+        }
+        if (!assumed.add(name)) {
+            return true;
+        }
+
+        for (TypeElement c = elem; c != null; c = superclassOf(c)) {
+            for (VariableElement field : ElementFilter.fieldsIn(c.getEnclosedElements())) {
+                Set<Modifier> modifiers = field.getModifiers();
+                if (modifiers.contains(Modifier.STATIC)) {
+                    continue;
+                }
+                if (!modifiers.contains(Modifier.FINAL)
+                        || !isDeeplyImmutable(field.asType(), assumed)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static TypeElement superclassOf(TypeElement c)
+    {
+        TypeMirror sup = c.getSuperclass();
+        if (sup.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        Element elem = ((DeclaredType) sup).asElement();
+        return elem.getKind() == ElementKind.CLASS ? (TypeElement) elem : null;
+    }
+}
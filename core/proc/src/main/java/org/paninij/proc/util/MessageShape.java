@@ -149,7 +149,7 @@ public class MessageShape
         case UNBLOCKED_DUCK:
             return this.returnType.getMirror().toString();
         case UNBLOCKED_FUTURE:
-            return "java.util.concurrent.Future<" + this.returnType.wrapped() + ">";
+            return "org.paninij.lang.Promise<" + this.returnType.wrapped() + ">";
         case UNBLOCKED_PREMADE:
             return this.returnType.getMirror().toString();
         case UNBLOCKED_SIMPLE:
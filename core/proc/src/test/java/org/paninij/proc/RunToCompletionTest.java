@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * This file is part of the Panini project at Iowa State University.
+ *
+ * @PaniniJ is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * @PaniniJ is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with @PaniniJ.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more details and the latest version of this code please see
+ * http://paninij.org
+ *
+ * Contributors:
+ * 	Dr. Hridesh Rajan,
+ * 	Dalton Mills,
+ * 	David Johnston,
+ * 	Trey Erenberger
+ *******************************************************************************/
+package org.paninij.proc;
+
+import static java.io.File.pathSeparator;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.String;  // Needed to prevent unintended use of `org.paninij.lang.String`.
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaCompiler.CompilationTask;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.junit.Test;
+import org.paninij.runtime.Capsule$VirtualThread;
+
+/**
+ * Compiles a small capsule system, and runs it in a JVM of its own with the VIRTUAL_THREAD profile,
+ * to check that the JVM does not exit before the system has finished. Virtual threads are daemon
+ * threads, so unlike the THREAD profile, nothing else keeps the JVM alive once the root's `run()`
+ * has returned. This is skipped unless the JVM running the tests has virtual threads.
+ */
+public class RunToCompletionTest
+{
+    // Like those of `CompileTests`, these paths are relative to the `:core:proc` subproject.
+    private static final File SOURCES_DIR = new File("src/test/paninij/org/paninij/proc/run");
+    private static final File OUTPUT_DIR = new File("build/proc-tests/run-to-completion");
+    private static final File PANINI_RUNTIME_CLASSES_DIR = new File("../lang/build/classes/main");
+    private static final File PANINI_PROC_CLASSES_DIR = new File("build/classes/main");
+    private static final String ROOT = "org.paninij.proc.run.RunToCompletion";
+    private static final long TIMEOUT_SECONDS = 60;
+
+    @Test
+    public void runsToCompletionOnVirtualThreads() throws IOException, InterruptedException
+    {
+        assumeTrue(Capsule$VirtualThread.isSupported());
+
+        File sourceOutput = new File(OUTPUT_DIR, "gen-src");
+        File classOutput = new File(OUTPUT_DIR, "classes");
+        sourceOutput.mkdirs();
+        classOutput.mkdirs();
+        compile(sourceOutput, classOutput);
+
+        File log = new File(OUTPUT_DIR, "output.txt");
+        String javaCommand = System.getProperty("java.home") + File.separator + "bin"
+                           + File.separator + "java";
+        Process process = new ProcessBuilder(javaCommand,
+                "-cp", classOutput.getAbsolutePath() + pathSeparator
+                        + PANINI_RUNTIME_CLASSES_DIR.getAbsolutePath(),
+                "-Dpanini.profile=VIRTUAL_THREAD",
+                "org.paninij.lang.CapsuleSystem", ROOT)
+                .redirectErrorStream(true)
+                .redirectOutput(log)
+                .start();
+        boolean exited = process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (!exited) {
+            process.destroyForcibly();
+        }
+
+        String output = new String(Files.readAllBytes(log.toPath()), StandardCharsets.UTF_8);
+        assertTrue("The capsule system did not terminate: " + output, exited);
+        assertEquals(output, 0, process.exitValue());
+        assertTrue("The JVM exited before the capsule system finished: " + output,
+                   output.contains("counted 1000"));
+    }
+
+    private static void compile(File sourceOutput, File classOutput) throws IOException
+    {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        try (StandardJavaFileManager files = compiler.getStandardFileManager(null, null, null)) {
+            // The generated sources use `javax.annotation.Generated`, which only Java 8 has.
+            List<String> options = Arrays.asList(
+                    "--release", "8",
+                    "-classpath", PANINI_PROC_CLASSES_DIR.getPath() + pathSeparator
+                                  + PANINI_RUNTIME_CLASSES_DIR.getPath(),
+                    "-s", sourceOutput.getPath(),
+                    "-d", classOutput.getPath());
+            File[] sources = SOURCES_DIR.listFiles((dir, name) -> name.endsWith(".java"));
+            CompilationTask task = compiler.getTask(null, files, null, options, null,
+                                                    files.getJavaFileObjects(sources));
+            task.setProcessors(Arrays.asList(new RoundZeroProcessor(), new RoundOneProcessor()));
+            assertTrue("The capsule system failed to compile.", task.call());
+        }
+    }
+}
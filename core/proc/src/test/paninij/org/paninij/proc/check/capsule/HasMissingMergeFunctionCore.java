@@ -0,0 +1,17 @@
+package org.paninij.proc.check.capsule;
+
+import org.paninij.lang.Capsule;
+import org.paninij.lang.Coalesce;
+
+@Capsule
+class HasMissingMergeFunctionCore
+{
+    @Coalesce(merge = "sum")
+    void add(long n) {
+        // Nothing needed here
+    }
+
+    private static long sum(long older, long newer) {
+        return older + newer;  // Private, so not a merge function.
+    }
+}
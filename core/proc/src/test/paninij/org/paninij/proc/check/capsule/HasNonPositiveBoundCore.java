@@ -0,0 +1,13 @@
+package org.paninij.proc.check.capsule;
+
+import org.paninij.lang.Bounded;
+import org.paninij.lang.Capsule;
+
+@Capsule
+@Bounded(capacity = 0)
+class HasNonPositiveBoundCore
+{
+    void foo() {
+        // Nothing needed here
+    }
+}
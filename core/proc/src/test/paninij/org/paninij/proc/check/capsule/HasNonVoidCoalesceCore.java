@@ -0,0 +1,13 @@
+package org.paninij.proc.check.capsule;
+
+import org.paninij.lang.Capsule;
+import org.paninij.lang.Coalesce;
+
+@Capsule
+class HasNonVoidCoalesceCore
+{
+    @Coalesce
+    Object foo() {
+        return null;
+    }
+}
@@ -0,0 +1,13 @@
+package org.paninij.proc.check.capsule;
+
+import org.paninij.lang.Capsule;
+import org.paninij.lang.Priority;
+
+@Capsule
+class HasPriorityOnRunCore
+{
+    @Priority
+    void run() {
+        // Nothing needed here
+    }
+}
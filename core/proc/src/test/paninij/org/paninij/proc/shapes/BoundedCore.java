@@ -0,0 +1,23 @@
+package org.paninij.proc.shapes;
+
+import org.paninij.lang.Block;
+import org.paninij.lang.Bounded;
+import org.paninij.lang.Capsule;
+import org.paninij.lang.Overflow;
+
+
+@Capsule
+@Bounded(capacity = 64, overflow = Overflow.DROP_OLDEST)
+class BoundedCore
+{
+    int count = 0;
+
+    void bump() {
+        count++;
+    }
+
+    @Block
+    int getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,45 @@
+package org.paninij.proc.shapes;
+
+import org.paninij.lang.Block;
+import org.paninij.lang.Capsule;
+import org.paninij.lang.Coalesce;
+
+
+@Capsule
+class CoalesceCore
+{
+    long total = 0;
+
+    @Coalesce
+    void refresh() {
+
+    }
+
+    @Coalesce
+    void moveTo(int x, int y, String label) {
+
+    }
+
+    @Coalesce(merge = "sum")
+    void add(long n) {
+        total += n;
+    }
+
+    @Coalesce(merge = "latest")
+    void setLabel(String label) {
+
+    }
+
+    static long sum(long older, long newer) {
+        return older + newer;
+    }
+
+    static String latest(String older, String newer) {
+        return newer;
+    }
+
+    @Block
+    long getTotal() {
+        return total;
+    }
+}
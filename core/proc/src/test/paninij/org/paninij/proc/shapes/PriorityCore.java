@@ -0,0 +1,46 @@
+package org.paninij.proc.shapes;
+
+import org.paninij.lang.Block;
+import org.paninij.lang.Capsule;
+import org.paninij.lang.Coalesce;
+import org.paninij.lang.Future;
+import org.paninij.lang.Priority;
+
+
+@Capsule
+class PriorityCore
+{
+    int count = 0;
+
+    void bump() {
+        count++;
+    }
+
+    @Priority
+    void reset() {
+        count = 0;
+    }
+
+    @Priority
+    @Coalesce
+    void ping() {
+
+    }
+
+    @Priority
+    @Block
+    int getCount() {
+        return count;
+    }
+
+    @Priority
+    @Future
+    int futureCount() {
+        return count;
+    }
+
+    @Priority
+    Object duckState() {
+        return new Object();
+    }
+}